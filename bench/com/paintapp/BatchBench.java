@@ -0,0 +1,97 @@
+package com.paintapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+// Batch rendering throughput in documents/second: a generated script of
+// 800x600 documents (strokes, shapes, fills, text) rendered to PNG with 1
+// thread and then up to twice the core count. Checks that every thread count
+// produces the same images.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.BatchBench [documents]
+public class BatchBench {
+
+    public static void main(String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        String script = script(documents, new Random(3));
+        Path dir = Files.createTempDirectory("batch");
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d documents, %d cores%n", documents, cores);
+
+        // warm up the JIT on a first pass
+        run(script, dir, 1, Math.min(documents, 50));
+        List<Integer> counts = new ArrayList<>(List.of(1));
+        for (int t = 2; t <= cores * 2; t *= 2) counts.add(t);
+        if (!counts.contains(cores)) counts.add(cores);
+        long[] reference = null;
+        boolean identical = true;
+        for (int threads : counts) {
+            long t0 = System.nanoTime();
+            long[] sums = run(script, dir, threads, documents);
+            double s = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("%2d threads: %.2f s, %.1f documents/s%n", threads, s, documents / s);
+            if (reference == null) reference = sums;
+            else identical &= java.util.Arrays.equals(reference, sums);
+        }
+        System.out.println("identical across thread counts=" + identical);
+        for (File f : dir.toFile().listFiles()) f.delete();
+        dir.toFile().delete();
+    }
+
+    // Renders the first 'limit' documents; returns a checksum per output file
+    static long[] run(String script, Path dir, int threads, int limit) throws Exception {
+        List<CompletableFuture<Path>> results = new ArrayList<>();
+        try (BatchRenderer renderer = new BatchRenderer(threads, 1, 1.0)) {
+            RenderScript in = new RenderScript(new BufferedReader(new StringReader(script)), dir);
+            for (BatchRenderer.Job job; results.size() < limit && (job = in.next()) != null; ) {
+                results.add(renderer.submit(job));
+            }
+        }
+        long[] sums = new long[results.size()];
+        for (int i = 0; i < sums.length; i++) {
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(results.get(i).get()));
+            sums[i] = crc.getValue();
+        }
+        return sums;
+    }
+
+    static String script(int documents, Random rnd) {
+        String[] shapes = {"rectangle", "square", "oval", "circle", "triangle"};
+        StringBuilder sb = new StringBuilder();
+        for (int d = 0; d < documents; d++) {
+            sb.append("document doc").append(d).append(".png 800 600\n");
+            for (int op = 0; op < 40; op++) {
+                String color = String.format("#%06x", rnd.nextInt(1 << 24));
+                int kind = rnd.nextInt(10);
+                if (kind < 5) {
+                    sb.append("pencil ").append(color).append(' ').append(1 + rnd.nextInt(12));
+                    int x = rnd.nextInt(800), y = rnd.nextInt(600);
+                    for (int p = 0; p < 20; p++) {
+                        x = Math.max(0, Math.min(799, x + rnd.nextInt(61) - 30));
+                        y = Math.max(0, Math.min(599, y + rnd.nextInt(61) - 30));
+                        sb.append(' ').append(x).append(' ').append(y);
+                    }
+                } else if (kind < 8) {
+                    sb.append(shapes[rnd.nextInt(shapes.length)]).append(' ').append(color).append(' ').append(1 + rnd.nextInt(6))
+                            .append(' ').append(rnd.nextInt(800)).append(' ').append(rnd.nextInt(600))
+                            .append(' ').append(rnd.nextInt(800)).append(' ').append(rnd.nextInt(600));
+                } else if (kind < 9) {
+                    sb.append("fill ").append(color).append(' ').append(rnd.nextInt(800)).append(' ').append(rnd.nextInt(600)).append(" 16");
+                } else {
+                    sb.append("text ").append(color).append(' ').append(rnd.nextInt(700)).append(' ').append(20 + rnd.nextInt(580))
+                            .append(" SansSerif plain ").append(12 + rnd.nextInt(30)).append(" Batch ").append(d);
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.paintapp;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+// Dab throughput of the brushes at a few sizes against a BasicStroke line
+// (StrokeSession) along the same path: 20k drag events ~2 px apart, flushed
+// once per 60 Hz frame burst at 10k events/s. The stroke is drawn twice on one
+// document and the second pass is timed, so the tiles are already writable
+// and the allocation figure is that of the dab loop itself. "line" reports
+// dabs/s as the HARD dabs the line's time would have bought.
+//
+// Also checks that a stroke comes out the same flushed after every event and
+// flushed once, and that a replayed log matches the live stroke.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.BrushBench
+public class BrushBench {
+
+    static final int W = 1920, H = 1080, POINTS = 20_000, BURST = 167;
+    static final int[] SIZES = {4, 10, 20, 40};
+    static final int RGB = 0xFF2060A0;
+
+    public static void main(String[] args) {
+        int[] xs = new int[POINTS], ys = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = W / 2 + (int) (800 * Math.sin(i / 900.0));
+            ys[i] = H / 2 + (int) (450 * Math.sin(i / 1300.0) + 20 * Math.sin(i / 37.0));
+        }
+        checks(xs, ys);
+        for (int round = 0; round < 2; round++) { // first round warms up
+            boolean print = round == 1;
+            for (int size : SIZES) {
+                long hardDabs = 0;
+                for (Brush brush : Brush.values()) {
+                    long[] r = brush(brush, size, xs, ys);
+                    if (brush == Brush.HARD) hardDabs = r[0];
+                    if (print) report(brush.name().toLowerCase(), size, r[0], r[1], r[2]);
+                }
+                long[] r = line(size, xs, ys);
+                if (print) report("line", size, hardDabs, r[1], r[2]);
+            }
+        }
+    }
+
+    static void report(String name, int size, long dabs, long ns, long bytes) {
+        System.out.printf("%-9s size %2d  %7d dabs  %6.2f M dabs/s  %6.1f ns/dab  %5.2f bytes/dab%n",
+                name, size, dabs, dabs * 1e3 / ns, (double) ns / dabs, (double) bytes / dabs);
+    }
+
+    // {dabs, ns, bytes} of the second pass
+    static long[] brush(Brush brush, int size, int[] xs, int[] ys) {
+        TiledImage doc = new TiledImage(W, H, 0xFFFFFFFF);
+        long[] r = null;
+        for (int pass = 0; pass < 2; pass++) {
+            long a0 = allocated(), t0 = System.nanoTime();
+            BrushStroke s = new BrushStroke(doc, brush, size, RGB, xs[0], ys[0]);
+            for (int i = 1; i < POINTS; i++) {
+                s.addPoint(xs[i], ys[i]);
+                if (i % BURST == 0) s.flush();
+            }
+            s.end();
+            r = new long[] {s.getDabCount(), System.nanoTime() - t0, allocated() - a0};
+        }
+        return r;
+    }
+
+    static long[] line(int size, int[] xs, int[] ys) {
+        TiledImage doc = new TiledImage(W, H, 0xFFFFFFFF);
+        long[] r = null;
+        for (int pass = 0; pass < 2; pass++) {
+            long a0 = allocated(), t0 = System.nanoTime();
+            StrokeSession s = new StrokeSession(doc, size, new Color(RGB), xs[0], ys[0]);
+            for (int i = 1; i < POINTS; i++) {
+                s.addPoint(xs[i], ys[i]);
+                if (i % BURST == 0) s.flush();
+            }
+            s.end();
+            r = new long[] {0, System.nanoTime() - t0, allocated() - a0};
+        }
+        return r;
+    }
+
+    static void checks(int[] xs, int[] ys) {
+        int n = 3000;
+        for (Brush brush : Brush.values()) {
+            TiledImage every = new TiledImage(W, H, 0xFFFFFFFF), once = new TiledImage(W, H, 0xFFFFFFFF);
+            CommandLog log = new CommandLog();
+            log.beginBrush(brush, RGB, 16, xs[0], ys[0]);
+            BrushStroke a = new BrushStroke(every, brush, 16, RGB, xs[0], ys[0]);
+            BrushStroke b = new BrushStroke(once, brush, 16, RGB, xs[0], ys[0]);
+            a.flush();
+            log.strokeFlush();
+            for (int i = 1; i < n; i++) {
+                a.addPoint(xs[i], ys[i]);
+                b.addPoint(xs[i], ys[i]);
+                log.strokePoint(xs[i], ys[i]);
+                a.flush();
+                log.strokeFlush();
+            }
+            a.end();
+            b.end();
+            log.commit();
+            TiledImage replayed = new CommandReplayer().rebuild(log, W, H, 0xFFFFFFFF, null);
+            boolean batching = same(every, once), replay = same(every, replayed);
+            System.out.printf("%-9s flush per event == flush once: %s, replay == live: %s%n",
+                    brush.name().toLowerCase(), batching, replay);
+            if (!batching || !replay) throw new AssertionError(brush + " strokes differ");
+        }
+    }
+
+    static boolean same(TiledImage a, TiledImage b) {
+        Rectangle all = new Rectangle(0, 0, W, H);
+        return Arrays.equals(ImageUtils.pixels(a.toBufferedImage(all)), ImageUtils.pixels(b.toBufferedImage(all)));
+    }
+
+    static long allocated() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,61 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+
+// Replays pencil and rectangle drags on a 1920x1080 canvas and reports the
+// pixels blitted per frame. Every repaint request is painted straight away
+// into an offscreen surface with the requested clip, as AWT would do.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.DirtyRepaintBench
+public class DirtyRepaintBench {
+
+    static class RecordingCanvas extends PaintCanvas {
+        private static final long serialVersionUID = 1L;
+        final BufferedImage screen;
+
+        RecordingCanvas(int w, int h) {
+            setSize(w, h);
+            screen = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) {
+            Graphics g = screen.createGraphics();
+            g.setClip(x, y, width, height);
+            update(g);
+            g.dispose();
+        }
+    }
+
+    public static void main(String[] args) {
+        int w = 1920, h = 1080, events = 2000;
+        for (Tool tool : new Tool[] {Tool.PENCIL, Tool.RECTANGLE}) {
+            RecordingCanvas canvas = new RecordingCanvas(w, h);
+            canvas.repaint(); // first full frame sizes the image
+            canvas.setTool(tool);
+            canvas.setStrokeSize(8);
+            canvas.getFrameStats().reset();
+
+            long t0 = System.nanoTime();
+            canvas.mousePressed(event(canvas, MouseEvent.MOUSE_PRESSED, 100, 100));
+            for (int i = 0; i < events; i++) {
+                int x = 100 + (int) (600 * Math.sin(i / 100.0) + i / 4);
+                int y = 500 + (int) (300 * Math.cos(i / 70.0));
+                canvas.mouseDragged(event(canvas, MouseEvent.MOUSE_DRAGGED, x, y));
+            }
+            canvas.mouseReleased(event(canvas, MouseEvent.MOUSE_RELEASED, 900, 700));
+            canvas.awaitInput();
+            double ms = (System.nanoTime() - t0) / 1e6;
+
+            FrameStats stats = canvas.getFrameStats();
+            System.out.printf("%-9s %d frames, %.0f px/frame (full frame %d px, %.2f%%), %.1f ms total%n",
+                    tool, stats.getFrames(), stats.getAveragePixelsPerFrame(), (long) w * h,
+                    100.0 * stats.getAveragePixelsPerFrame() / ((long) w * h), ms);
+        }
+    }
+
+    static MouseEvent event(Component c, int id, int x, int y) {
+        return new MouseEvent(c, id, System.currentTimeMillis(), MouseEvent.BUTTON1_DOWN_MASK, x, y, 1, false, MouseEvent.BUTTON1);
+    }
+}
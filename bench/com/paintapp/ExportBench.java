@@ -0,0 +1,60 @@
+package com.paintapp;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import javax.imageio.ImageIO;
+
+// PNG export throughput (MB/s of ARGB pixel data) of the old path,
+// ImageIO.write on the document, against PngExporter at a few compression
+// levels. Checks every output decodes to the same pixels. Compare core
+// scaling with -Djava.util.concurrent.ForkJoinPool.common.parallelism=N.
+// Run: java -Djava.awt.headless=true -Xmx2g -cp out com.paintapp.ExportBench [width height]
+public class ExportBench {
+    public static void main(String[] args) throws Exception {
+        int w = args.length > 1 ? Integer.parseInt(args[0]) : 4096;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        TiledImage doc = new TiledImage(w, h, ReplayBench.BG);
+        CommandLog log = new CommandLog();
+        FloodFill filler = new FloodFill();
+        Random rnd = new Random(9);
+        for (int i = 0; i < 4000; i++) {
+            ReplayBench.randomOp(rnd, i, doc, log, filler);
+        }
+        doc.takeChanges();
+        int[] reference = new int[w * h], row = new int[w];
+        for (int y = 0; y < h; y++) {
+            doc.readRow(y, row);
+            System.arraycopy(row, 0, reference, y * w, w);
+        }
+        double mb = (double) w * h * 4 / 1e6;
+        File out = File.createTempFile("export", ".png");
+        System.out.printf("%dx%d (%.0f MB), parallelism %d%n", w, h, mb, ForkJoinPool.getCommonPoolParallelism());
+
+        for (int round = 0; round < 2; round++) { // first round warms up
+            boolean print = round == 1;
+            long t0 = System.nanoTime();
+            ImageIO.write(doc, "PNG", out);
+            report(print, "ImageIO.write      ", mb, t0, out, reference);
+            for (int level : new int[]{1, Deflater.DEFAULT_COMPRESSION, 9}) {
+                PngExporter exporter = new PngExporter(level);
+                t0 = System.nanoTime();
+                exporter.write(doc.snapshot(), null, out.toPath(), null);
+                report(print, String.format("PngExporter level %2d", level), mb, t0, out, reference);
+            }
+        }
+        out.delete();
+    }
+
+    static void report(boolean print, String name, double mb, long t0, File f, int[] reference) throws Exception {
+        double s = (System.nanoTime() - t0) / 1e9;
+        if (!print) return;
+        BufferedImage back = ImageIO.read(f);
+        int[] px = back.getRGB(0, 0, back.getWidth(), back.getHeight(), null, 0, back.getWidth());
+        System.out.printf("%s %6.0f ms %7.1f MB/s  %6.2f MB file  identical=%b%n",
+                name, s * 1e3, mb / s, f.length() / 1e6, Arrays.equals(px, reference));
+    }
+}
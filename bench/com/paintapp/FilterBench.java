@@ -0,0 +1,144 @@
+package com.paintapp;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+// Times each filter on an 8000x8000 document of detailed content (a 60 px
+// Gaussian blur is the headline figure) and checks on a small document that
+//   - a blur split into blocks matches the same blur done in one block,
+//   - filtering a rectangle leaves everything outside it alone,
+//   - replaying the command log gives the same pixels.
+// Blocks run on the common fork-join pool; compare core counts with
+// -Djava.util.concurrent.ForkJoinPool.common.parallelism=N.
+// Run: java -Xmx3g -Djava.awt.headless=true -cp out com.paintapp.FilterBench [size]
+public class FilterBench {
+
+    public static void main(String[] args) {
+        checks();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        TiledImage.Snapshot base = content(size, size).snapshot();
+        System.out.printf("%dx%d, fork-join parallelism %d%n", size, size, ForkJoinPool.getCommonPoolParallelism());
+        ImageFilter[] filters = {
+            ImageFilter.blur(60), ImageFilter.blur(6), ImageFilter.sharpen(3, 80), ImageFilter.grayscale(),
+            ImageFilter.brightnessContrast(20, 30), ImageFilter.curves(0, 0, 0, 64, 48, 192, 208, 255, 255)
+        };
+        String[] names = {"blur 60", "blur 6", "sharpen 3", "grayscale", "bright/contrast", "curves"};
+        for (int round = 0; round < 2; round++) { // first round warms up
+            for (int i = 0; i < filters.length; i++) {
+                TiledImage doc = new TiledImage(base, null);
+                long t0 = System.nanoTime();
+                filters[i].apply(doc, null);
+                long ns = System.nanoTime() - t0;
+                int tiles = doc.takeChanges().size();
+                if (round == 1) {
+                    System.out.printf("%-16s %7.0f ms  %6.1f Mpx/s  %5d tiles changed%n",
+                            names[i], ns / 1e6, (double) size * size / ns * 1e3, tiles);
+                }
+            }
+        }
+    }
+
+    // Strokes and shapes over a gradient, so no tile is solid
+    static TiledImage content(int w, int h) {
+        TiledImage doc = new TiledImage(w, h, 0xFFFFFFFF);
+        int t = TiledImage.TILE;
+        for (int row = 0; row < doc.getRows(); row++) {
+            for (int col = 0; col < doc.getColumns(); col++) {
+                int[] px = doc.writableTile(col, row).pixels();
+                for (int y = 0; y < t; y++) {
+                    for (int x = 0; x < t; x++) {
+                        int gx = col * t + x, gy = row * t + y;
+                        px[y * t + x] = 0xFF000000 | (gx * 255 / w) << 16 | (gy * 255 / h) << 8 | ((gx ^ gy) & 0xFF);
+                    }
+                }
+            }
+        }
+        doc.draw(new Rectangle(0, 0, w, h), g -> {
+            g.setStroke(new BasicStroke(Math.max(3, w / 400f)));
+            for (int i = 0; i < 40; i++) {
+                g.setColor(new Color(Color.HSBtoRGB(i / 40f, 0.8f, 0.7f)));
+                g.drawLine(i * w / 40, 0, w - i * w / 40, h);
+                g.drawOval(i * w / 80, i * h / 80, w / 3, h / 4);
+            }
+        });
+        doc.takeChanges();
+        return doc;
+    }
+
+    static void checks() {
+        int w = 700, h = 500;
+        TiledImage.Snapshot base = content(w, h).snapshot();
+        // a transparent layer with strokes, as above the first layer
+        TiledImage layer = new TiledImage(w, h, 0);
+        layer.draw(new Rectangle(0, 0, w, h), g -> {
+            g.setStroke(new BasicStroke(9));
+            g.setColor(new Color(0xC0FF4000, true));
+            g.drawLine(20, 20, 680, 480);
+            g.setColor(Color.BLUE);
+            g.drawOval(200, 100, 300, 250);
+        });
+        layer.takeChanges();
+
+        for (int radius : new int[] {3, 60}) {
+            for (TiledImage.Snapshot snap : new TiledImage.Snapshot[] {base, layer.snapshot()}) {
+                TiledImage doc = new TiledImage(snap, null);
+                ImageFilter.blur(radius).apply(doc, null);
+                TiledImage src = new TiledImage(snap, null);
+                Tile[] grid = new Tile[src.getColumns() * src.getRows()];
+                for (int i = 0; i < grid.length; i++) grid[i] = src.tileAt(i % src.getColumns(), i / src.getColumns());
+                int[] whole = new Blur(radius).block(grid, src.getColumns(), w, h, new Rectangle(0, 0, w, h));
+                int[] expected = new int[w * h];
+                for (int i = 0; i < expected.length; i++) expected[i] = Blur.unpremultiply(whole[i]);
+                check("blur " + radius + " blocks == one block", Arrays.equals(expected, pixels(doc)));
+            }
+        }
+
+        Rectangle area = new Rectangle(150, 90, 333, 211);
+        TiledImage doc = new TiledImage(base, null);
+        int[] before = pixels(doc);
+        ImageFilter.sharpen(2, 100).apply(doc, area);
+        int[] after = pixels(doc);
+        boolean outside = true, inside = false;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                boolean same = before[y * w + x] == after[y * w + x];
+                if (area.contains(x, y)) inside |= !same;
+                else outside &= same;
+            }
+        }
+        check("region: outside untouched, inside changed", outside && inside);
+
+        CommandLog log = new CommandLog();
+        TiledImage live = new TiledImage(w, h, 0xFFFFFFFF);
+        log.beginBrush(Brush.SOFT, 0xFF204080, 30, 50, 50);
+        BrushStroke s = new BrushStroke(live, Brush.SOFT, 30, 0xFF204080, 50, 50);
+        for (int i = 1; i < 60; i++) {
+            s.addPoint(50 + i * 10, 50 + (int) (150 * Math.sin(i / 8.0)) + 150);
+            log.strokePoint(50 + i * 10, 50 + (int) (150 * Math.sin(i / 8.0)) + 150);
+        }
+        s.end();
+        log.commit();
+        ImageFilter[] filters = {ImageFilter.blur(12), ImageFilter.curves(2, 0, 40, 255, 200), ImageFilter.grayscale()};
+        Rectangle[] areas = {null, new Rectangle(100, 100, 300, 200), null};
+        for (int i = 0; i < filters.length; i++) {
+            log.filter(filters[i], areas[i]);
+            filters[i].apply(live, areas[i]);
+            live.takeChanges();
+            log.commit();
+        }
+        TiledImage replayed = new CommandReplayer().rebuild(log, w, h, 0xFFFFFFFF, null);
+        check("replay == live", Arrays.equals(pixels(live), pixels(replayed)));
+    }
+
+    static int[] pixels(TiledImage doc) {
+        return ImageUtils.pixels(ImageUtils.toBufferedImage(doc));
+    }
+
+    static void check(String what, boolean ok) {
+        System.out.println(what + ": " + ok);
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,81 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Random;
+
+// Full-canvas fill: scanline FloodFill vs the previous queue-of-Points fill.
+// The legacy fill is skipped above 4 Mpx (pass "legacy" to force it).
+// Run: java -Djava.awt.headless=true -Xmx2g -cp out com.paintapp.FloodFillBench
+public class FloodFillBench {
+    public static void main(String[] args) {
+        boolean forceLegacy = args.length > 0 && args[0].equals("legacy");
+        int[][] sizes = {{1000, 700}, {8000, 8000}};
+        FloodFill filler = new FloodFill();
+        for (int[] size : sizes) {
+            int w = size[0], h = size[1];
+            BufferedImage base = scribble(w, h);
+            int rgb = Color.RED.getRGB();
+
+            BufferedImage fast = ImageUtils.deepCopy(base);
+            filler.fill(fast, 0, 0, 0xFF00FF00);
+            fast = ImageUtils.deepCopy(base);
+            long t0 = System.nanoTime();
+            int n = filler.fill(fast, 0, 0, rgb);
+            double fastMs = (System.nanoTime() - t0) / 1e6;
+            System.out.printf("%dx%d scanline: %d px in %.1f ms%n", w, h, n, fastMs);
+
+            if ((long) w * h <= 4_000_000L || forceLegacy) {
+                BufferedImage slow = ImageUtils.deepCopy(base);
+                t0 = System.nanoTime();
+                legacyFill(slow, 0, 0, rgb);
+                double slowMs = (System.nanoTime() - t0) / 1e6;
+                boolean same = Arrays.equals(ImageUtils.pixels(fast), ImageUtils.pixels(slow));
+                System.out.printf("%dx%d legacy:   %.1f ms (%.0fx slower), identical=%b%n",
+                        w, h, slowMs, slowMs / fastMs, same);
+            }
+        }
+    }
+
+    // White canvas with some strokes so the region has holes and ragged edges
+    static BufferedImage scribble(int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(3));
+        Random rnd = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            int x = rnd.nextInt(w), y = rnd.nextInt(h);
+            g.drawOval(x, y, rnd.nextInt(w / 10 + 1), rnd.nextInt(h / 10 + 1));
+        }
+        g.dispose();
+        return img;
+    }
+
+    static void legacyFill(BufferedImage image, int x, int y, int newRgb) {
+        int width = image.getWidth(), height = image.getHeight();
+        int targetRgb = image.getRGB(x, y);
+        if (targetRgb == newRgb) return;
+        Queue<Point> queue = new LinkedList<>();
+        queue.add(new Point(x, y));
+        int[] dx = {0, 0, 1, -1};
+        int[] dy = {1, -1, 0, 0};
+        while (!queue.isEmpty()) {
+            Point p = queue.poll();
+            if (p.x >= 0 && p.x < width && p.y >= 0 && p.y < height && image.getRGB(p.x, p.y) == targetRgb) {
+                image.setRGB(p.x, p.y, newRgb);
+                for (int i = 0; i < 4; i++) {
+                    int nx = p.x + dx[i], ny = p.y + dy[i];
+                    if (nx >= 0 && nx < width && ny >= 0 && ny < height && image.getRGB(nx, ny) == targetRgb) {
+                        queue.add(new Point(nx, ny));
+                    }
+                }
+            }
+        }
+    }
+}
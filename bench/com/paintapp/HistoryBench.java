@@ -0,0 +1,47 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+// Headless check of TileHistory: 1,000 small strokes on a 4K canvas.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.HistoryBench
+public class HistoryBench {
+    public static void main(String[] args) {
+        int w = 3840, h = 2160, strokes = 1000, stroke = 3;
+        TiledImage doc = new TiledImage(w, h, Color.WHITE.getRGB());
+        TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+        history.reset(doc);
+
+        Random rnd = new Random(42);
+        BasicStroke bs = new BasicStroke(stroke, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        long[] times = new long[strokes];
+        for (int i = 0; i < strokes; i++) {
+            int x = rnd.nextInt(w - 40), y = rnd.nextInt(h - 40);
+            int x2 = x + rnd.nextInt(40), y2 = y + rnd.nextInt(40);
+            doc.draw(new Rectangle(x - stroke, y - stroke, x2 - x + 2 * stroke + 1, y2 - y + 2 * stroke + 1), g -> {
+                g.setStroke(bs);
+                g.setColor(Color.BLACK);
+                g.drawLine(x, y, x2, y2);
+            });
+            long t0 = System.nanoTime();
+            history.commit(doc);
+            times[i] = System.nanoTime() - t0;
+        }
+
+        long t0 = System.nanoTime();
+        while (history.undo() != null) { }
+        long undoAll = System.nanoTime() - t0;
+
+        Arrays.sort(times);
+        System.out.printf("canvas %dx%d, %d strokes%n", w, h, strokes);
+        System.out.printf("commit latency: p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                times[strokes / 2] / 1e3, times[strokes * 99 / 100] / 1e3, times[strokes - 1] / 1e3);
+        System.out.printf("history: %d entries, %.1f MB (budget %.0f MB)%n",
+                history.getRedoDepth(), history.getBytesUsed() / 1e6, history.getMemoryBudget() / 1e6);
+        System.out.printf("full-image snapshots would need %.1f MB for the same depth%n",
+                (double) w * h * 4 * history.getRedoDepth() / 1e6);
+        System.out.printf("undo of all entries: %.1f ms, %d tiles allocated afterwards%n",
+                undoAll / 1e6, doc.getAllocatedTileCount());
+    }
+}
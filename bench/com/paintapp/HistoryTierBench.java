@@ -0,0 +1,91 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+// Headless check of the undo tiers: 3,000 strokes on a 4K canvas with small
+// budgets (8 MB raw, 4 MB packed), so most of the history ends up packed or
+// spilled. Reports the depth kept against what the raw budget alone would
+// keep, the undo latency per tier including decoding the restored area, and
+// checks that undo-all and redo-all give back the original and final images.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.HistoryTierBench
+public class HistoryTierBench {
+    public static void main(String[] args) {
+        int w = 3840, h = 2160, strokes = 3000, stroke = 5;
+        long hotBudget = 8L << 20, packedBudget = 4L << 20;
+        TiledImage doc = new TiledImage(w, h, Color.WHITE.getRGB());
+        TileHistory history = new TileHistory(hotBudget, packedBudget, Constants.UNDO_SPILL_BUDGET,
+                Paths.get(System.getProperty("java.io.tmpdir")));
+        history.reset(doc);
+        Rectangle all = new Rectangle(0, 0, w, h);
+        int original = checksum(doc, all);
+
+        Random rnd = new Random(42);
+        BasicStroke bs = new BasicStroke(stroke, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        long[] commits = new long[strokes];
+        long raw = 0;
+        for (int i = 0; i < strokes; i++) {
+            int x = rnd.nextInt(w - 200), y = rnd.nextInt(h - 200);
+            int x2 = x + rnd.nextInt(200), y2 = y + rnd.nextInt(200);
+            Color c = new Color(rnd.nextInt());
+            doc.draw(new Rectangle(x - stroke, y - stroke, x2 - x + 2 * stroke + 1, y2 - y + 2 * stroke + 1), g -> {
+                g.setStroke(bs);
+                g.setColor(c);
+                g.drawLine(x, y, x2, y2);
+            });
+            long t0 = System.nanoTime();
+            history.commit(doc);
+            commits[i] = System.nanoTime() - t0;
+        }
+        history.awaitPacking();
+        int last = checksum(doc, all);
+        for (TileHistory.Entry e : history.undoEntries()) raw += e.bytes;
+        int rawDepth = 0;
+        long sum = 0;
+        for (TileHistory.Entry e : history.undoEntries()) {
+            if ((sum += e.bytes) > hotBudget) break;
+            rawDepth++;
+        }
+
+        Arrays.sort(commits);
+        System.out.printf("canvas %dx%d, %d strokes, %.0f MB of changed tiles%n", w, h, strokes, raw / 1e6);
+        System.out.printf("commit latency: p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                commits[strokes / 2] / 1e3, commits[strokes * 99 / 100] / 1e3, commits[strokes - 1] / 1e3);
+        System.out.printf("history: %d entries (raw budget alone: %d); hot %d entries %.1f MB, warm %d, packed %.1f MB, spilled %.1f MB%n",
+                history.getUndoDepth(), rawDepth, history.getHotCount(), history.getBytesUsed() / 1e6,
+                history.getWarmCount(), history.getPackedBytes() / 1e6, history.getSpilledBytes() / 1e6);
+
+        // undo everything, timing each undo plus decoding what it restored
+        int depth = history.getUndoDepth(), hotCount = history.getHotCount();
+        long[] undo = new long[depth];
+        for (int i = 0; i < depth; i++) {
+            long t0 = System.nanoTime();
+            Rectangle r = history.undo();
+            doc.toBufferedImage(r);
+            undo[i] = System.nanoTime() - t0;
+        }
+        boolean backToStart = checksum(doc, all) == original;
+        while (history.redo() != null) { }
+        boolean backToEnd = checksum(doc, all) == last;
+
+        long[] hotUndo = Arrays.copyOf(undo, hotCount);
+        long[] coldUndo = Arrays.copyOfRange(undo, hotCount, depth);
+        System.out.printf("undo + decode, hot:  %s%n", percentiles(hotUndo));
+        System.out.printf("undo + decode, warm/cold: %s%n", percentiles(coldUndo));
+        System.out.printf("undo-all restores the original=%b, redo-all restores the final image=%b%n", backToStart, backToEnd);
+    }
+
+    static String percentiles(long[] t) {
+        if (t.length == 0) return "none";
+        Arrays.sort(t);
+        return String.format("p50 %.2f ms, p99 %.2f ms, max %.2f ms (%d)",
+                t[t.length / 2] / 1e6, t[t.length * 99 / 100] / 1e6, t[t.length - 1] / 1e6, t.length);
+    }
+
+    static int checksum(TiledImage doc, Rectangle area) {
+        int[] px = doc.toBufferedImage(area).getRGB(0, 0, area.width, area.height, null, 0, area.width);
+        return Arrays.hashCode(px);
+    }
+}
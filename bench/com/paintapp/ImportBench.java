@@ -0,0 +1,185 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+// Opens a large PNG (written by PngExporter, default 16000x16000) through
+// ImageImport under a small heap: time to the first row of tiles and to the
+// whole image, the peak heap, and the tiles the store paged out; then the same
+// with a JPEG a quarter as wide, which gets a preview and ImageIO bands.
+// The PNG is checked against the document it was exported from, and
+// ImageIO.read of it is tried in the same heap.
+//
+// Also checks on small images that the streamed pixels match ImageIO.read for
+// each PNG colour type, an interlaced PNG and a JPEG (the ImageIO band path).
+// Run: java -Xmx256m -Djava.awt.headless=true -cp out com.paintapp.ImportBench [size]
+public class ImportBench {
+
+    static final long STORE_BUDGET = 48L << 20;
+
+    public static void main(String[] args) throws Exception {
+        checks();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 16000;
+        TiledImage source = patchwork(size, size);
+        File png = File.createTempFile("import", ".png");
+        png.deleteOnExit();
+        long t0 = System.nanoTime();
+        new PngExporter(6).write(source.snapshot(), null, png.toPath(), null);
+        System.out.printf("%dx%d PNG, %.1f MB, written in %d ms%n", size, size, png.length() / 1e6,
+                (System.nanoTime() - t0) / 1_000_000);
+
+        time(png, size, source);
+
+        int small = size / 4;
+        BufferedImage rgb = new BufferedImage(small, small, BufferedImage.TYPE_INT_RGB);
+        rgb.createGraphics().drawImage(source.toBufferedImage(new Rectangle(0, 0, small, small)), 0, 0, null);
+        File jpeg = write(rgb, "jpeg", false);
+        System.out.printf("%dx%d JPEG, %.1f MB%n", small, small, jpeg.length() / 1e6);
+        time(jpeg, small, null);
+
+        try {
+            ImageIO.read(png);
+            System.out.println("ImageIO.read: fits in this heap");
+        } catch (OutOfMemoryError | IIOException e) {
+            // ImageIO wraps the OutOfMemoryError
+            System.out.println("ImageIO.read: " + (e.getCause() != null ? e.getCause() : e));
+        }
+    }
+
+    static void time(File f, int size, TiledImage expected) throws Exception {
+        for (int round = 0; round < 2; round++) { // first round warms up
+            System.gc();
+            resetPeaks();
+            try (TileStore store = TileStore.openScratch(STORE_BUDGET); ImageImport image = ImageImport.open(f.toPath())) {
+                long start = System.nanoTime();
+                TiledImage doc = image.preview(0xFFFFFFFF, store);
+                long preview = System.nanoTime() - start;
+                long[] firstRow = {0};
+                image.stream(doc, new ReentrantLock(), row -> {
+                    if (row == 0) firstRow[0] = System.nanoTime() - start;
+                });
+                long total = System.nanoTime() - start;
+                if (round == 0) continue;
+                System.out.printf("  preview %d ms, first row %d ms, all %d ms (%.1f Mpx/s)%n", preview / 1_000_000,
+                        firstRow[0] / 1_000_000, total / 1_000_000, (double) size * size / total * 1e3);
+                System.out.printf("  peak heap %d MB of %d MB, %d tiles paged out, %d resident%n", peakHeap() >> 20,
+                        Runtime.getRuntime().maxMemory() >> 20, store.getPageOuts(), store.getResidentTiles());
+                if (expected != null) check("  imported == exported", same(expected, doc));
+            }
+        }
+    }
+
+    // A large document sharing a few dozen distinct tiles, so it is cheap to
+    // hold while writing the PNG
+    static TiledImage patchwork(int w, int h) {
+        TiledImage pieces = FilterBench.content(8 * TiledImage.TILE, 8 * TiledImage.TILE);
+        TiledImage doc = new TiledImage(w, h, 0xFFFFFFFF);
+        for (int row = 0; row < doc.getRows(); row++) {
+            for (int col = 0; col < doc.getColumns(); col++) {
+                doc.setTile(col, row, pieces.tileAt((col * 5 + row * 3) % 8, (row * 7 + col) % 8));
+            }
+        }
+        doc.takeChanges();
+        return doc;
+    }
+
+    static void checks() throws Exception {
+        int w = 333, h = 277;
+        BufferedImage argb = ImageUtils.toBufferedImage(FilterBench.content(w, h));
+        int[] px = ImageUtils.pixels(argb);
+        for (int i = 0; i < px.length; i++) px[i] = px[i] & 0xFFFFFF | ((i * 7) & 0xFF) << 24;
+        int[] types = {
+            BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_INDEXED,
+            BufferedImage.TYPE_BYTE_BINARY, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY
+        };
+        String[] names = {"rgba", "rgb", "palette", "1-bit", "grey", "16-bit grey"};
+        for (int i = 0; i < types.length; i++) {
+            BufferedImage img = new BufferedImage(w, h, types[i]);
+            img.createGraphics().drawImage(argb, 0, 0, null);
+            check("png " + names[i] + " streamed == ImageIO", same(write(img, "png", false), img));
+        }
+        check("interlaced png == ImageIO", same(write(argb, "png", true), argb));
+        BufferedImage rgb = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        rgb.createGraphics().drawImage(argb, 0, 0, null);
+        File jpeg = write(rgb, "jpeg", false);
+        check("jpeg == ImageIO", same(jpeg, ImageIO.read(jpeg)));
+    }
+
+    static File write(BufferedImage img, String format, boolean progressive) throws Exception {
+        File f = File.createTempFile("import", "." + format);
+        f.deleteOnExit();
+        f.delete();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(f)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (progressive) param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(img, null, null), param);
+        }
+        writer.dispose();
+        return f;
+    }
+
+    // Imports 'f' and compares it with 'expected'; grey images are compared
+    // by sample, as their getRGB() goes through a linear grey colour space
+    static boolean same(File f, BufferedImage expected) throws Exception {
+        TiledImage doc;
+        try (ImageImport image = ImageImport.open(f.toPath())) {
+            doc = image.preview(0xFFFFFFFF, null);
+            image.stream(doc, new ReentrantLock(), row -> { });
+        }
+        int w = expected.getWidth(), h = expected.getHeight();
+        int[] want = expected.getRGB(0, 0, w, h, null, 0, w);
+        if (expected.getType() == BufferedImage.TYPE_BYTE_GRAY || expected.getType() == BufferedImage.TYPE_USHORT_GRAY) {
+            Raster r = expected.getRaster();
+            int shift = expected.getType() == BufferedImage.TYPE_USHORT_GRAY ? 8 : 0;
+            for (int y = 0, i = 0; y < h; y++) {
+                for (int x = 0; x < w; x++, i++) {
+                    int g = r.getSample(x, y, 0) >> shift;
+                    want[i] = 0xFF000000 | g << 16 | g << 8 | g;
+                }
+            }
+        }
+        return Arrays.equals(want, ImageUtils.pixels(doc.toBufferedImage(new Rectangle(0, 0, w, h))));
+    }
+
+    static boolean same(TiledImage a, TiledImage b) {
+        int[] ra = new int[a.getWidth()], rb = new int[b.getWidth()];
+        for (int y = 0; y < a.getHeight(); y++) {
+            a.readRow(y, ra);
+            b.readRow(y, rb);
+            if (!Arrays.equals(ra, rb)) return false;
+        }
+        return true;
+    }
+
+    static void resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+    }
+
+    static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    static void check(String what, boolean ok) {
+        System.out.println(what + ": " + ok);
+        if (!ok) throw new AssertionError(what);
+    }
+}
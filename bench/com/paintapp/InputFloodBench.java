@@ -0,0 +1,135 @@
+package com.paintapp;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Floods a PaintCanvas with mouse events as fast as they can be delivered:
+// long pencil strokes with flood fills of a 4000x3000 document in between.
+// Reports how long each handler call held the calling (event) thread, with
+// the input applied synchronously and through the render thread, and checks
+// that no input was lost: every drag point is in the command log, and the
+// document is what replaying the log draws. (The two modes flush strokes in
+// different batches, so their round joins may differ by a few pixels.)
+// First checks the ring's wake-up on its own: single events handed to a
+// parked consumer, each of which must arrive without another event behind it.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.InputFloodBench [strokes]
+public class InputFloodBench {
+
+    static final int W = 4000, H = 3000, POINTS = 2000;
+
+    public static void main(String[] args) {
+        int strokes = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        handoffs(100_000);
+        // warm-up
+        run(false, 4);
+        run(true, 4);
+        run(false, strokes);
+        run(true, strokes);
+    }
+
+    static void run(boolean renderThread, int strokes) {
+        PaintCanvas canvas = new PaintCanvas();
+        canvas.setSize(W, H);
+        canvas.setRenderThread(renderThread);
+        canvas.newFile(W, H);
+        canvas.setStrokeSize(6);
+        LatencyHistogram handler = new LatencyHistogram();
+        Random rnd = new Random(11);
+        int events = 0, points = 0;
+        long t0 = System.nanoTime();
+        for (int s = 0; s < strokes; s++) {
+            if (s % 4 == 3) {
+                // a fill of most of the document
+                canvas.setTool(Tool.FILL);
+                canvas.setColor(new Color(rnd.nextInt()));
+                events += deliver(canvas, handler, MouseEvent.MOUSE_PRESSED, 1, 1);
+                events += deliver(canvas, handler, MouseEvent.MOUSE_RELEASED, 1, 1);
+                continue;
+            }
+            canvas.setTool(Tool.PENCIL);
+            canvas.setColor(new Color(rnd.nextInt()));
+            int x = rnd.nextInt(W), y = rnd.nextInt(H);
+            events += deliver(canvas, handler, MouseEvent.MOUSE_PRESSED, x, y);
+            points += POINTS;
+            for (int p = 0; p < POINTS; p++) {
+                x = Math.max(0, Math.min(W - 1, x + rnd.nextInt(31) - 15));
+                y = Math.max(0, Math.min(H - 1, y + rnd.nextInt(31) - 15));
+                events += deliver(canvas, handler, MouseEvent.MOUSE_DRAGGED, x, y);
+            }
+            events += deliver(canvas, handler, MouseEvent.MOUSE_RELEASED, x, y);
+        }
+        long queued = System.nanoTime() - t0;
+        canvas.awaitInput();
+        long done = System.nanoTime() - t0;
+        System.out.printf("%-13s %d events: handlers %s; queued in %.0f ms, applied in %.0f ms, full-queue waits %d%n",
+                renderThread ? "render thread" : "synchronous", events, handler, queued / 1e6, done / 1e6,
+                canvas.getInputQueue().getFullWaits());
+        canvas.setRenderThread(false);
+        Rectangle all = new Rectangle(0, 0, W, H);
+        BufferedImage doc = canvas.getDocument().toBufferedImage(all);
+        BufferedImage replay = new CommandReplayer().render(canvas.getCommandLog(), W, H, Color.WHITE.getRGB(), 1.0).toBufferedImage(all);
+        boolean same = java.util.Arrays.equals(doc.getRGB(0, 0, W, H, null, 0, W), replay.getRGB(0, 0, W, H, null, 0, W));
+        System.out.printf("              drag points logged %d of %d, document matches replay=%b%n",
+                loggedPoints(canvas.getCommandLog()), points, same);
+    }
+
+    // Drag points recorded in the log's strokes (the press point is not one)
+    static int loggedPoints(CommandLog log) {
+        int n = 0;
+        int[] data = log.data();
+        for (int i = 0; i < log.size(); i++) {
+            if (log.type(i) != CommandLog.STROKE) continue;
+            // type, rgb, size, x, y, then point pairs and (BREAK, 0) flush markers
+            for (int j = log.offset(i) + 5; j + 1 < log.end(i); j += 2) {
+                if (data[j] != CommandLog.BREAK) n++;
+            }
+        }
+        return n;
+    }
+
+    private static int deliver(PaintCanvas canvas, LatencyHistogram handler, int id, int x, int y) {
+        MouseEvent e = new MouseEvent(canvas, id, System.currentTimeMillis(), MouseEvent.BUTTON1_DOWN_MASK, x, y, 1, false, MouseEvent.BUTTON1);
+        long t = System.nanoTime();
+        if (id == MouseEvent.MOUSE_PRESSED) canvas.mousePressed(e);
+        else if (id == MouseEvent.MOUSE_DRAGGED) canvas.mouseDragged(e);
+        else canvas.mouseReleased(e);
+        handler.record(System.nanoTime() - t);
+        return 1;
+    }
+
+    // Puts one event at a time and waits (up to a second) for a consumer
+    // thread, parked in await() in between, to take it
+    static void handoffs(int n) {
+        InputRing ring = new InputRing(64);
+        AtomicLong taken = new AtomicLong();
+        Thread consumer = new Thread(() -> {
+            InputRing.Event e = new InputRing.Event();
+            try {
+                while (true) {
+                    ring.await();
+                    while (ring.poll(e)) taken.incrementAndGet();
+                }
+            } catch (InterruptedException done) {
+                // finished
+            }
+        }, "handoff-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+        long t0 = System.nanoTime();
+        for (int i = 1; i <= n; i++) {
+            ring.put(InputRing.DRAG, i, i, 0, null);
+            long deadline = System.nanoTime() + 1_000_000_000L;
+            while (taken.get() < i && System.nanoTime() < deadline) Thread.yield();
+            if (taken.get() < i) {
+                consumer.interrupt();
+                throw new AssertionError("event " + i + " left queued with the consumer parked");
+            }
+        }
+        consumer.interrupt();
+        System.out.printf("ring handoffs %d in %.0f ms, none stalled%n", n, (System.nanoTime() - t0) / 1e6);
+    }
+}
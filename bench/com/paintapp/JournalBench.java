@@ -0,0 +1,124 @@
+package com.paintapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Crash test for the session journal. A child JVM edits a document with the
+// journal on (random ops from ReplayBench, with some undo/redo) and then dies
+// with Runtime.halt(); this process recovers the document from the journal and
+// checks it against the checksum the child printed just before dying.
+// The child also reports the journal's cost on the drawing thread per event
+// (one op = ~20 drag events + press + release) against BUDGET_US.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.JournalBench [ops]
+public class JournalBench {
+
+    static final double BUDGET_US = 20;
+    static final int EVENTS_PER_OP = 22;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            child(Path.of(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path dir = Files.createTempDirectory("journal");
+        Process p = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+                JournalBench.class.getName(), "child", dir.toString(), String.valueOf(ops))
+                .redirectErrorStream(true).start();
+        String expected = null;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String line; (line = r.readLine()) != null; ) {
+                if (line.startsWith("checksum ")) expected = line.substring(9);
+                else System.out.println("child: " + line);
+            }
+        }
+        System.out.println("child exit code " + p.waitFor() + " (halted without closing the journal)");
+
+        long size = 0;
+        for (File f : dir.toFile().listFiles()) size += f.length();
+        long t0 = System.nanoTime();
+        LayerStack layers = Journal.recover(dir, null);
+        double ms = (System.nanoTime() - t0) / 1e6;
+        String actual = layers == null ? "none" : checksum(layers.get(0).getImage());
+        System.out.printf("recovered from %.1f MB of journal in %.0f ms, identical=%b%n", size / 1e6, ms, actual.equals(expected));
+        for (File f : dir.toFile().listFiles()) f.delete();
+        dir.toFile().delete();
+    }
+
+    static void child(Path dir, int ops) throws Exception {
+        TiledImage doc = new TiledImage(ReplayBench.W, ReplayBench.H, ReplayBench.BG);
+        TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+        CommandLog log = new CommandLog();
+        FloodFill filler = new FloodFill();
+        history.reset(doc);
+        Journal journal = new Journal(dir, List.of(new Layer("Background", doc).snapshot()));
+
+        Random rnd = new Random(5);
+        long[] cost = new long[ops];
+        int checkpoints = 0;
+        for (int i = 0; i < ops; i++) {
+            if (i % 50 == 49) {
+                // undo a few and redo some, journaled as restored tiles
+                int n = 1 + rnd.nextInt(3);
+                for (int k = 0; k < n; k++) {
+                    java.awt.Rectangle r = history.undo();
+                    if (r != null) log.undo();
+                    long t0 = System.nanoTime();
+                    journal.tiles(0, doc, r);
+                    cost[i] += System.nanoTime() - t0;
+                }
+                java.awt.Rectangle r = history.redo();
+                if (r != null) log.redo();
+                long t0 = System.nanoTime();
+                journal.tiles(0, doc, r);
+                cost[i] += System.nanoTime() - t0;
+                continue;
+            }
+            ReplayBench.randomOp(rnd, i, doc, log, filler);
+            int from = log.size();
+            if (history.commit(doc) == null) {
+                log.rollback();
+                continue;
+            }
+            log.commit();
+            long t0 = System.nanoTime();
+            journal.commands(0, log, from, log.size());
+            if (journal.wantsCheckpoint()) {
+                journal.checkpoint(List.of(new Layer("Background", doc).snapshot()));
+                checkpoints++;
+            }
+            cost[i] += System.nanoTime() - t0;
+        }
+
+        // give the writer a moment to catch up, then die without closing
+        Thread.sleep(500);
+        long[] sorted = cost.clone();
+        Arrays.sort(sorted);
+        double perEvent = Arrays.stream(cost).sum() / 1e3 / ((double) ops * EVENTS_PER_OP);
+        System.out.printf("%d ops, %d checkpoints; journal cost on the drawing thread per op: p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                ops, checkpoints, sorted[ops / 2] / 1e3, sorted[ops * 99 / 100] / 1e3, sorted[ops - 1] / 1e3);
+        System.out.printf("per input event %.2f us (budget %.0f us): %s; writer: %d records in %d batches, %.1f MB%n",
+                perEvent, BUDGET_US, perEvent <= BUDGET_US ? "ok" : "OVER BUDGET",
+                journal.getRecords(), journal.getBatches(), journal.getBytesWritten() / 1e6);
+        System.out.println("checksum " + checksum(doc));
+        System.out.flush();
+        Runtime.getRuntime().halt(3);
+    }
+
+    static String checksum(TiledImage doc) {
+        int[] row = new int[doc.getWidth()];
+        long h = 1;
+        for (int y = 0; y < doc.getHeight(); y++) {
+            doc.getData(new java.awt.Rectangle(0, y, doc.getWidth(), 1)).getDataElements(0, y, doc.getWidth(), 1, row);
+            h = h * 31 + Arrays.hashCode(row);
+        }
+        return doc.getWidth() + "x" + doc.getHeight() + ":" + Long.toHexString(h);
+    }
+}
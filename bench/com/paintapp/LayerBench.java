@@ -0,0 +1,125 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+// Paint latency with 1 layer and with 50 layers (active layer in the middle,
+// every layer painted, a mix of opacities and blend modes). One event is what
+// a drag does: add a stroke point, rasterize it, recomposite the dirty tiles
+// and draw them to a 1920x1080 screen image. Also runs the 50-layer case
+// without the cached composites (every dirty tile recomposited from all
+// layers) and checks the cached result against flattening from scratch.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.LayerBench [events]
+public class LayerBench {
+
+    static final int W = 1920, H = 1080;
+
+    public static void main(String[] args) {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        // the first round also warms up the JIT
+        run("1 layer", stack(1, false), events, true);
+        run("50 layers, NORMAL above active", stack(50, false), events, true);
+        run("50 layers, blend modes above active", stack(50, true), events, true);
+        double[] naive = run("50 layers, no composite cache", stack(50, false), events, false);
+        double[] one = run("1 layer", stack(1, false), events, true);
+        double[] many = run("50 layers, NORMAL above active", stack(50, false), events, true);
+        System.out.printf("50 vs 1 layer: p50 x%.1f, p99 x%.1f (without the cache: p50 x%.1f)%n",
+                many[0] / one[0], many[1] / one[1], naive[0] / one[0]);
+    }
+
+    // Layers with random strokes and boxes; modes and opacities vary below the
+    // active layer, and above it too when 'blendAbove' is set
+    static LayerStack stack(int n, boolean blendAbove) {
+        Random rnd = new Random(n);
+        LayerStack layers = new LayerStack(new TiledImage(W, H, Color.WHITE.getRGB()));
+        for (int i = 1; i < n; i++) layers.add("Layer " + i, null);
+        BlendMode[] modes = BlendMode.values();
+        int active = n / 2;
+        for (int i = 0; i < n; i++) {
+            TiledImage doc = layers.get(i).getImage();
+            for (int s = 0; s < 6; s++) {
+                int x = rnd.nextInt(W - 300), y = rnd.nextInt(H - 300);
+                StrokeSession stroke = new StrokeSession(doc, 2 + rnd.nextInt(20), new Color(rnd.nextInt() | 0xFF000000, true), x, y);
+                for (int p = 0; p < 8; p++) stroke.addPoint(x + rnd.nextInt(300), y + rnd.nextInt(300));
+                stroke.end();
+            }
+            if (i % 4 == 1) {
+                int x = rnd.nextInt(W - 400), y = rnd.nextInt(H - 400);
+                Color c = new Color(rnd.nextInt() | 0x80000000, true);
+                doc.draw(new Rectangle(x, y, 400, 400), g -> {
+                    g.setColor(c);
+                    g.fillRect(x, y, 400, 400);
+                });
+            }
+            doc.takeChanges();
+            if (i == 0) continue;
+            if (i % 3 == 0) layers.setOpacity(i, 0.6f);
+            if ((i < active || blendAbove) && i % 5 == 0) layers.setBlendMode(i, modes[1 + (i / 5) % (modes.length - 1)]);
+        }
+        layers.setActive(active);
+        return layers;
+    }
+
+    // Returns p50 and p99 in microseconds
+    static double[] run(String name, LayerStack layers, int events, boolean cached) {
+        BufferedImage screen = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+        Rectangle all = new Rectangle(0, 0, W, H);
+        long t0 = System.nanoTime();
+        layers.paintTo(g, all, 0, 0);
+        double firstMs = (System.nanoTime() - t0) / 1e6;
+
+        TiledImage doc = layers.getActive().getImage();
+        Random rnd = new Random(11);
+        long[] times = new long[events];
+        int x = W / 2, y = H / 2;
+        StrokeSession stroke = null;
+        for (int i = 0; i < events; i++) {
+            if (i % 100 == 0) {
+                if (stroke != null) layers.changed(stroke.end());
+                doc.takeChanges();
+                stroke = new StrokeSession(doc, 12, new Color(0xFF000000 | rnd.nextInt()), x, y);
+            }
+            x = Math.max(0, Math.min(W - 1, x + rnd.nextInt(41) - 20));
+            y = Math.max(0, Math.min(H - 1, y + rnd.nextInt(41) - 20));
+            long start = System.nanoTime();
+            stroke.addPoint(x, y);
+            Rectangle r = stroke.flush();
+            if (r != null) {
+                if (cached) layers.changed(r);
+                else layers.invalidate(r);
+                layers.paintTo(g, r, 0, 0);
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        layers.changed(stroke.end());
+        doc.takeChanges();
+        layers.paintTo(g, all, 0, 0);
+        g.dispose();
+
+        // the same layers flattened from scratch
+        BufferedImage expected = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        Graphics2D e = expected.createGraphics();
+        e.setColor(Constants.DEFAULT_BG);
+        e.fillRect(0, 0, W, H);
+        e.drawImage(LayerStack.flatten(layers.snapshot(), null).toBufferedImage(all), 0, 0, null);
+        e.dispose();
+        int maxDiff = 0;
+        for (int py = 0; py < H; py++) {
+            for (int px = 0; px < W; px++) {
+                int a = screen.getRGB(px, py), b = expected.getRGB(px, py);
+                for (int s = 0; s <= 16; s += 8) maxDiff = Math.max(maxDiff, Math.abs(((a >> s) & 0xFF) - ((b >> s) & 0xFF)));
+            }
+        }
+
+        // the first strokes run while the JIT warms up
+        long[] warm = Arrays.copyOfRange(times, Math.min(events / 5, 500), events);
+        Arrays.sort(warm);
+        double p50 = warm[warm.length / 2] / 1e3, p99 = warm[(int) (warm.length * 0.99)] / 1e3;
+        System.out.printf("%-38s first screen %6.1f ms, per event p50 %7.1f us, p99 %7.1f us, max diff vs flatten %d%n",
+                name + ":", firstMs, p50, p99, maxDiff);
+        return new double[] {p50, p99};
+    }
+}
@@ -0,0 +1,186 @@
+package com.paintapp;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+// Cost of the latency instrumentation: drives a PaintCanvas through its
+// mouse handlers (pencil strokes, shapes, text) with a paint of the touched
+// area after every event, with metrics off, on, and on while a flight
+// recording takes the com.paintapp events. Rounds rotate through the modes;
+// the median round of each is compared, next to the spread of the per-round
+// ratios against "off" (what a run can resolve). Then the cost of a span on
+// its own, in time and allocation, which resolves far finer. First checks LatencyHistogram's
+// percentiles against the recorded values, across the 1-2 us boundary.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.MetricsBench [rounds]
+public class MetricsBench {
+
+    static final int W = 1000, H = 700, STROKES = 150, POINTS = 30;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 11;
+        histogramChecks();
+        PaintCanvas canvas = new PaintCanvas();
+        canvas.setSize(W, H);
+        // input applied in the handlers, so each paint below shows it
+        canvas.setRenderThread(false);
+        BufferedImage screen = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        PaintMetrics metrics = canvas.getMetrics();
+
+        // JIT warm-up in every mode
+        for (int i = 0; i < 2; i++) {
+            metrics.setEnabled(i == 1);
+            run(canvas, screen);
+        }
+        double[][] times = new double[3][rounds];
+        String[] names = {"off", "on", "on + JFR"};
+        Path jfr = Files.createTempFile("metrics", ".jfr");
+        long events = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (int m = 0; m < 3; m++) {
+                int mode = (m + r) % 3;
+                metrics.setEnabled(mode > 0);
+                metrics.reset();
+                Recording rec = null;
+                if (mode == 2) {
+                    rec = new Recording();
+                    rec.enable("com.paintapp.Operation");
+                    rec.enable("com.paintapp.InputLatency");
+                    rec.start();
+                }
+                double us = run(canvas, screen);
+                if (rec != null) {
+                    rec.stop();
+                    rec.dump(jfr);
+                    rec.close();
+                    events = RecordingFile.readAllEvents(jfr).stream().map(RecordedEvent::getEventType)
+                            .filter(t -> t.getName().startsWith("com.paintapp.")).count();
+                }
+                times[mode][r] = us;
+            }
+        }
+        Files.deleteIfExists(jfr);
+        double[] median = new double[3];
+        for (int mode = 0; mode < 3; mode++) {
+            double[] ratios = new double[rounds];
+            for (int r = 0; r < rounds; r++) ratios[r] = (times[mode][r] / times[0][r] - 1) * 100;
+            Arrays.sort(ratios);
+            double[] sorted = times[mode].clone();
+            Arrays.sort(sorted);
+            median[mode] = sorted[rounds / 2];
+            System.out.printf("%-9s %7.2f us/event  %+5.1f%%  (rounds %+5.1f%% .. %+5.1f%%)%n", names[mode], median[mode],
+                    (median[mode] / median[0] - 1) * 100, ratios[0], ratios[rounds - 1]);
+        }
+        System.out.println("JFR events in last recording: " + events);
+        spanCost(metrics);
+        // last round's histograms (metrics on)
+        metrics.setEnabled(true);
+        metrics.reset();
+        run(canvas, screen);
+        for (String line : metrics.getReport()) System.out.println(line);
+    }
+
+    // Microseconds per mouse event, including the paint that follows it
+    static double run(PaintCanvas canvas, BufferedImage screen) {
+        Random rnd = new Random(7);
+        Graphics2D g = screen.createGraphics();
+        int events = 0;
+        canvas.newFile(W, H);
+        long t0 = System.nanoTime();
+        for (int s = 0; s < STROKES; s++) {
+            int kind = s % 10;
+            canvas.setTool(kind < 7 ? Tool.PENCIL : kind < 9 ? Tool.OVAL : Tool.TEXT);
+            canvas.setColor(new Color(rnd.nextInt()));
+            int x = rnd.nextInt(W), y = rnd.nextInt(H);
+            events += event(canvas, g, MouseEvent.MOUSE_PRESSED, x, y);
+            if (kind == 9) {
+                events += event(canvas, g, MouseEvent.MOUSE_RELEASED, x, y);
+                continue;
+            }
+            for (int p = 0; p < POINTS; p++) {
+                x = Math.max(0, Math.min(W - 1, x + rnd.nextInt(41) - 20));
+                y = Math.max(0, Math.min(H - 1, y + rnd.nextInt(41) - 20));
+                events += event(canvas, g, MouseEvent.MOUSE_DRAGGED, x, y);
+            }
+            events += event(canvas, g, MouseEvent.MOUSE_RELEASED, x, y);
+        }
+        double us = (System.nanoTime() - t0) / 1e3 / events;
+        g.dispose();
+        return us;
+    }
+
+    // Delivers one event and paints a 96x96 area around it, as a repaint would
+    private static int event(PaintCanvas canvas, Graphics2D g, int id, int x, int y) {
+        MouseEvent e = new MouseEvent(canvas, id, System.currentTimeMillis(), 0, x, y, 1, false);
+        if (id == MouseEvent.MOUSE_PRESSED) canvas.mousePressed(e);
+        else if (id == MouseEvent.MOUSE_DRAGGED) canvas.mouseDragged(e);
+        else canvas.mouseReleased(e);
+        g.setClip(x - 48, y - 48, 96, 96);
+        canvas.paint(g);
+        return 1;
+    }
+
+    // Each percentile must be at or above the true value and within a bucket
+    // (1/16 of its power of two, 64 ns below 1 us) of it: single values, and
+    // runs of values spanning 1 and 2 us
+    static void histogramChecks() {
+        long[] singles = {0, 1, 63, 64, 1000, 1023, 1024, 1025, 1500, 2000, 2047, 2048, 2049, 3000, 1_000_000, Long.MAX_VALUE};
+        for (long v : singles) {
+            LatencyHistogram h = new LatencyHistogram();
+            h.record(v);
+            check("p50 of " + v, h.getPercentileNanos(0.5) == v);
+        }
+        long[][] runs = {{900, 1100}, {1000, 2100}, {1500, 1600}, {1900, 4200}, {0, 5000}};
+        double[] ps = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1};
+        for (long[] r : runs) {
+            LatencyHistogram h = new LatencyHistogram();
+            for (long v = r[0]; v <= r[1]; v++) h.record(v);
+            for (double p : ps) {
+                long truth = r[0] + (long) Math.ceil(p * h.getCount()) - 1, got = h.getPercentileNanos(p);
+                long slack = truth < 1024 ? 64 : Long.highestOneBit(truth) / 16;
+                check("p" + p + " of " + r[0] + ".." + r[1] + ": " + got + " for " + truth, got >= truth && got <= truth + slack);
+            }
+        }
+    }
+
+    static void check(String what, boolean ok) {
+        if (!ok) {
+            System.out.println(what + ": false");
+            throw new AssertionError(what);
+        }
+    }
+
+    // Nanoseconds and bytes allocated per begin/close of a span, with metrics
+    // off, on and on under a flight recording
+    static void spanCost(PaintMetrics metrics) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        int n = 2_000_000;
+        for (int mode = 0; mode < 3; mode++) {
+            metrics.setEnabled(mode > 0);
+            Recording rec = null;
+            if (mode == 2) {
+                rec = new Recording();
+                rec.enable("com.paintapp.Operation");
+                rec.start();
+            }
+            for (int warm = 0; warm < n; warm++) metrics.begin(PaintMetrics.Op.FRAME).close();
+            long bytes = threads.getThreadAllocatedBytes(id), t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) metrics.begin(PaintMetrics.Op.FRAME).close();
+            double ns = (System.nanoTime() - t0) / (double) n;
+            double alloc = (threads.getThreadAllocatedBytes(id) - bytes) / (double) n;
+            if (rec != null) rec.close();
+            System.out.printf("span %-9s %7.1f ns, %5.1f bytes%n", new String[] {"off", "on", "on + JFR"}[mode], ns, alloc);
+            if (mode == 0) check("no allocation with metrics off", alloc < 1);
+        }
+    }
+}
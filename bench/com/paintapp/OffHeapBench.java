@@ -0,0 +1,73 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+// Edits a 72000x72000 document (~20 GB as one ARGB image) in a small heap with
+// tiles paged out to a memory-mapped scratch file. Every stroke lands on a
+// fresh area, so the painted tiles soon exceed the heap; reports per-stroke
+// latency (stroke + history commit), GC time and paging counts.
+// Run: java -Djava.awt.headless=true -Xmx512m -cp out com.paintapp.OffHeapBench [strokes] [cacheMB]
+public class OffHeapBench {
+    public static void main(String[] args) throws Exception {
+        int size = 72000;
+        int strokes = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        long cache = (args.length > 1 ? Long.parseLong(args[1]) : 128) << 20;
+
+        try (TileStore store = TileStore.openScratch(cache)) {
+            TiledImage doc = new TiledImage(size, size, Color.WHITE.getRGB(), store);
+            TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+            history.reset(doc);
+
+            Random rnd = new Random(3);
+            long[] times = new long[strokes];
+            long gc0 = gcMillis();
+            long t00 = System.nanoTime();
+            for (int i = 0; i < strokes; i++) {
+                int x = rnd.nextInt(size - 600), y = rnd.nextInt(size - 600);
+                long t0 = System.nanoTime();
+                StrokeSession s = new StrokeSession(doc, 6, Color.BLACK, x, y);
+                for (int p = 0; p < 30; p++) {
+                    s.addPoint(x + rnd.nextInt(600), y + rnd.nextInt(600));
+                    s.flush();
+                }
+                s.end();
+                history.commit(doc);
+                times[i] = System.nanoTime() - t0;
+            }
+            double totalS = (System.nanoTime() - t00) / 1e9;
+
+            // read back everything (pages in cold tiles)
+            long t0 = System.nanoTime();
+            long sum = 0;
+            for (int row = 0; row < doc.getRows(); row++) {
+                for (int col = 0; col < doc.getColumns(); col++) {
+                    Tile t = doc.tileAt(col, row);
+                    if (!t.isSolid()) sum += t.pixels()[0];
+                }
+            }
+            double scanS = (System.nanoTime() - t0) / 1e9;
+
+            Arrays.sort(times);
+            Runtime rt = Runtime.getRuntime();
+            System.out.printf("document %dx%d (%.1f GB as one image), %d strokes in %.1f s%n",
+                    size, size, (double) size * size * 4 / 1e9, strokes, totalS);
+            System.out.printf("stroke+commit: p50 %.2f ms, p99 %.2f ms, max %.2f ms; GC %d ms%n",
+                    times[strokes / 2] / 1e6, times[strokes * 99 / 100] / 1e6, times[strokes - 1] / 1e6, gcMillis() - gc0);
+            System.out.printf("painted tiles %d (%.0f MB), resident %d (%.0f MB of %.0f MB cache), scratch file %.0f MB%n",
+                    doc.getAllocatedTileCount(), doc.getAllocatedBytes() / 1e6, store.getResidentTiles(),
+                    store.getResidentBytes() / 1e6, cache / 1e6, store.getFileBytes() / 1e6);
+            System.out.printf("page-outs %d, page-ins %d, full scan %.1f s (checksum %d), max heap %.0f MB%n",
+                    store.getPageOuts(), store.getPageIns(), scanS, sum, rt.maxMemory() / 1e6);
+        }
+    }
+
+    static long gcMillis() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) ms += Math.max(0, gc.getCollectionTime());
+        return ms;
+    }
+}
@@ -0,0 +1,39 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+
+// Frame time of the software and accelerated presentation paths. Needs a
+// display (a real one or Xvfb); the accelerated mode falls back to the
+// software path where no BufferStrategy can be created.
+// Run: java -cp out com.paintapp.PresentBench
+public class PresentBench {
+    public static void main(String[] args) throws Exception {
+        for (boolean accelerated : new boolean[] {false, true}) {
+            Frame frame = new Frame("PresentBench");
+            PaintCanvas canvas = new PaintCanvas();
+            frame.add(canvas);
+            frame.pack();
+            frame.setVisible(true);
+            EventQueue.invokeAndWait(() -> canvas.setAcceleratedPresentation(accelerated));
+            Thread.sleep(500);
+
+            canvas.setTool(Tool.RECTANGLE);
+            EventQueue.invokeAndWait(() -> {
+                canvas.getFrameStats().reset();
+                canvas.mousePressed(DirtyRepaintBench.event(canvas, MouseEvent.MOUSE_PRESSED, 50, 50));
+            });
+            for (int i = 0; i < 1000; i++) {
+                int x = 60 + i % 800, y = 60 + (i * 7) % 600;
+                EventQueue.invokeAndWait(() ->
+                        canvas.mouseDragged(DirtyRepaintBench.event(canvas, MouseEvent.MOUSE_DRAGGED, x, y)));
+                EventQueue.invokeAndWait(() -> { }); // let the repaint run
+            }
+            canvas.awaitInput();
+            Thread.sleep(200);
+            System.out.println((accelerated ? "accelerated: " : "software:    ") + canvas.getFrameStats());
+            frame.dispose();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,183 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+// Saves a 65536x65536 project (4.3 gigapixels, ~17 GB as one ARGB image) with
+// thousands of painted tiles and some history, then opens it in a child JVM
+// with a small heap: reports the time until the document is usable, the time
+// to draw the first screen, memory after panning across many screens, and
+// checks sampled tiles and an undo against the original. Finally saves the
+// opened project again, which copies unchanged tiles without decoding them.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.ProjectBench [paintedTiles]
+public class ProjectBench {
+
+    static final int SIZE = 65536;
+    static final int SCREEN_W = 1920, SCREEN_H = 1080;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            child(Path.of(args[1]), Path.of(args[2]));
+            return;
+        }
+        int painted = args.length > 0 ? Integer.parseInt(args[0]) : 16_000;
+        Path dir = Files.createTempDirectory("project");
+        Path file = dir.resolve("big" + ProjectFile.EXTENSION);
+        Path samples = dir.resolve("samples.txt");
+
+        try (TileStore store = TileStore.openScratch(128L << 20)) {
+            TiledImage doc = new TiledImage(SIZE, SIZE, Color.WHITE.getRGB(), store);
+            TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+            CommandLog log = new CommandLog();
+            history.reset(doc);
+
+            // painted tiles around the centre (noise on half of each tile, a
+            // gradient on the rest), committed in batches
+            Random rnd = new Random(5);
+            int cols = doc.getColumns(), rows = doc.getRows();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < painted; i++) {
+                int col = cols / 2 + (int) (rnd.nextGaussian() * cols / 6);
+                int row = rows / 2 + (int) (rnd.nextGaussian() * rows / 6);
+                col = Math.max(0, Math.min(cols - 1, col));
+                row = Math.max(0, Math.min(rows - 1, row));
+                int[] px = doc.writableTile(col, row).pixels();
+                int base = rnd.nextInt();
+                for (int p = 0; p < px.length; p++) {
+                    px[p] = p < px.length / 2 ? 0xFF000000 | rnd.nextInt() : 0xFF000000 | (base + (p & 127) * 0x010101);
+                }
+                if (i % 256 == 255) history.commit(doc);
+            }
+            history.commit(doc);
+            // a few logged strokes in the middle: history and command log to save
+            int cx = SIZE / 2, cy = SIZE / 2;
+            for (int s = 0; s < 20; s++) {
+                log.beginStroke(0xFF0000FF, 8, cx, cy + s * 20);
+                StrokeSession stroke = new StrokeSession(doc, 8, Color.BLUE, cx, cy + s * 20);
+                stroke.addPoint(cx + 800, cy + s * 20 + 40);
+                log.strokePoint(cx + 800, cy + s * 20 + 40);
+                stroke.flush();
+                log.strokeFlush();
+                stroke.end();
+                history.commit(doc);
+                log.commit();
+            }
+            System.out.printf("painted %d tiles (%.0f MB) of a %dx%d document in %.1f s%n", doc.getAllocatedTileCount(),
+                    doc.getAllocatedBytes() / 1e6, SIZE, SIZE, (System.nanoTime() - t0) / 1e9);
+
+            // checksums of sampled tiles (painted or not) and the state after one undo
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                int col = cols / 2 + rnd.nextInt(cols / 4) - cols / 8, row = rows / 2 + rnd.nextInt(rows / 4) - rows / 8;
+                lines.add("tile " + col + " " + row + " " + crc(doc.tileAt(col, row).pixels()));
+            }
+
+            t0 = System.nanoTime();
+            ProjectFile.Contents contents = new ProjectFile.Contents(new LayerStack(doc), history, log,
+                    Map.of("bench", "ProjectBench"));
+            ProjectFile.write(contents, store, file, null);
+            double saveS = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("saved in %.1f s: %.0f MB file (%.0f MB/s of tile data)%n", saveS, Files.size(file) / 1e6,
+                    doc.getAllocatedBytes() / 1e6 / saveS);
+
+            history.undo();
+            lines.add("undo " + cx / TiledImage.TILE + " " + (cy + 19 * 20) / TiledImage.TILE + " "
+                    + crc(doc.tileAt(cx / TiledImage.TILE, (cy + 19 * 20) / TiledImage.TILE).pixels()));
+            Files.write(samples, lines);
+        }
+
+        Process p = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-Djava.awt.headless=true", "-Xmx256m", "-cp", System.getProperty("java.class.path"),
+                ProjectBench.class.getName(), "child", file.toString(), samples.toString())
+                .redirectErrorStream(true).start();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String line; (line = r.readLine()) != null; ) System.out.println("child: " + line);
+        }
+        p.waitFor();
+        for (File f : dir.toFile().listFiles()) f.delete();
+        dir.toFile().delete();
+    }
+
+    static void child(Path file, Path samples) throws Exception {
+        long start = System.nanoTime();
+        try (TileStore store = TileStore.openScratch(64L << 20)) {
+            ProjectFile project = ProjectFile.open(file, store);
+            LayerStack layers = LayerStack.of(project.getLayers(), store);
+            TiledImage doc = layers.get(0).getImage();
+            TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+            CommandLog log = new CommandLog();
+            project.restoreHistory(layers, history);
+            project.restoreLog(log);
+            double openMs = (System.nanoTime() - start) / 1e6;
+
+            // first screen at the centre
+            long t0 = System.nanoTime();
+            Rectangle screen = new Rectangle(SIZE / 2 - SCREEN_W / 2, SIZE / 2 - SCREEN_H / 2, SCREEN_W, SCREEN_H);
+            doc.toBufferedImage(screen);
+            double firstMs = (System.nanoTime() - t0) / 1e6;
+            System.out.printf("opened %dx%d project (%d tiles, %d undo entries, %d logged commands) in %.0f ms, first screen in %.0f ms%n",
+                    doc.getWidth(), doc.getHeight(), project.getTileCount(), history.getUndoDepth(), log.size(), openMs, firstMs);
+
+            // pan across the painted area
+            t0 = System.nanoTime();
+            int screens = 0;
+            long maxResident = 0;
+            for (int y = SIZE / 2 - 8 * SCREEN_H; y < SIZE / 2 + 8 * SCREEN_H; y += SCREEN_H) {
+                for (int x = SIZE / 2 - 6 * SCREEN_W; x < SIZE / 2 + 6 * SCREEN_W; x += SCREEN_W / 2) {
+                    doc.toBufferedImage(new Rectangle(x, y, SCREEN_W, SCREEN_H));
+                    maxResident = Math.max(maxResident, store.getResidentBytes());
+                    screens++;
+                }
+            }
+            double panMs = (System.nanoTime() - t0) / 1e6;
+
+            boolean identical = true;
+            Map<String, String> undo = new HashMap<>();
+            for (String line : Files.readAllLines(samples)) {
+                String[] f = line.split(" ");
+                int col = Integer.parseInt(f[1]), row = Integer.parseInt(f[2]);
+                if (f[0].equals("undo")) {
+                    undo.put(col + " " + row, f[3]);
+                } else {
+                    identical &= f[3].equals(String.valueOf(crc(doc.tileAt(col, row).pixels())));
+                }
+            }
+            history.undo();
+            log.undo();
+            for (Map.Entry<String, String> e : undo.entrySet()) {
+                String[] k = e.getKey().split(" ");
+                identical &= e.getValue().equals(String.valueOf(crc(doc.tileAt(Integer.parseInt(k[0]), Integer.parseInt(k[1])).pixels())));
+            }
+
+            // saving again copies the tiles that are still encoded in the file
+            t0 = System.nanoTime();
+            Path copy = file.resolveSibling("copy" + ProjectFile.EXTENSION);
+            ProjectFile.write(new ProjectFile.Contents(layers, history, log, project.getMetadata()), store, copy, null);
+            System.out.printf("saved again in %.0f ms (%.0f MB)%n", (System.nanoTime() - t0) / 1e6, Files.size(copy) / 1e6);
+            Files.delete(copy);
+
+            System.gc();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            System.out.printf("panned %d screens in %.0f ms (%.1f ms/screen), %d tiles decoded, max resident %.0f MB, heap after GC %.0f MB%n",
+                    screens, panMs, panMs / screens, store.getPageIns(), maxResident / 1e6, heap / 1e6);
+            System.out.println("samples and undo identical=" + identical);
+        }
+    }
+
+    static long crc(int[] px) {
+        CRC32 crc = new CRC32();
+        for (int v : px) crc.update(v);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,118 @@
+package com.paintapp;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+// Tolerance fill / magic-wand region on a large image. Compare core scaling by
+// running with different pool sizes, e.g. for N in 1 2 4 8 16:
+//   java -Djava.awt.headless=true -Xmx3g \
+//        -Djava.util.concurrent.ForkJoinPool.common.parallelism=N \
+//        -cp out com.paintapp.RegionFillBench 16384
+// With N=1 the single-threaded scanline path is used; the printed checksum
+// must be the same for every N. Also times the same fill with antialiased
+// edges, after checking their coverage, and that they match a pixel by pixel
+// blend on an image and on a document.
+public class RegionFillBench {
+    public static void main(String[] args) {
+        edgeChecks();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+        BufferedImage image = FloodFillBench.scribble(size, size);
+        int[] px = ImageUtils.pixels(image);
+        // a gradient so tolerance matters
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int i = y * size + x;
+                if (px[i] == 0xFFFFFFFF) px[i] = 0xFFFFFFFF - ((x / 1024) & 7);
+            }
+        }
+
+        FloodFill filler = new FloodFill();
+        filler.setTolerance(8);
+        filler.select(image, 0, 0); // warm-up
+
+        long t0 = System.nanoTime();
+        RegionMask mask = filler.select(image, 0, 0);
+        double selectMs = (System.nanoTime() - t0) / 1e6;
+
+        t0 = System.nanoTime();
+        filler.fill(image, mask, 0xFFFF0000);
+        double paintMs = (System.nanoTime() - t0) / 1e6;
+
+        System.out.printf("%dx%d, parallelism %d: region %d px in %.0f ms, paint %.0f ms, checksum %d%n",
+                size, size, ForkJoinPool.getCommonPoolParallelism(), mask.getPixelCount(),
+                selectMs, paintMs, Arrays.hashCode(px));
+
+        // the same region again, now red, with antialiased edges
+        filler.setAntialias(true);
+        t0 = System.nanoTime();
+        filler.fill(image, 0, 0, 0xFF0000FF);
+        System.out.printf("antialiased fill %.0f ms%n", (System.nanoTime() - t0) / 1e6);
+    }
+
+    // A white 16x16 image with a black wall at x = 8 and a black pixel at
+    // (3, 3), filled red from (0, 0) with antialiasing: a wall pixel has 3 of
+    // its 8 neighbours filled, the lone pixel all 8
+    static void edgeChecks() {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        int[] px = ImageUtils.pixels(image);
+        Arrays.fill(px, 0xFFFFFFFF);
+        for (int y = 0; y < 16; y++) px[y * 16 + 8] = 0xFF000000;
+        px[3 * 16 + 3] = 0xFF000000;
+        FloodFill filler = new FloodFill();
+        filler.setAntialias(true);
+        filler.fill(image, 0, 0, 0xFFFF0000);
+        check("wall pixel 3/8 covered", px[5 * 16 + 8] == FloodFill.blend(0xFF000000, 0xFFFF0000, 3 * 255 / 8));
+        check("enclosed pixel fully covered", px[3 * 16 + 3] == 0xFFFF0000);
+        check("beyond the wall untouched", px[5 * 16 + 9] == 0xFFFFFFFF);
+
+        // scribbles across tile edges: an image (512 pixel tiles) and a
+        // document (128) against blending each pixel next to the mask by hand
+        int w = 1300, h = 900;
+        BufferedImage before = FloodFillBench.scribble(w, h);
+        filler.setAntialias(false);
+        RegionMask mask = filler.select(before, 5, 5);
+        int[] expected = ImageUtils.pixels(before).clone();
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                if (mask.contains(x, y)) {
+                    expected[y * w + x] = 0xFFFF0000;
+                    continue;
+                }
+                int n = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if ((dx != 0 || dy != 0) && mask.contains(x + dx, y + dy)) n++;
+                    }
+                }
+                if (n > 0) expected[y * w + x] = FloodFill.blend(expected[y * w + x], 0xFFFF0000, n * 255 / 8);
+            }
+        }
+        BufferedImage image2 = FloodFillBench.scribble(w, h);
+        TiledImage doc = new TiledImage(w, h, 0xFFFFFFFF);
+        int[] src = ImageUtils.pixels(image2);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                doc.writableTile(x / TiledImage.TILE, y / TiledImage.TILE).pixels()[(y % TiledImage.TILE) * TiledImage.TILE + x % TiledImage.TILE] = src[y * w + x];
+            }
+        }
+        filler.setAntialias(true);
+        filler.fill(image2, 5, 5, 0xFFFF0000);
+        filler.fill(doc, 5, 5, 0xFFFF0000);
+        check("antialiased image fill matches by hand", Arrays.equals(src, expected));
+        int[] line = new int[w];
+        boolean same = true;
+        for (int y = 0; y < h; y++) {
+            doc.readRow(y, line);
+            same &= Arrays.equals(line, 0, w, expected, y * w, y * w + w);
+        }
+        check("antialiased document fill matches by hand", same);
+    }
+
+    static void check(String what, boolean ok) {
+        if (!ok) {
+            System.out.println(what + ": false");
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+// Records 100k random operations (strokes, shapes, text, a few fills) the way
+// PaintCanvas does: drawn live, logged to a CommandLog and committed to a
+// TileHistory after each. Then compares
+//   - memory: command log vs. tile snapshots in history vs. full-image snapshots
+//   - a full replay from blank and a rebuild from the latest checkpoint
+//   - a re-render of the whole log at 2x
+// and checks that the replayed document is identical to the live one.
+// Run: java -Djava.awt.headless=true -Xmx2g -cp out com.paintapp.ReplayBench [ops]
+public class ReplayBench {
+
+    static final int W = 1920, H = 1080, BG = 0xFFFFFFFF;
+
+    public static void main(String[] args) {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        TiledImage live = new TiledImage(W, H, BG);
+        TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+        CommandLog log = new CommandLog();
+        FloodFill filler = new FloodFill();
+        history.reset(live);
+
+        Random rnd = new Random(11);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            randomOp(rnd, i, live, log, filler);
+            if (history.commit(live) == null) {
+                log.rollback();
+            } else {
+                log.commit();
+                if (log.getGroupCount() % Constants.CHECKPOINT_INTERVAL == 0) log.checkpoint(live.snapshot());
+            }
+        }
+        double liveS = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("%d ops drawn live in %.1f s (%d changed the document)%n", ops, liveS, log.size());
+
+        System.out.printf("memory: command log %.1f MB (%.0f B/op, all %d ops)%n",
+                log.getByteSize() / 1e6, (double) log.getByteSize() / log.size(), log.size());
+        System.out.printf("        tile history %.1f MB for only the last %d ops (%.0f B/op)%n",
+                history.getBytesUsed() / 1e6, history.getUndoDepth(), (double) history.getBytesUsed() / history.getUndoDepth());
+        System.out.printf("        full-image snapshots: %.1f MB per op%n", (double) W * H * 4 / 1e6);
+
+        CommandReplayer replayer = new CommandReplayer();
+        t0 = System.nanoTime();
+        TiledImage full = replayer.render(log, W, H, BG, 1.0);
+        double fullS = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("full replay: %.1f s (%.1f us/op), identical=%b%n",
+                fullS, fullS * 1e6 / log.size(), same(live, full));
+
+        t0 = System.nanoTime();
+        TiledImage rebuilt = replayer.rebuild(log, W, H, BG, null);
+        double tailMs = (System.nanoTime() - t0) / 1e6;
+        int from = log.checkpointBefore(log.size()).getKey();
+        System.out.printf("rebuild from checkpoint at op %d + %d op tail: %.0f ms, identical=%b%n",
+                from, log.size() - from, tailMs, same(live, rebuilt));
+
+        // step back 300 ops: tile history vs. checkpoint + log
+        t0 = System.nanoTime();
+        for (int i = 0; i < 300; i++) history.undo();
+        double undoMs = (System.nanoTime() - t0) / 1e6;
+        for (int i = 0; i < 300; i++) log.undo();
+        t0 = System.nanoTime();
+        rebuilt = replayer.rebuild(log, W, H, BG, null);
+        double logUndoMs = (System.nanoTime() - t0) / 1e6;
+        System.out.printf("300 undos: tile history %.1f ms, checkpoint + log %.0f ms, identical=%b%n",
+                undoMs, logUndoMs, same(live, rebuilt));
+
+        t0 = System.nanoTime();
+        TiledImage big = replayer.render(log, W, H, BG, 2.0);
+        System.out.printf("2x re-render (%dx%d): %.1f s%n", big.getWidth(), big.getHeight(), (System.nanoTime() - t0) / 1e9);
+    }
+
+    static boolean same(TiledImage a, TiledImage b) {
+        int[] ra = new int[W], rb = new int[W];
+        for (int y = 0; y < H; y++) {
+            a.getData(new Rectangle(0, y, W, 1)).getDataElements(0, y, W, 1, ra);
+            b.getData(new Rectangle(0, y, W, 1)).getDataElements(0, y, W, 1, rb);
+            if (!Arrays.equals(ra, rb)) return false;
+        }
+        return true;
+    }
+
+    static final Tool[] SHAPES = {Tool.RECTANGLE, Tool.SQUARE, Tool.OVAL, Tool.CIRCLE, Tool.TRIANGLE};
+
+    // One random edit, drawn on 'doc' and recorded in 'log' like PaintCanvas
+    // does (not committed)
+    static void randomOp(Random rnd, int i, TiledImage doc, CommandLog log, FloodFill filler) {
+        int W = doc.getWidth(), H = doc.getHeight();
+        int rgb = 0xFF000000 | rnd.nextInt(0x1000000);
+        int x = rnd.nextInt(W), y = rnd.nextInt(H);
+        int kind = rnd.nextInt(1000);
+        if (kind < 700) {
+            int size = 1 + rnd.nextInt(12);
+            log.beginStroke(rgb, size, x, y);
+            StrokeSession s = new StrokeSession(doc, size, new Color(rgb), x, y);
+            log.strokeFlush();
+            s.flush();
+            int n = 10 + rnd.nextInt(20);
+            for (int p = 1; p <= n; p++) {
+                x = clamp(x + rnd.nextInt(41) - 20, W);
+                y = clamp(y + rnd.nextInt(41) - 20, H);
+                s.addPoint(x, y);
+                log.strokePoint(x, y);
+                if (p % 5 == 0) {
+                    s.flush();
+                    log.strokeFlush();
+                }
+            }
+            s.end();
+        } else if (kind < 950) {
+            Tool tool = SHAPES[rnd.nextInt(SHAPES.length)];
+            int size = 1 + rnd.nextInt(8);
+            int x1 = clamp(x + rnd.nextInt(301) - 150, W), y1 = clamp(y + rnd.nextInt(301) - 150, H);
+            log.shape(tool, rgb, size, x, y, x1, y1);
+            CommandReplayer.drawShape(doc, tool, rgb, size, x, y, x1, y1, 1.0);
+        } else if (kind < 995) {
+            int size = 12 + rnd.nextInt(30);
+            log.text(x, y, rgb, "SansSerif", Font.PLAIN, size, "op " + i);
+            CommandReplayer.drawText(doc, x, y, rgb, new Font("SansSerif", Font.PLAIN, size), "op " + i, 1.0);
+        } else {
+            filler.setTolerance(rnd.nextInt(3) * 16);
+            log.fill(x, y, rgb, filler.getTolerance(), false);
+            filler.fill(doc, x, y, rgb);
+        }
+    }
+
+    static int clamp(int v, int max) {
+        return Math.max(0, Math.min(max - 1, v));
+    }
+}
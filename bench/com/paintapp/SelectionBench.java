@@ -0,0 +1,149 @@
+package com.paintapp;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// Times a 4000x4000 selection on an 8000x8000 document: lifting it, drawing
+// it floating into a 1920x1080 view while it is dragged (against copying its
+// pixels out for every frame), and dropping it by whole tiles and by an odd
+// offset, with the tiles each drop writes.
+//
+// Also checks on a small document that
+//   - a dropped move or copy matches moving the pixels by hand,
+//   - replaying the logged move gives the same pixels,
+//   - only the tiles under the source and the destination change.
+// Run: java -Xmx3g -Djava.awt.headless=true -cp out com.paintapp.SelectionBench [size]
+public class SelectionBench {
+
+    static final int FRAMES = 60;
+
+    public static void main(String[] args) {
+        checks();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+        int side = size / 2;
+        TiledImage.Snapshot base = FilterBench.content(size, size).snapshot();
+        Rectangle area = new Rectangle(size / 4 + 5, size / 4 + 3, side, side);
+        BufferedImage view = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB);
+        System.out.printf("%dx%d document, %dx%d selection%n", size, size, side, side);
+        for (int round = 0; round < 2; round++) { // first round warms up
+            TiledImage doc = new TiledImage(base, null);
+            long t0 = System.nanoTime();
+            Selection s = Selection.cut(doc, area);
+            long lift = System.nanoTime() - t0;
+
+            // dragging: the view follows the selection's top left corner
+            Graphics2D g = view.createGraphics();
+            t0 = System.nanoTime();
+            for (int f = 0; f < FRAMES; f++) {
+                s.moveBy(3, 2);
+                Rectangle at = s.getBounds();
+                g.setTransform(new AffineTransform());
+                g.translate(-at.x + 200, -at.y + 100);
+                g.setClip(at.x - 200, at.y - 100, view.getWidth(), view.getHeight());
+                s.paint(g);
+            }
+            long floating = (System.nanoTime() - t0) / FRAMES;
+            g.dispose();
+
+            g = view.createGraphics();
+            t0 = System.nanoTime();
+            for (int f = 0; f < FRAMES / 10; f++) {
+                // the selection's pixels copied out, then drawn
+                BufferedImage copy = doc.toBufferedImage(area);
+                g.drawImage(copy, 200 - f, 100 - f, null);
+            }
+            long copying = (System.nanoTime() - t0) / (FRAMES / 10);
+            g.dispose();
+
+            long[] drop = new long[2];
+            int[] tiles = new int[2];
+            int[][] offsets = {{2 * TiledImage.TILE, TiledImage.TILE}, {37, -21}};
+            for (int i = 0; i < 2; i++) {
+                doc = new TiledImage(base, null);
+                s = Selection.cut(doc, area);
+                doc.takeChanges();
+                s.moveBy(offsets[i][0], offsets[i][1]);
+                t0 = System.nanoTime();
+                s.drop(doc);
+                drop[i] = System.nanoTime() - t0;
+                tiles[i] = doc.takeChanges().size();
+            }
+            if (round == 0) continue;
+            System.out.printf("lift              %7.1f ms%n", lift / 1e6);
+            System.out.printf("floating frame    %7.2f ms  (%.0f fps)%n", floating / 1e6, 1e9 / floating);
+            System.out.printf("copied frame      %7.2f ms  (%.0f fps)%n", copying / 1e6, 1e9 / copying);
+            System.out.printf("drop by tiles     %7.1f ms  %5d tiles written%n", drop[0] / 1e6, tiles[0]);
+            System.out.printf("drop by (37,-21)  %7.1f ms  %5d tiles written%n", drop[1] / 1e6, tiles[1]);
+        }
+    }
+
+    static void checks() {
+        int w = 700, h = 500;
+        TiledImage.Snapshot base = FilterBench.content(w, h).snapshot();
+        Rectangle area = new Rectangle(70, 45, 300, 200);
+        int[][] offsets = {{256, 128}, {37, -21}, {-100, 400}, {500, 0}};
+        for (boolean copy : new boolean[] {false, true}) {
+            for (int[] o : offsets) {
+                String what = (copy ? "copy" : "move") + " by (" + o[0] + "," + o[1] + ")";
+                TiledImage doc = new TiledImage(base, null);
+                Selection s = copy ? Selection.copy(doc, area).floatOver(doc) : Selection.cut(doc, area);
+                s.moveBy(o[0], o[1]);
+                s.drop(doc);
+                TiledImage.Changes changes = doc.takeChanges();
+                check(what + " == by hand", Arrays.equals(pixels(doc), byHand(base, area, o[0], o[1], copy)));
+
+                CommandLog log = new CommandLog();
+                log.move(area, o[0], o[1], copy);
+                log.commit();
+                TiledImage replayed = new TiledImage(base, null);
+                new CommandReplayer().apply(replayed, log, 0, log.size(), 1.0);
+                check(what + " replayed == live", Arrays.equals(pixels(doc), pixels(replayed)));
+
+                Rectangle dest = new Rectangle(area.x + o[0], area.y + o[1], area.width, area.height);
+                boolean inside = true;
+                for (int key : changes.keys) {
+                    Rectangle tile = new Rectangle(TiledImage.keyCol(key) * TiledImage.TILE,
+                            TiledImage.keyRow(key) * TiledImage.TILE, TiledImage.TILE, TiledImage.TILE);
+                    inside &= tile.intersects(dest) || !copy && tile.intersects(area);
+                }
+                check(what + " changes only its tiles", inside);
+            }
+        }
+    }
+
+    static int[] byHand(TiledImage.Snapshot base, Rectangle area, int dx, int dy, boolean copy) {
+        TiledImage doc = new TiledImage(base, null);
+        int w = doc.getWidth(), h = doc.getHeight();
+        int[] px = pixels(doc), out = px.clone();
+        if (!copy) {
+            for (int y = area.y; y < area.y + area.height; y++) {
+                Arrays.fill(out, y * w + area.x, y * w + area.x + area.width, doc.getBackground());
+            }
+        }
+        for (int y = area.y; y < area.y + area.height; y++) {
+            for (int x = area.x; x < area.x + area.width; x++) {
+                int tx = x + dx, ty = y + dy;
+                if (tx >= 0 && ty >= 0 && tx < w && ty < h) out[ty * w + tx] = px[y * w + x];
+            }
+        }
+        return out;
+    }
+
+    static int[] pixels(TiledImage doc) {
+        int w = doc.getWidth();
+        int[] px = new int[w * doc.getHeight()], row = new int[w];
+        for (int y = 0; y < doc.getHeight(); y++) {
+            doc.readRow(y, row);
+            System.arraycopy(row, 0, px, y * w, w);
+        }
+        return px;
+    }
+
+    static void check(String what, boolean ok) {
+        System.out.println(what + ": " + ok);
+        if (!ok) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,137 @@
+package com.paintapp;
+
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+
+// Time to first paint, over fresh JVMs: each run starts Main with
+// -Dpaint.startup=exit, which quits as soon as the window has painted, and
+// the median of the runs is reported, without and with an AppCDS archive
+// (written by a first run with -XX:ArchiveClassesAtExit, as paint.sh --cds
+// does). The classes on this classpath are packed into a jar first, as CDS
+// only archives classes from jars.
+//
+// Without a display the window cannot open, so it times instead, the same
+// way, the start-up work that needs none: the canvas and the tool icons from
+// the atlas, against the canvas plus what ran before the first paint until
+// now (an ImageIO read per icon, listing the fonts and starting JMX).
+// Run: java -cp out:bin com.paintapp.StartupBench [runs]   (bin has the icons)
+public class StartupBench {
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path jar = Files.createTempFile("startup", ".jar");
+        jar.toFile().deleteOnExit();
+        pack(jar);
+        if (!GraphicsEnvironment.isHeadless()) {
+            time("first paint", jar, runs, "-Dpaint.startup=exit", Main.class.getName());
+            return;
+        }
+        System.out.println("no display: timing the start-up work that needs no window");
+        time("before (fonts, JMX, ImageIO icons)", jar, runs, "-Djava.awt.headless=true", Work.class.getName(), "before");
+        time("after (atlas icons)", jar, runs, "-Djava.awt.headless=true", Work.class.getName(), "after");
+    }
+
+    // The start-up work, in a fresh JVM
+    public static class Work {
+        public static void main(String[] args) throws IOException {
+            PaintCanvas canvas = new PaintCanvas();
+            for (Tool t : Tool.values()) {
+                String name = t.name().toLowerCase();
+                if (args[0].equals("after")) {
+                    IconAtlas.icon(name);
+                } else {
+                    try (InputStream in = Work.class.getResourceAsStream("/icons/" + name + ".png")) {
+                        ImageIO.read(in);
+                    }
+                }
+            }
+            if (args[0].equals("before")) {
+                GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+                canvas.getMetrics().registerMBean();
+            }
+        }
+    }
+
+    static void time(String what, Path jar, int runs, String... command) throws Exception {
+        Path archive = Files.createTempFile("startup", ".jsa");
+        Files.delete(archive);
+        archive.toFile().deleteOnExit();
+        run(jar, "-XX:ArchiveClassesAtExit=" + archive, concat("-Xlog:cds=error", command));
+        long[] plain = new long[runs], cds = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            plain[i] = run(jar, null, command);
+            cds[i] = run(jar, "-XX:SharedArchiveFile=" + archive, command);
+        }
+        System.out.printf("%-36s %5d ms, with AppCDS %5d ms (median of %d)%n", what, median(plain), median(cds), runs);
+    }
+
+    // Milliseconds to the first paint if the app reports it, else to exit
+    static long run(Path jar, String cds, String... command) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (cds != null) cmd.add(cds);
+        cmd.add("-cp");
+        cmd.add(jar.toString());
+        cmd.addAll(Arrays.asList(command));
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        long ms = -1;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String line; (line = out.readLine()) != null; ) {
+                if (line.startsWith("first paint ")) ms = Long.parseLong(line.split(" ")[2]);
+                else if (!line.isBlank()) System.out.println("  | " + line);
+            }
+        }
+        if (p.waitFor() != 0) throw new IllegalStateException("exit code " + p.exitValue() + ": " + cmd);
+        return ms >= 0 ? ms : (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // Every file in the directories on the classpath, in one jar
+    static void pack(Path jar) throws IOException {
+        Set<String> seen = new HashSet<>();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                Path dir = Path.of(entry);
+                if (!Files.isDirectory(dir)) continue;
+                try (Stream<Path> files = Files.walk(dir)) {
+                    for (Path f : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                        String name = dir.relativize(f).toString().replace(File.separatorChar, '/');
+                        if (!seen.add(name)) continue;
+                        out.putNextEntry(new JarEntry(name));
+                        Files.copy(f, (OutputStream) out);
+                        out.closeEntry();
+                    }
+                }
+            }
+        }
+    }
+
+    static String[] concat(String first, String... rest) {
+        String[] all = new String[rest.length + 1];
+        all[0] = first;
+        System.arraycopy(rest, 0, all, 1, rest.length);
+        return all;
+    }
+
+    static long median(long[] values) {
+        long[] v = values.clone();
+        Arrays.sort(v);
+        return v[v.length / 2];
+    }
+}
@@ -0,0 +1,74 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+// Replays 5 s of recorded input at 10k points/s (60 Hz frames, ~167 points
+// per burst) and reports heap allocation per event for:
+//   legacy  - new Graphics2D + BasicStroke + drawLine per drag event (BufferedImage)
+//   session - StrokeSession on a TiledImage, flushed after every event
+//   burst   - StrokeSession, flushed once per frame burst
+// For a JFR view of the same run add
+//   -XX:StartFlightRecording=settings=profile,filename=stroke.jfr
+// and inspect it with: jfr print --events jdk.ObjectAllocationSample stroke.jfr
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.StrokeReplayBench
+public class StrokeReplayBench {
+
+    static final int POINTS = 50_000, BURST = 167, STROKE = 12;
+
+    public static void main(String[] args) {
+        int[] xs = new int[POINTS], ys = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = 960 + (int) (800 * Math.sin(i / 900.0));
+            ys[i] = 540 + (int) (450 * Math.sin(i / 1300.0));
+        }
+        for (int round = 0; round < 2; round++) { // first round warms up
+            boolean print = round == 1;
+            run("legacy ", print, (img, doc) -> {
+                for (int i = 1; i < POINTS; i++) {
+                    Graphics2D g = img.createGraphics();
+                    g.setStroke(new BasicStroke(STROKE, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                    g.setColor(Color.BLACK);
+                    g.drawLine(xs[i - 1], ys[i - 1], xs[i], ys[i]);
+                    g.dispose();
+                }
+            });
+            run("session", print, (img, doc) -> {
+                StrokeSession s = new StrokeSession(doc, STROKE, Color.BLACK, xs[0], ys[0]);
+                for (int i = 1; i < POINTS; i++) {
+                    s.addPoint(xs[i], ys[i]);
+                    s.flush();
+                }
+                s.end();
+            });
+            run("burst  ", print, (img, doc) -> {
+                StrokeSession s = new StrokeSession(doc, STROKE, Color.BLACK, xs[0], ys[0]);
+                for (int i = 1; i < POINTS; i++) {
+                    s.addPoint(xs[i], ys[i]);
+                    if (i % BURST == 0) s.flush();
+                }
+                s.end();
+            });
+        }
+    }
+
+    interface Replay {
+        void run(BufferedImage image, TiledImage doc);
+    }
+
+    static void run(String name, boolean print, Replay replay) {
+        BufferedImage image = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_ARGB);
+        TiledImage doc = new TiledImage(1920, 1080, 0xFFFFFFFF);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long a0 = mx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        replay.run(image, doc);
+        long ns = System.nanoTime() - t0;
+        long bytes = mx.getThreadAllocatedBytes(tid) - a0;
+        if (print) {
+            System.out.printf("%s %6.1f bytes/event, %6.2f us/event%n", name, (double) bytes / POINTS, ns / 1e3 / POINTS);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.paintapp;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+// Cost of a TEXT tool click on a 4000x3000 document, done as the tool does
+// it now (font and bounds from TextLayouts, then drawText) and as before
+// (a new Font and a new GlyphVector for the bounds on every click): first
+// the layout alone, then whole stamps per second for one label over and
+// over (the annotation case) and a different label every time, into tiles
+// already writable; then the same label committed after every stamp, as the
+// tool does, which adds copying the tiles it touches. Rounds alternate the
+// two ways (and which goes first) and the medians are compared.
+//
+// Also checks on a small document that text drawn either way is the same,
+// pixel for pixel and in the area reported, across fonts, styles, sizes,
+// scripts, colours, scales and positions (across tile and document edges).
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.TextBench [rounds]
+public class TextBench {
+
+    static final int STAMPS = 10000;
+    static final String LABEL = "Sample 12: check weld (B)";
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+        checks();
+        String[] names = {"layout only", "same label", "different labels", "same label, committed"};
+        TiledImage.Snapshot base = new TiledImage(4000, 3000, 0xFFFFFFFF).snapshot();
+        for (int mode = 0; mode < 4; mode++) {
+            double[][] rates = new double[2][rounds + 1];
+            for (int r = 0; r <= rounds; r++) { // round 0 warms up
+                for (int k = 0; k < 2; k++) {
+                    int before = (k + r) % 2; // which goes first alternates too
+                    rates[before][r] = run(mode, before == 1, base);
+                }
+            }
+            double now = median(rates[0]), was = median(rates[1]);
+            System.out.printf("%-22s %9.0f /s, before %9.0f /s (%.2fx)%n", names[mode], now, was, now / was);
+        }
+    }
+
+    // Clicks per second, one way
+    static double run(int mode, boolean before, TiledImage.Snapshot base) {
+        TiledImage doc = new TiledImage(base, null);
+        if (mode == 1 || mode == 2) {
+            for (int row = 0; row < doc.getRows(); row++) {
+                for (int col = 0; col < doc.getColumns(); col++) doc.writableTile(col, row);
+            }
+        }
+        Random random = new Random(1);
+        int stamps = mode == 0 ? STAMPS * 10 : mode == 3 ? STAMPS / 10 : STAMPS;
+        long sink = 0, t0 = System.nanoTime();
+        for (int i = 0; i < stamps; i++) {
+            String text = mode == 2 ? "Label " + i : LABEL;
+            int x = random.nextInt(3800), y = 30 + random.nextInt(2950), rgb = 0xFF000000 | random.nextInt();
+            if (mode == 0) {
+                sink += before ? boundsBefore(new Font(Font.SANS_SERIF, Font.PLAIN, 24), text, x, y).width
+                        : TextLayouts.bounds(TextLayouts.font(Font.SANS_SERIF, Font.PLAIN, 24), text, x, y).width;
+                continue;
+            }
+            if (before) drawTextBefore(doc, x, y, rgb, new Font(Font.SANS_SERIF, Font.PLAIN, 24), text, 1.0);
+            else CommandReplayer.drawText(doc, x, y, rgb, TextLayouts.font(Font.SANS_SERIF, Font.PLAIN, 24), text, 1.0);
+            if (mode == 3) doc.takeChanges();
+        }
+        if (sink == 42) System.out.print("");
+        return stamps / ((System.nanoTime() - t0) / 1e9);
+    }
+
+    static double median(double[] rates) {
+        double[] v = Arrays.copyOfRange(rates, 1, rates.length);
+        Arrays.sort(v);
+        return v[v.length / 2];
+    }
+
+    static Rectangle boundsBefore(Font font, String text, int x, int y) {
+        FontRenderContext frc = new FontRenderContext(null, false, false);
+        return font.createGlyphVector(frc, text).getPixelBounds(frc, x, y);
+    }
+
+    // drawText as it was: a new layout for the bounds, drawString per tile
+    static Rectangle drawTextBefore(TiledImage doc, int x, int y, int rgb, Font font, String text, double scale) {
+        Rectangle bounds = boundsBefore(font, text, x, y);
+        bounds.grow(1, 1);
+        Color color = new Color(rgb, true);
+        return doc.draw(CommandReplayer.scaled(bounds, scale), g -> {
+            if (scale != 1.0) g.scale(scale, scale);
+            g.setColor(color);
+            g.setFont(font);
+            g.drawString(text, x, y);
+        });
+    }
+
+    static void checks() {
+        int w = 300, h = 200;
+        TiledImage.Snapshot base = FilterBench.content(w, h).snapshot();
+        String[] fonts = {Font.SANS_SERIF, Font.SERIF, Font.MONOSPACED, Font.DIALOG};
+        int[] sizes = {8, 13, 24, 48, 97};
+        String[] texts = {"Hello, world!", "fi ffl AV Wa Ty", "j(g)|y_Q@%&", "Stra\u00dfe \u00e9 \u00f1 \u00f8", "tab\tspace  end", " ",
+                "\u0645\u0631\u062d\u0628\u0627 abc", "\u0928\u092e\u0938\u094d\u0924\u0947"};
+        int[][] at = {{20, 60}, {110, 135}, {-15, 20}, {250, 199}, {127, 128}};
+        int[] colours = {0xFF0080C0, 0x80FF0000};
+        double[] scales = {1.0, 2.0};
+        int cases = 0;
+        for (String name : fonts) {
+            for (int style = 0; style < 4; style++) {
+                for (int size : sizes) {
+                    for (String text : texts) {
+                        for (int k = 0; k < at.length; k++) {
+                            int[] p = at[k];
+                            // every colour and scale, spread over the positions
+                            int rgb = colours[k % 2];
+                            double scale = scales[k / 2 % 2];
+                            TiledImage now = new TiledImage(base, null), before = new TiledImage(base, null);
+                            Rectangle a = CommandReplayer.drawText(now, p[0], p[1], rgb, TextLayouts.font(name, style, size), text, scale);
+                            Rectangle b = drawTextBefore(before, p[0], p[1], rgb, new Font(name, style, size), text, scale);
+                            String what = name + " " + style + " " + size + " \"" + text + "\" at " + p[0] + "," + p[1]
+                                    + " x" + scale;
+                            check(what + ": same area", Objects.equals(a, b));
+                            check(what + ": same pixels", same(now, before));
+                            cases++;
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(cases + " cases drawn the same as before");
+    }
+
+    static boolean same(TiledImage a, TiledImage b) {
+        int[] ra = new int[a.getWidth()], rb = new int[b.getWidth()];
+        for (int y = 0; y < a.getHeight(); y++) {
+            a.readRow(y, ra);
+            b.readRow(y, rb);
+            if (!Arrays.equals(ra, rb)) return false;
+        }
+        return true;
+    }
+
+    static void check(String what, boolean ok) {
+        if (!ok) {
+            System.out.println(what + ": false");
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.io.File;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+// A 30000x30000 document (3.6 GB as one ARGB image) with a few hundred strokes,
+// a fill and undo/redo. Reports the tiles actually allocated and the heap in
+// use; pass a file name to also stream a PNG export of the whole document.
+// Run: java -Djava.awt.headless=true -Xmx1g -cp out com.paintapp.TiledDocumentBench [out.png]
+public class TiledDocumentBench {
+    public static void main(String[] args) throws Exception {
+        int size = 30000, strokes = 500;
+        TiledImage doc = new TiledImage(size, size, Color.WHITE.getRGB());
+        TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+        history.reset(doc);
+
+        Random rnd = new Random(7);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < strokes; i++) {
+            int x = rnd.nextInt(size - 400), y = rnd.nextInt(size - 400);
+            StrokeSession s = new StrokeSession(doc, 4, Color.BLACK, x, y);
+            for (int p = 0; p < 20; p++) {
+                s.addPoint(x + rnd.nextInt(400), y + rnd.nextInt(400));
+                s.flush();
+            }
+            s.end();
+            history.commit(doc);
+        }
+        double strokeMs = (System.nanoTime() - t0) / 1e6;
+
+        // closed box, then fill its inside
+        doc.draw(new Rectangle(995, 995, 2010, 2010), g -> {
+            g.setColor(Color.BLUE);
+            g.setStroke(new BasicStroke(4));
+            g.drawRect(1000, 1000, 2000, 2000);
+        });
+        history.commit(doc);
+        FloodFill filler = new FloodFill();
+        t0 = System.nanoTime();
+        int filled = filler.fill(doc, 2000, 2000, Color.RED.getRGB());
+        double fillMs = (System.nanoTime() - t0) / 1e6;
+        history.commit(doc);
+
+        t0 = System.nanoTime();
+        int undone = 0;
+        while (undone < 50 && history.undo() != null) undone++;
+        while (history.redo() != null) { }
+        double undoMs = (System.nanoTime() - t0) / 1e6;
+
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf("document %dx%d (%.0f MB as one image), %d strokes in %.0f ms%n",
+                size, size, (double) size * size * 4 / 1e6, strokes, strokeMs);
+        System.out.printf("fill: %d px in %.0f ms; %d undo + redo in %.0f ms%n", filled, fillMs, undone, undoMs);
+        System.out.printf("tiles allocated: %d of %d (%.1f MB), history %.1f MB, heap used %.1f MB%n",
+                doc.getAllocatedTileCount(), doc.getColumns() * doc.getRows(), doc.getAllocatedBytes() / 1e6,
+                history.getBytesUsed() / 1e6, (rt.totalMemory() - rt.freeMemory()) / 1e6);
+
+        if (args.length > 0) {
+            t0 = System.nanoTime();
+            ImageIO.write(doc, "PNG", new File(args[0]));
+            System.out.printf("PNG export: %.1f s, %.1f MB%n", (System.nanoTime() - t0) / 1e9, new File(args[0]).length() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+// Headless check of zoomed views: documents of 5k, 10k and 20k pixels square
+// with random shapes over about a third of their tiles (paged through a
+// TileStore), drawn into a 1000x700 view at 5%. Reports the first frame
+// (building the pyramid), the steady frame time, which should not grow with
+// the document, and the frame after an edit; then the 20k document at other
+// zooms. Also checks a 50% view against a direct 2x2 average of the pixels,
+// and compares with scaling the whole document for the 5k one.
+// Run: java -Djava.awt.headless=true -cp out com.paintapp.ZoomBench
+public class ZoomBench {
+
+    static final int VIEW_W = 1000, VIEW_H = 700, FRAMES = 30;
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage view = new BufferedImage(VIEW_W, VIEW_H, BufferedImage.TYPE_INT_ARGB);
+        try (TileStore store = TileStore.openScratch(Constants.TILE_CACHE_BUDGET)) {
+            for (int size : new int[] {5000, 10000, 20000}) {
+                LayerStack layers = document(size, store);
+                double zoom = 0.05;
+                long t0 = System.nanoTime();
+                frame(layers, view, zoom, size / 2, size / 2);
+                long first = System.nanoTime() - t0;
+                double steady = median(layers, view, zoom, size / 2, size / 2);
+                // an edit in view: a stroke through the middle
+                TiledImage doc = layers.getActive().getImage();
+                long[] edits = new long[FRAMES];
+                for (int i = 0; i < FRAMES; i++) {
+                    int x = size / 2 + i * 40, y = size / 2;
+                    Rectangle r = doc.draw(new Rectangle(x - 10, y - 10, 420, 420), g -> {
+                        g.setColor(Color.RED);
+                        g.setStroke(new BasicStroke(8));
+                        g.drawLine(x, y, x + 400, y + 400);
+                    });
+                    layers.changed(r);
+                    long t1 = System.nanoTime();
+                    frame(layers, view, zoom, size / 2, size / 2);
+                    edits[i] = System.nanoTime() - t1;
+                }
+                doc.takeChanges();
+                Arrays.sort(edits);
+                System.out.printf("%5dx%-5d at 5%%: first frame %.1f ms, steady %.2f ms, after an edit %.2f ms%n",
+                        size, size, first / 1e6, steady, edits[FRAMES / 2] / 1e6);
+                if (size == 5000) {
+                    long t2 = System.nanoTime();
+                    Graphics2D g = view.createGraphics();
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.drawRenderedImage(LayerStack.flatten(layers.snapshot(), null), AffineTransform.getScaleInstance(zoom, zoom));
+                    g.dispose();
+                    System.out.printf("            scaling the whole document instead: %.1f ms%n", (System.nanoTime() - t2) / 1e6);
+                }
+                if (size == 20000) {
+                    for (double z : new double[] {1, 0.5, 0.25, 0.1, 0.05, 0.02}) {
+                        frame(layers, view, z, size / 2, size / 2);
+                        System.out.printf("            at %5.1f%%: %.2f ms per frame%n", z * 100, median(layers, view, z, size / 2, size / 2));
+                    }
+                    System.out.printf("            50%% view matches a direct 2x2 average=%b%n", checkHalf(layers, view));
+                }
+            }
+        }
+    }
+
+    static LayerStack document(int size, TileStore store) {
+        TiledImage doc = new TiledImage(size, size, Color.WHITE.getRGB(), store);
+        Random rnd = new Random(size);
+        int tiles = doc.getColumns() * doc.getRows();
+        for (int i = 0; i < tiles / 3; i++) {
+            int x = rnd.nextInt(size), y = rnd.nextInt(size), w = 20 + rnd.nextInt(100), h = 20 + rnd.nextInt(100);
+            Color c = new Color(rnd.nextInt());
+            doc.draw(new Rectangle(x, y, w + 1, h + 1), g -> {
+                g.setColor(c);
+                g.fillOval(x, y, w, h);
+            });
+        }
+        doc.takeChanges();
+        return new LayerStack(doc);
+    }
+
+    // One view of the document centred on (cx, cy)
+    static void frame(LayerStack layers, BufferedImage view, double zoom, int cx, int cy) {
+        int dx = (int) Math.round(VIEW_W / 2.0 - cx * zoom), dy = (int) Math.round(VIEW_H / 2.0 - cy * zoom);
+        Rectangle area = new Rectangle((int) Math.floor(-dx / zoom), (int) Math.floor(-dy / zoom),
+                (int) Math.ceil(VIEW_W / zoom) + 1, (int) Math.ceil(VIEW_H / zoom) + 1);
+        Graphics2D g = view.createGraphics();
+        g.setClip(0, 0, VIEW_W, VIEW_H);
+        layers.paintTo(g, area, zoom, dx, dy);
+        g.dispose();
+    }
+
+    static double median(LayerStack layers, BufferedImage view, double zoom, int cx, int cy) {
+        long[] t = new long[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            long t0 = System.nanoTime();
+            frame(layers, view, zoom, cx, cy);
+            t[i] = System.nanoTime() - t0;
+        }
+        Arrays.sort(t);
+        return t[FRAMES / 2] / 1e6;
+    }
+
+    // The 50% view of the top-left corner against the pixels averaged directly
+    static boolean checkHalf(LayerStack layers, BufferedImage view) {
+        Graphics2D g = view.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        layers.paintTo(g, new Rectangle(0, 0, VIEW_W * 2, VIEW_H * 2), 0.5, 0, 0);
+        g.dispose();
+        BufferedImage full = layers.getActive().getImage().toBufferedImage(new Rectangle(0, 0, VIEW_W * 2, VIEW_H * 2));
+        for (int y = 0; y < VIEW_H; y++) {
+            for (int x = 0; x < VIEW_W; x++) {
+                int want = MipPyramid.average(full.getRGB(2 * x, 2 * y), full.getRGB(2 * x + 1, 2 * y),
+                        full.getRGB(2 * x, 2 * y + 1), full.getRGB(2 * x + 1, 2 * y + 1));
+                if (view.getRGB(x, y) != want) return false;
+            }
+        }
+        return true;
+    }
+}
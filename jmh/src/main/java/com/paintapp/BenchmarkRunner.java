@@ -0,0 +1,120 @@
+package com.paintapp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar. Takes the usual JMH options and adds two
+// defaults: the GC profiler (allocation per operation) and CSV results in
+// jmh-<date>.csv. With --baseline <old.csv> the new results are compared with
+// an earlier run; --compare <old.csv> <new.csv> only compares.
+//
+//   java -jar jmh/target/benchmarks.jar                       everything
+//   java -jar jmh/target/benchmarks.jar floodFill -p size=1000x700
+//   java -jar jmh/target/benchmarks.jar --baseline jmh-20260101-120000.csv
+public class BenchmarkRunner {
+
+    private static final String ALLOC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>();
+        Path baseline = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--compare") && i + 2 < args.length) {
+                compare(Path.of(args[i + 1]), Path.of(args[i + 2]));
+                return;
+            } else if (args[i].equals("--baseline") && i + 1 < args.length) {
+                baseline = Path.of(args[++i]);
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+        CommandLineOptions cmd = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (cmd.getProfilers().isEmpty()) options.addProfiler(GCProfiler.class);
+        Path out;
+        if (cmd.getResultFormat().hasValue()) {
+            out = cmd.getResult().hasValue() ? Path.of(cmd.getResult().get()) : null;
+        } else {
+            out = cmd.getResult().hasValue() ? Path.of(cmd.getResult().get())
+                    : Path.of("jmh-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".csv");
+            options.resultFormat(ResultFormatType.CSV).result(out.toString());
+        }
+        new Runner(options.build()).run();
+        if (out != null) System.out.println("Results: " + out.toAbsolutePath());
+        if (baseline != null && out != null) compare(baseline, out);
+    }
+
+    // Prints score and allocation of each benchmark in both runs
+    static void compare(Path before, Path after) throws IOException {
+        Map<String, double[]> a = read(before), b = read(after);
+        System.out.printf("%-60s %12s %12s %8s %14s %14s%n", "benchmark", "before", "after", "change", "alloc before", "alloc after");
+        for (Map.Entry<String, double[]> e : b.entrySet()) {
+            double[] old = a.get(e.getKey()), now = e.getValue();
+            if (old == null) {
+                System.out.printf("%-60s %12s %12.3f %8s %14s %14.0f%n", e.getKey(), "-", now[0], "new", "-", now[1]);
+                continue;
+            }
+            System.out.printf("%-60s %12.3f %12.3f %+7.1f%% %14.0f %14.0f%n", e.getKey(), old[0], now[0],
+                    (now[0] / old[0] - 1) * 100, old[1], now[1]);
+        }
+    }
+
+    // benchmark (with its parameters) -> {score, bytes allocated per op}
+    private static Map<String, double[]> read(Path csv) throws IOException {
+        Map<String, double[]> results = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(csv);
+        List<String> header = fields(lines.get(0));
+        int score = header.indexOf("Score"), unit = header.indexOf("Unit");
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> f = fields(line);
+            String name = f.get(0);
+            boolean alloc = name.endsWith(":" + ALLOC) || name.endsWith(":·" + ALLOC);
+            if (alloc) name = name.substring(0, name.lastIndexOf(':'));
+            else if (name.contains(":")) continue;
+            StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+            for (int i = unit + 1; i < f.size(); i++) key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(f.get(i));
+            if (!alloc) key.append(" (").append(f.get(unit)).append(')');
+            double v = Double.parseDouble(f.get(score));
+            if (alloc) {
+                // the allocation row has no unit suffix in its key
+                for (Map.Entry<String, double[]> e : results.entrySet()) {
+                    if (e.getKey().startsWith(key + " (")) e.getValue()[1] = v;
+                }
+            } else {
+                results.put(key.toString(), new double[] {v, Double.NaN});
+            }
+        }
+        return results;
+    }
+
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                fields.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        fields.add(cur.toString());
+        return fields;
+    }
+}
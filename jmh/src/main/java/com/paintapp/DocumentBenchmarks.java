@@ -0,0 +1,125 @@
+package com.paintapp;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The canvas's edit paths on a tiled document, each ending with the history
+// commit the canvas does after it: flood fill, a shape, a freehand stroke,
+// text, the snapshot taken for saving, and PNG export. The document holds a
+// box covering the middle quarter (the fill target) and scattered strokes.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx3g"})
+public class DocumentBenchmarks {
+
+    @Param({"1000x700", "3840x2160", "16384x16384"})
+    public String size;
+
+    private TiledImage doc;
+    private TileHistory history;
+    private final FloodFill filler = new FloodFill();
+    private final PngExporter exporter = new PngExporter(java.util.zip.Deflater.DEFAULT_COMPRESSION);
+    private final Font font = new Font("SansSerif", Font.PLAIN, 24);
+    private int w, h, flip, step;
+    private Path png;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] wh = size.split("x");
+        w = Integer.parseInt(wh[0]);
+        h = Integer.parseInt(wh[1]);
+        doc = new TiledImage(w, h, Color.WHITE.getRGB());
+        history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+        CommandReplayer.drawShape(doc, Tool.RECTANGLE, Color.BLACK.getRGB(), 3, w / 4, h / 4, w * 3 / 4, h * 3 / 4, 1.0);
+        Random rnd = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            int x = rnd.nextInt(w), y = rnd.nextInt(h);
+            StrokeSession s = new StrokeSession(doc, 1 + rnd.nextInt(8), new Color(rnd.nextInt()), x, y);
+            for (int p = 0; p < 10; p++) s.addPoint(x + rnd.nextInt(200) - 100, y + rnd.nextInt(200) - 100);
+            s.end();
+        }
+        history.reset(doc);
+        png = Files.createTempFile("bench", ".png");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(png);
+    }
+
+    // Refills the boxed quarter of the document (alternating colours)
+    @Benchmark
+    public int floodFill() {
+        int n = filler.fill(doc, w / 2, h / 2, (flip++ & 1) == 0 ? 0xFFFF0000 : 0xFF0000FF);
+        history.commit(doc);
+        return n;
+    }
+
+    // What the canvas does on releasing a shape tool
+    @Benchmark
+    public Object commitShape() {
+        int x = position(w - 300), y = position(h - 300);
+        CommandReplayer.drawShape(doc, Tool.OVAL, 0xFF00AA00, 4, x, y, x + 300, y + 200, 1.0);
+        return history.commit(doc);
+    }
+
+    // A drag of 20 points drawn as it arrives (the old drawLineOnImage path)
+    @Benchmark
+    public Object stroke() {
+        int x = position(w - 200), y = position(h - 200);
+        StrokeSession s = new StrokeSession(doc, 5, Color.BLACK, x, y);
+        for (int p = 1; p <= 20; p++) {
+            s.addPoint(x + p * 10, y + (p % 2) * 40);
+            s.flush();
+        }
+        s.end();
+        return history.commit(doc);
+    }
+
+    @Benchmark
+    public Object drawText() {
+        int x = position(w - 300), y = 30 + position(h - 60);
+        CommandReplayer.drawText(doc, x, y, 0xFF000000, font, "Benchmark text 123", 1.0);
+        return history.commit(doc);
+    }
+
+    // The copy taken for saving in the background (the old deepCopy)
+    @Benchmark
+    public Object snapshot() {
+        return doc.snapshot();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long savePng() throws IOException {
+        exporter.write(doc.snapshot(), null, png, null);
+        return Files.size(png);
+    }
+
+    // Spreads edits over the document so they do not all hit the same tiles
+    private int position(int range) {
+        step = (step + 7919) % 100_003;
+        return Math.max(0, (int) ((long) step * range / 100_003));
+    }
+}
@@ -0,0 +1,61 @@
+package com.paintapp;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ImageUtils on plain BufferedImages: flood fill of the middle quarter and
+// deepCopy. A 16384x16384 image is 1 GB and deepCopy holds three of them at
+// its peak (source, getData() copy, result), so the fork gets a large heap.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class ImageBenchmarks {
+
+    @Param({"1000x700", "3840x2160", "16384x16384"})
+    public String size;
+
+    private BufferedImage image;
+    private int w, h, flip;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] wh = size.split("x");
+        w = Integer.parseInt(wh[0]);
+        h = Integer.parseInt(wh[1]);
+        image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.setColor(Color.BLACK);
+        g.drawRect(w / 4, h / 4, w / 2, h / 2);
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage fill() {
+        ImageUtils.floodFill(image, w / 2, h / 2, (flip++ & 1) == 0 ? 0xFFFF0000 : 0xFF0000FF);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage deepCopy() {
+        return ImageUtils.deepCopy(image);
+    }
+}
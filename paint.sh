@@ -0,0 +1,27 @@
+#!/bin/sh
+# Starts the app from the jar that `mvn -B package` builds. Arguments are
+# passed on (e.g. a project or image to open); JAVA_OPTS adds JVM options.
+#
+# --cds maps the classes the app loads from a class data sharing archive
+# (AppCDS) next to the jar, so they are not parsed and verified again on
+# every start. The first --cds run after the jar is built writes the
+# archive when the app exits; the runs after that start from it.
+set -e
+dir=$(cd "$(dirname "$0")" && pwd)
+jar="$dir/app/target/paint-app-1.0-SNAPSHOT.jar"
+archive="$dir/app/target/paint-app.jsa"
+if [ ! -f "$jar" ]; then
+    echo "No $jar: run mvn -B package first" >&2
+    exit 1
+fi
+cds=
+if [ "$1" = "--cds" ]; then
+    shift
+    if [ -f "$archive" ] && [ "$archive" -nt "$jar" ]; then
+        cds="-XX:SharedArchiveFile=$archive"
+    else
+        rm -f "$archive"
+        cds="-XX:ArchiveClassesAtExit=$archive"
+    fi
+fi
+exec java $cds $JAVA_OPTS -jar "$jar" "$@"
@@ -0,0 +1,98 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.VolatileImage;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Presents the document through a BufferStrategy with a VolatileImage copy of
+// the visible part of the document, as the canvas's view draws it. Only the
+// dirty areas (canvas coordinates) are uploaded into the cache; the cache
+// itself is rebuilt whenever its contents are lost or the view moves.
+public class AcceleratedPresenter {
+
+    private final Canvas canvas;
+    private VolatileImage cache;
+    private Rectangle dirty;
+
+    AcceleratedPresenter(Canvas canvas) {
+        this.canvas = canvas;
+    }
+
+    void markDirty(Rectangle r) {
+        dirty = dirty == null ? new Rectangle(r) : dirty.union(r);
+    }
+
+    void invalidate() {
+        dirty = null;
+        if (cache != null) {
+            cache.flush();
+            cache = null;
+        }
+    }
+
+    // Draws one frame. 'view' paints an area of the canvas, 'overlay' paints on
+    // top of it (shape preview). Returns the number of pixels uploaded, or -1
+    // if the accelerated path is unavailable and the caller should fall back
+    // to plain painting.
+    long present(BiConsumer<Graphics2D, Rectangle> view, Consumer<Graphics2D> overlay) {
+        if (!canvas.isDisplayable() || canvas.getWidth() <= 0 || canvas.getHeight() <= 0) return -1;
+        BufferStrategy strategy = canvas.getBufferStrategy();
+        if (strategy == null) {
+            try {
+                canvas.createBufferStrategy(2);
+            } catch (RuntimeException e) {
+                return -1;
+            }
+            strategy = canvas.getBufferStrategy();
+            if (strategy == null) return -1;
+        }
+
+        long uploaded = 0;
+        do {
+            do {
+                uploaded += refreshCache(view);
+                Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    g.drawImage(cache, 0, 0, null);
+                    if (overlay != null) overlay.accept(g);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost() || cache.contentsLost());
+        return uploaded;
+    }
+
+    // Brings the VolatileImage up to date; returns the pixels copied into it
+    private long refreshCache(BiConsumer<Graphics2D, Rectangle> view) {
+        GraphicsConfiguration gc = canvas.getGraphicsConfiguration();
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        boolean full = cache == null || cache.getWidth() != w || cache.getHeight() != h;
+        if (!full) {
+            int state = cache.validate(gc);
+            if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+                cache.flush();
+                full = true;
+            } else if (state == VolatileImage.IMAGE_RESTORED) {
+                dirty = new Rectangle(0, 0, w, h);
+            }
+        }
+        if (full) {
+            if (cache != null) cache.flush();
+            cache = gc.createCompatibleVolatileImage(w, h, Transparency.OPAQUE);
+            dirty = new Rectangle(0, 0, w, h);
+        }
+        if (dirty == null) return 0;
+
+        Rectangle r = dirty.intersection(new Rectangle(0, 0, w, h));
+        dirty = null;
+        if (r.isEmpty()) return 0;
+        Graphics2D g = cache.createGraphics();
+        view.accept(g, r);
+        g.dispose();
+        return (long) r.width * r.height;
+    }
+}
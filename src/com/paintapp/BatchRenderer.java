@@ -0,0 +1,97 @@
+package com.paintapp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Headless rendering of documents described by drawing commands, for
+// generating images without a window. A job is a CommandLog plus a size and
+// background; rendering replays it through CommandReplayer, the same code the
+// canvas draws with, so the pixels match what the app would produce.
+//
+// Jobs are independent and share no state, so any number render at once on
+// the given executor (a fixed pool by default; on Java 21 a virtual-thread
+// executor works as well). Needs no display: run with java.awt.headless=true.
+public class BatchRenderer implements AutoCloseable {
+
+    // One document to render
+    public static final class Job {
+        public final Path output;
+        public final int width, height, backgroundRgb;
+        public final CommandLog log;
+
+        public Job(Path output, int width, int height, int backgroundRgb, CommandLog log) {
+            if (width <= 0 || height <= 0) throw new IllegalArgumentException("Bad document size " + width + "x" + height);
+            this.output = output;
+            this.width = width;
+            this.height = height;
+            this.backgroundRgb = backgroundRgb;
+            this.log = log;
+        }
+    }
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final ExecutorService pool;
+    private final boolean ownPool;
+    private final PngExporter exporter;
+    private final double scale;
+
+    public BatchRenderer(int threads, int pngLevel, double scale) {
+        this(Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "paint-render-" + THREADS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }), true, pngLevel, scale);
+    }
+
+    // Renders on 'pool', which stays open after close()
+    public BatchRenderer(ExecutorService pool, int pngLevel, double scale) {
+        this(pool, false, pngLevel, scale);
+    }
+
+    private BatchRenderer(ExecutorService pool, boolean ownPool, int pngLevel, double scale) {
+        if (!(scale > 0)) throw new IllegalArgumentException("Scale must be positive: " + scale);
+        this.pool = pool;
+        this.ownPool = ownPool;
+        this.exporter = new PngExporter(pngLevel);
+        this.scale = scale;
+    }
+
+    // The job's document, rendered on the calling thread
+    public TiledImage render(Job job) {
+        return new CommandReplayer().render(job.log, job.width, job.height, job.backgroundRgb, scale);
+    }
+
+    // Renders and writes the job's PNG on the pool
+    public CompletableFuture<Path> submit(Job job) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        pool.execute(() -> {
+            try {
+                TiledImage doc = render(job);
+                exporter.write(doc.snapshot(), null, job.output, null);
+                result.complete(job.output);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // Waits for submitted jobs to finish, then stops the pool if it is ours
+    @Override
+    public void close() throws IOException {
+        if (!ownPool) return;
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.paintapp;
+
+// How a layer's colours combine with the layers below it (separable blend
+// modes as in the W3C compositing spec; channel values 0-255)
+public enum BlendMode {
+    NORMAL, MULTIPLY, SCREEN, OVERLAY, DARKEN, LIGHTEN, DIFFERENCE;
+
+    // Blended value of one channel: backdrop b, source s
+    int apply(int b, int s) {
+        switch (this) {
+            case MULTIPLY: return (b * s + 127) / 255;
+            case SCREEN: return b + s - (b * s + 127) / 255;
+            case OVERLAY: return b < 128 ? (2 * b * s + 127) / 255 : 255 - (2 * (255 - b) * (255 - s) + 127) / 255;
+            case DARKEN: return Math.min(b, s);
+            case LIGHTEN: return Math.max(b, s);
+            case DIFFERENCE: return Math.abs(b - s);
+            default: return s;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+// Separable Gaussian blur of one block of a document, for ImageFilter. Small
+// radii are convolved with the kernel itself; larger ones with three box
+// blurs of about the same variance, each a sliding window that costs the same
+// per pixel at any radius. Works on premultiplied colour, so transparent
+// pixels do not darken their neighbours, and in integers only, so a block
+// comes out the same wherever the document was split into blocks.
+final class Blur {
+
+    private static final int TILE = TiledImage.TILE;
+    // largest radius convolved with the exact kernel
+    private static final int KERNEL_RADIUS = 8;
+    private static final int KERNEL_BITS = 16;
+    private static final int BOX_BITS = 22;
+
+    // pixels beyond the block that the blur reads
+    final int reach;
+    private final int[] kernel;
+    private final int[] boxes;
+
+    // per worker thread: block-sized channel planes, the result and a row
+    private static final ThreadLocal<int[][]> BUFFERS = ThreadLocal.withInitial(() -> new int[10][0]);
+
+    // A Gaussian reaching 'radius' pixels (sigma = radius / 3)
+    Blur(int radius) {
+        radius = Math.max(1, radius);
+        double sigma = radius / 3.0;
+        if (radius <= KERNEL_RADIUS) {
+            kernel = kernel(radius, sigma);
+            boxes = null;
+            reach = radius;
+        } else {
+            kernel = null;
+            boxes = boxes(sigma);
+            reach = boxes[0] + boxes[1] + boxes[2];
+        }
+    }
+
+    // Integer weights summing to 1 << KERNEL_BITS
+    private static int[] kernel(int radius, double sigma) {
+        double[] w = new double[2 * radius + 1];
+        double sum = 0;
+        for (int i = 0; i < w.length; i++) sum += w[i] = Math.exp(-(i - radius) * (i - radius) / (2 * sigma * sigma));
+        int[] k = new int[w.length];
+        int total = 0;
+        for (int i = 0; i < w.length; i++) total += k[i] = (int) Math.round(w[i] / sum * (1 << KERNEL_BITS));
+        k[radius] += (1 << KERNEL_BITS) - total;
+        return k;
+    }
+
+    // Radii of three box blurs whose sum has variance sigma^2
+    private static int[] boxes(double sigma) {
+        int n = 3;
+        int lower = (int) Math.floor(Math.sqrt(12 * sigma * sigma / n + 1));
+        if (lower % 2 == 0) lower--;
+        int upper = lower + 2;
+        int m = (int) Math.round((12 * sigma * sigma - n * lower * lower - 4 * n * lower - 3 * n) / (-4.0 * lower - 4));
+        int[] radii = new int[n];
+        for (int i = 0; i < n; i++) radii[i] = ((i < m ? lower : upper) - 1) / 2;
+        return radii;
+    }
+
+    // Blurs 'out' (document coordinates) of the document whose tiles are
+    // 'grid'; pixels beyond the document edge repeat the edge. Returns the
+    // premultiplied result, out.width pixels per row. The array is reused by
+    // the next call on the same thread.
+    int[] block(Tile[] grid, int cols, int width, int height, Rectangle out) {
+        int rw = out.width + 2 * reach, rh = out.height + 2 * reach, n = rw * rh;
+        int[][] buf = BUFFERS.get();
+        if (buf[0].length < n) {
+            // two sets of channel planes (A, R, G, B) and the result
+            for (int i = 0; i < 9; i++) buf[i] = new int[n];
+        }
+        if (buf[9].length < rw) buf[9] = new int[rw];
+        gather(grid, cols, width, height, out.x - reach, out.y - reach, rw, rh, buf);
+
+        if (kernel != null) {
+            for (int c = 0; c < 4; c++) {
+                horizontalKernel(buf[c], buf[c + 4], rw, rh, buf[9]);
+                verticalKernel(buf[c + 4], buf[c], rw, rh, out.width, buf[9]);
+            }
+        } else {
+            // each pass leaves valid pixels 'radius' further in from the edges
+            int lo = 0, from = 0;
+            for (int r : boxes) {
+                for (int c = 0; c < 4; c++) horizontalBox(buf[from + c], buf[4 - from + c], rw, rh, lo, rw - lo, r);
+                from = 4 - from;
+                lo += r;
+            }
+            lo = 0;
+            for (int r : boxes) {
+                for (int c = 0; c < 4; c++) {
+                    verticalBox(buf[from + c], buf[4 - from + c], rw, reach, reach + out.width, lo, rh - lo, r, buf[9]);
+                }
+                from = 4 - from;
+                lo += r;
+            }
+        }
+        // either way the result is back in the first set of planes
+        int[] result = buf[8];
+        for (int y = 0, i = 0; y < out.height; y++) {
+            for (int x = 0, s = (y + reach) * rw + reach; x < out.width; x++, s++, i++) {
+                result[i] = buf[0][s] << 24 | buf[1][s] << 16 | buf[2][s] << 8 | buf[3][s];
+            }
+        }
+        return result;
+    }
+
+    private static void gather(Tile[] grid, int cols, int width, int height, int x0, int y0, int rw, int rh, int[][] to) {
+        int[] ta = to[0], tr = to[1], tg = to[2], tb = to[3];
+        int i = 0;
+        for (int y = y0; y < y0 + rh; y++) {
+            int sy = Math.max(0, Math.min(height - 1, y));
+            int row = sy / TILE;
+            for (int x = x0; x < x0 + rw; ) {
+                int sx = Math.max(0, Math.min(width - 1, x));
+                int col = sx / TILE;
+                int[] px = grid[row * cols + col].pixels();
+                int base = (sy - row * TILE) * TILE - col * TILE;
+                // beyond the edge: the edge pixel once, else to the end of the tile
+                int end = x != sx ? x + 1 : Math.min(x0 + rw, Math.min(width, (col + 1) * TILE));
+                for (int s = base + sx; x < end; x++, i++, s++) {
+                    int p = premultiply(px[s]);
+                    ta[i] = p >>> 24;
+                    tr[i] = p >> 16 & 0xFF;
+                    tg[i] = p >> 8 & 0xFF;
+                    tb[i] = p & 0xFF;
+                }
+            }
+        }
+    }
+
+    // Columns [r, rw - r) of every row
+    private void horizontalKernel(int[] src, int[] dst, int rw, int rh, int[] acc) {
+        int w = rw - 2 * reach;
+        for (int y = 0; y < rh; y++) {
+            int row = y * rw;
+            convolve(src, row, 1, w, acc);
+            int d = row + reach;
+            for (int x = 0; x < w; x++) dst[d + x] = acc[x] >>> KERNEL_BITS;
+        }
+    }
+
+    // Rows [r, rh - r) of columns [r, r + w)
+    private void verticalKernel(int[] src, int[] dst, int rw, int rh, int w, int[] acc) {
+        for (int y = reach; y < rh - reach; y++) {
+            convolve(src, (y - reach) * rw + reach, rw, w, acc);
+            int d = y * rw + reach;
+            for (int x = 0; x < w; x++) dst[d + x] = acc[x] >>> KERNEL_BITS;
+        }
+    }
+
+    // acc[x] = sum of k[j] * src[start + j * step + x] for x in [0, w), plus
+    // rounding. Goes across the row a tap pair or two at a time (the kernel
+    // is symmetric), so the JIT can vectorize it.
+    private void convolve(int[] src, int start, int step, int w, int[] acc) {
+        int[] k = kernel;
+        int r = reach, half = 1 << (KERNEL_BITS - 1);
+        int c = start + r * step, wc = k[r];
+        for (int x = 0; x < w; x++) acc[x] = half + src[c + x] * wc;
+        int j = 0;
+        for (; j + 1 < r; j += 2) {
+            int a0 = start + j * step, a1 = a0 + step;
+            int b0 = start + (2 * r - j) * step, b1 = b0 - step;
+            int w0 = k[j], w1 = k[j + 1];
+            for (int x = 0; x < w; x++) {
+                acc[x] += (src[a0 + x] + src[b0 + x]) * w0 + (src[a1 + x] + src[b1 + x]) * w1;
+            }
+        }
+        if (j < r) {
+            int a0 = start + j * step, b0 = start + (2 * r - j) * step, w0 = k[j];
+            for (int x = 0; x < w; x++) acc[x] += (src[a0 + x] + src[b0 + x]) * w0;
+        }
+    }
+
+    // Box of radius r along rows; columns [lo, hi) of src are valid
+    private static void horizontalBox(int[] src, int[] dst, int rw, int rh, int lo, int hi, int r) {
+        int n = 2 * r + 1, inv = ((1 << BOX_BITS) + n / 2) / n, half = 1 << (BOX_BITS - 1);
+        for (int y = 0; y < rh; y++) {
+            int row = y * rw, sum = 0;
+            for (int s = row + lo; s < row + lo + n - 1; s++) sum += src[s];
+            for (int x = row + lo + r; x < row + hi - r; x++) {
+                sum += src[x + r];
+                dst[x] = (sum * inv + half) >>> BOX_BITS;
+                sum -= src[x - r];
+            }
+        }
+    }
+
+    // Box of radius r along columns [x0, x1); rows [lo, hi) of src are valid
+    private static void verticalBox(int[] src, int[] dst, int rw, int x0, int x1, int lo, int hi, int r, int[] sums) {
+        int n = 2 * r + 1, inv = ((1 << BOX_BITS) + n / 2) / n, half = 1 << (BOX_BITS - 1);
+        Arrays.fill(sums, x0, x1, 0);
+        for (int y = lo; y < lo + n - 1; y++) {
+            int s = y * rw;
+            for (int x = x0; x < x1; x++) sums[x] += src[s + x];
+        }
+        for (int y = lo + r; y < hi - r; y++) {
+            int add = (y + r) * rw, sub = (y - r) * rw, d = y * rw;
+            for (int x = x0; x < x1; x++) {
+                int sum = sums[x] + src[add + x];
+                dst[d + x] = (sum * inv + half) >>> BOX_BITS;
+                sums[x] = sum - src[sub + x];
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------
+
+    private static final int[] UNPREMULTIPLY = new int[256];
+    static {
+        for (int a = 1; a < 256; a++) UNPREMULTIPLY[a] = (255 * 65536 + a / 2) / a;
+    }
+
+    static int premultiply(int p) {
+        int a = p >>> 24;
+        if (a == 255) return p;
+        if (a == 0) return 0;
+        return a << 24 | mul(p >> 16 & 0xFF, a) << 16 | mul(p >> 8 & 0xFF, a) << 8 | mul(p & 0xFF, a);
+    }
+
+    static int unpremultiply(int p) {
+        int a = p >>> 24;
+        if (a == 255) return p;
+        if (a == 0) return 0;
+        int f = UNPREMULTIPLY[a];
+        int r = Math.min(255, ((p >> 16 & 0xFF) * f + 32768) >> 16);
+        int g = Math.min(255, ((p >> 8 & 0xFF) * f + 32768) >> 16);
+        int b = Math.min(255, ((p & 0xFF) * f + 32768) >> 16);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    // a * b / 255, rounded
+    private static int mul(int a, int b) {
+        int t = a * b + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+}
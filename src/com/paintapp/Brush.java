@@ -0,0 +1,108 @@
+package com.paintapp;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Dab-based brushes for BrushStroke. A dab is a precomputed alpha mask of the
+// brush tip at one diameter, made at 4x4 sub-pixel offsets so dabs placed
+// along a path land where they should rather than on whole pixels. Masks
+// already include the brush's flow and are cached per diameter once made.
+//
+//   HARD      anti-aliased disc at full flow; its size follows the "pressure"
+//             worked out from the pointer's speed (fast = thin)
+//   SOFT      airbrush: smooth falloff at low flow, so it builds up
+//   TEXTURED  chalk: a firm disc modulated by a paper grain fixed to the
+//             document, so overlapping dabs keep the same texture
+public enum Brush {
+    HARD(1.0, 1.0, 0.10, false, true),
+    SOFT(0.0, 0.18, 0.08, false, false),
+    TEXTURED(0.7, 0.9, 0.15, true, false);
+
+    // sub-pixel positions per axis
+    static final int PHASES = 4;
+    static final int TEXTURE_SIZE = 64;
+    private static final int MAX_CACHED_DIAMETER = 256;
+    // grain of TEXTURED, 0..255, tiled over the document
+    static final byte[] TEXTURE = texture(7);
+
+    final double hardness;
+    final double flow;
+    // distance between dabs as a fraction of the size
+    final double spacing;
+    final boolean textured;
+    final boolean pressure;
+    private final AtomicReferenceArray<byte[][]> dabs = new AtomicReferenceArray<>(MAX_CACHED_DIAMETER + 1);
+
+    Brush(double hardness, double flow, double spacing, boolean textured, boolean pressure) {
+        this.hardness = hardness;
+        this.flow = flow;
+        this.spacing = spacing;
+        this.textured = textured;
+        this.pressure = pressure;
+    }
+
+    // The brush a tool paints with, or null if it is not a brush tool
+    public static Brush forTool(Tool tool) {
+        return switch (tool) {
+            case BRUSH -> HARD;
+            case AIRBRUSH -> SOFT;
+            case CHALK -> TEXTURED;
+            default -> null;
+        };
+    }
+
+    // Side of the square mask of a dab of 'diameter'
+    static int maskSize(int diameter) {
+        return diameter + 3;
+    }
+
+    // Mask of a dab whose centre is (phaseX, phaseY) quarters of a pixel
+    // right of and below the centre of the mask (see BrushStroke.dab())
+    byte[] dab(int diameter, int phaseX, int phaseY) {
+        byte[][] phases = diameter <= MAX_CACHED_DIAMETER ? dabs.get(diameter) : null;
+        if (phases == null) {
+            phases = new byte[PHASES * PHASES][];
+            for (int p = 0; p < phases.length; p++) phases[p] = mask(diameter, p % PHASES, p / PHASES);
+            if (diameter <= MAX_CACHED_DIAMETER) dabs.compareAndSet(diameter, null, phases);
+        }
+        return phases[phaseY * PHASES + phaseX];
+    }
+
+    private byte[] mask(int diameter, int phaseX, int phaseY) {
+        int m = maskSize(diameter);
+        double r = diameter / 2.0;
+        double cx = m / 2 + (phaseX + 0.5) / PHASES, cy = m / 2 + (phaseY + 0.5) / PHASES;
+        byte[] mask = new byte[m * m];
+        for (int y = 0; y < m; y++) {
+            for (int x = 0; x < m; x++) {
+                double d = Math.hypot(x + 0.5 - cx, y + 0.5 - cy);
+                double hard = Math.max(0, Math.min(1, r - d + 0.5));
+                double t = d / Math.max(r, 0.5);
+                double soft = t < 1 ? (1 - t * t) * (1 - t * t) : 0;
+                double a = (hardness * hard + (1 - hardness) * soft) * flow;
+                mask[y * m + x] = (byte) Math.round(a * 255);
+            }
+        }
+        return mask;
+    }
+
+    // Value noise, smoothed once, in 90..255 so the grain never fully drops out
+    private static byte[] texture(long seed) {
+        int n = TEXTURE_SIZE;
+        Random rnd = new Random(seed);
+        double[] v = new double[n * n];
+        for (int i = 0; i < v.length; i++) v[i] = rnd.nextDouble();
+        byte[] out = new byte[n * n];
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                double s = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) s += v[((y + dy) & (n - 1)) * n + ((x + dx) & (n - 1))];
+                }
+                double g = Math.pow(s / 9, 1.5) * 2;
+                out[y * n + x] = (byte) Math.round(90 + 165 * Math.min(1, g));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,192 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+// One freehand stroke of a Brush. Dabs are stamped along the path at even
+// spacing straight into the pixel arrays of the document's tiles, blended
+// source-over in the stroke's colour; no Graphics2D is involved. Where the
+// dabs fall depends only on the points (the distance to the next dab carries
+// over from one segment and one flush to the next), so a stroke comes out
+// the same however its points were batched. Once the point buffer has grown
+// to the size of a batch, adding and drawing points does not allocate
+// (copying a frozen tile before its first write aside).
+public class BrushStroke implements FreehandStroke {
+
+    private static final int TILE = TiledImage.TILE;
+    // how fast the pressure of a pressure-style brush follows the pointer's speed
+    private static final float PRESSURE_RATE = 0.3f;
+
+    private final TiledImage doc;
+    private final Brush brush;
+    private final int size;
+    private final int rgb, alpha;
+    private final double step;
+
+    // points not drawn yet, with their pressure; [0] is the last point drawn
+    private int[] xs = new int[64], ys = new int[64];
+    private float[] ps = new float[64];
+    private int count;
+    private boolean started, pending;
+    private double carry;
+    private float pressure;
+    private long dabs;
+
+    private final Rectangle dirty = new Rectangle();
+    private int minX, minY, maxX, maxY;
+    // the tile written last and its pixels
+    private Tile lastTile;
+    private int[] lastPixels;
+
+    public BrushStroke(TiledImage doc, Brush brush, int size, int rgb, int x, int y) {
+        this.doc = doc;
+        this.brush = brush;
+        this.size = Math.max(1, size);
+        this.rgb = rgb & 0xFFFFFF;
+        this.alpha = rgb >>> 24;
+        this.step = Math.max(0.5, this.size * brush.spacing);
+        // pressure-style strokes start thin and swell as the pointer settles
+        pressure = brush.pressure ? 0.35f : 1f;
+        xs[0] = x;
+        ys[0] = y;
+        ps[0] = pressure;
+        count = 1;
+        pending = true;
+    }
+
+    @Override
+    public void addPoint(int x, int y) {
+        if (count == xs.length) {
+            xs = Arrays.copyOf(xs, count * 2);
+            ys = Arrays.copyOf(ys, count * 2);
+            ps = Arrays.copyOf(ps, count * 2);
+        }
+        if (brush.pressure) {
+            // fast = light: full pressure when still, half at two sizes per event
+            int dx = x - xs[count - 1], dy = y - ys[count - 1];
+            float target = (float) (1 / (1 + Math.sqrt(dx * dx + dy * dy) / (2.0 * size)));
+            pressure += (target - pressure) * PRESSURE_RATE;
+        }
+        xs[count] = x;
+        ys[count] = y;
+        ps[count] = pressure;
+        count++;
+        pending = true;
+    }
+
+    public long getDabCount() { return dabs; }
+
+    @Override
+    public Rectangle flush() {
+        if (!pending) return null;
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = Integer.MIN_VALUE;
+        if (!started) {
+            dab(xs[0] + 0.5, ys[0] + 0.5, ps[0]);
+            started = true;
+            carry = step;
+        }
+        for (int i = 1; i < count; i++) {
+            double x0 = xs[i - 1] + 0.5, y0 = ys[i - 1] + 0.5;
+            double dx = xs[i] - xs[i - 1], dy = ys[i] - ys[i - 1];
+            double len = Math.sqrt(dx * dx + dy * dy);
+            if (len == 0) continue;
+            float p0 = ps[i - 1], dp = ps[i] - p0;
+            for (; carry <= len; carry += step) {
+                double t = carry / len;
+                dab(x0 + dx * t, y0 + dy * t, (float) (p0 + dp * t));
+            }
+            carry -= len;
+        }
+        xs[0] = xs[count - 1];
+        ys[0] = ys[count - 1];
+        ps[0] = ps[count - 1];
+        count = 1;
+        pending = false;
+        if (minX > maxX) return null;
+        dirty.setBounds(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        return dirty;
+    }
+
+    @Override
+    public Rectangle end() {
+        Rectangle r = flush();
+        lastTile = null;
+        lastPixels = null;
+        return r;
+    }
+
+    // Stamps one dab centred on (cx, cy) in document coordinates
+    private void dab(double cx, double cy, float p) {
+        int d = brush.pressure ? Math.max(1, (int) Math.round(size * (0.25 + 0.75 * p))) : size;
+        int ix = (int) Math.floor(cx), iy = (int) Math.floor(cy);
+        int phx = Math.min(Brush.PHASES - 1, (int) ((cx - ix) * Brush.PHASES));
+        int phy = Math.min(Brush.PHASES - 1, (int) ((cy - iy) * Brush.PHASES));
+        int m = Brush.maskSize(d);
+        int left = ix - m / 2, top = iy - m / 2;
+        int x0 = Math.max(0, left), y0 = Math.max(0, top);
+        int x1 = Math.min(doc.getWidth(), left + m) - 1, y1 = Math.min(doc.getHeight(), top + m) - 1;
+        if (x0 > x1 || y0 > y1) return;
+        byte[] mask = brush.dab(d, phx, phy);
+        dabs++;
+        if (x0 < minX) minX = x0;
+        if (y0 < minY) minY = y0;
+        if (x1 > maxX) maxX = x1;
+        if (y1 > maxY) maxY = y1;
+
+        for (int row = y0 / TILE; row <= y1 / TILE; row++) {
+            int ty = row * TILE, ya = Math.max(y0, ty), yb = Math.min(y1, ty + TILE - 1);
+            for (int col = x0 / TILE; col <= x1 / TILE; col++) {
+                int tx = col * TILE, xa = Math.max(x0, tx), xb = Math.min(x1, tx + TILE - 1);
+                int[] px = pixels(col, row);
+                for (int y = ya; y <= yb; y++) {
+                    int mi = (y - top) * m + (xa - left), pi = (y - ty) * TILE + (xa - tx);
+                    int ti = (y & (Brush.TEXTURE_SIZE - 1)) * Brush.TEXTURE_SIZE;
+                    for (int x = xa; x <= xb; x++, mi++, pi++) {
+                        int a = mask[mi] & 0xFF;
+                        if (brush.textured) a = mul(a, Brush.TEXTURE[ti + (x & (Brush.TEXTURE_SIZE - 1))] & 0xFF);
+                        a = mul(a, alpha);
+                        if (a != 0) px[pi] = over(px[pi], rgb, a);
+                    }
+                }
+            }
+        }
+    }
+
+    // The tile at (col, row), copied first if frozen, and its pixels
+    private int[] pixels(int col, int row) {
+        Tile t = doc.tileAt(col, row);
+        if (t.frozen) t = doc.writableTile(col, row);
+        if (t != lastTile) {
+            lastTile = t;
+            lastPixels = t.pixels();
+        }
+        return lastPixels;
+    }
+
+    // a * b / 255, rounded
+    private static int mul(int a, int b) {
+        int t = a * b + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+
+    // Colour 'rgb' at alpha 'a' over an unpremultiplied ARGB pixel
+    static int over(int dst, int rgb, int a) {
+        int da = dst >>> 24;
+        if (a == 255 || da == 0) return a << 24 | rgb;
+        if (da == 255) {
+            // opaque below (the common case): a plain lerp, no divisions
+            int inv = 255 - a;
+            return 0xFF000000
+                    | mul(rgb >> 16 & 0xFF, a) + mul(dst >> 16 & 0xFF, inv) << 16
+                    | mul(rgb >> 8 & 0xFF, a) + mul(dst >> 8 & 0xFF, inv) << 8
+                    | mul(rgb & 0xFF, a) + mul(dst & 0xFF, inv);
+        }
+        int dw = mul(da, 255 - a);
+        int oa = a + dw;
+        int r = ((rgb >> 16 & 0xFF) * a + (dst >> 16 & 0xFF) * dw + (oa >> 1)) / oa;
+        int g = ((rgb >> 8 & 0xFF) * a + (dst >> 8 & 0xFF) * dw + (oa >> 1)) / oa;
+        int b = ((rgb & 0xFF) * a + (dst & 0xFF) * dw + (oa >> 1)) / oa;
+        return oa << 24 | r << 16 | g << 8 | b;
+    }
+}
@@ -0,0 +1,273 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Log of the drawing operations that produced the document, packed into one
+// int array (strings go to a shared table). Each command is a type word
+// followed by its fields:
+//   STROKE  rgb, size, then x,y pairs; a pair with x = BREAK marks a flush
+//   SHAPE   tool, rgb, size, x0, y0, x1, y1
+//   FILL    x, y, rgb, tolerance, antialias
+//   TEXT    x, y, rgb, font name, font style, font size, text
+//   CLEAR   rgb
+//   BRUSH   brush, rgb, size, then x,y pairs as for STROKE
+//   FILTER  kind, x, y, width, height (width < 0 = whole layer), then parameters
+//   MOVE    x, y, width, height, dx, dy, copy (0 = the source is cut)
+//
+// Commands are grouped the same way as history entries: commit() closes a
+// group, undo()/redo() move the end of the log by one group, and appending
+// after an undo drops the undone groups. Checkpoints are document snapshots
+// taken at group boundaries so a replay can start part way through.
+public class CommandLog {
+
+    public static final int STROKE = 1, SHAPE = 2, FILL = 3, TEXT = 4, CLEAR = 5, BRUSH = 6, FILTER = 7, MOVE = 8;
+    static final int BREAK = Integer.MIN_VALUE;
+    private static final int MAX_CHECKPOINTS = 8;
+
+    private int[] data = new int[4096];
+    private int length;
+    private int[] offsets = new int[256];
+    private int count;        // commands in the log (including uncommitted ones)
+    private int[] groups = new int[64];
+    private int groupCount;   // committed groups in effect
+    private int groupLimit;   // groups available to redo()
+
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final TreeMap<Integer, TiledImage.Snapshot> checkpoints = new TreeMap<>();
+
+    // Number of commands in effect (committed and not undone)
+    public int size() { return groupCount == 0 ? 0 : groups[groupCount - 1]; }
+    public int getGroupCount() { return groupCount; }
+    int getGroupLimit() { return groupLimit; }
+    int groupEnd(int group) { return groups[group]; }
+    public long getByteSize() { return (long) length * 4 + (long) count * 4 + (long) groupLimit * 4; }
+
+    public int type(int index) { return data[offsets[index]]; }
+    int offset(int index) { return offsets[index]; }
+    int end(int index) { return index + 1 < count ? offsets[index + 1] : length; }
+    int[] data() { return data; }
+    String string(int id) { return strings.get(id); }
+
+    // ---------------------------------------------------------------
+    // Recording
+    // ---------------------------------------------------------------
+
+    public void beginStroke(int rgb, int size, int x, int y) {
+        begin(STROKE);
+        put(rgb);
+        put(size);
+        put(x);
+        put(y);
+    }
+
+    // A BrushStroke; its points and flushes go through strokePoint()/strokeFlush()
+    public void beginBrush(Brush brush, int rgb, int size, int x, int y) {
+        begin(BRUSH);
+        put(brush.ordinal());
+        put(rgb);
+        put(size);
+        put(x);
+        put(y);
+    }
+
+    public void strokePoint(int x, int y) {
+        put(x);
+        put(y);
+    }
+
+    public void strokeFlush() {
+        put(BREAK);
+        put(0);
+    }
+
+    public void shape(Tool tool, int rgb, int size, int x0, int y0, int x1, int y1) {
+        begin(SHAPE);
+        put(tool.ordinal());
+        put(rgb);
+        put(size);
+        put(x0);
+        put(y0);
+        put(x1);
+        put(y1);
+    }
+
+    public void fill(int x, int y, int rgb, int tolerance, boolean antialias) {
+        begin(FILL);
+        put(x);
+        put(y);
+        put(rgb);
+        put(tolerance);
+        put(antialias ? 1 : 0);
+    }
+
+    public void text(int x, int y, int rgb, String fontName, int fontStyle, int fontSize, String text) {
+        begin(TEXT);
+        put(x);
+        put(y);
+        put(rgb);
+        put(intern(fontName));
+        put(fontStyle);
+        put(fontSize);
+        put(intern(text));
+    }
+
+    public void filter(ImageFilter filter, Rectangle area) {
+        begin(FILTER);
+        put(filter.getKind().ordinal());
+        put(area != null ? area.x : 0);
+        put(area != null ? area.y : 0);
+        put(area != null ? area.width : -1);
+        put(area != null ? area.height : -1);
+        for (int p : filter.params()) put(p);
+    }
+
+    // Pixels of 'source' moved (or copied) by (dx, dy), as Selection.move()
+    public void move(Rectangle source, int dx, int dy, boolean copy) {
+        begin(MOVE);
+        put(source.x);
+        put(source.y);
+        put(source.width);
+        put(source.height);
+        put(dx);
+        put(dy);
+        put(copy ? 1 : 0);
+    }
+
+    public void clear(int rgb) {
+        begin(CLEAR);
+        put(rgb);
+    }
+
+    // ---------------------------------------------------------------
+    // Grouping (mirrors TileHistory)
+    // ---------------------------------------------------------------
+
+    // Closes the commands recorded since the last commit into one group
+    public void commit() {
+        if (count == size() || groupLimit > groupCount) return;
+        if (groupCount == groups.length) groups = Arrays.copyOf(groups, groupCount * 2);
+        groups[groupCount++] = count;
+        groupLimit = groupCount;
+    }
+
+    // Drops the commands recorded since the last commit (they changed nothing)
+    public void rollback() {
+        truncate(groupLimit == 0 ? 0 : groups[groupLimit - 1]);
+    }
+
+    public boolean undo() {
+        if (groupCount == 0) return false;
+        rollback();
+        groupCount--;
+        return true;
+    }
+
+    public boolean redo() {
+        if (groupCount == groupLimit) return false;
+        rollback();
+        groupCount++;
+        return true;
+    }
+
+    public void reset() {
+        length = 0;
+        count = 0;
+        groupCount = groupLimit = 0;
+        strings.clear();
+        stringIds.clear();
+        checkpoints.clear();
+    }
+
+    // ---------------------------------------------------------------
+    // Checkpoints
+    // ---------------------------------------------------------------
+
+    // Remembers the document as it is after the first size() commands
+    public void checkpoint(TiledImage.Snapshot snapshot) {
+        checkpoints.put(size(), snapshot);
+        while (checkpoints.size() > MAX_CHECKPOINTS) checkpoints.pollFirstEntry();
+    }
+
+    // Latest checkpoint at or before command 'index' (null = replay from blank)
+    public Map.Entry<Integer, TiledImage.Snapshot> checkpointBefore(int index) {
+        return checkpoints.floorEntry(index);
+    }
+
+    public int getCheckpointCount() { return checkpoints.size(); }
+
+    // ---------------------------------------------------------------
+    // Serialization (commands only; strings are written inline)
+    // ---------------------------------------------------------------
+
+    public void write(DataOutput out, int from, int to) throws IOException {
+        out.writeInt(to - from);
+        for (int i = from; i < to; i++) {
+            int p = offsets[i], e = end(i);
+            out.writeInt(e - p);
+            for (int q = p; q < e; q++) {
+                boolean str = data[p] == TEXT && (q - p == 4 || q - p == 7);
+                if (str) out.writeUTF(strings.get(data[q]));
+                else out.writeInt(data[q]);
+            }
+        }
+    }
+
+    // Appends the commands written by write() as one committed group
+    public void read(DataInput in) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            int len = in.readInt();
+            int type = in.readInt();
+            begin(type);
+            for (int q = 1; q < len; q++) {
+                boolean str = type == TEXT && (q == 4 || q == 7);
+                put(str ? intern(in.readUTF()) : in.readInt());
+            }
+        }
+        commit();
+    }
+
+    // ---------------------------------------------------------------
+
+    private void begin(int type) {
+        // a new command after an undo discards the undone part for good
+        if (groupLimit > groupCount) {
+            truncate(size());
+            groupLimit = groupCount;
+        }
+        if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+        offsets[count++] = length;
+        put(type);
+    }
+
+    private void truncate(int commands) {
+        if (commands >= count) return;
+        length = offsets[commands];
+        count = commands;
+        checkpoints.tailMap(commands, false).clear();
+    }
+
+    private void put(int v) {
+        if (length == data.length) data = Arrays.copyOf(data, length * 2);
+        data[length++] = v;
+    }
+
+    private int intern(String s) {
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+        }
+        return id;
+    }
+}
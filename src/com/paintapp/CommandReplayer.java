@@ -0,0 +1,195 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Map;
+
+// Rebuilds documents from a CommandLog. At scale 1 every command goes through
+// the same code the canvas uses when drawing live (StrokeSession, BrushStroke,
+// FloodFill, drawShape/drawText), so a replay is pixel-identical to the original. Other
+// scales re-render the vector data, e.g. to export at a higher resolution.
+public class CommandReplayer {
+
+    // commands between history-style commits while replaying, so copies of
+    // tiles get frozen (and can be paged out by a TileStore)
+    private static final int COMMIT_INTERVAL = 256;
+
+    private final FloodFill filler = new FloodFill();
+
+    // The document as of the end of the log, starting from its latest checkpoint
+    public TiledImage rebuild(CommandLog log, int width, int height, int backgroundRgb, TileStore store) {
+        int to = log.size();
+        Map.Entry<Integer, TiledImage.Snapshot> cp = log.checkpointBefore(to);
+        TiledImage doc;
+        int from = 0;
+        if (cp != null) {
+            doc = new TiledImage(cp.getValue(), store);
+            from = cp.getKey();
+        } else {
+            doc = new TiledImage(width, height, backgroundRgb, store);
+        }
+        apply(doc, log, from, to, 1.0);
+        return doc;
+    }
+
+    // The whole log rendered from blank at another resolution
+    public TiledImage render(CommandLog log, int width, int height, int backgroundRgb, double scale) {
+        TiledImage doc = new TiledImage((int) Math.ceil(width * scale), (int) Math.ceil(height * scale), backgroundRgb);
+        apply(doc, log, 0, log.size(), scale);
+        return doc;
+    }
+
+    // Applies commands [from, to) of the log to the document
+    public void apply(TiledImage doc, CommandLog log, int from, int to, double scale) {
+        int[] d = log.data();
+        for (int i = from; i < to; i++) {
+            int p = log.offset(i) + 1;
+            switch (log.type(i)) {
+                case CommandLog.STROKE -> stroke(doc, d, p, log.end(i), scale);
+                case CommandLog.SHAPE -> drawShape(doc, Tool.values()[d[p]], d[p + 1], d[p + 2],
+                        d[p + 3], d[p + 4], d[p + 5], d[p + 6], scale);
+                case CommandLog.FILL -> {
+                    filler.setTolerance(d[p + 3]);
+                    filler.setAntialias(d[p + 4] != 0);
+                    filler.fill(doc, (int) (d[p] * scale), (int) (d[p + 1] * scale), d[p + 2]);
+                }
+                case CommandLog.TEXT -> drawText(doc, d[p], d[p + 1], d[p + 2],
+                        TextLayouts.font(log.string(d[p + 3]), d[p + 4], d[p + 5]), log.string(d[p + 6]), scale);
+                case CommandLog.CLEAR -> doc.fill(d[p]);
+                case CommandLog.BRUSH -> brush(doc, d, p, log.end(i), scale);
+                case CommandLog.FILTER -> {
+                    ImageFilter f = ImageFilter.of(ImageFilter.Kind.values()[d[p]], Arrays.copyOfRange(d, p + 5, log.end(i)));
+                    Rectangle area = d[p + 3] < 0 ? null : scaled(new Rectangle(d[p + 1], d[p + 2], d[p + 3], d[p + 4]), scale);
+                    f.scaled(scale).apply(doc, area);
+                }
+                case CommandLog.MOVE -> {
+                    // the exact area scaled, not padded: nothing outside it moves
+                    int x0 = (int) Math.round(d[p] * scale), y0 = (int) Math.round(d[p + 1] * scale);
+                    int x1 = (int) Math.round((d[p] + d[p + 2]) * scale), y1 = (int) Math.round((d[p + 1] + d[p + 3]) * scale);
+                    Selection.move(doc, new Rectangle(x0, y0, x1 - x0, y1 - y0),
+                            (int) Math.round(d[p + 4] * scale), (int) Math.round(d[p + 5] * scale), d[p + 6] != 0);
+                }
+                default -> throw new IllegalStateException("Unknown command type " + log.type(i));
+            }
+            if ((i - from) % COMMIT_INTERVAL == COMMIT_INTERVAL - 1) doc.takeChanges();
+        }
+        doc.takeChanges();
+    }
+
+    // Dabs are stamped the same way at any scale, with the points and size scaled
+    private static void brush(TiledImage doc, int[] d, int p, int end, double scale) {
+        Brush brush = Brush.values()[d[p]];
+        int rgb = d[p + 1], size = (int) Math.max(1, Math.round(d[p + 2] * scale));
+        BrushStroke s = new BrushStroke(doc, brush, size, rgb, (int) (d[p + 3] * scale), (int) (d[p + 4] * scale));
+        for (int q = p + 5; q < end; q += 2) {
+            if (d[q] == CommandLog.BREAK) s.flush();
+            else s.addPoint((int) (d[q] * scale), (int) (d[q + 1] * scale));
+        }
+        s.end();
+    }
+
+    private static void stroke(TiledImage doc, int[] d, int p, int end, double scale) {
+        int rgb = d[p], size = d[p + 1];
+        if (scale == 1.0) {
+            // replay the exact flush pattern of the live stroke
+            StrokeSession s = new StrokeSession(doc, size, new Color(rgb, true), d[p + 2], d[p + 3]);
+            for (int q = p + 4; q < end; q += 2) {
+                if (d[q] == CommandLog.BREAK) s.flush();
+                else s.addPoint(d[q], d[q + 1]);
+            }
+            s.end();
+            return;
+        }
+        Path2D.Float path = new Path2D.Float();
+        path.moveTo(d[p + 2], d[p + 3]);
+        path.lineTo(d[p + 2], d[p + 3]);
+        int minX = d[p + 2], maxX = minX, minY = d[p + 3], maxY = minY;
+        for (int q = p + 4; q < end; q += 2) {
+            if (d[q] == CommandLog.BREAK) continue;
+            path.lineTo(d[q], d[q + 1]);
+            minX = Math.min(minX, d[q]);
+            maxX = Math.max(maxX, d[q]);
+            minY = Math.min(minY, d[q + 1]);
+            maxY = Math.max(maxY, d[q + 1]);
+        }
+        BasicStroke bs = new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        Rectangle bounds = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+        bounds.grow(size + 1, size + 1);
+        doc.draw(scaled(bounds, scale), g -> {
+            g.scale(scale, scale);
+            g.setStroke(bs);
+            g.setColor(new Color(rgb, true));
+            if ((rgb >>> 24) == 0) g.setComposite(AlphaComposite.Src);
+            g.draw(path);
+        });
+    }
+
+    // ---------------------------------------------------------------
+    // Drawing shared with PaintCanvas
+    // ---------------------------------------------------------------
+
+    // Outline of a shape tool dragged from (x0, y0) to (x1, y1). Squares and
+    // circles grow from the start point.
+    public static void drawShape(Graphics2D g, Tool tool, int x0, int y0, int x1, int y1) {
+        int x = Math.min(x0, x1);
+        int y = Math.min(y0, y1);
+        int w = Math.abs(x1 - x0);
+        int h = Math.abs(y1 - y0);
+        switch (tool) {
+            case RECTANGLE -> g.drawRect(x, y, w, h);
+            case SQUARE -> { int s = Math.min(w, h); g.drawRect(x0, y0, s, s); }
+            case OVAL -> g.drawOval(x, y, w, h);
+            case CIRCLE -> { int c = Math.min(w, h); g.drawOval(x0, y0, c, c); }
+            case TRIANGLE -> { int[] xs = {(x0 + x1) / 2, x0, x1}; int[] ys = {y0, y1, y1}; g.drawPolygon(xs, ys, 3); }
+            default -> {}
+        }
+    }
+
+    // Area covered by drawShape, padded by the stroke
+    public static Rectangle shapeBounds(Tool tool, int strokeSize, int x0, int y0, int x1, int y1) {
+        int x = Math.min(x0, x1);
+        int y = Math.min(y0, y1);
+        int w = Math.abs(x1 - x0);
+        int h = Math.abs(y1 - y0);
+        Rectangle r = switch (tool) {
+            case SQUARE -> { int s = Math.min(w, h); yield new Rectangle(x0, y0, s, s); }
+            case CIRCLE -> { int c = Math.min(w, h); yield new Rectangle(x0, y0, c, c); }
+            default -> new Rectangle(x, y, w, h);
+        };
+        r.grow(strokeSize + 1, strokeSize + 1);
+        return r;
+    }
+
+    public static Rectangle drawShape(TiledImage doc, Tool tool, int rgb, int strokeSize,
+                                      int x0, int y0, int x1, int y1, double scale) {
+        BasicStroke bs = new BasicStroke(strokeSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        Color color = new Color(rgb, true);
+        return doc.draw(scaled(shapeBounds(tool, strokeSize, x0, y0, x1, y1), scale), g -> {
+            if (scale != 1.0) g.scale(scale, scale);
+            g.setStroke(bs);
+            g.setColor(color);
+            drawShape(g, tool, x0, y0, x1, y1);
+        });
+    }
+
+    public static Rectangle drawText(TiledImage doc, int x, int y, int rgb, Font font, String text, double scale) {
+        Rectangle bounds = TextLayouts.bounds(font, text, x, y);
+        bounds.grow(1, 1);
+        Color color = new Color(rgb, true);
+        return doc.draw(scaled(bounds, scale), g -> {
+            if (scale != 1.0) g.scale(scale, scale);
+            g.setColor(color);
+            g.setFont(font);
+            g.drawString(text, x, y);
+        });
+    }
+
+    // padded by a pixel or two: hinting and rounding differ at other scales
+    static Rectangle scaled(Rectangle r, double scale) {
+        if (scale == 1.0) return r;
+        int x0 = (int) Math.floor(r.x * scale) - 2, y0 = (int) Math.floor(r.y * scale) - 2;
+        int x1 = (int) Math.ceil((r.x + r.width) * scale) + 2, y1 = (int) Math.ceil((r.y + r.height) * scale) + 2;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+}
@@ -6,5 +6,20 @@ public class Constants {
     public static final int CANVAS_WIDTH = 1000;
     public static final int CANVAS_HEIGHT = 700;
     public static final Color DEFAULT_BG = Color.WHITE;
-    public static final int UNDO_STACK_LIMIT = 25;
+    // around the document when the view shows past its edges
+    public static final Color VIEW_BG = new Color(0x5A, 0x5A, 0x5A);
+    public static final double MIN_ZOOM = 0.01;
+    public static final double MAX_ZOOM = 32;
+    public static final int TILE_SIZE = 128;
+    // undo history: raw pixels on the heap, packed on the heap, spilled to disk
+    public static final long UNDO_MEMORY_BUDGET = 64L * 1024 * 1024;
+    public static final long UNDO_PACKED_BUDGET = 32L * 1024 * 1024;
+    public static final long UNDO_SPILL_BUDGET = 4L * 1024 * 1024 * 1024;
+    // on-heap tile memory when tiles are paged through a TileStore
+    public static final long TILE_CACHE_BUDGET = 128L * 1024 * 1024;
+    // command-log groups between document checkpoints
+    public static final int CHECKPOINT_INTERVAL = 500;
+    // mouse events queued for the render thread, and applied per batch
+    public static final int INPUT_QUEUE_CAPACITY = 1 << 16;
+    public static final int RENDER_BATCH = 1024;
 }
\ No newline at end of file
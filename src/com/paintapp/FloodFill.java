@@ -0,0 +1,659 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+// Scanline flood fill working directly on int[] pixel storage: the tiles of a
+// TiledImage, or the DataBufferInt behind a TYPE_INT_ARGB image (split into
+// virtual tiles). Each tile is filled with whole horizontal spans, pushing one
+// seed per run of matching pixels on the rows above and below. The seed stack
+// and the per-tile visited bitmaps are primitive arrays kept between calls, so
+// a fill does no per-pixel allocation. Not thread-safe: use one instance per thread.
+//
+// With a tolerance, pixels match when every RGBA channel is within that distance
+// of the seed colour. The flood runs in waves: each wave fills the tiles that
+// have pending seeds (in parallel on the fork-join pool for large images), and
+// the seeds they produce on their borders are merged into the neighbours'
+// queues for the next wave. A solid document tile of the seed colour is taken
+// whole without scanning it, and a fully covered tile is replaced by a solid
+// tile of the new colour, so filling a blank area of a huge document stays cheap.
+public class FloodFill {
+
+    public static final long PARALLEL_THRESHOLD = 4L * 1024 * 1024;
+    private static final int IMAGE_TILE = 512; // virtual tile size for plain images
+    private static final int MAX_SPARE_BITMAPS = 1024;
+
+    // Pixel storage a fill runs on: a grid of square tiles, each backed by an int[]
+    private interface Target {
+        int width();
+        int height();
+        int tileSize();
+        int[] pixels(int col, int row);
+        int offset(int col, int row);
+        int stride();
+        boolean isSolid(int col, int row);
+        int[] writablePixels(int col, int row);
+        boolean setSolid(int col, int row, int rgb);
+    }
+
+    private static final class ImageTarget implements Target {
+        final int[] px;
+        final int w, h;
+
+        ImageTarget(BufferedImage image) {
+            px = ImageUtils.pixels(image);
+            w = image.getWidth();
+            h = image.getHeight();
+        }
+
+        public int width() { return w; }
+        public int height() { return h; }
+        public int tileSize() { return IMAGE_TILE; }
+        public int[] pixels(int col, int row) { return px; }
+        public int offset(int col, int row) { return row * IMAGE_TILE * w + col * IMAGE_TILE; }
+        public int stride() { return w; }
+        public boolean isSolid(int col, int row) { return false; }
+        public int[] writablePixels(int col, int row) { return px; }
+        public boolean setSolid(int col, int row, int rgb) { return false; }
+    }
+
+    private static final class DocumentTarget implements Target {
+        final TiledImage doc;
+
+        DocumentTarget(TiledImage doc) {
+            this.doc = doc;
+        }
+
+        public int width() { return doc.getWidth(); }
+        public int height() { return doc.getHeight(); }
+        public int tileSize() { return TiledImage.TILE; }
+        public int[] pixels(int col, int row) { return doc.tileAt(col, row).pixels(); }
+        public int offset(int col, int row) { return 0; }
+        public int stride() { return TiledImage.TILE; }
+        public boolean isSolid(int col, int row) { return doc.tileAt(col, row).solid; }
+        public int[] writablePixels(int col, int row) { return doc.writableTile(col, row).pixels(); }
+
+        public boolean setSolid(int col, int row, int rgb) {
+            doc.setTile(col, row, doc.solidTile(rgb));
+            return true;
+        }
+    }
+
+    private int tolerance;
+    private boolean antialias;
+    private final ArrayDeque<long[]> spareBitmaps = new ArrayDeque<>();
+    private int[] stack = new int[1024];
+    private int minX, minY, maxX, maxY;
+
+    public void setTolerance(int tolerance) { this.tolerance = Math.max(0, Math.min(255, tolerance)); }
+    public int getTolerance() { return tolerance; }
+    public void setAntialias(boolean antialias) { this.antialias = antialias; }
+    public boolean isAntialias() { return antialias; }
+
+    // Fills the 4-connected region of pixels matching the colour at (x, y).
+    // Returns the number of pixels in the region.
+    public int fill(BufferedImage image, int x, int y, int newRgb) {
+        return fill(new ImageTarget(image), x, y, newRgb);
+    }
+
+    public int fill(TiledImage doc, int x, int y, int newRgb) {
+        return fill(new DocumentTarget(doc), x, y, newRgb);
+    }
+
+    // Magic wand: the region a fill at (x, y) would cover, without touching pixels
+    public RegionMask select(BufferedImage image, int x, int y) {
+        return select(new ImageTarget(image), x, y);
+    }
+
+    public RegionMask select(TiledImage doc, int x, int y) {
+        return select(new DocumentTarget(doc), x, y);
+    }
+
+    // Fills a region computed earlier (e.g. a magic-wand selection)
+    public void fill(BufferedImage image, RegionMask mask, int newRgb) {
+        paint(new ImageTarget(image), mask, newRgb);
+    }
+
+    public void fill(TiledImage doc, RegionMask mask, int newRgb) {
+        paint(new DocumentTarget(doc), mask, newRgb);
+    }
+
+    // Bounding box of the last fill, or null if it changed nothing
+    public Rectangle getBounds() {
+        if (maxX < 0) return null;
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    private int fill(Target t, int x, int y, int newRgb) {
+        maxX = -1;
+        if (x < 0 || y < 0 || x >= t.width() || y >= t.height()) return 0;
+        if (tolerance == 0 && rgbAt(t, x, y) == newRgb) return 0;
+
+        RegionMask mask = select(t, x, y);
+        paint(t, mask, newRgb);
+        Rectangle b = mask.getBounds();
+        if (antialias) b = smoothEdges(t, mask, newRgb);
+        recycle(mask);
+
+        minX = b.x;
+        minY = b.y;
+        maxX = b.x + b.width - 1;
+        maxY = b.y + b.height - 1;
+        return mask.getPixelCount();
+    }
+
+    // ---------------------------------------------------------------
+    // Region search
+    // ---------------------------------------------------------------
+
+    // Growable list of packed ints, used for seed queues
+    private static final class IntList {
+        int[] data;
+        int size;
+
+        IntList(int capacity) {
+            data = new int[capacity];
+        }
+
+        void add(int a, int b) {
+            if (size + 2 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            data[size++] = a;
+            data[size++] = b;
+        }
+
+        void add(int a, int b, int c) {
+            if (size + 3 > data.length) data = Arrays.copyOf(data, data.length * 2 + 3);
+            data[size++] = a;
+            data[size++] = b;
+            data[size++] = c;
+        }
+    }
+
+    // Result of filling one tile: pixel count, bounds and the border seeds
+    // (slot, x, y triples) destined for neighbouring tiles
+    private static final class TileResult {
+        int count;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+        final IntList outbox = new IntList(48);
+
+        void include(int x0, int y0, int x1, int y1) {
+            if (x0 < minX) minX = x0;
+            if (y0 < minY) minY = y0;
+            if (x1 > maxX) maxX = x1;
+            if (y1 > maxY) maxY = y1;
+        }
+    }
+
+    private RegionMask select(Target t, int x, int y) {
+        int w = t.width(), h = t.height();
+        if (x < 0 || y < 0 || x >= w || y >= h) return RegionMask.empty();
+        int ts = t.tileSize();
+        int cols = (w + ts - 1) / ts, rows = (h + ts - 1) / ts;
+        int seedRgb = rgbAt(t, x, y);
+        boolean parallel = (long) w * h >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+
+        long[][] visited = new long[cols * rows][];
+        IntList[] inbox = new IntList[cols * rows];
+        IntList first = new IntList(2);
+        first.add(x, y);
+        inbox[(y / ts) * cols + x / ts] = first;
+
+        int count = 0;
+        int bx0 = Integer.MAX_VALUE, by0 = Integer.MAX_VALUE, bx1 = -1, by1 = -1;
+        List<Callable<TileResult>> wave = new ArrayList<>();
+        List<TileResult> results = new ArrayList<>();
+        while (true) {
+            wave.clear();
+            results.clear();
+            for (int slot = 0; slot < inbox.length; slot++) {
+                IntList seeds = inbox[slot];
+                if (seeds == null) continue;
+                inbox[slot] = null;
+                if (visited[slot] == RegionMask.FULL) continue;
+                int col = slot % cols, row = slot / cols;
+                if (visited[slot] == null && !t.isSolid(col, row)) visited[slot] = borrowBitmap(ts);
+                if (parallel) {
+                    wave.add(() -> selectTile(t, col, row, cols, seeds, visited, seedRgb, new int[256]));
+                } else {
+                    results.add(selectTile(t, col, row, cols, seeds, visited, seedRgb, null));
+                }
+            }
+            if (!wave.isEmpty()) {
+                try {
+                    for (Future<TileResult> f : ForkJoinPool.commonPool().invokeAll(wave)) results.add(f.get());
+                } catch (Exception e) {
+                    throw new IllegalStateException("Parallel fill failed", e);
+                }
+            }
+            if (results.isEmpty()) break;
+
+            // merge border seeds into the neighbours' queues for the next wave
+            for (TileResult r : results) {
+                count += r.count;
+                if (r.count > 0) {
+                    bx0 = Math.min(bx0, r.minX);
+                    by0 = Math.min(by0, r.minY);
+                    bx1 = Math.max(bx1, r.maxX);
+                    by1 = Math.max(by1, r.maxY);
+                }
+                int[] d = r.outbox.data;
+                for (int i = 0; i < r.outbox.size; i += 3) {
+                    IntList q = inbox[d[i]];
+                    if (q == null) q = inbox[d[i]] = new IntList(16);
+                    q.add(d[i + 1], d[i + 2]);
+                }
+            }
+        }
+
+        // tiles that were seeded but had no match hold empty bitmaps; drop them
+        for (int slot = 0; slot < visited.length; slot++) {
+            long[] v = visited[slot];
+            if (v != null && v != RegionMask.FULL && isZero(v)) {
+                giveBack(v);
+                visited[slot] = null;
+            }
+        }
+        Rectangle bounds = count == 0 ? new Rectangle() : new Rectangle(bx0, by0, bx1 - bx0 + 1, by1 - by0 + 1);
+        return new RegionMask(ts, cols, w, visited, bounds, count);
+    }
+
+    // Floods the part of the region inside one tile. Runs that continue past
+    // the tile edge become seeds for the neighbouring tile in result.outbox.
+    private TileResult selectTile(Target t, int col, int row, int cols, IntList seeds,
+                                  long[][] visited, int seedRgb, int[] scratch) {
+        TileResult result = new TileResult();
+        int ts = t.tileSize();
+        int w = t.width(), h = t.height();
+        int x0 = col * ts, y0 = row * ts;
+        int x1 = Math.min(w, x0 + ts) - 1, y1 = Math.min(h, y0 + ts) - 1;
+        int slot = row * cols + col;
+
+        if (t.isSolid(col, row)) {
+            // one colour throughout: the tile is either entirely in the region or not at all
+            if (!matchesColor(t.pixels(col, row)[t.offset(col, row)], seedRgb)) return result;
+            visited[slot] = RegionMask.FULL;
+            result.count = (x1 - x0 + 1) * (y1 - y0 + 1);
+            result.include(x0, y0, x1, y1);
+            for (int y = y0; y <= y1; y++) {
+                if (x0 > 0) seedIfMatch(t, x0 - 1, y, slot - 1, seedRgb, result);
+                if (x1 < w - 1) seedIfMatch(t, x1 + 1, y, slot + 1, seedRgb, result);
+            }
+            if (y0 > 0) seedRuns(t, x0, x1, y0 - 1, slot - cols, seedRgb, result);
+            if (y1 < h - 1) seedRuns(t, x0, x1, y1 + 1, slot + cols, seedRgb, result);
+            return result;
+        }
+
+        int[] px = t.pixels(col, row);
+        int off = t.offset(col, row), stride = t.stride();
+        long[] vis = visited[slot];
+        int words = ts >>> 6;
+        int[] st = scratch != null ? scratch : stack;
+        int top = 0;
+        for (int i = 0; i < seeds.size; i++) {
+            if (top == st.length) st = Arrays.copyOf(st, st.length * 2);
+            st[top++] = seeds.data[i];
+        }
+
+        while (top > 0) {
+            int sy = st[--top];
+            int sx = st[--top];
+            int base = off + (sy - y0) * stride - x0;
+            int vrow = (sy - y0) * words;
+            if (!matches(px, base, vis, vrow, sx, x0, seedRgb)) continue;
+
+            int lx = sx, rx = sx;
+            while (lx > x0 && matches(px, base, vis, vrow, lx - 1, x0, seedRgb)) lx--;
+            while (rx < x1 && matches(px, base, vis, vrow, rx + 1, x0, seedRgb)) rx++;
+            markSpan(vis, vrow, lx - x0, rx - x0);
+            result.count += rx - lx + 1;
+            result.include(lx, sy, rx, sy);
+
+            if (lx == x0 && lx > 0) seedIfMatch(t, lx - 1, sy, slot - 1, seedRgb, result);
+            if (rx == x1 && rx < w - 1) seedIfMatch(t, rx + 1, sy, slot + 1, seedRgb, result);
+
+            for (int ny = sy - 1; ny <= sy + 1; ny += 2) {
+                if (ny < 0 || ny >= h) continue;
+                if (ny < y0 || ny > y1) {
+                    seedRuns(t, lx, rx, ny, ny < y0 ? slot - cols : slot + cols, seedRgb, result);
+                    continue;
+                }
+                int nbase = off + (ny - y0) * stride - x0;
+                int nvrow = (ny - y0) * words;
+                boolean inRun = false;
+                for (int x = lx; x <= rx; x++) {
+                    if (matches(px, nbase, vis, nvrow, x, x0, seedRgb)) {
+                        if (!inRun) {
+                            if (top + 2 > st.length) st = Arrays.copyOf(st, st.length * 2);
+                            st[top++] = x;
+                            st[top++] = ny;
+                            inRun = true;
+                        }
+                    } else {
+                        inRun = false;
+                    }
+                }
+            }
+        }
+        if (scratch == null) stack = st;
+        return result;
+    }
+
+    // Seeds the neighbouring tile at (x, y) if that pixel has the seed colour
+    private void seedIfMatch(Target t, int x, int y, int slot, int seedRgb, TileResult result) {
+        if (matchesColor(rgbAt(t, x, y), seedRgb)) result.outbox.add(slot, x, y);
+    }
+
+    // Seeds the neighbouring tile once per run of matching pixels on row y
+    private void seedRuns(Target t, int lx, int rx, int y, int slot, int seedRgb, TileResult result) {
+        int ts = t.tileSize();
+        int col = lx / ts, row = y / ts;
+        int[] px = t.pixels(col, row);
+        int base = t.offset(col, row) + (y - row * ts) * t.stride() - col * ts;
+        boolean inRun = false;
+        for (int x = lx; x <= rx; x++) {
+            if (matchesColor(px[base + x], seedRgb)) {
+                if (!inRun) {
+                    result.outbox.add(slot, x, y);
+                    inRun = true;
+                }
+            } else {
+                inRun = false;
+            }
+        }
+    }
+
+    private boolean matches(int[] px, int base, long[] vis, int vrow, int x, int x0, int seedRgb) {
+        int lx = x - x0;
+        return (vis[vrow + (lx >>> 6)] & (1L << lx)) == 0 && matchesColor(px[base + x], seedRgb);
+    }
+
+    private boolean matchesColor(int c, int seedRgb) {
+        if (c == seedRgb) return true;
+        int tol = tolerance;
+        return tol > 0
+                && Math.abs(((c >>> 24) & 0xFF) - ((seedRgb >>> 24) & 0xFF)) <= tol
+                && Math.abs(((c >> 16) & 0xFF) - ((seedRgb >> 16) & 0xFF)) <= tol
+                && Math.abs(((c >> 8) & 0xFF) - ((seedRgb >> 8) & 0xFF)) <= tol
+                && Math.abs((c & 0xFF) - (seedRgb & 0xFF)) <= tol;
+    }
+
+    private static int rgbAt(Target t, int x, int y) {
+        int ts = t.tileSize();
+        int col = x / ts, row = y / ts;
+        return t.pixels(col, row)[t.offset(col, row) + (y - row * ts) * t.stride() + (x - col * ts)];
+    }
+
+    // ---------------------------------------------------------------
+    // Bitmaps
+    // ---------------------------------------------------------------
+
+    private long[] borrowBitmap(int tileSize) {
+        int length = tileSize * tileSize / 64;
+        long[] b = spareBitmaps.poll();
+        if (b == null || b.length != length) {
+            spareBitmaps.clear();
+            b = new long[length];
+        }
+        return b;
+    }
+
+    private void giveBack(long[] bitmap) {
+        if (spareBitmaps.size() < MAX_SPARE_BITMAPS) {
+            Arrays.fill(bitmap, 0L);
+            spareBitmaps.push(bitmap);
+        }
+    }
+
+    // Returns the bitmaps of a mask that never left this class to the pool
+    private void recycle(RegionMask mask) {
+        int cols = mask.getColumns();
+        if (cols == 0) return;
+        int rows = (mask.getBounds().y + mask.getBounds().height + mask.getTileSize() - 1) / mask.getTileSize();
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                long[] b = mask.tileBits(col, row);
+                if (b != null && b != RegionMask.FULL) giveBack(b);
+            }
+        }
+    }
+
+    private static boolean isZero(long[] bits) {
+        for (long b : bits) if (b != 0) return false;
+        return true;
+    }
+
+    private static void markSpan(long[] vis, int vrow, int lx, int rx) {
+        int w0 = lx >>> 6, w1 = rx >>> 6;
+        long first = -1L << lx;
+        long last = -1L >>> (63 - (rx & 63));
+        if (w0 == w1) {
+            vis[vrow + w0] |= first & last;
+            return;
+        }
+        vis[vrow + w0] |= first;
+        for (int w = w0 + 1; w < w1; w++) vis[vrow + w] = -1L;
+        vis[vrow + w1] |= last;
+    }
+
+    // ---------------------------------------------------------------
+    // Painting a region
+    // ---------------------------------------------------------------
+
+    // Writes newRgb into every pixel of the mask. Fully covered document tiles
+    // become a shared solid tile; the rest are painted span by span, in
+    // parallel across tiles for large masks.
+    private void paint(Target t, RegionMask mask, int newRgb) {
+        if (mask.isEmpty()) return;
+        Rectangle b = mask.getBounds();
+        int ts = t.tileSize();
+        int w = t.width(), h = t.height();
+        int c0 = b.x / ts, c1 = (b.x + b.width - 1) / ts;
+        int r0 = b.y / ts, r1 = (b.y + b.height - 1) / ts;
+
+        // copy-on-write happens here, on this thread; the pixel writes can then run anywhere
+        List<int[]> jobs = new ArrayList<>();
+        List<int[]> targets = new ArrayList<>();
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                long[] bits = mask.tileBits(col, row);
+                if (bits == null) continue;
+                int x0 = col * ts, y0 = row * ts;
+                boolean wholeTile = x0 + ts <= w && y0 + ts <= h;
+                if (bits == RegionMask.FULL && wholeTile && t.setSolid(col, row, newRgb)) continue;
+                targets.add(t.writablePixels(col, row));
+                jobs.add(new int[] {col, row});
+            }
+        }
+
+        IntStream range = IntStream.range(0, jobs.size());
+        if ((long) b.width * b.height >= PARALLEL_THRESHOLD) range = range.parallel();
+        range.forEach(i -> {
+            int col = jobs.get(i)[0], row = jobs.get(i)[1];
+            paintTile(t, targets.get(i), col, row, mask.tileBits(col, row), newRgb);
+        });
+    }
+
+    private static void paintTile(Target t, int[] px, int col, int row, long[] bits, int newRgb) {
+        int ts = t.tileSize();
+        int x0 = col * ts, y0 = row * ts;
+        int tw = Math.min(ts, t.width() - x0), th = Math.min(ts, t.height() - y0);
+        int off = t.offset(col, row), stride = t.stride();
+        int words = ts >>> 6;
+        for (int ly = 0; ly < th; ly++) {
+            int base = off + ly * stride;
+            if (bits == RegionMask.FULL) {
+                Arrays.fill(px, base, base + tw, newRgb);
+                continue;
+            }
+            int start = -1;
+            for (int lx = 0; lx < tw; lx++) {
+                long word = bits[ly * words + (lx >>> 6)];
+                if ((lx & 63) == 0 && word == 0 && start < 0) {
+                    lx += 63;
+                    continue;
+                }
+                boolean set = (word & (1L << lx)) != 0;
+                if (set && start < 0) {
+                    start = lx;
+                } else if (!set && start >= 0) {
+                    Arrays.fill(px, base + start, base + lx, newRgb);
+                    start = -1;
+                }
+            }
+            if (start >= 0) Arrays.fill(px, base + start, base + tw, newRgb);
+        }
+    }
+
+    // Blends the fill colour into the pixels just outside the mask, weighted by
+    // the share of their 8 neighbours that were filled (all 8: fully covered).
+    // Works tile by tile, a row of mask bits at a time: tiles wholly inside the
+    // mask, or with no mask in or around them, are skipped, and within a tile
+    // only the pixels next to the mask are looked at. The edges are found in
+    // parallel for large masks, the tiles made writable on this thread, then
+    // blended. Returns the touched bounds.
+    private static Rectangle smoothEdges(Target t, RegionMask mask, int newRgb) {
+        Rectangle b = mask.getBounds();
+        Rectangle edge = new Rectangle(b.x - 1, b.y - 1, b.width + 2, b.height + 2)
+                .intersection(new Rectangle(0, 0, t.width(), t.height()));
+        if (mask.isEmpty()) return edge;
+        int ts = t.tileSize();
+        int cols = mask.getColumns(), rows = (t.height() + ts - 1) / ts;
+        int c0 = edge.x / ts, c1 = (edge.x + edge.width - 1) / ts;
+        int r0 = edge.y / ts, r1 = (edge.y + edge.height - 1) / ts;
+        List<int[]> tiles = new ArrayList<>();
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                long[] bits = mask.tileBits(col, row);
+                if (bits == RegionMask.FULL) continue;
+                boolean near = bits != null;
+                for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1) && !near; r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(cols - 1, col + 1) && !near; c++) {
+                        near = mask.tileBits(c, r) != null;
+                    }
+                }
+                if (near) tiles.add(new int[] {col, row});
+            }
+        }
+
+        // (pixel index in the tile, coverage) pairs per tile, or null
+        int[][] edges = new int[tiles.size()][];
+        IntStream range = IntStream.range(0, tiles.size());
+        if ((long) b.width * b.height >= PARALLEL_THRESHOLD) range = range.parallel();
+        range.forEach(i -> edges[i] = tileEdges(t, mask, tiles.get(i)[0], tiles.get(i)[1]));
+
+        List<Integer> touched = new ArrayList<>();
+        List<int[]> targets = new ArrayList<>();
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i] == null) continue;
+            touched.add(i);
+            targets.add(t.writablePixels(tiles.get(i)[0], tiles.get(i)[1]));
+        }
+        range = IntStream.range(0, touched.size());
+        if ((long) b.width * b.height >= PARALLEL_THRESHOLD) range = range.parallel();
+        range.forEach(j -> {
+            int i = touched.get(j), col = tiles.get(i)[0], row = tiles.get(i)[1];
+            int[] px = targets.get(j), e = edges[i];
+            int off = t.offset(col, row), stride = t.stride();
+            for (int k = 0; k < e.length; k += 2) {
+                int p = off + (e[k] / ts) * stride + e[k] % ts;
+                px[p] = blend(px[p], newRgb, e[k + 1] * 255 / 8);
+            }
+        });
+        return edge;
+    }
+
+    // The pixels of one tile outside the mask with filled neighbours, as
+    // (ly * tileSize + lx, neighbours filled) pairs; null if none. Rows of
+    // mask bits carry one pixel either side: bit i is x = x0 - 1 + i.
+    private static int[] tileEdges(Target t, RegionMask mask, int col, int row) {
+        int ts = t.tileSize();
+        int x0 = col * ts, y0 = row * ts;
+        int tw = Math.min(ts, t.width() - x0), th = Math.min(ts, t.height() - y0);
+        int words = (ts >>> 6) + 1;
+        long[] up = new long[words], cur = new long[words], down = new long[words];
+        maskRow(t, mask, col, y0 - 1, up);
+        maskRow(t, mask, col, y0, cur);
+        IntList out = null;
+        for (int ly = 0; ly < th; ly++) {
+            maskRow(t, mask, col, y0 + ly + 1, down);
+            for (int w = 0; w < words; w++) {
+                // set where a neighbour is filled and the pixel is not
+                long near = up[w] | down[w] | shifted(up, w) | shifted(cur, w) | shifted(down, w)
+                        | shiftedBack(up, w) | shiftedBack(cur, w) | shiftedBack(down, w);
+                long cand = near & ~cur[w];
+                if (w == 0) cand &= ~1L;
+                while (cand != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(cand);
+                    cand &= cand - 1;
+                    if (i > tw) break;
+                    int n = bit(up, i - 1) + bit(up, i) + bit(up, i + 1) + bit(cur, i - 1) + bit(cur, i + 1)
+                            + bit(down, i - 1) + bit(down, i) + bit(down, i + 1);
+                    if (out == null) out = new IntList(64);
+                    out.add(ly * ts + i - 1, n);
+                }
+            }
+            long[] spare = up;
+            up = cur;
+            cur = down;
+            down = spare;
+        }
+        return out == null ? null : Arrays.copyOf(out.data, out.size);
+    }
+
+    // Bits of the tile column's mask row y (from x0 - 1 to x0 + tileSize)
+    private static void maskRow(Target t, RegionMask mask, int col, int y, long[] out) {
+        Arrays.fill(out, 0L);
+        if (y < 0 || y >= t.height()) return;
+        int ts = t.tileSize(), x0 = col * ts;
+        int tw = Math.min(ts, t.width() - x0);
+        long[] bits = mask.tileBits(col, y / ts);
+        if (bits == RegionMask.FULL) {
+            for (int i = 1; i <= tw; i++) out[i >>> 6] |= 1L << i;
+        } else if (bits != null) {
+            int words = ts >>> 6, base = (y % ts) * words;
+            for (int w = 0; w < words; w++) {
+                out[w] |= bits[base + w] << 1;
+                out[w + 1] |= bits[base + w] >>> 63;
+            }
+        }
+        if (mask.contains(x0 - 1, y)) out[0] |= 1L;
+        if (mask.contains(x0 + tw, y)) out[(tw + 1) >>> 6] |= 1L << (tw + 1);
+    }
+
+    // Row bits moved up by one (bit i holds bit i - 1) and down by one, word w
+    private static long shifted(long[] a, int w) {
+        return (a[w] << 1) | (w > 0 ? a[w - 1] >>> 63 : 0);
+    }
+
+    private static long shiftedBack(long[] a, int w) {
+        return (a[w] >>> 1) | (w + 1 < a.length ? a[w + 1] << 63 : 0);
+    }
+
+    private static int bit(long[] a, int i) {
+        return (int) (a[i >>> 6] >>> i) & 1;
+    }
+
+    // src-over of 'src' at coverage (0-255) onto 'dst', non-premultiplied ARGB
+    static int blend(int dst, int src, int coverage) {
+        int sa = ((src >>> 24) * coverage + 127) / 255;
+        int da = dst >>> 24;
+        int oa = sa + (da * (255 - sa) + 127) / 255;
+        if (oa == 0) return 0;
+        int r = mix((src >> 16) & 0xFF, (dst >> 16) & 0xFF, sa, da, oa);
+        int g = mix((src >> 8) & 0xFF, (dst >> 8) & 0xFF, sa, da, oa);
+        int bl = mix(src & 0xFF, dst & 0xFF, sa, da, oa);
+        return (oa << 24) | (r << 16) | (g << 8) | bl;
+    }
+
+    private static int mix(int sc, int dc, int sa, int da, int oa) {
+        return (sc * sa * 255 + dc * da * (255 - sa) + oa * 127) / (oa * 255);
+    }
+}
@@ -0,0 +1,42 @@
+package com.paintapp;
+
+// Counters for what the canvas actually pushes to the screen per frame:
+// pixels blitted (or uploaded to the accelerated cache) and frame time
+public class FrameStats {
+    private long frames;
+    private long pixels;
+    private long lastFramePixels;
+    private long totalNanos;
+    private long maxNanos;
+
+    public synchronized void record(long framePixels, long frameNanos) {
+        frames++;
+        pixels += framePixels;
+        lastFramePixels = framePixels;
+        totalNanos += frameNanos;
+        maxNanos = Math.max(maxNanos, frameNanos);
+    }
+
+    public synchronized long getFrames() { return frames; }
+    public synchronized long getPixels() { return pixels; }
+    public synchronized long getLastFramePixels() { return lastFramePixels; }
+    public synchronized double getMaxFrameMillis() { return maxNanos / 1e6; }
+
+    public synchronized double getAveragePixelsPerFrame() {
+        return frames == 0 ? 0 : (double) pixels / frames;
+    }
+
+    public synchronized double getAverageFrameMillis() {
+        return frames == 0 ? 0 : totalNanos / 1e6 / frames;
+    }
+
+    public synchronized void reset() {
+        frames = pixels = lastFramePixels = totalNanos = maxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d frames, %.0f px/frame, avg %.3f ms, max %.3f ms",
+                frames, getAveragePixelsPerFrame(), getAverageFrameMillis(), getMaxFrameMillis());
+    }
+}
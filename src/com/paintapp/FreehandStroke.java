@@ -0,0 +1,14 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+
+// A freehand stroke being drawn, from mouse press to release: points are
+// added as they come and drawn in batches by flush(). The rectangles
+// returned are the areas touched (reused between calls), or null if nothing
+// was pending.
+public interface FreehandStroke {
+    void addPoint(int x, int y);
+    Rectangle flush();
+    // Flushes what is left and releases what the stroke held
+    Rectangle end();
+}
@@ -0,0 +1,57 @@
+package com.paintapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Append-only scratch file holding the packed pixels of history tiles pushed
+// out of the heap. Space of entries dropped from the history is not reused;
+// the file is deleted when closed or on exit.
+final class HistorySpill implements Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private long length;
+
+    HistorySpill(Path dir) throws IOException {
+        file = Files.createTempFile(dir, "paint", ".history");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        file.toFile().deleteOnExit();
+    }
+
+    // Appends 'data'; returns where it starts
+    synchronized long write(byte[] data) throws IOException {
+        long at = length;
+        ByteBuffer b = ByteBuffer.wrap(data);
+        while (b.hasRemaining()) channel.write(b, at + b.position());
+        length += data.length;
+        return at;
+    }
+
+    // Safe from any thread (positional reads)
+    byte[] read(long at, int len) {
+        byte[] data = new byte[len];
+        ByteBuffer b = ByteBuffer.wrap(data);
+        try {
+            while (b.hasRemaining()) {
+                if (channel.read(b, at + b.position()) < 0) throw new IOException("Unexpected end of " + file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return data;
+    }
+
+    synchronized long length() { return length; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
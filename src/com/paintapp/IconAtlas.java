@@ -0,0 +1,101 @@
+package com.paintapp;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+// The tool icons, packed side by side into one image (icons/atlas.png, with
+// a line "name x y width height" per icon in icons/atlas.txt) that is decoded
+// once, the first time an icon is asked for. It is decoded by PngRows rather
+// than ImageIO, whose start-up (finding its plugins) costs more than the
+// icons themselves and would otherwise be paid before the window first paints.
+//
+// Repack after changing an icon:
+//   java -cp out com.paintapp.IconAtlas bin/icons
+final class IconAtlas {
+
+    static final String IMAGE = "atlas.png", NAMES = "atlas.txt";
+
+    private static final Map<String, BufferedImage> ICONS = load();
+
+    private IconAtlas() {}
+
+    // The icon called 'name' (e.g. "pencil"), or null if there is none. An
+    // icon missing from the atlas is read from icons/<name>.png.
+    static BufferedImage icon(String name) {
+        BufferedImage icon = ICONS.get(name);
+        if (icon != null) return icon;
+        try (InputStream in = IconAtlas.class.getResourceAsStream("/icons/" + name + ".png")) {
+            return in != null ? ImageIO.read(in) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, BufferedImage> load() {
+        Map<String, BufferedImage> icons = new HashMap<>();
+        try (InputStream names = IconAtlas.class.getResourceAsStream("/icons/" + NAMES);
+             InputStream image = IconAtlas.class.getResourceAsStream("/icons/" + IMAGE)) {
+            if (names == null || image == null) return icons;
+            BufferedImage atlas;
+            try (PngRows png = PngRows.open(image)) {
+                if (png == null) return icons;
+                atlas = new BufferedImage(png.width, png.height, BufferedImage.TYPE_INT_ARGB);
+                png.read(ImageUtils.pixels(atlas), 0, png.width, png.height);
+            }
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(names, StandardCharsets.UTF_8))) {
+                for (String line; (line = r.readLine()) != null; ) {
+                    String[] f = line.trim().split("\\s+");
+                    if (f.length != 5) continue;
+                    icons.put(f[0], atlas.getSubimage(Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                            Integer.parseInt(f[3]), Integer.parseInt(f[4])));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading icon atlas: " + e);
+        }
+        return icons;
+    }
+
+    // Packs every other PNG in the directory into the atlas, left to right
+    // in name order
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "bin/icons");
+        File[] files = dir.listFiles((d, n) -> n.endsWith(".png") && !n.equals(IMAGE));
+        if (files == null || files.length == 0) throw new IOException("No icons in " + dir);
+        Arrays.sort(files);
+        List<BufferedImage> icons = new ArrayList<>();
+        int width = 0, height = 0;
+        for (File f : files) {
+            BufferedImage icon = ImageIO.read(f);
+            if (icon == null) throw new IOException("Cannot read " + f);
+            icons.add(icon);
+            width += icon.getWidth();
+            height = Math.max(height, icon.getHeight());
+        }
+        BufferedImage atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        try (PrintWriter names = new PrintWriter(new File(dir, NAMES), StandardCharsets.UTF_8)) {
+            int x = 0;
+            for (int i = 0; i < files.length; i++) {
+                BufferedImage icon = icons.get(i);
+                atlas.createGraphics().drawImage(icon, x, 0, null);
+                String n = files[i].getName();
+                names.println(n.substring(0, n.length() - ".png".length()) + " " + x + " 0 " + icon.getWidth() + " " + icon.getHeight());
+                x += icon.getWidth();
+            }
+        }
+        ImageIO.write(atlas, "png", new File(dir, IMAGE));
+        System.out.println(files.length + " icons packed into " + new File(dir, IMAGE));
+    }
+}
@@ -0,0 +1,301 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Image filters applied to a TiledImage, whole or in a rectangle: blur,
+// sharpen, grayscale, brightness/contrast and curves. The work is split into
+// blocks of tiles that run on the common fork-join pool (when it has more
+// than one thread). Blocks read the tiles as they were before the filter and
+// write new tiles, which go into the document at the end as one ordinary
+// edit, i.e. one history entry once committed.
+//
+// Tiles that cannot change are skipped: a solid tile surrounded by its own
+// colour under a blur, and solid tiles under the per-pixel filters map to
+// another solid tile.
+public final class ImageFilter {
+
+    public enum Kind { BLUR, SHARPEN, GRAYSCALE, BRIGHTNESS_CONTRAST, CURVES }
+
+    private static final int TILE = TiledImage.TILE;
+    // side of a blur block, in tiles, at least
+    private static final int BLOCK_TILES = 4;
+
+    private final Kind kind;
+    private final int[] params;
+    // per-pixel filters: lookup tables for red, green and blue
+    private final int[] lut;
+
+    private ImageFilter(Kind kind, int... params) {
+        this.kind = kind;
+        this.params = params;
+        this.lut = switch (kind) {
+            case BRIGHTNESS_CONTRAST -> brightnessContrastTable(params[0], params[1]);
+            case CURVES -> curvesTable(params[0], Arrays.copyOfRange(params, 1, params.length));
+            default -> null;
+        };
+    }
+
+    // Gaussian blur reaching 'radius' pixels (sigma = radius / 3)
+    public static ImageFilter blur(int radius) {
+        if (radius < 1) throw new IllegalArgumentException("Blur radius must be at least 1");
+        return new ImageFilter(Kind.BLUR, radius);
+    }
+
+    // Unsharp mask: adds 'amount' percent of the detail a blur of 'radius' removes
+    public static ImageFilter sharpen(int radius, int amount) {
+        if (radius < 1 || amount < 0) throw new IllegalArgumentException("Bad sharpen radius or amount");
+        return new ImageFilter(Kind.SHARPEN, radius, amount);
+    }
+
+    // Luma (Rec. 601 weights)
+    public static ImageFilter grayscale() {
+        return new ImageFilter(Kind.GRAYSCALE);
+    }
+
+    // 'brightness' (-255..255) is added to each channel after scaling its
+    // distance from mid-grey by (100 + contrast)% (contrast -100..100)
+    public static ImageFilter brightnessContrast(int brightness, int contrast) {
+        if (Math.abs(brightness) > 255 || Math.abs(contrast) > 100) throw new IllegalArgumentException("Bad brightness or contrast");
+        return new ImageFilter(Kind.BRIGHTNESS_CONTRAST, brightness, contrast);
+    }
+
+    // Tone curve through (input, output) points in 0..255, straight between
+    // them and flat beyond the ends. 'channel' is 0 for all three, 1..3 for
+    // red, green or blue only.
+    public static ImageFilter curves(int channel, int... points) {
+        if (channel < 0 || channel > 3 || points.length < 2 || points.length % 2 != 0) {
+            throw new IllegalArgumentException("Bad curve");
+        }
+        int[] p = new int[points.length + 1];
+        p[0] = channel;
+        System.arraycopy(points, 0, p, 1, points.length);
+        return new ImageFilter(Kind.CURVES, p);
+    }
+
+    // The filter a CommandLog recorded
+    static ImageFilter of(Kind kind, int[] params) {
+        return switch (kind) {
+            case BLUR -> blur(params[0]);
+            case SHARPEN -> sharpen(params[0], params[1]);
+            case GRAYSCALE -> grayscale();
+            case BRIGHTNESS_CONTRAST -> brightnessContrast(params[0], params[1]);
+            case CURVES -> curves(params[0], Arrays.copyOfRange(params, 1, params.length));
+        };
+    }
+
+    public Kind getKind() { return kind; }
+    int[] params() { return params; }
+
+    // The same filter for a document drawn at another scale
+    ImageFilter scaled(double scale) {
+        return switch (kind) {
+            case BLUR -> blur((int) Math.max(1, Math.round(params[0] * scale)));
+            case SHARPEN -> sharpen((int) Math.max(1, Math.round(params[0] * scale)), params[1]);
+            default -> this;
+        };
+    }
+
+    // Filters 'area' of the document (null = all of it). Returns the area
+    // covered, or null if it lies outside the document.
+    public Rectangle apply(TiledImage doc, Rectangle area) {
+        Rectangle r = new Rectangle(0, 0, doc.getWidth(), doc.getHeight());
+        if (area != null) r = r.intersection(area);
+        if (r.isEmpty()) return null;
+        int cols = doc.getColumns(), rows = doc.getRows();
+        Tile[] grid = new Tile[cols * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) grid[row * cols + col] = doc.tileAt(col, row);
+        }
+        Tile[] out = new Tile[grid.length];
+        List<ForkJoinTask<?>> tasks = kind == Kind.BLUR || kind == Kind.SHARPEN
+                ? neighbourhoodTasks(doc, grid, r, out)
+                : pixelTasks(doc, grid, r, out);
+        if (tasks.size() > 1 && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (ForkJoinTask<?> t : tasks) t.invoke();
+        }
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] != null) doc.setTile(i % cols, i / cols, out[i]);
+        }
+        return r;
+    }
+
+    // Part of tile (col, row) inside 'r'
+    private static Rectangle clip(int col, int row, Rectangle r) {
+        return new Rectangle(col * TILE, row * TILE, TILE, TILE).intersection(r);
+    }
+
+    // A new tile to write 'part' of the tile 'src' into: a copy unless all of it will be written
+    private static Tile target(TiledImage doc, Tile src, Rectangle part) {
+        return part.width == TILE && part.height == TILE ? Tile.create(TILE, doc.getStore()) : Tile.copyOf(src, doc.getStore());
+    }
+
+    // ---------------------------------------------------------------
+    // Blur and sharpen
+    // ---------------------------------------------------------------
+
+    private List<ForkJoinTask<?>> neighbourhoodTasks(TiledImage doc, Tile[] grid, Rectangle r, Tile[] out) {
+        Blur blur = new Blur(params[0]);
+        int cols = doc.getColumns(), w = doc.getWidth(), h = doc.getHeight();
+        int c0 = r.x / TILE, c1 = (r.x + r.width - 1) / TILE, r0 = r.y / TILE, r1 = (r.y + r.height - 1) / TILE;
+        // blocks several times the reach across keep the re-read margins small
+        int span = Math.max(BLOCK_TILES, (4 * blur.reach + TILE - 1) / TILE);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int by = r0; by <= r1; by += span) {
+            for (int bx = c0; bx <= c1; bx += span) {
+                Rectangle block = null;
+                List<Integer> slots = new ArrayList<>();
+                for (int row = by; row <= Math.min(r1, by + span - 1); row++) {
+                    for (int col = bx; col <= Math.min(c1, bx + span - 1); col++) {
+                        Rectangle part = clip(col, row, r);
+                        if (uniform(grid, cols, w, h, part, blur.reach)) continue;
+                        int slot = row * cols + col;
+                        out[slot] = target(doc, grid[slot], part);
+                        slots.add(slot);
+                        block = block == null ? part : block.union(part);
+                    }
+                }
+                if (block == null) continue;
+                Rectangle b = block;
+                tasks.add(ForkJoinTask.adapt(() -> filterBlock(blur, grid, cols, w, h, b, r, slots, out)));
+            }
+        }
+        return tasks;
+    }
+
+    // True if everything a blur of 'part' reads is one solid colour
+    private static boolean uniform(Tile[] grid, int cols, int w, int h, Rectangle part, int reach) {
+        int c0 = Math.max(0, part.x - reach) / TILE, c1 = Math.min(w - 1, part.x + part.width - 1 + reach) / TILE;
+        int r0 = Math.max(0, part.y - reach) / TILE, r1 = Math.min(h - 1, part.y + part.height - 1 + reach) / TILE;
+        Tile first = grid[r0 * cols + c0];
+        if (!first.solid) return false;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                Tile t = grid[row * cols + col];
+                if (!t.solid || t.color != first.color) return false;
+            }
+        }
+        return true;
+    }
+
+    private void filterBlock(Blur blur, Tile[] grid, int cols, int w, int h, Rectangle block, Rectangle r,
+                             List<Integer> slots, Tile[] out) {
+        int[] blurred = blur.block(grid, cols, w, h, block);
+        int amount = kind == Kind.SHARPEN ? params[1] : 0;
+        for (int slot : slots) {
+            int col = slot % cols, row = slot / cols, tx = col * TILE, ty = row * TILE;
+            Rectangle part = clip(col, row, r);
+            int[] src = grid[slot].pixels(), dst = out[slot].pixels();
+            for (int y = part.y; y < part.y + part.height; y++) {
+                int b = (y - block.y) * block.width + (part.x - block.x);
+                int p = (y - ty) * TILE + (part.x - tx);
+                for (int x = 0; x < part.width; x++, b++, p++) {
+                    dst[p] = kind == Kind.SHARPEN
+                            ? Blur.unpremultiply(unsharp(Blur.premultiply(src[p]), blurred[b], amount))
+                            : Blur.unpremultiply(blurred[b]);
+                }
+            }
+        }
+    }
+
+    // o + (o - blurred) * amount%, per premultiplied channel, kept valid
+    private static int unsharp(int o, int blurred, int amount) {
+        int a = sharpened(o >>> 24, blurred >>> 24, amount);
+        int r = Math.min(a, sharpened(o >> 16 & 0xFF, blurred >> 16 & 0xFF, amount));
+        int g = Math.min(a, sharpened(o >> 8 & 0xFF, blurred >> 8 & 0xFF, amount));
+        int b = Math.min(a, sharpened(o & 0xFF, blurred & 0xFF, amount));
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int sharpened(int o, int blurred, int amount) {
+        return Math.max(0, Math.min(255, o + ((o - blurred) * amount + (o >= blurred ? 50 : -50)) / 100));
+    }
+
+    // ---------------------------------------------------------------
+    // Per-pixel filters
+    // ---------------------------------------------------------------
+
+    private List<ForkJoinTask<?>> pixelTasks(TiledImage doc, Tile[] grid, Rectangle r, Tile[] out) {
+        int cols = doc.getColumns();
+        int c0 = r.x / TILE, c1 = (r.x + r.width - 1) / TILE, r0 = r.y / TILE, r1 = (r.y + r.height - 1) / TILE;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int row = r0; row <= r1; row++) {
+            List<Integer> slots = new ArrayList<>();
+            for (int col = c0; col <= c1; col++) {
+                int slot = row * cols + col;
+                Tile src = grid[slot];
+                Rectangle part = clip(col, row, r);
+                if (src.solid && part.width == TILE && part.height == TILE) {
+                    int rgb = map(src.color);
+                    if (rgb != src.color) out[slot] = doc.solidTile(rgb);
+                    continue;
+                }
+                out[slot] = target(doc, src, part);
+                slots.add(slot);
+            }
+            if (slots.isEmpty()) continue;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                for (int slot : slots) {
+                    int col = slot % cols, tx = col * TILE, ty = (slot / cols) * TILE;
+                    Rectangle part = clip(col, slot / cols, r);
+                    int[] src = grid[slot].pixels(), dst = out[slot].pixels();
+                    for (int y = part.y; y < part.y + part.height; y++) {
+                        int p = (y - ty) * TILE + (part.x - tx);
+                        for (int x = 0; x < part.width; x++, p++) dst[p] = map(src[p]);
+                    }
+                }
+            }));
+        }
+        return tasks;
+    }
+
+    // One unpremultiplied pixel through a per-pixel filter (alpha is kept)
+    private int map(int p) {
+        if (kind == Kind.GRAYSCALE) {
+            int l = ((p >> 16 & 0xFF) * 77 + (p >> 8 & 0xFF) * 150 + (p & 0xFF) * 29 + 128) >> 8;
+            return p & 0xFF000000 | l << 16 | l << 8 | l;
+        }
+        return p & 0xFF000000 | lut[p >> 16 & 0xFF] << 16 | lut[256 + (p >> 8 & 0xFF)] << 8 | lut[512 + (p & 0xFF)];
+    }
+
+    private static int[] brightnessContrastTable(int brightness, int contrast) {
+        int[] t = new int[768];
+        for (int v = 0; v < 256; v++) {
+            int c = Math.max(0, Math.min(255, Math.round((v - 127.5f) * (100 + contrast) / 100f + 127.5f) + brightness));
+            t[v] = t[256 + v] = t[512 + v] = c;
+        }
+        return t;
+    }
+
+    private static int[] curvesTable(int channel, int[] points) {
+        int n = points.length / 2;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(points[2 * a], points[2 * b]));
+        int[] curve = new int[256];
+        for (int v = 0; v < 256; v++) {
+            int k = 0;
+            while (k < n && points[2 * order[k]] < v) k++;
+            int out;
+            if (k == 0) out = points[2 * order[0] + 1];
+            else if (k == n) out = points[2 * order[n - 1] + 1];
+            else {
+                int x0 = points[2 * order[k - 1]], y0 = points[2 * order[k - 1] + 1];
+                int x1 = points[2 * order[k]], y1 = points[2 * order[k] + 1];
+                out = y0 + Math.round((float) (y1 - y0) * (v - x0) / (x1 - x0));
+            }
+            curve[v] = Math.max(0, Math.min(255, out));
+        }
+        int[] t = new int[768];
+        for (int c = 0; c < 3; c++) {
+            for (int v = 0; v < 256; v++) t[c * 256 + v] = channel == 0 || channel == c + 1 ? curve[v] : v;
+        }
+        return t;
+    }
+}
@@ -0,0 +1,196 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntConsumer;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Opens a PNG or JPEG as a document without ever decoding it whole. The
+// pixels stream in one row of tiles at a time, top down, into tiles of the
+// tile store, which pages them out past its budget; only one band of rows is
+// ever decoded on the heap.
+//
+// Both formats can only be decoded front to back, so there is no reading just
+// the tiles in view: ImageIO's readers start again from the top of the file
+// for every region read. Non-interlaced PNG (what PngExporter writes) is
+// therefore decoded in one pass by PngRows, and its first rows are in within
+// milliseconds. Anything else is read through ImageIO in bands as tall as
+// BAND_PIXELS allows, to keep the restarts few; a large image of that kind
+// first gets a preview, one colour per tile from a subsampled read (only the
+// first pass of an interlaced or progressive file), which costs little next
+// to the bands.
+public final class ImageImport implements Closeable {
+
+    public static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg"};
+
+    private static final int TILE = TiledImage.TILE;
+    // preview samples per tile side
+    private static final int PREVIEW_SAMPLES = 4;
+    // pixels decoded per ImageIO band read
+    private static final int BAND_PIXELS = 8 << 20;
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final PngRows png;
+    private final int width, height;
+
+    private ImageImport(ImageInputStream input, ImageReader reader, PngRows png) throws IOException {
+        this.input = input;
+        this.reader = reader;
+        this.png = png;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+    }
+
+    public static boolean canOpen(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (String ext : EXTENSIONS) {
+            if (name.endsWith(ext)) return true;
+        }
+        return false;
+    }
+
+    // Reads the header; the pixels are read by preview() and stream()
+    public static ImageImport open(Path file) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file.toFile());
+        if (in == null) throw new IOException("Cannot read " + file);
+        PngRows png = null;
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Not an image: " + file);
+            ImageReader reader = readers.next();
+            reader.setInput(in, true, true);
+            if (reader.getFormatName().equalsIgnoreCase("png")) png = PngRows.open(file);
+            return new ImageImport(in, reader, png);
+        } catch (IOException | RuntimeException e) {
+            if (png != null) png.close();
+            in.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    // A document the size of the image showing its preview, or just the
+    // background if the image is read in one pass or one band anyway
+    public TiledImage preview(int backgroundRgb, TileStore store) throws IOException {
+        TiledImage doc = new TiledImage(width, height, backgroundRgb, store);
+        if (png != null || (long) width * height <= BAND_PIXELS) return doc;
+        int step = TILE / PREVIEW_SAMPLES;
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        param.setSourceProgressivePasses(0, 1);
+        BufferedImage small = reader.read(0, param);
+        int sw = small.getWidth(), sh = small.getHeight();
+        int[] samples = small.getRGB(0, 0, sw, sh, null, 0, sw);
+        for (int row = 0; row < doc.getRows(); row++) {
+            for (int col = 0; col < doc.getColumns(); col++) {
+                // the mean of the samples that fall in the tile
+                long a = 0, r = 0, g = 0, b = 0;
+                int n = 0;
+                for (int y = row * PREVIEW_SAMPLES; y < Math.min(sh, (row + 1) * PREVIEW_SAMPLES); y++) {
+                    for (int x = col * PREVIEW_SAMPLES; x < Math.min(sw, (col + 1) * PREVIEW_SAMPLES); x++, n++) {
+                        int p = samples[y * sw + x];
+                        a += p >>> 24;
+                        r += p >> 16 & 0xFF;
+                        g += p >> 8 & 0xFF;
+                        b += p & 0xFF;
+                    }
+                }
+                if (n == 0) continue;
+                int rgb = (int) (a / n) << 24 | (int) (r / n) << 16 | (int) (g / n) << 8 | (int) (b / n);
+                doc.restoreTile(TiledImage.key(col, row), doc.solidTile(rgb));
+            }
+        }
+        return doc;
+    }
+
+    // Decodes the image into 'doc' (from preview()) one row of tiles at a
+    // time. Each row is decoded without holding 'lock', then put in place under
+    // it and passed to 'rowDone' while still held. Returns false if the thread
+    // was interrupted first.
+    public boolean stream(TiledImage doc, Lock lock, IntConsumer rowDone) throws IOException {
+        int bandRows = png != null ? TILE : Math.max(1, BAND_PIXELS / width / TILE) * TILE;
+        int[] band = new int[width * Math.min(bandRows, height)];
+        int cols = (width + TILE - 1) / TILE, background = doc.getBackground();
+        Tile[] tiles = new Tile[cols];
+        int[] solid = new int[cols];
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int y0 = 0; y0 < height; y0 += bandRows) {
+            if (Thread.currentThread().isInterrupted()) return false;
+            int n = Math.min(bandRows, height - y0);
+            if (png != null) {
+                png.read(band, 0, width, n);
+            } else {
+                param.setSourceRegion(new Rectangle(0, y0, width, n));
+                reader.read(0, param).getRGB(0, 0, width, n, band, 0, width);
+            }
+            for (int y = 0; y < n; y += TILE) {
+                if (Thread.currentThread().isInterrupted()) return false;
+                int rows = Math.min(TILE, n - y);
+                for (int col = 0; col < cols; col++) {
+                    tiles[col] = tile(band, y * width + col * TILE, width, Math.min(TILE, width - col * TILE), rows,
+                            background, doc.getStore(), solid, col);
+                }
+                int row = (y0 + y) / TILE;
+                lock.lock();
+                try {
+                    for (int col = 0; col < cols; col++) {
+                        doc.restoreTile(TiledImage.key(col, row), tiles[col] != null ? tiles[col] : doc.solidTile(solid[col]));
+                    }
+                    rowDone.accept(row);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return true;
+    }
+
+    // A frozen tile of the w x h pixels at band[offset], padded with the
+    // background, or null with the colour in solid[col] if it is all one colour
+    private static Tile tile(int[] band, int offset, int stride, int w, int h, int background,
+            TileStore store, int[] solid, int col) {
+        int first = band[offset];
+        boolean uniform = w == TILE && h == TILE || first == background;
+        for (int y = 0; uniform && y < h; y++) {
+            for (int i = offset + y * stride, end = i + w; i < end; i++) {
+                if (band[i] != first) {
+                    uniform = false;
+                    break;
+                }
+            }
+        }
+        if (uniform) {
+            solid[col] = first;
+            return null;
+        }
+        Tile t = Tile.create(TILE, store);
+        int[] px = t.pixels();
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(band, offset + y * stride, px, y * TILE, w);
+            if (w < TILE) Arrays.fill(px, y * TILE + w, (y + 1) * TILE, background);
+        }
+        if (h < TILE) Arrays.fill(px, h * TILE, TILE * TILE, background);
+        t.frozen = true;
+        return t;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+        if (png != null) png.close();
+    }
+}
@@ -0,0 +1,94 @@
+package com.paintapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Lock-free ring of input events from one producer (the event thread) to
+// one consumer at a time (the render thread, or whoever holds the canvas's
+// document lock). An event is a kind, a position, a time and an optional
+// reference (the tool settings of a press), kept in preallocated parallel
+// arrays so queueing allocates nothing. Nothing is ever dropped: a full
+// ring makes the producer wait for space.
+public class InputRing {
+
+    public static final int PRESS = 0, DRAG = 1, RELEASE = 2;
+
+    // One event read by poll()
+    public static final class Event {
+        public int kind, x, y;
+        public long time;
+        public Object data;
+    }
+
+    private final int mask;
+    private final int[] kinds, xs, ys;
+    private final long[] times;
+    private final Object[] data;
+    // next slot to read / to write; each is only advanced by its own side
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+    private volatile Thread waiting;
+    private long fullWaits;
+
+    public InputRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        mask = capacity - 1;
+        kinds = new int[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+        times = new long[capacity];
+        data = new Object[capacity];
+    }
+
+    // Producer side
+    public void put(int kind, int x, int y, long time, Object ref) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            fullWaits++;
+            while (t - head.get() > mask) LockSupport.parkNanos(20_000);
+        }
+        int i = (int) t & mask;
+        kinds[i] = kind;
+        xs[i] = x;
+        ys[i] = y;
+        times[i] = time;
+        data[i] = ref;
+        // a full (volatile) store: the read of 'waiting' below must not move
+        // before it, or a consumer that saw the ring empty just before could
+        // park with this event queued and nobody left to wake it
+        tail.set(t + 1);
+        Thread w = waiting;
+        if (w != null) LockSupport.unpark(w);
+    }
+
+    // Consumer side: false when empty
+    public boolean poll(Event e) {
+        long h = head.get();
+        if (h == tail.get()) return false;
+        int i = (int) h & mask;
+        e.kind = kinds[i];
+        e.x = xs[i];
+        e.y = ys[i];
+        e.time = times[i];
+        e.data = data[i];
+        data[i] = null;
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    // Consumer side: parks until there is something to poll
+    public void await() throws InterruptedException {
+        while (isEmpty()) {
+            waiting = Thread.currentThread();
+            if (isEmpty()) LockSupport.park(this);
+            waiting = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    public boolean isEmpty() { return head.get() == tail.get(); }
+    public int size() { return (int) (tail.get() - head.get()); }
+    public int capacity() { return mask + 1; }
+
+    // Times the producer found the ring full and had to wait
+    public long getFullWaits() { return fullWaits; }
+}
@@ -0,0 +1,531 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Crash-safe session journal. Every committed edit is appended to a file in
+// the journal directory as a checksummed record; a background thread writes
+// whatever has queued up in one go and forces it to disk once per batch
+// (group commit), so the drawing thread only builds small records.
+//
+// A journal file starts with a checkpoint of all layers. Writing a
+// new checkpoint starts a new file and deletes the old ones once it is on
+// disk, so recovery loads one checkpoint and replays only the records after
+// it. A torn or corrupt record ends the replay: everything before it is kept.
+//
+// Records: [int length][int crc32][byte type][payload]
+//   LAYERS    count, then per layer (bottom first): name, visible, opacity,
+//             blend mode, w, h, background, cols, rows, then per tile: solid
+//             flag and colour, or the tile's pixels
+//   COMMANDS  layer index, then one CommandLog group (see CommandLog.write)
+//   TILES     layer index, count, then key and tile as in LAYERS (undo/redo)
+//   RESIZE    w, h (all layers)
+public class Journal implements Closeable {
+
+    private static final int MAGIC = 0x504A4E4C; // "PJNL"
+    private static final int VERSION = 2;
+    private static final byte LAYERS = 1, COMMANDS = 2, TILES = 3, RESIZE = 4;
+
+    // start a new checkpoint after this many records or bytes of tile data
+    private static final int CHECKPOINT_RECORDS = 1000;
+    private static final long CHECKPOINT_BYTES = 32L << 20;
+
+    // A queued record; serialized on the writer thread
+    private interface Record {
+        byte type();
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private final Path dir;
+    private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final Buffer bytes = new Buffer();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private int fileIndex;
+    private boolean closed;
+    private volatile IOException failure;
+
+    // drawing-thread estimate of the work since the last checkpoint
+    private int recordsSinceCheckpoint;
+    private long bytesSinceCheckpoint;
+
+    // writer-thread statistics
+    private volatile long bytesWritten, batches, records;
+
+    // Starts a new journal in 'dir' whose first checkpoint is 'initial'.
+    // Existing journal files are replaced once that checkpoint is on disk.
+    public Journal(Path dir, List<Layer.Snapshot> initial) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        for (Path p : journalFiles(dir)) fileIndex = Math.max(fileIndex, indexOf(p));
+        checkpoint(initial);
+        writer = new Thread(this::writeLoop, "paint-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long getBytesWritten() { return bytesWritten; }
+    public long getBatches() { return batches; }
+    public long getRecords() { return records; }
+
+    // ---------------------------------------------------------------
+    // Appending (drawing thread)
+    // ---------------------------------------------------------------
+
+    // Commands [from, to) of the log, i.e. the group just committed, drawn
+    // on the layer at 'layer'
+    public void commands(int layer, CommandLog log, int from, int to) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64 + (to - from) * 64);
+        try {
+            new DataOutputStream(buf).writeInt(layer);
+            log.write(new DataOutputStream(buf), from, to);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] payload = buf.toByteArray();
+        enqueue(new Record() {
+            public byte type() { return COMMANDS; }
+            public void writeTo(DataOutputStream out) throws IOException { out.write(payload); }
+        }, payload.length);
+    }
+
+    // The tiles of the layer at 'layer' covering 'area' as they are now
+    // (after undo/redo)
+    public void tiles(int layer, TiledImage doc, Rectangle area) {
+        if (area == null) return;
+        Rectangle r = area.intersection(new Rectangle(0, 0, doc.getWidth(), doc.getHeight()));
+        if (r.isEmpty()) return;
+        int c0 = r.x / TiledImage.TILE, c1 = (r.x + r.width - 1) / TiledImage.TILE;
+        int r0 = r.y / TiledImage.TILE, r1 = (r.y + r.height - 1) / TiledImage.TILE;
+        int n = (c1 - c0 + 1) * (r1 - r0 + 1);
+        int[] keys = new int[n];
+        Tile[] tiles = new Tile[n];
+        long size = 0;
+        int i = 0;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++, i++) {
+                keys[i] = TiledImage.key(col, row);
+                tiles[i] = doc.tileAt(col, row);
+                size += tiles[i].byteSize();
+            }
+        }
+        TileStore store = doc.getStore();
+        enqueue(new Record() {
+            public byte type() { return TILES; }
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(layer);
+                out.writeInt(keys.length);
+                for (int k = 0; k < keys.length; k++) {
+                    out.writeInt(keys[k]);
+                    writeTile(out, tiles[k], store);
+                }
+            }
+        }, size);
+    }
+
+    public void resize(int w, int h) {
+        enqueue(new Record() {
+            public byte type() { return RESIZE; }
+            public void writeTo(DataOutputStream out) throws IOException {
+                out.writeInt(w);
+                out.writeInt(h);
+            }
+        }, 8);
+    }
+
+    // True when enough has been appended since the last checkpoint that
+    // recovery would be faster from a new one
+    public boolean wantsCheckpoint() {
+        return recordsSinceCheckpoint >= CHECKPOINT_RECORDS || bytesSinceCheckpoint >= CHECKPOINT_BYTES;
+    }
+
+    // Starts a new journal file with the layers as its base
+    public void checkpoint(List<Layer.Snapshot> snapshot) {
+        if (closed || failure != null) return;
+        recordsSinceCheckpoint = 0;
+        bytesSinceCheckpoint = 0;
+        queue.add(new Checkpoint(snapshot));
+    }
+
+    private void enqueue(Record r, long size) {
+        if (closed || failure != null) return;
+        recordsSinceCheckpoint++;
+        bytesSinceCheckpoint += size;
+        queue.add(r);
+    }
+
+    // Writes what is queued and stops the writer; the files stay on disk
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null) channel.close();
+        if (failure != null) throw failure;
+    }
+
+    // Closes the journal and deletes its files (the session ended normally)
+    public void discard() throws IOException {
+        close();
+        for (Path p : journalFiles(dir)) Files.deleteIfExists(p);
+    }
+
+    // ---------------------------------------------------------------
+    // Writer thread
+    // ---------------------------------------------------------------
+
+    private static final Record STOP = new Record() {
+        public byte type() { return 0; }
+        public void writeTo(DataOutputStream out) { }
+    };
+
+    private static final class Checkpoint implements Record {
+        final List<Layer.Snapshot> layers;
+
+        Checkpoint(List<Layer.Snapshot> layers) { this.layers = layers; }
+
+        public byte type() { return LAYERS; }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(layers.size());
+            for (Layer.Snapshot l : layers) {
+                out.writeUTF(l.name);
+                out.writeBoolean(l.visible);
+                out.writeFloat(l.opacity);
+                out.writeByte(l.blendMode.ordinal());
+                TiledImage.Snapshot s = l.tiles;
+                out.writeInt(s.width);
+                out.writeInt(s.height);
+                out.writeInt(s.backgroundRgb);
+                out.writeInt(s.cols);
+                out.writeInt(s.rows);
+                for (Tile t : s.grid) writeTile(out, t, t.store);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                stop = batch.remove(STOP);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                stop = true;
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Session journal disabled: " + e);
+                queue.clear();
+                stop = true;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Record> batch) throws IOException {
+        bytes.reset();
+        for (Record r : batch) {
+            if (r instanceof Checkpoint) {
+                flush();
+                startFile((Checkpoint) r);
+            } else {
+                frame(r);
+            }
+        }
+        flush();
+        records += batch.size();
+    }
+
+    // Writes the checkpoint into a new file; older files go once it is durable.
+    // The checkpoint can be as large as the document, so it is streamed to the
+    // file and its length and checksum are filled in afterwards.
+    private void startFile(Checkpoint cp) throws IOException {
+        Path file = dir.resolve(String.format("journal-%06d.bin", ++fileIndex));
+        FileChannel next = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        if (channel != null) channel.close();
+        channel = next;
+        ByteBuffer header = ByteBuffer.allocate(16).putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0);
+        header.flip();
+        channel.write(header);
+        crc.reset();
+        ChannelOutput stream = new ChannelOutput();
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeByte(cp.type());
+        cp.writeTo(out);
+        out.flush();
+        stream.drain();
+        ByteBuffer frame = ByteBuffer.allocate(8).putInt((int) stream.count).putInt((int) crc.getValue());
+        frame.flip();
+        channel.write(frame, 8);
+        channel.force(false);
+        bytesWritten += 16 + stream.count;
+        for (Path p : journalFiles(dir)) {
+            if (indexOf(p) < fileIndex) Files.deleteIfExists(p);
+        }
+    }
+
+    private void frame(Record r) throws IOException {
+        int start = bytes.size();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(r.type());
+        r.writeTo(out);
+        out.flush();
+        // fill in length and checksum in place
+        byte[] buf = bytesArray();
+        int len = bytes.size() - start - 8;
+        crc.reset();
+        crc.update(buf, start + 8, len);
+        ByteBuffer.wrap(buf, start, 8).putInt(len).putInt((int) crc.getValue());
+    }
+
+    private void flush() throws IOException {
+        if (bytes.size() == 0) return;
+        ByteBuffer buf = ByteBuffer.wrap(bytesArray(), 0, bytes.size());
+        while (buf.hasRemaining()) channel.write(buf);
+        channel.force(false);
+        bytesWritten += bytes.size();
+        batches++;
+        bytes.reset();
+    }
+
+    private byte[] bytesArray() {
+        return bytes.array();
+    }
+
+    // Record bytes of one batch, with access to the array behind them
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() { super(1 << 16); }
+        byte[] array() { return buf; }
+    }
+
+    // Streams a large record straight to the channel, updating the checksum
+    private final class ChannelOutput extends OutputStream {
+        private final ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!chunk.hasRemaining()) drain();
+            chunk.put((byte) b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!chunk.hasRemaining()) drain();
+                int n = Math.min(len, chunk.remaining());
+                chunk.put(b, off, n);
+                off += n;
+                len -= n;
+                count += n;
+            }
+        }
+
+        void drain() throws IOException {
+            chunk.flip();
+            crc.update(chunk.duplicate());
+            while (chunk.hasRemaining()) channel.write(chunk);
+            chunk.clear();
+        }
+    }
+
+    private static void writeTile(DataOutputStream out, Tile t, TileStore store) throws IOException {
+        if (t.solid) {
+            out.writeBoolean(true);
+            out.writeInt(t.color);
+            return;
+        }
+        out.writeBoolean(false);
+        if (store != null) store.beginRead();
+        try {
+            int[] px = t.pixels();
+            ByteBuffer bb = ByteBuffer.allocate(px.length * 4);
+            bb.asIntBuffer().put(px);
+            out.write(bb.array());
+        } finally {
+            if (store != null) store.endRead();
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Recovery
+    // ---------------------------------------------------------------
+
+    // The layers as of the last intact record in 'dir', or null if there is
+    // no usable journal. Replays only the records after the latest checkpoint.
+    public static LayerStack recover(Path dir, TileStore store) throws IOException {
+        if (!Files.isDirectory(dir)) return null;
+        List<Path> files = journalFiles(dir);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            LayerStack layers = replay(files.get(i), store);
+            if (layers != null) return layers;
+        }
+        return null;
+    }
+
+    private static LayerStack replay(Path file, TileStore store) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < 8) return null;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+
+        LayerStack layers = null;
+        CommandLog log = new CommandLog();
+        CommandReplayer replayer = new CommandReplayer();
+        CRC32 crc = new CRC32();
+        while (buf.remaining() >= 9) {
+            int len = buf.getInt();
+            int sum = buf.getInt();
+            if (len <= 0 || len > buf.remaining()) break;
+            ByteBuffer payload = buf.slice();
+            payload.limit(len);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != sum) break;
+            buf.position(buf.position() + len);
+
+            byte type = payload.get();
+            if (layers == null && type != LAYERS) return null;
+            DataInputStream in = new DataInputStream(new BufferInputStream(payload));
+            switch (type) {
+                case LAYERS -> layers = readLayers(in, payload, store);
+                case COMMANDS -> {
+                    TiledImage doc = layers.get(in.readInt()).getImage();
+                    int from = log.size();
+                    log.read(in);
+                    replayer.apply(doc, log, from, log.size(), 1.0);
+                    doc.takeChanges();
+                }
+                case TILES -> {
+                    TiledImage doc = layers.get(payload.getInt()).getImage();
+                    int n = payload.getInt();
+                    for (int i = 0; i < n; i++) {
+                        int key = payload.getInt();
+                        doc.setTile(TiledImage.keyCol(key), TiledImage.keyRow(key), readTile(payload, doc, store));
+                    }
+                    doc.takeChanges();
+                }
+                case RESIZE -> layers.resize(payload.getInt(), payload.getInt());
+                default -> { return layers; }
+            }
+        }
+        if (layers != null) {
+            for (int i = 0; i < layers.size(); i++) layers.get(i).getImage().takeChanges();
+        }
+        return layers;
+    }
+
+    private static LayerStack readLayers(DataInputStream in, ByteBuffer payload, TileStore store) throws IOException {
+        int n = in.readInt();
+        List<Layer> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            // 'in' reads through to 'payload', so the two can be mixed
+            String name = in.readUTF();
+            boolean visible = in.readBoolean();
+            float opacity = in.readFloat();
+            BlendMode mode = BlendMode.values()[in.readByte()];
+            Layer l = new Layer(name, readDocument(payload, store));
+            l.visible = visible;
+            l.opacity = opacity;
+            l.blendMode = mode;
+            list.add(l);
+        }
+        return new LayerStack(list, n - 1);
+    }
+
+    private static TiledImage readDocument(ByteBuffer in, TileStore store) {
+        int w = in.getInt(), h = in.getInt(), bg = in.getInt(), cols = in.getInt(), rows = in.getInt();
+        TiledImage doc = new TiledImage(cols * TiledImage.TILE, rows * TiledImage.TILE, bg, store);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                doc.setTile(col, row, readTile(in, doc, store));
+            }
+            // freeze as we go so a TileStore can page the tiles out
+            if (store != null) doc.takeChanges();
+        }
+        doc.resize(w, h);
+        doc.takeChanges();
+        return doc;
+    }
+
+    private static Tile readTile(ByteBuffer in, TiledImage doc, TileStore store) {
+        if (in.get() != 0) return doc.solidTile(in.getInt());
+        Tile t = Tile.create(TiledImage.TILE, store);
+        IntBuffer ints = in.asIntBuffer();
+        int[] px = t.pixels();
+        ints.get(px);
+        in.position(in.position() + px.length * 4);
+        return t;
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        BufferInputStream(ByteBuffer buf) { this.buf = buf; }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    private static List<Path> journalFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return files;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "journal-*.bin")) {
+            for (Path p : ds) files.add(p);
+        }
+        files.sort((a, b) -> Integer.compare(indexOf(a), indexOf(b)));
+        return files;
+    }
+
+    private static int indexOf(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring("journal-".length(), name.length() - ".bin".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
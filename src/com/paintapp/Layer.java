@@ -0,0 +1,50 @@
+package com.paintapp;
+
+// One layer of a LayerStack: a tiled image plus how it is composited.
+// Properties are changed through the stack so its cached composites stay
+// valid.
+public class Layer {
+
+    String name;
+    final TiledImage image;
+    boolean visible = true;
+    float opacity = 1f;
+    BlendMode blendMode = BlendMode.NORMAL;
+
+    public Layer(String name, TiledImage image) {
+        this.name = name;
+        this.image = image;
+    }
+
+    public String getName() { return name; }
+    public TiledImage getImage() { return image; }
+    public boolean isVisible() { return visible; }
+    public float getOpacity() { return opacity; }
+    public BlendMode getBlendMode() { return blendMode; }
+
+    // Opacity as 0-255, the form the compositor works with
+    int alpha() { return Math.round(opacity * 255); }
+
+    // Immutable copy of a layer between edits (shares the frozen tiles)
+    public static final class Snapshot {
+        public final String name;
+        public final boolean visible;
+        public final float opacity;
+        public final BlendMode blendMode;
+        public final TiledImage.Snapshot tiles;
+
+        public Snapshot(String name, boolean visible, float opacity, BlendMode blendMode, TiledImage.Snapshot tiles) {
+            this.name = name;
+            this.visible = visible;
+            this.opacity = opacity;
+            this.blendMode = blendMode;
+            this.tiles = tiles;
+        }
+
+        int alpha() { return Math.round(opacity * 255); }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(name, visible, opacity, blendMode, image.snapshot());
+    }
+}
@@ -0,0 +1,347 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+// Composites the layers of a LayerStack one tile at a time and caches three
+// results per tile: the layers below the active one flattened, the layers
+// above it flattened, and the final composite. Drawing on the active layer
+// only invalidates final tiles, and recomputing one takes at most two blends
+// whatever the number of layers: the active layer over 'below', then 'above'
+// over that. A final tile the compositor owns is only recomputed inside the
+// rectangle that changed, so a stroke costs about what its pixels cost.
+//
+// Solid tiles stay solid through compositing, and a layer tile that leaves
+// the result unchanged (fully transparent, or a hidden layer) is skipped, so
+// blank areas cost neither time nor memory.
+//
+// The layers above can only be flattened ahead of time when they all use the
+// NORMAL blend mode (source-over is associative); otherwise they are applied
+// one by one whenever a final tile is recomputed.
+final class LayerCompositor {
+
+    private static final int TILE = TiledImage.TILE;
+    private static final int MAX_SOLID_TILES = 64;
+    // pixel memory of the cached tiles; past this the caches start over
+    private static final long CACHE_BUDGET = 64L << 20;
+
+    private final LayerStack stack;
+    private int cols, rows;
+    // cached results per slot (null = stale) and each slot's own scratch tiles
+    private Tile[] below = new Tile[0], above = new Tile[0], out = new Tile[0];
+    private Tile[] belowOwn = below, aboveOwn = below, outOwn = below;
+    // changed part (tile coordinates) of an owned final tile that is otherwise current
+    private Rectangle[] partial = new Rectangle[0];
+    private int ownedTiles;
+    private boolean groupAbove;
+    private final Map<Integer, Tile> solids = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+            return size() > MAX_SOLID_TILES;
+        }
+    };
+    private final IntFunction<Tile> solidTile = this::solid;
+
+    LayerCompositor(LayerStack stack) {
+        this.stack = stack;
+    }
+
+    // Everything is stale (layers added, removed, reordered, restyled, or the
+    // active layer changed)
+    void reset() {
+        int n = stack.getColumns() * stack.getRows();
+        cols = stack.getColumns();
+        rows = stack.getRows();
+        if (below.length != n) {
+            below = new Tile[n];
+            above = new Tile[n];
+            out = new Tile[n];
+            belowOwn = new Tile[n];
+            aboveOwn = new Tile[n];
+            outOwn = new Tile[n];
+            partial = new Rectangle[n];
+            ownedTiles = 0;
+        } else {
+            Arrays.fill(below, null);
+            Arrays.fill(above, null);
+            Arrays.fill(out, null);
+            Arrays.fill(partial, null);
+        }
+        groupAbove = true;
+        List<Layer> layers = stack.layers();
+        for (int i = stack.getActiveIndex() + 1; i < layers.size(); i++) {
+            if (layers.get(i).visible && layers.get(i).blendMode != BlendMode.NORMAL) groupAbove = false;
+        }
+    }
+
+    // Keeps what is cached unless the grid changed
+    void resize() {
+        if (stack.getColumns() != cols || stack.getRows() != rows) reset();
+    }
+
+    // The active layer changed in 'area'
+    void activeChanged(Rectangle area) {
+        stale(area, false);
+    }
+
+    // Some layer changed in 'area'
+    void invalidate(Rectangle area) {
+        stale(area, true);
+    }
+
+    private void stale(Rectangle area, boolean all) {
+        if (area == null) return;
+        int x0 = Math.max(0, area.x), y0 = Math.max(0, area.y);
+        int x1 = Math.min(cols * TILE, area.x + area.width) - 1, y1 = Math.min(rows * TILE, area.y + area.height) - 1;
+        if (x0 > x1 || y0 > y1) return;
+        for (int row = y0 / TILE; row <= y1 / TILE; row++) {
+            for (int col = x0 / TILE; col <= x1 / TILE; col++) {
+                int slot = row * cols + col;
+                if (!all && out[slot] != null && out[slot] == outOwn[slot]) {
+                    Rectangle r = new Rectangle(Math.max(x0, col * TILE) - col * TILE, Math.max(y0, row * TILE) - row * TILE, 0, 0);
+                    r.add(Math.min(x1, col * TILE + TILE - 1) - col * TILE + 1, Math.min(y1, row * TILE + TILE - 1) - row * TILE + 1);
+                    partial[slot] = partial[slot] == null ? r : partial[slot].union(r);
+                    continue;
+                }
+                out[slot] = null;
+                partial[slot] = null;
+                if (all) {
+                    below[slot] = null;
+                    above[slot] = null;
+                }
+            }
+        }
+    }
+
+    // The composite of all layers at (col, row)
+    Tile tile(int col, int row) {
+        int slot = row * cols + col;
+        Tile t = out[slot];
+        if (t != null) {
+            if (partial[slot] != null) recompose(slot, col, row, partial[slot]);
+            return t;
+        }
+        if ((long) ownedTiles * TILE * TILE * 4 > CACHE_BUDGET) dropCaches();
+
+        List<Layer> layers = stack.layers();
+        int active = stack.getActiveIndex();
+        Tile acc = below(slot, col, row, layers, active);
+        Layer a = layers.get(active);
+        if (a.visible) acc = over(acc, a.image.tileAt(col, row), a.alpha(), a.blendMode, outOwn, slot);
+        if (groupAbove) {
+            acc = over(acc, above(slot, col, row, layers, active), 255, BlendMode.NORMAL, outOwn, slot);
+        } else {
+            for (int i = active + 1; i < layers.size(); i++) {
+                Layer l = layers.get(i);
+                if (l.visible) acc = over(acc, l.image.tileAt(col, row), l.alpha(), l.blendMode, outOwn, slot);
+            }
+        }
+        out[slot] = acc;
+        return acc;
+    }
+
+    // Recomputes part of an owned final tile in place, row by row
+    private void recompose(int slot, int col, int row, Rectangle r) {
+        partial[slot] = null;
+        List<Layer> layers = stack.layers();
+        int active = stack.getActiveIndex();
+        Tile b = below(slot, col, row, layers, active);
+        Layer a = layers.get(active);
+        Tile src = a.visible ? a.image.tileAt(col, row) : null;
+        Tile top = groupAbove ? above(slot, col, row, layers, active) : null;
+        int[] dst = out[slot].pixels();
+        for (int y = r.y; y < r.y + r.height; y++) {
+            int from = y * TILE + r.x, to = from + r.width;
+            if (b.solid) Arrays.fill(dst, from, to, b.color);
+            else System.arraycopy(b.pixels(), from, dst, from, r.width);
+            if (src != null) blend(dst, src, a.alpha(), a.blendMode, from, to);
+            if (groupAbove) {
+                blend(dst, top, 255, BlendMode.NORMAL, from, to);
+            } else {
+                for (int i = active + 1; i < layers.size(); i++) {
+                    Layer l = layers.get(i);
+                    if (l.visible) blend(dst, l.image.tileAt(col, row), l.alpha(), l.blendMode, from, to);
+                }
+            }
+        }
+    }
+
+    private static void blend(int[] dst, Tile src, int alpha, BlendMode mode, int from, int to) {
+        if (alpha == 0 || (src.solid && (src.color >>> 24) == 0)) return;
+        if (src.solid) blendSolid(dst, src.color, alpha, mode, from, to);
+        else blend(dst, src.pixels(), alpha, mode, from, to);
+    }
+
+    private Tile below(int slot, int col, int row, List<Layer> layers, int active) {
+        Tile t = below[slot];
+        if (t != null) return t;
+        t = solid(0);
+        for (int i = 0; i < active; i++) {
+            Layer l = layers.get(i);
+            if (l.visible) t = over(t, l.image.tileAt(col, row), l.alpha(), l.blendMode, belowOwn, slot);
+        }
+        below[slot] = t;
+        return t;
+    }
+
+    private Tile above(int slot, int col, int row, List<Layer> layers, int active) {
+        Tile t = above[slot];
+        if (t != null) return t;
+        t = solid(0);
+        for (int i = active + 1; i < layers.size(); i++) {
+            Layer l = layers.get(i);
+            if (l.visible) t = over(t, l.image.tileAt(col, row), l.alpha(), BlendMode.NORMAL, aboveOwn, slot);
+        }
+        above[slot] = t;
+        return t;
+    }
+
+    private Tile over(Tile acc, Tile src, int alpha, BlendMode mode, Tile[] own, int slot) {
+        boolean fresh = own[slot] == null;
+        Tile t = over(acc, src, alpha, mode, own, slot, null, solidTile);
+        if (fresh && own[slot] != null) ownedTiles++;
+        return t;
+    }
+
+    private void dropCaches() {
+        reset();
+        Arrays.fill(belowOwn, null);
+        Arrays.fill(aboveOwn, null);
+        Arrays.fill(outOwn, null);
+        ownedTiles = 0;
+    }
+
+    private Tile solid(int rgb) {
+        Tile t = solids.get(rgb);
+        if (t == null) {
+            t = Tile.solid(TILE, rgb);
+            solids.put(rgb, t);
+        }
+        return t;
+    }
+
+    // ---------------------------------------------------------------
+    // Flattening (export)
+    // ---------------------------------------------------------------
+
+    // All visible layers composited into one image. Tiles are frozen as they
+    // are made, so a TileStore can page them out.
+    static TiledImage flatten(List<Layer.Snapshot> layers, TileStore store) {
+        Layer.Snapshot first = layers.get(0);
+        TiledImage.Snapshot base = first.tiles;
+        // a single plain layer is its own composite
+        if (layers.size() == 1 && first.visible && first.alpha() == 255) return new TiledImage(base, store);
+
+        TiledImage doc = new TiledImage(base.cols * TILE, base.rows * TILE, 0, store);
+        doc.resize(base.width, base.height);
+        IntFunction<Tile> solids = doc::solidTile;
+        Tile[] own = new Tile[1];
+        for (int row = 0; row < base.rows; row++) {
+            for (int col = 0; col < base.cols; col++) {
+                int slot = row * base.cols + col;
+                Tile acc = solids.apply(0);
+                for (Layer.Snapshot l : layers) {
+                    if (l.visible) acc = over(acc, l.tiles.grid[slot], l.alpha(), l.blendMode, own, 0, store, solids);
+                }
+                if (acc == own[0]) {
+                    acc.frozen = true;
+                    own[0] = null;
+                }
+                if (acc != doc.tileAt(col, row)) doc.restoreTile(TiledImage.key(col, row), acc);
+            }
+            if (store != null) store.evict();
+        }
+        if (own[0] != null && store != null) store.discard(own[0]);
+        return doc;
+    }
+
+    // ---------------------------------------------------------------
+    // Blending
+    // ---------------------------------------------------------------
+
+    // 'src' composited onto the result so far ('acc'). Returns acc itself when
+    // src changes nothing, a shared solid tile when both are solid, src itself
+    // when it simply replaces acc, and otherwise own[slot] (allocated on first
+    // use) holding the blend. acc may be own[slot] from an earlier step.
+    private static Tile over(Tile acc, Tile src, int alpha, BlendMode mode, Tile[] own, int slot,
+                             TileStore store, IntFunction<Tile> solids) {
+        if (alpha == 0 || (src.solid && (src.color >>> 24) == 0)) return acc;
+        if (acc.solid && src.solid) return solids.apply(blend(acc.color, src.color, alpha, mode));
+        if (alpha == 255 && ((acc.solid && (acc.color >>> 24) == 0)
+                || (mode == BlendMode.NORMAL && src.solid && (src.color >>> 24) == 255))) {
+            return src;
+        }
+        Tile target = own[slot];
+        if (target == null) {
+            target = Tile.create(TILE, store);
+            own[slot] = target;
+        }
+        int[] dst = target.pixels();
+        if (acc != target) {
+            if (acc.solid) Arrays.fill(dst, acc.color);
+            else System.arraycopy(acc.pixels(), 0, dst, 0, dst.length);
+        }
+        if (src.solid) blendSolid(dst, src.color, alpha, mode, 0, dst.length);
+        else blend(dst, src.pixels(), alpha, mode, 0, dst.length);
+        return target;
+    }
+
+    private static void blend(int[] dst, int[] src, int alpha, BlendMode mode, int from, int to) {
+        if (mode == BlendMode.NORMAL && alpha == 255) {
+            for (int i = from; i < to; i++) {
+                int s = src[i];
+                int sa = s >>> 24;
+                if (sa == 255) dst[i] = s;
+                else if (sa != 0) dst[i] = blend(dst[i], s, 255, mode);
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            if ((src[i] >>> 24) != 0) dst[i] = blend(dst[i], src[i], alpha, mode);
+        }
+    }
+
+    private static void blendSolid(int[] dst, int s, int alpha, BlendMode mode, int from, int to) {
+        // runs of the same backdrop give the same result
+        int d = dst[from], r = blend(d, s, alpha, mode);
+        for (int i = from; i < to; i++) {
+            if (dst[i] != d) {
+                d = dst[i];
+                r = blend(d, s, alpha, mode);
+            }
+            dst[i] = r;
+        }
+    }
+
+    // One source pixel (non-premultiplied ARGB, layer opacity 'alpha' 0-255)
+    // over one backdrop pixel
+    static int blend(int d, int s, int alpha, BlendMode mode) {
+        int sa = alpha == 255 ? s >>> 24 : ((s >>> 24) * alpha + 127) / 255;
+        if (sa == 0) return d;
+        int da = d >>> 24;
+        int sr = (s >> 16) & 0xFF, sg = (s >> 8) & 0xFF, sb = s & 0xFF;
+        int dr = (d >> 16) & 0xFF, dg = (d >> 8) & 0xFF, db = d & 0xFF;
+        if (mode != BlendMode.NORMAL && da != 0) {
+            // the blended colour shows where the backdrop is opaque
+            sr = mix(sr, mode.apply(dr, sr), da);
+            sg = mix(sg, mode.apply(dg, sg), da);
+            sb = mix(sb, mode.apply(db, sb), da);
+        }
+        if (da == 255) {
+            return 0xFF000000 | mix(dr, sr, sa) << 16 | mix(dg, sg, sa) << 8 | mix(db, sb, sa);
+        }
+        int dw = (da * (255 - sa) + 127) / 255;
+        int oa = sa + dw;
+        int half = oa >> 1;
+        return oa << 24 | ((sr * sa + dr * dw + half) / oa) << 16 | ((sg * sa + dg * dw + half) / oa) << 8
+                | (sb * sa + db * dw + half) / oa;
+    }
+
+    private static int mix(int a, int b, int t) {
+        return (a * (255 - t) + b * t + 127) / 255;
+    }
+}
@@ -0,0 +1,93 @@
+package com.paintapp;
+
+import java.awt.*;
+
+// Layer list (top layer first) with buttons to add, delete and reorder
+// layers, and controls for the selected layer's visibility, opacity and
+// blend mode
+public class LayerPanel extends Panel implements PaintCanvas.LayerChangeListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Color PANEL_BG = new Color(229, 228, 226);
+    private static final int[] OPACITIES = {100, 90, 75, 50, 25, 10, 0};
+
+    private final PaintCanvas canvas;
+    private final List list = new List(12, false);
+    private final Checkbox visible = new Checkbox("Visible", true);
+    private final Choice opacity = new Choice();
+    private final Choice blend = new Choice();
+
+    public LayerPanel(PaintCanvas canvas) {
+        this.canvas = canvas;
+        setLayout(new BorderLayout(0, 4));
+        setBackground(PANEL_BG);
+        setPreferredSize(new Dimension(150, 0));
+
+        add(new Label("Layers"), BorderLayout.NORTH);
+        list.addItemListener(e -> {
+            int row = list.getSelectedIndex();
+            if (row >= 0) canvas.selectLayer(layerAt(row));
+        });
+        add(list, BorderLayout.CENTER);
+
+        Panel controls = new Panel(new GridLayout(0, 1, 2, 2));
+        visible.addItemListener(e -> canvas.setLayerVisible(canvas.getLayers().getActiveIndex(), visible.getState()));
+        controls.add(visible);
+
+        for (int o : OPACITIES) opacity.add(o + "%");
+        opacity.addItemListener(e -> canvas.setLayerOpacity(canvas.getLayers().getActiveIndex(),
+                OPACITIES[opacity.getSelectedIndex()] / 100f));
+        controls.add(opacity);
+
+        for (BlendMode m : BlendMode.values()) blend.add(m.name().charAt(0) + m.name().substring(1).toLowerCase());
+        blend.addItemListener(e -> canvas.setLayerBlendMode(canvas.getLayers().getActiveIndex(),
+                BlendMode.values()[blend.getSelectedIndex()]));
+        controls.add(blend);
+
+        Panel buttons = new Panel(new GridLayout(2, 2, 2, 2));
+        buttons.add(button("Add", canvas::addLayer));
+        buttons.add(button("Delete", () -> canvas.removeLayer(canvas.getLayers().getActiveIndex())));
+        buttons.add(button("Up", () -> move(1)));
+        buttons.add(button("Down", () -> move(-1)));
+        controls.add(buttons);
+        add(controls, BorderLayout.SOUTH);
+
+        layersChanged(canvas.getLayers());
+    }
+
+    private Button button(String label, Runnable action) {
+        Button b = new Button(label);
+        b.addActionListener(e -> action.run());
+        return b;
+    }
+
+    private void move(int by) {
+        LayerStack layers = canvas.getLayers();
+        int from = layers.getActiveIndex(), to = from + by;
+        if (to >= 0 && to < layers.size()) canvas.moveLayer(from, to);
+    }
+
+    // The list shows the top layer first
+    private int layerAt(int row) {
+        return canvas.getLayers().size() - 1 - row;
+    }
+
+    @Override
+    public void layersChanged(LayerStack layers) {
+        list.removeAll();
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer l = layers.get(i);
+            list.add(l.isVisible() ? l.getName() : "(" + l.getName() + ")");
+        }
+        list.select(layers.size() - 1 - layers.getActiveIndex());
+        Layer active = layers.getActive();
+        visible.setState(active.isVisible());
+        int nearest = 0;
+        for (int i = 1; i < OPACITIES.length; i++) {
+            if (Math.abs(OPACITIES[i] - active.getOpacity() * 100) < Math.abs(OPACITIES[nearest] - active.getOpacity() * 100)) nearest = i;
+        }
+        opacity.select(nearest);
+        blend.select(active.getBlendMode().ordinal());
+    }
+}
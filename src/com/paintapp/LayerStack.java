@@ -0,0 +1,227 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// The document's layers, bottom first, and the one being edited. All layers
+// share one size. Painting goes through a LayerCompositor that caches
+// flattened tiles, so showing an edit costs about the same with one layer or
+// fifty. Pixel changes must be reported: changed() for the active layer
+// (drawing), invalidate() for any layer (undo/redo). Layer properties and
+// structure are changed through the stack itself. Zoomed-out views are drawn
+// from a MipPyramid of the composite, kept current the same way.
+public class LayerStack {
+
+    private final List<Layer> layers = new ArrayList<>();
+    private int active;
+    private final LayerCompositor compositor = new LayerCompositor(this);
+    private final MipPyramid pyramid = new MipPyramid(this);
+
+    public LayerStack(TiledImage background) {
+        this(List.of(new Layer("Background", background)), 0);
+    }
+
+    public LayerStack(List<Layer> layers, int active) {
+        if (layers.isEmpty()) throw new IllegalArgumentException("A layer stack needs at least one layer");
+        this.layers.addAll(layers);
+        this.active = active;
+        resetCaches();
+    }
+
+    // Layers that start out as snapshots (opened or recovered); the top one is active
+    public static LayerStack of(List<Layer.Snapshot> snapshots, TileStore store) {
+        List<Layer> list = new ArrayList<>();
+        for (Layer.Snapshot s : snapshots) {
+            Layer l = new Layer(s.name, new TiledImage(s.tiles, store));
+            l.visible = s.visible;
+            l.opacity = s.opacity;
+            l.blendMode = s.blendMode;
+            list.add(l);
+        }
+        return new LayerStack(list, list.size() - 1);
+    }
+
+    public int size() { return layers.size(); }
+    public Layer get(int index) { return layers.get(index); }
+    public Layer getActive() { return layers.get(active); }
+    public int getActiveIndex() { return active; }
+    public int getWidth() { return layers.get(0).image.getWidth(); }
+    public int getHeight() { return layers.get(0).image.getHeight(); }
+    int getColumns() { return layers.get(0).image.getColumns(); }
+    int getRows() { return layers.get(0).image.getRows(); }
+    List<Layer> layers() { return layers; }
+
+    public int indexOf(TiledImage image) {
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i).image == image) return i;
+        }
+        return -1;
+    }
+
+    // ---------------------------------------------------------------
+    // Structure and properties
+    // ---------------------------------------------------------------
+
+    // A new transparent layer above the active one; it becomes the active layer
+    public Layer add(String name, TileStore store) {
+        TiledImage base = layers.get(0).image;
+        TiledImage image = new TiledImage(base.getColumns() * TiledImage.TILE, base.getRows() * TiledImage.TILE, 0, store);
+        image.resize(base.getWidth(), base.getHeight());
+        Layer l = new Layer(name, image);
+        layers.add(active + 1, l);
+        active++;
+        resetCaches();
+        return l;
+    }
+
+    public void remove(int index) {
+        if (layers.size() == 1) throw new IllegalStateException("Cannot remove the last layer");
+        layers.remove(index);
+        if (active > index || active == layers.size()) active--;
+        resetCaches();
+    }
+
+    public void move(int from, int to) {
+        Layer a = getActive();
+        layers.add(to, layers.remove(from));
+        active = layers.indexOf(a);
+        resetCaches();
+    }
+
+    public void setActive(int index) {
+        if (index == active) return;
+        if (index < 0 || index >= layers.size()) throw new IndexOutOfBoundsException("No layer " + index);
+        active = index;
+        resetCaches();
+    }
+
+    public void setVisible(int index, boolean visible) {
+        layers.get(index).visible = visible;
+        resetCaches();
+    }
+
+    public void setOpacity(int index, float opacity) {
+        layers.get(index).opacity = Math.max(0f, Math.min(1f, opacity));
+        resetCaches();
+    }
+
+    public void setBlendMode(int index, BlendMode mode) {
+        layers.get(index).blendMode = mode;
+        resetCaches();
+    }
+
+    public void rename(int index, String name) {
+        layers.get(index).name = name;
+    }
+
+    public void resize(int w, int h) {
+        for (Layer l : layers) l.image.resize(w, h);
+        compositor.resize();
+        pyramid.reset();
+    }
+
+    private void resetCaches() {
+        compositor.reset();
+        pyramid.reset();
+    }
+
+    // ---------------------------------------------------------------
+    // Changes and painting
+    // ---------------------------------------------------------------
+
+    // The active layer's pixels changed in 'area'
+    public void changed(Rectangle area) {
+        compositor.activeChanged(area);
+        pyramid.invalidate(area);
+    }
+
+    // Pixels of any layer changed in 'area'
+    public void invalidate(Rectangle area) {
+        compositor.invalidate(area);
+        pyramid.invalidate(area);
+    }
+
+    // Draws the composite of the layers covering 'area' (document coordinates)
+    // with its origin at (dx, dy), over the canvas background
+    public void paintTo(Graphics g, Rectangle area, int dx, int dy) {
+        Rectangle r = area.intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+        if (r.isEmpty()) return;
+        Shape oldClip = g.getClip();
+        Color oldColor = g.getColor();
+        g.clipRect(r.x + dx, r.y + dy, r.width, r.height);
+        g.setColor(Constants.DEFAULT_BG);
+        g.fillRect(r.x + dx, r.y + dy, r.width, r.height);
+        int c0 = r.x / TiledImage.TILE, c1 = (r.x + r.width - 1) / TiledImage.TILE;
+        int r0 = r.y / TiledImage.TILE, r1 = (r.y + r.height - 1) / TiledImage.TILE;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                g.drawImage(compositor.tile(col, row).image(), col * TiledImage.TILE + dx, row * TiledImage.TILE + dy, null);
+            }
+        }
+        g.setColor(oldColor);
+        g.setClip(oldClip);
+    }
+
+    // Draws the composite covering 'area' (document coordinates) scaled by
+    // 'zoom', document point (x, y) landing at (x * zoom + dx, y * zoom + dy).
+    // Zoomed out, the tiles come from the pyramid level just above the zoom
+    // and are reduced at most by half more, so the cost follows the size of
+    // the view rather than the size of the document.
+    public void paintTo(Graphics2D g, Rectangle area, double zoom, int dx, int dy) {
+        if (zoom == 1) {
+            paintTo(g, area, dx, dy);
+            return;
+        }
+        Rectangle r = area.intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+        if (r.isEmpty()) return;
+        int level = 0;
+        while (level < pyramid.getMaxLevel() && zoom * (2 << level) <= 1) level++;
+        int span = TiledImage.TILE << level;
+
+        Shape oldClip = g.getClip();
+        Color oldColor = g.getColor();
+        Object oldHint = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        int sx0 = screen(r.x, zoom, dx), sy0 = screen(r.y, zoom, dy);
+        Rectangle shown = new Rectangle(sx0, sy0, screen(r.x + r.width, zoom, dx) - sx0, screen(r.y + r.height, zoom, dy) - sy0);
+        g.clipRect(shown.x, shown.y, shown.width, shown.height);
+        g.setColor(Constants.DEFAULT_BG);
+        g.fill(shown);
+        // the pyramid has done the filtering; bilinear on top costs 3-4x the frame time
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        int c0 = r.x / span, c1 = (r.x + r.width - 1) / span;
+        int r0 = r.y / span, r1 = (r.y + r.height - 1) / span;
+        for (int row = r0; row <= r1; row++) {
+            int y0 = screen(row * span, zoom, dy), y1 = screen((row + 1) * span, zoom, dy);
+            for (int col = c0; col <= c1; col++) {
+                int x0 = screen(col * span, zoom, dx), x1 = screen((col + 1) * span, zoom, dx);
+                g.drawImage(pyramid.tile(level, col, row).image(), x0, y0, x1, y1, 0, 0, TiledImage.TILE, TiledImage.TILE, null);
+            }
+        }
+        if (oldHint != null) g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldHint);
+        g.setColor(oldColor);
+        g.setClip(oldClip);
+    }
+
+    // Tile edges land on whole pixels, so neighbouring tiles never leave a seam
+    private static int screen(int docCoord, double zoom, int offset) {
+        return (int) Math.round(docCoord * zoom) + offset;
+    }
+
+    // The composite tile at (col, row), for the pyramid
+    Tile compositeTile(int col, int row) {
+        return compositor.tile(col, row);
+    }
+
+    // Only valid between edits (see TiledImage.snapshot())
+    public List<Layer.Snapshot> snapshot() {
+        List<Layer.Snapshot> list = new ArrayList<>(layers.size());
+        for (Layer l : layers) list.add(l.snapshot());
+        return list;
+    }
+
+    // The visible layers of a snapshot composited into one image
+    public static TiledImage flatten(List<Layer.Snapshot> layers, TileStore store) {
+        return LayerCompositor.flatten(layers, store);
+    }
+}
@@ -2,6 +2,11 @@ package com.paintapp;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
 
 public class Main {
     public static void main(String[] args) {
@@ -9,25 +14,120 @@ public class Main {
         Frame frame = new Frame("Paint Application");
 
         PaintCanvas canvas = new PaintCanvas();
+        canvas.setAcceleratedPresentation(Boolean.getBoolean("paint.accelerated"));
+        if (Boolean.getBoolean("paint.offheap")) {
+            canvas.setTileStore(TileStore.openScratch(Long.getLong("paint.tileCacheMB", Constants.TILE_CACHE_BUDGET >> 20) << 20));
+        }
+        canvas.setPngCompressionLevel(Integer.getInteger("paint.pngLevel", Deflater.DEFAULT_COMPRESSION));
+        // latency histograms: on with paint.metrics or the overlay, switchable over JMX
+        PaintMetrics metrics = canvas.getMetrics();
+        metrics.setEnabled(Boolean.getBoolean("paint.metrics") || Boolean.getBoolean("paint.overlay"));
+        metrics.logEvery(Integer.getInteger("paint.metrics.log", 0));
+        canvas.setMetricsOverlay(Boolean.getBoolean("paint.overlay"));
+        String journalDir = System.getProperty("paint.journal");
+        boolean recovered = false;
+        if (journalDir != null) {
+            try {
+                recovered = canvas.enableJournal(Path.of(journalDir));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // a project or image named on the command line, unless a crashed session was just recovered
+        if (args.length > 0 && !recovered) {
+            try {
+                if (ImageImport.canOpen(args[0])) canvas.openImage(new File(args[0]));
+                else canvas.openProject(new File(args[0]));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         ToolSidebar toolSidebar = new ToolSidebar(canvas);
         ToolbarPanel toolbar = new ToolbarPanel(canvas);
         
         // Link canvas to toolbar for updates (like showing the Text field)
         canvas.setToolChangeListener(toolbar); 
+        LayerPanel layerPanel = new LayerPanel(canvas);
+        canvas.setLayerChangeListener(layerPanel);
 
         frame.setLayout(new BorderLayout());
         
         frame.add(toolbar, BorderLayout.NORTH);
         frame.add(toolSidebar, BorderLayout.WEST);
         frame.add(canvas, BorderLayout.CENTER);
+        frame.add(layerPanel, BorderLayout.EAST);
+
+        // Once the window has painted: the time it took (paint.startup=true
+        // prints it, =exit also quits, for StartupBench), then the start-up
+        // work it did not need, off the event thread: listing the installed
+        // fonts and starting JMX
+        String startup = System.getProperty("paint.startup");
+        canvas.setAfterFirstPaint(() -> {
+            if (startup != null) {
+                long now = System.currentTimeMillis();
+                long start = ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.out.println("first paint " + (now - start) + " ms after JVM start");
+                if (startup.equals("exit")) System.exit(0);
+            }
+            Thread later = new Thread(() -> {
+                toolbar.loadFonts();
+                metrics.registerMBean();
+            }, "paint-startup");
+            later.setDaemon(true);
+            later.start();
+        });
 
         frame.pack();
         frame.setResizable(true);
         frame.setVisible(true);
 
+        // F3 shows or hides the latency overlay (and starts recording),
+        // wherever the focus is
+        Toolkit.getDefaultToolkit().addAWTEventListener(e -> {
+            KeyEvent k = (KeyEvent) e;
+            if (k.getID() == KeyEvent.KEY_PRESSED && k.getKeyCode() == KeyEvent.VK_F3) {
+                if (!canvas.isMetricsOverlay()) metrics.setEnabled(true);
+                canvas.setMetricsOverlay(!canvas.isMetricsOverlay());
+            }
+        }, AWTEvent.KEY_EVENT_MASK);
+        // Ctrl + plus / minus / 0 zoom in, out and back to 100% and Ctrl + C / V
+        // copy and paste the selection, only while the canvas has the focus
+        // (not while typing in the Text field)
+        canvas.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent k) {
+                if (!k.isControlDown()) return;
+                switch (k.getKeyCode()) {
+                    case KeyEvent.VK_EQUALS: case KeyEvent.VK_PLUS: case KeyEvent.VK_ADD:
+                        canvas.setZoom(canvas.getZoom() * 2);
+                        break;
+                    case KeyEvent.VK_MINUS: case KeyEvent.VK_SUBTRACT:
+                        canvas.setZoom(canvas.getZoom() / 2);
+                        break;
+                    case KeyEvent.VK_0: case KeyEvent.VK_NUMPAD0:
+                        canvas.setZoom(1);
+                        break;
+                    case KeyEvent.VK_C:
+                        canvas.copySelection();
+                        break;
+                    case KeyEvent.VK_V:
+                        canvas.pasteSelection();
+                        break;
+                    default:
+                }
+            }
+        });
+
         // Standard closing procedure for AWT Frame
         frame.addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
+                if (Boolean.getBoolean("paint.stats")) {
+                    System.out.println((canvas.isAcceleratedPresentation() ? "accelerated: " : "software: ") + canvas.getFrameStats());
+                }
+                if (metrics.isEnabled()) {
+                    for (String line : metrics.getReport()) System.out.println(line);
+                }
+                canvas.closeJournal(true);
                 frame.dispose();
                 System.exit(0);
             }
@@ -0,0 +1,175 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Reduced copies of a LayerStack's composite for zoomed-out views. Level 0 is
+// the composite itself; a tile of level k covers 2^k x 2^k tiles of the
+// document and is the 2x2 box-filtered average of four level k-1 tiles.
+// Tiles are made when first drawn and kept in an LRU cache; an edit only
+// drops the one tile per level above the pixels it changed, so keeping a
+// zoomed-out view current costs a few tiles per level rather than a rescale
+// of the whole document.
+//
+// Four solid children of one colour give a solid tile, so the blank parts of
+// a huge document cost nothing at any level.
+final class MipPyramid {
+
+    private static final int TILE = TiledImage.TILE;
+    // pixel memory of the cached reduced tiles (solid tiles are free)
+    private static final long CACHE_BUDGET = 48L << 20;
+    private static final int MAX_SOLID_TILES = 64;
+
+    private final LayerStack stack;
+    private final LinkedHashMap<Long, Tile> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes;
+    private final Map<Integer, Tile> solids = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+            return size() > MAX_SOLID_TILES;
+        }
+    };
+    private final int[] transparent = new int[TILE * TILE];
+
+    MipPyramid(LayerStack stack) {
+        this.stack = stack;
+    }
+
+    // Levels above 0 that are worth having: the top one fits in one tile
+    int getMaxLevel() {
+        int n = Math.max(stack.getColumns(), stack.getRows()), level = 0;
+        while (n > 1) {
+            n = (n + 1) >> 1;
+            level++;
+        }
+        return level;
+    }
+
+    // Number of tile columns and rows at 'level'
+    int columns(int level) { return (stack.getColumns() + (1 << level) - 1) >> level; }
+    int rows(int level) { return (stack.getRows() + (1 << level) - 1) >> level; }
+
+    // Everything is stale
+    void reset() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    // The composite changed in 'area' (document coordinates)
+    void invalidate(Rectangle area) {
+        if (area == null || area.isEmpty() || cache.isEmpty()) return;
+        for (int level = 1; level <= getMaxLevel(); level++) {
+            int span = TILE << level;
+            int c0 = Math.max(0, area.x) / span, c1 = Math.max(0, area.x + area.width - 1) / span;
+            int r0 = Math.max(0, area.y) / span, r1 = Math.max(0, area.y + area.height - 1) / span;
+            if ((long) (c1 - c0 + 1) * (r1 - r0 + 1) > cache.size()) {
+                // a large area: cheaper to look at what is cached
+                int lv = level;
+                cache.entrySet().removeIf(e -> {
+                    long k = e.getKey();
+                    if (keyLevel(k) != lv) return false;
+                    int col = keyCol(k), row = keyRow(k);
+                    if (col < c0 || col > c1 || row < r0 || row > r1) return false;
+                    cachedBytes -= e.getValue().byteSize();
+                    return true;
+                });
+                continue;
+            }
+            for (int row = r0; row <= r1; row++) {
+                for (int col = c0; col <= c1; col++) {
+                    Tile t = cache.remove(key(level, col, row));
+                    if (t != null) cachedBytes -= t.byteSize();
+                }
+            }
+        }
+    }
+
+    // The tile at (col, row) of 'level' (level 0 = the composite)
+    Tile tile(int level, int col, int row) {
+        if (level == 0) return stack.compositeTile(col, row);
+        long k = key(level, col, row);
+        Tile t = cache.get(k);
+        if (t != null) return t;
+        t = reduce(level, col, row);
+        cache.put(k, t);
+        cachedBytes += t.byteSize();
+        if (cachedBytes > CACHE_BUDGET) evict();
+        return t;
+    }
+
+    private Tile reduce(int level, int col, int row) {
+        int childCols = columns(level - 1), childRows = rows(level - 1);
+        Tile[] kids = new Tile[4];
+        boolean solid = true;
+        for (int i = 0; i < 4; i++) {
+            int c = col * 2 + (i & 1), r = row * 2 + (i >> 1);
+            kids[i] = c < childCols && r < childRows ? tile(level - 1, c, r) : null;
+            solid &= kids[i] != null && kids[i].solid && kids[i].color == kids[0].color;
+        }
+        if (solid) return solid(kids[0].color);
+
+        Tile t = Tile.create(TILE, null);
+        int[] dst = t.pixels();
+        int half = TILE / 2;
+        for (int i = 0; i < 4; i++) {
+            int[] src = kids[i] != null ? kids[i].pixels() : transparent;
+            int ox = (i & 1) * half, oy = (i >> 1) * half;
+            for (int y = 0; y < half; y++) {
+                int s = 2 * y * TILE, d = (oy + y) * TILE + ox;
+                for (int x = 0; x < half; x++, s += 2) {
+                    dst[d + x] = average(src[s], src[s + 1], src[s + TILE], src[s + TILE + 1]);
+                }
+            }
+        }
+        t.frozen = true;
+        return t;
+    }
+
+    // Mean of four ARGB pixels, weighting the colours by alpha
+    static int average(int p0, int p1, int p2, int p3) {
+        if (p0 == p1 && p0 == p2 && p0 == p3) return p0;
+        int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+        int a = a0 + a1 + a2 + a3;
+        if (a == 0) return 0;
+        int r = ((p0 >> 16 & 0xFF) * a0 + (p1 >> 16 & 0xFF) * a1 + (p2 >> 16 & 0xFF) * a2 + (p3 >> 16 & 0xFF) * a3 + a / 2) / a;
+        int g = ((p0 >> 8 & 0xFF) * a0 + (p1 >> 8 & 0xFF) * a1 + (p2 >> 8 & 0xFF) * a2 + (p3 >> 8 & 0xFF) * a3 + a / 2) / a;
+        int b = ((p0 & 0xFF) * a0 + (p1 & 0xFF) * a1 + (p2 & 0xFF) * a2 + (p3 & 0xFF) * a3 + a / 2) / a;
+        return (a + 2) >> 2 << 24 | r << 16 | g << 8 | b;
+    }
+
+    // Drops tiles down to three quarters of the budget: the least recently
+    // drawn of the lowest level first. Lower levels are the large ones and
+    // mostly only needed to build the level above, so a view far out keeps
+    // its own tiles even when building them went through far more.
+    private void evict() {
+        for (int level = 1; cachedBytes > CACHE_BUDGET * 3 / 4 && level <= getMaxLevel(); level++) {
+            for (var it = cache.entrySet().iterator(); cachedBytes > CACHE_BUDGET * 3 / 4 && it.hasNext(); ) {
+                var e = it.next();
+                if (keyLevel(e.getKey()) != level) continue;
+                cachedBytes -= e.getValue().byteSize();
+                it.remove();
+            }
+        }
+    }
+
+    long getCachedBytes() { return cachedBytes; }
+    int getCachedTiles() { return cache.size(); }
+
+    private Tile solid(int rgb) {
+        Tile t = solids.get(rgb);
+        if (t == null) {
+            t = Tile.solid(TILE, rgb);
+            solids.put(rgb, t);
+        }
+        return t;
+    }
+
+    private static long key(int level, int col, int row) {
+        return (long) level << 48 | (long) row << 24 | col;
+    }
+
+    private static int keyLevel(long k) { return (int) (k >>> 48); }
+    private static int keyRow(long k) { return (int) (k >>> 24) & 0xFFFFFF; }
+    private static int keyCol(long k) { return (int) k & 0xFFFFFF; }
+}
@@ -2,12 +2,21 @@ package com.paintapp;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
-import java.util.Stack;
-import javax.imageio.ImageIO;
+import java.awt.geom.AffineTransform;
 import java.io.*;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleConsumer;
+import java.util.zip.Deflater;
 
-public class PaintCanvas extends Canvas implements MouseListener, MouseMotionListener {
+// "try": the metrics spans are try-with-resources blocks that only time
+// their body, so the span variables are never referenced
+@SuppressWarnings("try")
+public class PaintCanvas extends Canvas implements MouseListener, MouseMotionListener, MouseWheelListener {
     
     public interface ToolChangeListener {
         void toolChanged(Tool newTool);
@@ -18,251 +27,1258 @@ public class PaintCanvas extends Canvas implements MouseListener, MouseMotionLis
         this.toolChangeListener = listener;
     }
 
-    private BufferedImage image;
-    private Color currentColor = Color.BLACK;
-    private int strokeSize = 3;
-    private Tool tool = Tool.PENCIL;
-    private String textToPlace = "Hello";
-    private String fontName = "SansSerif";
-    private int fontStyle = Font.PLAIN;
-    private int fontSize = 24;
+    public interface LayerChangeListener {
+        void layersChanged(LayerStack layers);
+    }
+    private LayerChangeListener layerChangeListener;
+
+    public void setLayerChangeListener(LayerChangeListener listener) {
+        this.layerChangeListener = listener;
+    }
+
+    private LayerStack layers;
+    // the active layer's image; all drawing goes here
+    private TiledImage document;
+    // true while the command log alone reproduces the document (a single
+    // layer drawn from blank), so scaled exports can re-render it
+    private boolean logReplayable = true;
+    private int layerCounter;
+    private TileStore tileStore;
+    private Journal journal;
+    private PngExporter pngExporter = new PngExporter(Deflater.DEFAULT_COMPRESSION);
+    // tool settings for the next press, and those of the press being dragged
+    private ToolState settings = new ToolState();
+    private ToolState dragState;
+    // drag positions as the event thread has seen them (for the shape preview)
     private int startX, startY, curX, curY;
     private boolean dragging = false;
-    private Stack<BufferedImage> undoStack = new Stack<>();
-    private Stack<BufferedImage> redoStack = new Stack<>();
+    // SELECTION
+    // The selected rectangle and, once it has been moved or pasted, the pixels
+    // floating over it until the next edit drops them (see Selection). Changed
+    // holding docLock; the handlers read 'selected' to tell a move from a new
+    // marquee.
+    private volatile Rectangle selected;
+    private Selection floating;
+    private Selection clipboard;
+    // the drag moves the selection: as the event thread and the render thread see it
+    private boolean movingSelection, gestureMoves;
+    private static final BasicStroke MARQUEE = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10,
+            new float[] {4, 4}, 0);
+    private final TileHistory history = new TileHistory(Constants.UNDO_MEMORY_BUDGET);
+    private final CommandLog log = new CommandLog();
+    private final CommandReplayer replayer = new CommandReplayer();
+    private final FloodFill filler = new FloodFill();
+    private final FrameStats frameStats = new FrameStats();
+    // run once the first frame has been drawn (start-up work that can wait)
+    private volatile Runnable afterFirstPaint;
+    private final PaintMetrics metrics = new PaintMetrics();
+    private boolean metricsOverlay;
+    private long overlayPainted;
+    private final AcceleratedPresenter presenter = new AcceleratedPresenter(this);
+    private boolean accelerated = false;
+
+    // VIEW
+    // Document point (x, y) is shown at canvas point (x * zoom + originX,
+    // y * zoom + originY). Changed on the event thread holding docLock; the
+    // handlers map mouse positions to document coordinates before queuing.
+    private static final double ZOOM_STEP = 1.25;
+    private double zoom = 1;
+    private int originX, originY;
+    // middle-button drag
+    private boolean panning;
+    private int panX, panY;
+
+    // RENDER THREAD
+    // The mouse handlers only queue events; the render thread applies them to
+    // the document in batches and asks for repaints of what changed. Everything
+    // else that touches the document runs on the event thread holding
+    // docLock, after applying the input queued before it (lockDocument()).
+    // paint() never waits for the render thread: if a batch is in progress it
+    // leaves the area to be repainted when the batch is done.
+    private final ReentrantLock docLock = new ReentrantLock();
+    private final InputRing input = new InputRing(Constants.INPUT_QUEUE_CAPACITY);
+    private final InputRing.Event event = new InputRing.Event();
+    private boolean threaded = true;
+    private Thread renderer;
+    // streams the pixels of an image being opened (openImage())
+    private volatile Thread importer;
+    private final Object missedLock = new Object();
+    private Rectangle missedPaint;
+    // render thread state: the gesture being applied and the input time of the event
+    private ToolState gesture;
+    private int gestureX0, gestureY0, gestureX, gestureY;
+    private FreehandStroke stroke;
+    private long inputTime;
 
     public PaintCanvas() {
         setPreferredSize(new Dimension(Constants.CANVAS_WIDTH, Constants.CANVAS_HEIGHT));
         initImage();
         addMouseListener(this);
         addMouseMotionListener(this);
+        addMouseWheelListener(this);
+        // takes the keyboard focus when clicked, for the zoom and copy/paste keys
+        setFocusable(true);
     }
 
     private void initImage() {
-        image = new BufferedImage(Constants.CANVAS_WIDTH, Constants.CANVAS_HEIGHT, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = image.createGraphics();
-        g.setColor(Constants.DEFAULT_BG);
-        g.fillRect(0, 0, image.getWidth(), image.getHeight());
-        g.dispose();
+        initImage(Constants.CANVAS_WIDTH, Constants.CANVAS_HEIGHT);
+    }
+
+    private void initImage(int w, int h) {
+        setDocument(new TiledImage(w, h, Constants.DEFAULT_BG.getRGB(), tileStore));
+    }
+
+    private void setDocument(TiledImage doc) {
+        setLayers(new LayerStack(doc));
+    }
+
+    private void setLayers(LayerStack stack) {
+        floating = null;
+        selected = null;
+        layers = stack;
+        document = stack.getActive().getImage();
+        layerCounter = stack.size();
+        presenter.invalidate();
         clearHistory();
+        if (journal != null) journal.checkpoint(layers.snapshot());
+        if (layerChangeListener != null) layerChangeListener.layersChanged(layers);
     }
 
+    // The document only ever grows to cover the canvas; blank tiles cost nothing
     private void ensureImageMatchesCanvasSize() {
         int currentW = getWidth();
         int currentH = getHeight();
         
         if (currentW <= 0 || currentH <= 0) return;
 
-        if (image == null || image.getWidth() != currentW || image.getHeight() != currentH) {
-            
-            BufferedImage newImage = new BufferedImage(currentW, currentH, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2 = newImage.createGraphics();
-            
-            g2.setColor(Constants.DEFAULT_BG);
-            g2.fillRect(0, 0, currentW, currentH);
-            
-            if (image != null) {
-                g2.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
-            }
-
-            g2.dispose();
-            image = newImage;
-            clearHistory(); 
+        if (currentW > document.getWidth() || currentH > document.getHeight()) {
+            layers.resize(Math.max(currentW, document.getWidth()), Math.max(currentH, document.getHeight()));
+            if (journal != null) journal.resize(document.getWidth(), document.getHeight());
+            presenter.invalidate();
         }
     }
 
     // HISTORY
-    private void pushUndo() {
-        if (undoStack.size() >= Constants.UNDO_STACK_LIMIT) {
-            undoStack.remove(0);
+    // Edits go through the document's copy-on-write tiles; commitHistory()
+    // records the tiles replaced since the last commit. The command log
+    // records the same edits as drawing commands and is grouped to match.
+    private Rectangle commitHistory() {
+        boolean exact = floating == null || dropSelection();
+        try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.HISTORY)) {
+            int from = log.size();
+            Rectangle changed = history.commit(document);
+            if (changed == null) {
+                log.rollback();
+            } else {
+                log.commit();
+                if (log.getGroupCount() % Constants.CHECKPOINT_INTERVAL == 0) log.checkpoint(document.snapshot());
+                if (journal != null) {
+                    // a paste the log cannot replay is journaled as the tiles it left
+                    if (exact) journal.commands(layers.getActiveIndex(), log, from, log.size());
+                    else journal.tiles(layers.getActiveIndex(), document, changed);
+                    if (journal.wantsCheckpoint()) journal.checkpoint(layers.snapshot());
+                }
+            }
+            return changed;
         }
-        undoStack.push(ImageUtils.deepCopy(image));
-        redoStack.clear();
     }
 
     private void clearHistory() {
-        undoStack.clear();
-        redoStack.clear();
-        pushUndo();
+        history.reset(document);
+        log.reset();
     }
 
+    // Undo/redo may change any layer, not just the active one
     public void undo() {
-        if (undoStack.size() > 1) {
-            redoStack.push(undoStack.pop());
-            image = ImageUtils.deepCopy(undoStack.peek());
-            repaint();
+        lockDocument();
+        try {
+            commitHistory();
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.UNDO)) {
+                Rectangle r = history.undo();
+                if (r != null) log.undo();
+                restored(r);
+            }
+        } finally {
+            docLock.unlock();
         }
     }
 
     public void redo() {
-        if (!redoStack.isEmpty()) {
-            image = ImageUtils.deepCopy(redoStack.pop());
-            undoStack.push(ImageUtils.deepCopy(image));
+        lockDocument();
+        try {
+            commitHistory();
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.UNDO)) {
+                Rectangle r = history.redo();
+                if (r != null) log.redo();
+                restored(r);
+            }
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Undo/redo are journaled as the tiles they restored
+    private void restored(Rectangle r) {
+        if (r == null) return;
+        layers.invalidate(r);
+        if (journal != null) {
+            TiledImage target = history.getLastTarget();
+            journal.tiles(layers.indexOf(target), target, r);
+            if (journal.wantsCheckpoint()) journal.checkpoint(layers.snapshot());
+        }
+        repaintRegion(r);
+    }
+
+    // SESSION JOURNAL
+    // Recovers the document left in 'dir' by a session that did not exit
+    // normally, then journals every edit there. Returns true if something
+    // was recovered.
+    public boolean enableJournal(Path dir) throws IOException {
+        lockDocument();
+        try {
+            long start = System.nanoTime();
+            LayerStack recovered = Journal.recover(dir, tileStore);
+            if (recovered != null) {
+                System.out.printf("Recovered %dx%d document (%d layers) from %s in %d ms%n", recovered.getWidth(),
+                        recovered.getHeight(), recovered.size(), dir, (System.nanoTime() - start) / 1_000_000);
+                setLayers(recovered);
+                logReplayable = false;
+            } else {
+                setLayers(layers);
+            }
+            journal = new Journal(dir, layers.snapshot());
+            repaint();
+            return recovered != null;
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Flushes the journal; on a normal exit its files are deleted
+    public void closeJournal(boolean discard) {
+        lockDocument();
+        try {
+            if (journal == null) return;
+            try {
+                if (discard) journal.discard();
+                else journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            journal = null;
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // PROJECT FILES
+    // Opens a .ppaint project with its history and command log. Tiles are
+    // decoded from the file only when they are drawn, through the tile store
+    // (started here if there is none) so memory follows the visible area.
+    public void openProject(File f) throws IOException {
+        stopImport();
+        lockDocument();
+        try {
+            long start = System.nanoTime();
+            if (tileStore == null) tileStore = TileStore.openScratch(Constants.TILE_CACHE_BUDGET);
+            ProjectFile project = ProjectFile.open(f.toPath(), tileStore);
+            setLayers(LayerStack.of(project.getLayers(), tileStore));
+            logReplayable = false;
+            project.restoreHistory(layers, history);
+            project.restoreLog(log);
+            log.checkpoint(document.snapshot());
+            System.out.printf("Opened %dx%d project %s (%d layers) in %d ms%n", document.getWidth(), document.getHeight(),
+                    f, layers.size(), (System.nanoTime() - start) / 1_000_000);
             repaint();
+        } finally {
+            docLock.unlock();
         }
     }
 
+    // IMAGE FILES
+    // Opens a PNG or JPEG as a new document. Its pixels stream in top down
+    // from a background thread (see ImageImport), into the tile store so memory
+    // follows the visible area. Until they are all in, drawing is ignored and
+    // other document operations wait.
+    public void openImage(File f) throws IOException {
+        stopImport();
+        ImageImport image = ImageImport.open(f.toPath());
+        lockDocument();
+        try {
+            long start = System.nanoTime();
+            if (tileStore == null) tileStore = TileStore.openScratch(Constants.TILE_CACHE_BUDGET);
+            TiledImage doc = image.preview(Constants.DEFAULT_BG.getRGB(), tileStore);
+            setDocument(doc);
+            logReplayable = false;
+            System.out.printf("Opening %dx%d image %s (preview in %d ms)%n", doc.getWidth(), doc.getHeight(), f,
+                    (System.nanoTime() - start) / 1_000_000);
+            importer = new Thread(() -> streamImage(image, doc, f, start), "paint-import");
+            importer.setDaemon(true);
+            importer.start();
+            repaint();
+        } catch (IOException | RuntimeException e) {
+            image.close();
+            throw e;
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    private void streamImage(ImageImport image, TiledImage doc, File f, long start) {
+        try (image) {
+            boolean done = image.stream(doc, docLock, row -> {
+                Rectangle r = new Rectangle(0, row * TiledImage.TILE, doc.getWidth(), TiledImage.TILE);
+                layers.invalidate(r);
+                Rectangle v = toCanvas(r);
+                if (accelerated) presenter.markDirty(v);
+                repaint(v.x, v.y, v.width, v.height);
+            });
+            if (!done) return;
+            docLock.lock();
+            try {
+                // replay starts from the image, as for a project
+                log.checkpoint(document.snapshot());
+                if (journal != null) journal.checkpoint(layers.snapshot());
+            } finally {
+                docLock.unlock();
+            }
+            System.out.printf("Opened %dx%d image %s in %d ms (%d tiles paged out)%n", doc.getWidth(), doc.getHeight(),
+                    f, (System.nanoTime() - start) / 1_000_000, tileStore.getPageOuts());
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            importer = null;
+        }
+    }
+
+    // Waits for an image being opened to be all in
+    private void awaitImport() {
+        Thread t = importer;
+        if (t == null || t == Thread.currentThread()) return;
+        boolean interrupted = false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // Abandons an image being opened, before another document replaces it
+    private void stopImport() {
+        Thread t = importer;
+        if (t != null) t.interrupt();
+        awaitImport();
+    }
+
+    public void saveProject(File f) throws IOException {
+        lockDocument();
+        try {
+            ProjectFile.write(projectContents(), tileStore, projectPath(f), null);
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Saves the project in the background, like saveToFileAsync()
+    public CompletableFuture<Path> saveProjectAsync(File f, DoubleConsumer progress) {
+        lockDocument();
+        try {
+            return ProjectFile.writeAsync(projectContents(), tileStore, projectPath(f), progress);
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    private ProjectFile.Contents projectContents() {
+        commitHistory();
+        return new ProjectFile.Contents(layers, history, log, Map.of("app", "Paint Application", "saved", Instant.now().toString()));
+    }
+
+    private static Path projectPath(File f) {
+        if (!f.getName().toLowerCase().endsWith(ProjectFile.EXTENSION)) {
+            f = new File(f.getParentFile(), f.getName() + ProjectFile.EXTENSION);
+        }
+        return f.toPath();
+    }
+
+    // LAYERS
+    // Drawing always goes to the active layer. Layer structure and properties
+    // are not part of the undo history: changing them commits what is pending
+    // and journals a checkpoint of the whole stack.
+    public LayerStack getLayers() { return layers; }
+
+    public void addLayer() {
+        lockDocument();
+        try {
+            commitHistory();
+            layers.add("Layer " + ++layerCounter, tileStore);
+            layersChanged();
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public void removeLayer(int index) {
+        lockDocument();
+        try {
+            if (layers.size() == 1) return;
+            commitHistory();
+            history.forget(layers.get(index).getImage());
+            layers.remove(index);
+            layersChanged();
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public void moveLayer(int from, int to) {
+        lockDocument();
+        try {
+            commitHistory();
+            layers.move(from, to);
+            layersChanged();
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public void selectLayer(int index) {
+        lockDocument();
+        try {
+            commitHistory();
+            layers.setActive(index);
+            layersChanged();
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public void setLayerVisible(int index, boolean visible) {
+        lockDocument();
+        try {
+            commitHistory();
+            layers.setVisible(index, visible);
+            layersChanged();
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public void setLayerOpacity(int index, float opacity) {
+        lockDocument();
+        try {
+            commitHistory();
+            layers.setOpacity(index, opacity);
+            layersChanged();
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public void setLayerBlendMode(int index, BlendMode mode) {
+        lockDocument();
+        try {
+            commitHistory();
+            layers.setBlendMode(index, mode);
+            layersChanged();
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    private void layersChanged() {
+        document = layers.getActive().getImage();
+        logReplayable = false;
+        presenter.invalidate();
+        if (journal != null) journal.checkpoint(layers.snapshot());
+        repaint();
+        if (layerChangeListener != null) layerChangeListener.layersChanged(layers);
+    }
+
     // Setters and Getters
     public void setTool(Tool t) { 
-        this.tool = t; 
+        editSettings().tool = t; 
         if (toolChangeListener != null) { 
             toolChangeListener.toolChanged(t);
         }
     }
-    public Tool getTool() { return this.tool; }
-    public void setColor(Color c) { this.currentColor = c; }
-    public void setStrokeSize(int s) { this.strokeSize = s; }
-    public void setText(String t) { this.textToPlace = t; }
-    public void setFontName(String fn) { this.fontName = fn; }
-    public void setFontSize(int fs) { this.fontSize = fs; }
-    public void setFontStyle(int style) { this.fontStyle = style; }
-    public String getFontName() { return fontName; }
+    public Tool getTool() { return settings.tool; }
+    public void setColor(Color c) { editSettings().color = c; }
+    public void setStrokeSize(int s) { editSettings().size = s; }
+    public void setText(String t) { editSettings().text = t; }
+    public void setFontName(String fn) { editSettings().fontName = fn; }
+    public void setFontSize(int fs) { editSettings().fontSize = fs; }
+    public void setFontStyle(int style) { editSettings().fontStyle = style; }
+    public String getFontName() { return settings.fontName; }
+    public FrameStats getFrameStats() { return frameStats; }
+    public void setAfterFirstPaint(Runnable r) { afterFirstPaint = r; }
+    public PaintMetrics getMetrics() { return metrics; }
+    public TiledImage getDocument() { return document; }
+    public CommandLog getCommandLog() { return log; }
+    public void setFillTolerance(int tolerance) { editSettings().tolerance = tolerance; }
+    public void setFillAntialias(boolean antialias) { editSettings().antialias = antialias; }
+
+    // A copy of the settings to change: presses already queued keep theirs
+    private ToolState editSettings() {
+        settings = settings.copy();
+        return settings;
+    }
+
+    // What a press needs to know about the tool
+    private static final class ToolState implements Cloneable {
+        Tool tool = Tool.PENCIL;
+        Color color = Color.BLACK;
+        int size = 3;
+        String text = "Hello";
+        String fontName = "SansSerif";
+        int fontStyle = Font.PLAIN;
+        int fontSize = 24;
+        int tolerance;
+        boolean antialias;
+
+        ToolState copy() {
+            try {
+                return (ToolState) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        boolean isShape() {
+            return tool == Tool.RECTANGLE || tool == Tool.SQUARE || tool == Tool.OVAL || tool == Tool.CIRCLE || tool == Tool.TRIANGLE;
+        }
+    }
+
+    // Present through a BufferStrategy + VolatileImage cache instead of painting
+    // the software image directly; falls back automatically when unavailable
+    public void setAcceleratedPresentation(boolean on) {
+        lockDocument();
+        try {
+            accelerated = on;
+            presenter.invalidate();
+            repaint();
+        } finally {
+            docLock.unlock();
+        }
+    }
+    public boolean isAcceleratedPresentation() { return accelerated; }
+
+    // Keep committed tiles in a memory-mapped scratch file instead of the heap
+    // (null = on-heap tiles). Starts a new document.
+    public void setTileStore(TileStore store) {
+        lockDocument();
+        try {
+            tileStore = store;
+            newFile(document.getWidth(), document.getHeight());
+        } finally {
+            docLock.unlock();
+        }
+    }
 
 
     public void newFile() {
-        initImage();
-        repaint();
+        newFile(Math.max(getWidth(), Constants.CANVAS_WIDTH), Math.max(getHeight(), Constants.CANVAS_HEIGHT));
     }
 
+    // New blank document of any size; only the tiles painted on take memory
+    public void newFile(int w, int h) {
+        stopImport();
+        lockDocument();
+        try {
+            initImage(w, h);
+            logReplayable = true;
+            repaintRegion(new Rectangle(0, 0, getWidth(), getHeight()));
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Clears the active layer to its background (transparent above the first)
     public void clearCanvas() {
-        pushUndo();
-        Graphics2D g = image.createGraphics();
-        g.setColor(Constants.DEFAULT_BG);
-        g.fillRect(0, 0, image.getWidth(), image.getHeight());
-        g.dispose();
-        repaint();
+        lockDocument();
+        try {
+            commitHistory();
+            log.clear(document.getBackground());
+            document.fill(document.getBackground());
+            painted(commitHistory());
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Filters the active layer, or 'area' of it, as one undoable edit
+    public void applyFilter(ImageFilter filter, Rectangle area) {
+        lockDocument();
+        try {
+            commitHistory();
+            log.filter(filter, area);
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.FILTER)) {
+                filter.apply(document, area);
+            }
+            painted(commitHistory());
+        } finally {
+            docLock.unlock();
+        }
     }
 
+    // PNG export writes the visible layers flattened
     public void saveToFile(File f) throws IOException {
+        lockDocument();
+        try {
+            commitHistory();
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.SAVE)) {
+                pngExporter.write(layers.snapshot(), tileStore, pngPath(f), null);
+            }
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Saves in the background: takes a snapshot (cheap: the tiles are shared
+    // and immutable) and encodes it while editing goes on. 'progress' is
+    // called from the export thread.
+    public CompletableFuture<Path> saveToFileAsync(File f, DoubleConsumer progress) {
+        lockDocument();
+        try {
+            commitHistory();
+            PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.SAVE);
+            CompletableFuture<Path> done = pngExporter.writeAsync(layers.snapshot(), tileStore, pngPath(f), progress);
+            done.whenComplete((p, e) -> s.close());
+            return done;
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Saves the document at another scale: re-rendered from its command log
+    // when that reproduces it, otherwise the flattened layers resampled
+    public void saveToFile(File f, double scale) throws IOException {
+        lockDocument();
+        try {
+            if (scale == 1.0) {
+                saveToFile(f);
+                return;
+            }
+            commitHistory();
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.SAVE)) {
+                TiledImage scaled;
+                if (logReplayable && layers.size() == 1) {
+                    scaled = replayer.render(log, document.getWidth(), document.getHeight(), Constants.DEFAULT_BG.getRGB(), scale);
+                } else {
+                    scaled = scaledCopy(LayerStack.flatten(layers.snapshot(), tileStore), scale);
+                }
+                pngExporter.write(scaled.snapshot(), null, pngPath(f), null);
+            }
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    private static TiledImage scaledCopy(TiledImage src, double scale) {
+        int w = Math.max(1, (int) Math.round(src.getWidth() * scale)), h = Math.max(1, (int) Math.round(src.getHeight() * scale));
+        TiledImage out = new TiledImage(w, h, 0, null);
+        out.draw(new Rectangle(0, 0, w, h), g -> {
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawRenderedImage(src, AffineTransform.getScaleInstance(scale, scale));
+        });
+        out.takeChanges();
+        return out;
+    }
+
+    private static Path pngPath(File f) {
         String fname = f.getName();
         if (!fname.toLowerCase().endsWith(".png")) {
             f = new File(f.getParentFile(), fname + ".png");
         }
-        ImageIO.write(image, "PNG", f);
+        return f.toPath();
     }
 
+    // Deflate level for saved PNGs (0-9, -1 = default)
+    public void setPngCompressionLevel(int level) { pngExporter = new PngExporter(level); }
+
     // Painting logic
     @Override
     public void update(Graphics g) {
         paint(g);
     }
 
+    // The active layer changed in 'r': recomposite and repaint it
+    private void painted(Rectangle r) {
+        if (r == null) return;
+        layers.changed(r);
+        repaintRegion(r);
+    }
+
+    // Repaints only the given area of the document (null = nothing changed)
+    private void repaintRegion(Rectangle r) {
+        if (r != null && !r.isEmpty()) {
+            Rectangle v = toCanvas(r);
+            if (accelerated) presenter.markDirty(v);
+            metrics.pixelsChanged(inputTime);
+            repaint(v.x, v.y, v.width, v.height);
+        }
+    }
+
     @Override
     public void paint(Graphics g) {
+        if (!docLock.tryLock()) {
+            // the render thread has the document: leave this area to the repaint after its batch
+            Rectangle clip = g.getClipBounds();
+            deferPaint(clip != null ? clip : new Rectangle(0, 0, getWidth(), getHeight()));
+            if (!docLock.tryLock()) return;
+        }
+        try {
+            paintDocument(g);
+        } finally {
+            docLock.unlock();
+        }
+        Runnable r = afterFirstPaint;
+        if (r != null) {
+            afterFirstPaint = null;
+            r.run();
+        }
+    }
+
+    private void paintDocument(Graphics g) {
         ensureImageMatchesCanvasSize();
-        g.drawImage(image, 0, 0, this);
+        long start = System.nanoTime();
 
-        // live preview while dragging shapes
-        if (dragging && tool != Tool.PENCIL && tool != Tool.ERASER && tool != Tool.FILL && tool != Tool.TEXT) {
-            Graphics2D g2 = (Graphics2D) g.create();
-            g2.setStroke(new BasicStroke(strokeSize));
-            g2.setColor(currentColor);
-
-            int x = Math.min(startX, curX);
-            int y = Math.min(startY, curY);
-            int w = Math.abs(curX - startX);
-            int h = Math.abs(curY - startY);
-
-            switch (tool) {
-                case RECTANGLE -> g2.drawRect(x, y, w, h);
-                case SQUARE -> { int s = Math.min(w, h); g2.drawRect(startX, startY, s, s); }
-                case OVAL -> g2.drawOval(x, y, w, h);
-                case CIRCLE -> { int c = Math.min(w, h); g2.drawOval(startX, startY, c, c); }
-                case TRIANGLE -> {
-                    int xm = (startX + curX) / 2;
-                    int[] xs = {xm, startX, curX};
-                    int[] ys = {startY, curY, curY};
-                    g2.drawPolygon(xs, ys, 3);
+        try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.FRAME)) {
+            if (accelerated) {
+                long uploaded = presenter.present(this::paintView, this::drawOverlays);
+                if (uploaded >= 0) {
+                    frameStats.record(uploaded, System.nanoTime() - start);
+                    return;
                 }
-                default -> {}
             }
+
+            // blit only the tiles in the clipped (dirty) part of the canvas
+            Rectangle area = new Rectangle(0, 0, getWidth(), getHeight());
+            Rectangle clip = g.getClipBounds();
+            if (clip != null) area = area.intersection(clip);
+            if (!area.isEmpty()) {
+                paintView((Graphics2D) g, area);
+            }
+
+            Graphics2D g2 = (Graphics2D) g.create();
+            drawOverlays(g2);
             g2.dispose();
+            frameStats.record(area.isEmpty() ? 0 : (long) area.width * area.height, System.nanoTime() - start);
+        } finally {
+            metrics.framePresented();
+        }
+    }
+
+    // Draws part of the canvas: the document through the view, on the
+    // pasteboard where the view goes past the document
+    private void paintView(Graphics2D g, Rectangle area) {
+        if (!documentBounds().contains(area)) {
+            g.setColor(Constants.VIEW_BG);
+            g.fillRect(area.x, area.y, area.width, area.height);
+        }
+        layers.paintTo(g, toDocument(area), zoom, originX, originY);
+    }
+
+    private void deferPaint(Rectangle r) {
+        synchronized (missedLock) {
+            missedPaint = missedPaint == null ? new Rectangle(r) : missedPaint.union(r);
+        }
+    }
+
+    // Asks again for the paints deferred while the document was locked
+    private void repaintMissed() {
+        Rectangle r;
+        synchronized (missedLock) {
+            r = missedPaint;
+            missedPaint = null;
+        }
+        if (r != null) repaint(r.x, r.y, r.width, r.height);
+    }
+
+    // Shows the latency report over the canvas
+    public void setMetricsOverlay(boolean on) {
+        metricsOverlay = on;
+        repaint();
+    }
+
+    public boolean isMetricsOverlay() { return metricsOverlay; }
+
+    private void drawOverlays(Graphics2D g2) {
+        drawPreview(g2);
+        if (!metricsOverlay) return;
+        metrics.drawOverlay(g2);
+        // frames clipped away from the overlay leave it stale: refresh it a few times a second
+        long now = System.nanoTime();
+        Rectangle clip = g2.getClipBounds(), box = metrics.getOverlayBounds();
+        if (clip == null || clip.contains(box)) {
+            overlayPainted = now;
+        } else if (now - overlayPainted > 250_000_000L) {
+            overlayPainted = now;
+            repaint(box.x, box.y, box.width, box.height);
+        }
+    }
+
+    // live preview while dragging shapes
+    private void drawPreview(Graphics2D g2) {
+        drawSelection(g2);
+        ToolState t = dragState;
+        if (!dragging || !t.isShape()) return;
+        AffineTransform old = g2.getTransform();
+        g2.translate(originX, originY);
+        if (zoom != 1) g2.scale(zoom, zoom);
+        g2.setStroke(new BasicStroke(t.size));
+        g2.setColor(t.color);
+        CommandReplayer.drawShape(g2, t.tool, startX, startY, curX, curY);
+        g2.setTransform(old);
+    }
+
+    // The floating pixels and the marquee. While the selection is dragged it
+    // follows the pointer as the event thread has seen it; the document is
+    // only written when the pixels are dropped.
+    private void drawSelection(Graphics2D g2) {
+        boolean dragged = dragging && dragState.tool == Tool.SELECT;
+        Rectangle marquee = dragged && !movingSelection ? marquee(startX, startY, curX, curY) : selected;
+        int dx = dragged && movingSelection ? curX - startX : 0, dy = dragged && movingSelection ? curY - startY : 0;
+        if (floating != null) {
+            AffineTransform old = g2.getTransform();
+            g2.translate(originX, originY);
+            if (zoom != 1) g2.scale(zoom, zoom);
+            g2.translate(dx, dy);
+            floating.paint(g2);
+            g2.setTransform(old);
+        }
+        if (marquee == null || marquee.isEmpty()) return;
+        Rectangle r = toCanvas(new Rectangle(marquee.x + dx, marquee.y + dy, marquee.width, marquee.height));
+        Stroke old = g2.getStroke();
+        g2.setColor(Color.WHITE);
+        g2.drawRect(r.x, r.y, r.width - 1, r.height - 1);
+        g2.setColor(Color.BLACK);
+        g2.setStroke(MARQUEE);
+        g2.drawRect(r.x, r.y, r.width - 1, r.height - 1);
+        g2.setStroke(old);
+    }
+
+    // The document area the drag preview covers (null = none)
+    private Rectangle previewBounds() {
+        if (dragState.isShape()) return shapeBounds(dragState, startX, startY, curX, curY);
+        if (dragState.tool != Tool.SELECT) return null;
+        if (!movingSelection) return outline(marquee(startX, startY, curX, curY));
+        Rectangle s = selected;
+        return s == null ? null : outline(new Rectangle(s.x + curX - startX, s.y + curY - startY, s.width, s.height));
+    }
+
+    // Area covered by a shape (preview or committed), padded by the stroke
+    private static Rectangle shapeBounds(ToolState t, int x0, int y0, int x1, int y1) {
+        return CommandReplayer.shapeBounds(t.tool, t.size, x0, y0, x1, y1);
+    }
+
+    // ZOOM AND PAN
+    public double getZoom() { return zoom; }
+    public Point getViewOrigin() { return new Point(originX, originY); }
+
+    // Zooms about the middle of the canvas
+    public void setZoom(double z) {
+        zoomAt(z, getWidth() / 2, getHeight() / 2);
+    }
+
+    // Zooms keeping the document point under canvas point (x, y) where it is
+    public void zoomAt(double z, int x, int y) {
+        lockDocument();
+        try {
+            z = Math.max(Constants.MIN_ZOOM, Math.min(Constants.MAX_ZOOM, z));
+            // wheel steps land near 100% rather than on it
+            if (Math.abs(z - 1) < 0.01) z = 1;
+            double docX = (x - originX) / zoom, docY = (y - originY) / zoom;
+            zoom = z;
+            setOrigin((int) Math.round(x - docX * z), (int) Math.round(y - docY * z));
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public void panBy(int dx, int dy) {
+        lockDocument();
+        try {
+            setOrigin(originX + dx, originY + dy);
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    // Keeps the document on the canvas, at the top left when it fits
+    private void setOrigin(int x, int y) {
+        Rectangle doc = documentBounds();
+        originX = doc.width <= getWidth() ? 0 : Math.max(getWidth() - doc.width, Math.min(0, x));
+        originY = doc.height <= getHeight() ? 0 : Math.max(getHeight() - doc.height, Math.min(0, y));
+        presenter.invalidate();
+        repaint();
+    }
+
+    // Where the document is on the canvas
+    private Rectangle documentBounds() {
+        return new Rectangle(originX, originY, (int) Math.round(document.getWidth() * zoom), (int) Math.round(document.getHeight() * zoom));
+    }
+
+    // The document area under a canvas area, and the canvas area over a
+    // document area (rounded outwards, with a pixel to spare for how tile edges round)
+    private Rectangle toDocument(Rectangle r) {
+        if (zoom == 1) return new Rectangle(r.x - originX, r.y - originY, r.width, r.height);
+        int x0 = (int) Math.floor((r.x - originX) / zoom), y0 = (int) Math.floor((r.y - originY) / zoom);
+        int x1 = (int) Math.ceil((r.x + r.width - originX) / zoom), y1 = (int) Math.ceil((r.y + r.height - originY) / zoom);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private Rectangle toCanvas(Rectangle r) {
+        if (zoom == 1) return new Rectangle(r.x + originX, r.y + originY, r.width, r.height);
+        int x0 = (int) Math.floor(r.x * zoom) + originX - 1, y0 = (int) Math.floor(r.y * zoom) + originY - 1;
+        int x1 = (int) Math.ceil((r.x + r.width) * zoom) + originX + 1, y1 = (int) Math.ceil((r.y + r.height) * zoom) + originY + 1;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    // A mouse position as a document coordinate, kept on the visible part
+    private int documentX(MouseEvent e) {
+        int x = Math.min(Math.max(0, e.getX()), getWidth());
+        return Math.min(Math.max(0, (int) Math.floor((x - originX) / zoom)), document.getWidth());
+    }
+
+    private int documentY(MouseEvent e) {
+        int y = Math.min(Math.max(0, e.getY()), getHeight());
+        return Math.min(Math.max(0, (int) Math.floor((y - originY) / zoom)), document.getHeight());
+    }
+
+    // INPUT
+    // Runs the render thread (the default) or applies input as it arrives
+    public void setRenderThread(boolean on) {
+        lockDocument();
+        try {
+            threaded = on;
+            if (!on && renderer != null) {
+                renderer.interrupt();
+                renderer = null;
+            }
+        } finally {
+            docLock.unlock();
+        }
+    }
+
+    public boolean isRenderThread() { return threaded; }
+
+    // Returns once every input queued so far has been applied to the document
+    public void awaitInput() {
+        lockDocument();
+        docLock.unlock();
+    }
+
+    public InputRing getInputQueue() { return input; }
+
+    // Takes the document for the event thread, applying the queued input first
+    private void lockDocument() {
+        awaitImport();
+        docLock.lock();
+        applyInput(Integer.MAX_VALUE);
+    }
+
+    private void submit(int kind, int x, int y, MouseEvent e, ToolState state) {
+        input.put(kind, x, y, metrics.inputTime(e), state);
+        if (!threaded) {
+            awaitInput();
+        } else if (renderer == null) {
+            renderer = new Thread(this::render, "paint-render");
+            renderer.setDaemon(true);
+            renderer.start();
+        }
+    }
+
+    private void render() {
+        try {
+            while (true) {
+                input.await();
+                docLock.lock();
+                try {
+                    applyInput(Constants.RENDER_BATCH);
+                } finally {
+                    docLock.unlock();
+                }
+                repaintMissed();
+            }
+        } catch (InterruptedException e) {
+            // render thread switched off; input is applied on the event thread
+        }
+    }
+
+    // Applies up to 'limit' queued events (docLock held). Stroke points are
+    // drawn together at the end of the batch.
+    private void applyInput(int limit) {
+        boolean strokePending = false;
+        for (int n = 0; n < limit && input.poll(event); n++) {
+            inputTime = event.time;
+            if (event.kind == InputRing.PRESS) {
+                if (strokePending) flushStroke();
+                strokePending = false;
+                pressed((ToolState) event.data, event.x, event.y);
+            } else if (event.kind == InputRing.DRAG) {
+                gestureX = event.x;
+                gestureY = event.y;
+                if (stroke != null) {
+                    stroke.addPoint(gestureX, gestureY);
+                    log.strokePoint(gestureX, gestureY);
+                    // drawn by the flush below but waiting from now
+                    metrics.pixelsChanged(inputTime);
+                    strokePending = true;
+                }
+            } else {
+                if (strokePending) flushStroke();
+                strokePending = false;
+                released(event.x, event.y);
+            }
+        }
+        if (strokePending) flushStroke();
+        inputTime = 0;
+    }
+
+    private void pressed(ToolState t, int x, int y) {
+        gesture = t;
+        gestureX0 = gestureX = x;
+        gestureY0 = gestureY = y;
+
+        if (t.tool == Tool.SELECT) {
+            pressedSelection(x, y);
+            return;
+        }
+        commitHistory();
+
+        if (t.tool == Tool.PENCIL || t.tool == Tool.ERASER) {
+            // the eraser paints the layer's background (transparent above the first)
+            Color c = t.tool == Tool.ERASER ? new Color(document.getBackground(), true) : t.color;
+            log.beginStroke(c.getRGB(), t.size, x, y);
+            stroke = new StrokeSession(document, t.size, c, x, y);
+            flushStroke();
+        } else if (Brush.forTool(t.tool) != null) {
+            Brush brush = Brush.forTool(t.tool);
+            log.beginBrush(brush, t.color.getRGB(), t.size, x, y);
+            stroke = new BrushStroke(document, brush, t.size, t.color.getRGB(), x, y);
+            flushStroke();
+        } else if (t.tool == Tool.FILL) {
+            int rgb = t.color.getRGB();
+            filler.setTolerance(t.tolerance);
+            filler.setAntialias(t.antialias);
+            log.fill(x, y, rgb, filler.getTolerance(), filler.isAntialias());
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.FILL)) {
+                if (filler.fill(document, x, y, rgb) > 0) {
+                    painted(filler.getBounds());
+                }
+            }
+            commitHistory();
+            gesture = null;
+        } else if (t.tool == Tool.TEXT) {
+            log.text(x, y, t.color.getRGB(), t.fontName, t.fontStyle, t.fontSize, t.text);
+            Rectangle bounds;
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.TEXT)) {
+                bounds = CommandReplayer.drawText(document, x, y, t.color.getRGB(),
+                        TextLayouts.font(t.fontName, t.fontStyle, t.fontSize), t.text, 1.0);
+            }
+            commitHistory();
+            painted(bounds);
+            gesture = null;
+        }
+    }
+
+    private void released(int x, int y) {
+        if (gesture != null && gesture.tool == Tool.SELECT) {
+            releasedSelection(x, y);
+            gesture = null;
+            return;
+        }
+        // the preview was last drawn at the previous position
+        Rectangle preview = gesture != null && gesture.isShape() ? shapeBounds(gesture, gestureX0, gestureY0, gestureX, gestureY) : null;
+        gestureX = x;
+        gestureY = y;
+        if (stroke != null) {
+            try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.STROKE)) {
+                painted(stroke.end());
+            }
+            stroke = null;
+        } else if (gesture != null && gesture.isShape()) {
+            commitShape();
+            painted(preview.union(shapeBounds(gesture, gestureX0, gestureY0, gestureX, gestureY)));
+        }
+        gesture = null;
+        commitHistory();
+    }
+
+    // SELECTION
+    // A press inside the selection lifts its pixels (once) to be moved; only
+    // the tiles along its edges are copied to leave the background behind.
+    // A press anywhere else drops any floating pixels and starts a marquee.
+    private void pressedSelection(int x, int y) {
+        Rectangle s = selected;
+        gestureMoves = s != null && s.contains(x, y);
+        if (!gestureMoves) {
+            commitHistory();
+            selected = null;
+            if (s != null) repaintRegion(outline(s));
+        } else if (floating == null) {
+            commitHistory();
+            floating = Selection.cut(document, s);
+            painted(s);
+        }
+    }
+
+    // Moving only changes where the floating pixels are drawn
+    private void releasedSelection(int x, int y) {
+        Rectangle old = selected;
+        if (gestureMoves) {
+            if (floating == null) return;
+            floating.moveBy(x - gestureX0, y - gestureY0);
+            selected = floating.getBounds();
+        } else {
+            Rectangle r = marquee(gestureX0, gestureY0, x, y).intersection(new Rectangle(0, 0, document.getWidth(), document.getHeight()));
+            selected = r.isEmpty() ? null : r;
+        }
+        if (old != null) repaintRegion(outline(old));
+        if (selected != null) repaintRegion(outline(selected));
+    }
+
+    // Writes the floating pixels into the document, as part of the commit
+    // that follows (commitHistory() calls this first). Returns false if the
+    // logged move does not reproduce them: a paste from an area changed since.
+    private boolean dropSelection() {
+        Selection s = floating;
+        floating = null;
+        log.move(s.getSource(), s.getOffsetX(), s.getOffsetY(), !s.isCut());
+        if (!s.isReplayable()) logReplayable = false;
+        painted(s.drop(document));
+        return s.isReplayable();
+    }
+
+    // Keeps the selection's pixels (only tile references) for pasteSelection()
+    public void copySelection() {
+        lockDocument();
+        try {
+            if (floating != null) {
+                clipboard = floating.floatOver(document);
+            } else if (selected != null) {
+                commitHistory();
+                clipboard = Selection.copy(document, selected);
+            }
+        } finally {
+            docLock.unlock();
         }
     }
 
+    // Pastes over the place the pixels were copied from, floating, for the
+    // select tool to drag; the next edit drops them
+    public void pasteSelection() {
+        lockDocument();
+        try {
+            if (clipboard == null) return;
+            commitHistory();
+            Rectangle old = selected;
+            floating = clipboard.floatOver(document);
+            selected = floating.getBounds();
+            if (old != null) repaintRegion(outline(old));
+            repaintRegion(outline(selected));
+        } finally {
+            docLock.unlock();
+        }
+        setTool(Tool.SELECT);
+    }
+
+    private static Rectangle marquee(int x0, int y0, int x1, int y1) {
+        return new Rectangle(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0), Math.abs(y1 - y0));
+    }
+
+    // A selection with its marquee line
+    private static Rectangle outline(Rectangle r) {
+        return new Rectangle(r.x - 1, r.y - 1, r.width + 2, r.height + 2);
+    }
 
     private void commitShape() {
-        Graphics2D g = image.createGraphics();
-        g.setStroke(new BasicStroke(strokeSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        g.setColor(currentColor);
-        int x = Math.min(startX, curX);
-        int y = Math.min(startY, curY);
-        int w = Math.abs(curX - startX);
-        int h = Math.abs(curY - startY);
-        switch (tool) {
-            case RECTANGLE -> g.drawRect(x, y, w, h);
-            case SQUARE -> { int s = Math.min(w, h); g.drawRect(startX, startY, s, s); }
-            case OVAL -> g.drawOval(x, y, w, h);
-            case CIRCLE -> { int c = Math.min(w, h); g.drawOval(startX, startY, c, c); }
-            case TRIANGLE -> { int[] xs = {(startX + curX) / 2, startX, curX}; int[] ys = {startY, curY, curY}; g.drawPolygon(xs, ys, 3); }
-            default -> {}
-        }
-        g.dispose();
-    }
-
-    private void drawLineOnImage(int x1, int y1, int x2, int y2) {
-        Graphics2D g = image.createGraphics();
-        g.setStroke(new BasicStroke(strokeSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        g.setColor(tool == Tool.ERASER ? Constants.DEFAULT_BG : currentColor);
-        g.drawLine(x1, y1, x2, y2);
-        g.dispose();
+        ToolState t = gesture;
+        try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.SHAPE)) {
+            log.shape(t.tool, t.color.getRGB(), t.size, gestureX0, gestureY0, gestureX, gestureY);
+            CommandReplayer.drawShape(document, t.tool, t.color.getRGB(), t.size, gestureX0, gestureY0, gestureX, gestureY, 1.0);
+        }
     }
 
+    // Rasterizes the pending part of the freehand stroke
+    private void flushStroke() {
+        try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.STROKE)) {
+            log.strokeFlush();
+            painted(stroke.flush());
+        }
+    }
+
+    // The handlers only track the shape preview and queue the event. The
+    // wheel zooms about the pointer and a middle-button drag pans.
     @Override
     public void mousePressed(MouseEvent e) {
-        startX = curX = Math.min(Math.max(0, e.getX()), getWidth());
-        startY = curY = Math.min(Math.max(0, e.getY()), getHeight());
-        
-        dragging = true;
-
-        if (tool == Tool.PENCIL || tool == Tool.ERASER) {
-            pushUndo();
-            drawLineOnImage(startX, startY, startX, startY);
-        } else if (tool == Tool.FILL) {
-            pushUndo();
-            int rgb = currentColor.getRGB();
-            if (startX >= 0 && startY >= 0 && startX < image.getWidth() && startY < image.getHeight())
-                ImageUtils.floodFill(image, startX, startY, rgb);
-            repaint();
-            dragging = false;
-        } else if (tool == Tool.TEXT) {
-            pushUndo();
-            Graphics2D g = image.createGraphics();
-            g.setColor(currentColor);
-            Font font = new Font(fontName, fontStyle, fontSize);
-            g.setFont(font);
-            g.drawString(textToPlace, startX, startY);
-            g.dispose();
-            repaint();
-            dragging = false;
-        } else {
-            pushUndo();
+        requestFocusInWindow();
+        if (e.getButton() == MouseEvent.BUTTON2) {
+            panning = true;
+            panX = e.getX();
+            panY = e.getY();
+            return;
+        }
+        // nothing to draw on until an image being opened is all in
+        if (importer != null) return;
+        try (PaintMetrics.Span in = metrics.begin(PaintMetrics.Op.INPUT)) {
+            startX = curX = documentX(e);
+            startY = curY = documentY(e);
+            dragState = settings;
+            Rectangle sel = selected;
+            movingSelection = settings.tool == Tool.SELECT && sel != null && sel.contains(startX, startY);
+            // a fill or text is done on the press
+            dragging = settings.tool != Tool.FILL && settings.tool != Tool.TEXT;
+            submit(InputRing.PRESS, startX, startY, e, settings);
         }
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        dragging = false;
-        curX = Math.min(Math.max(0, e.getX()), getWidth());
-        curY = Math.min(Math.max(0, e.getY()), getHeight());
-        
-        if (tool == Tool.RECTANGLE || tool == Tool.SQUARE || tool == Tool.OVAL || tool == Tool.CIRCLE || tool == Tool.TRIANGLE) {
-            commitShape();
+        if (panning && e.getButton() == MouseEvent.BUTTON2) {
+            panning = false;
+            return;
+        }
+        try (PaintMetrics.Span in = metrics.begin(PaintMetrics.Op.INPUT)) {
+            if (!dragging) return;
+            dragging = false;
+            curX = documentX(e);
+            curY = documentY(e);
+            submit(InputRing.RELEASE, curX, curY, e, null);
         }
-        repaint();
     }
 
     @Override
     public void mouseDragged(MouseEvent e) {
-        int prevX = curX, prevY = curY;
-        
-        curX = Math.min(Math.max(0, e.getX()), getWidth());
-        curY = Math.min(Math.max(0, e.getY()), getHeight());
-        
-        if (tool == Tool.PENCIL || tool == Tool.ERASER) {
-            drawLineOnImage(prevX, prevY, curX, curY);
+        if (panning) {
+            panBy(e.getX() - panX, e.getY() - panY);
+            panX = e.getX();
+            panY = e.getY();
+            return;
         }
-        repaint();
+        try (PaintMetrics.Span in = metrics.begin(PaintMetrics.Op.INPUT)) {
+            if (!dragging) return;
+            Rectangle oldPreview = previewBounds();
+
+            curX = documentX(e);
+            curY = documentY(e);
+
+            submit(InputRing.DRAG, curX, curY, e, null);
+            if (oldPreview != null) {
+                Rectangle r = toCanvas(oldPreview.union(previewBounds()));
+                repaint(r.x, r.y, r.width, r.height);
+            }
+        }
+    }
+
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        zoomAt(zoom * Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
     }
 
     // unused listeners
@@ -270,4 +1286,4 @@ public class PaintCanvas extends Canvas implements MouseListener, MouseMotionLis
     @Override public void mouseClicked(MouseEvent e) {}
     @Override public void mouseEntered(MouseEvent e) {}
     @Override public void mouseExited(MouseEvent e) {}
-}
\ No newline at end of file
+}
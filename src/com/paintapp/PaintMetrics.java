@@ -0,0 +1,259 @@
+package com.paintapp;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.InputEvent;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Latency of the canvas's operations: a histogram per operation, filled in
+// while enabled, and a JFR event per operation whenever a flight recording
+// has them enabled (jfr configure or -XX:StartFlightRecording with
+// com.paintapp.*). Input-to-pixel latency runs from the time stamp of a
+// mouse event to the end of the first paint that shows what it changed.
+//
+//   try (PaintMetrics.Span s = metrics.begin(PaintMetrics.Op.FILL)) { ... }
+//
+// With both switched off a span is a shared no-op object and nothing is
+// allocated.
+public class PaintMetrics implements PaintMetricsMXBean {
+
+    public enum Op {
+        INPUT("input"), STROKE("stroke"), FILL("fill"), SHAPE("shape"), TEXT("text"), FILTER("filter"),
+        HISTORY("history commit"), UNDO("undo/redo"), FRAME("frame"), SAVE("save"),
+        INPUT_TO_PIXEL("input to pixel");
+
+        final String label;
+
+        Op(String label) { this.label = label; }
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final int OVERLAY_MARGIN = 8;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OPS.length];
+    private volatile boolean enabled;
+    // time of the earliest input whose pixels have not been painted yet (0 = none)
+    private final AtomicLong pendingInput = new AtomicLong();
+    private final Rectangle overlayBounds = new Rectangle();
+    private ScheduledExecutorService logger;
+    // the JFR event types, looked up once JFR is up: the first lookup starts
+    // its machinery (some 0.4 s), which must not happen on the way to the
+    // first paint
+    private static volatile EventType operationType, inputLatencyType;
+
+    public PaintMetrics() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    @Override public boolean isEnabled() { return enabled; }
+    @Override public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public LatencyHistogram get(Op op) { return histograms[op.ordinal()]; }
+
+    public Span begin(Op op) {
+        boolean recording = recordingOperations();
+        if (!enabled && !recording) return Span.NONE;
+        OperationEvent event = null;
+        if (recording) {
+            event = new OperationEvent();
+            event.begin();
+        }
+        return new Span(this, op, event);
+    }
+
+    void end(Span s) {
+        long nanos = System.nanoTime() - s.start;
+        if (enabled) histograms[s.op.ordinal()].record(nanos);
+        OperationEvent event = s.event;
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = s.op.label;
+            event.commit();
+        }
+    }
+
+    // When 'e' happened on the nanoTime clock, to be passed to pixelsChanged()
+    // by whatever draws its result (0 when not recording)
+    public long inputTime(InputEvent e) {
+        if (!enabled) return 0;
+        // getWhen() is wall-clock milliseconds; carry the queueing delay over to nanoTime
+        long queued = Math.max(0, System.currentTimeMillis() - e.getWhen());
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(queued);
+    }
+
+    // Pixels changed for the input at 'inputTime'; they wait for the next paint
+    public void pixelsChanged(long inputTime) {
+        if (inputTime == 0) return;
+        long p;
+        while (((p = pendingInput.get()) == 0 || inputTime < p) && !pendingInput.compareAndSet(p, inputTime)) { }
+    }
+
+    // End of a paint: closes the input-to-pixel interval of any pending input
+    public void framePresented() {
+        long start = pendingInput.getAndSet(0);
+        if (start == 0) return;
+        long nanos = System.nanoTime() - start;
+        if (enabled) histograms[Op.INPUT_TO_PIXEL.ordinal()].record(nanos);
+        if (!recordingInputLatency()) return;
+        InputLatencyEvent event = new InputLatencyEvent();
+        if (event.shouldCommit()) {
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    // Whether a flight recording takes the events (never before JFR starts)
+    private static boolean recordingOperations() {
+        if (!FlightRecorder.isInitialized()) return false;
+        EventType type = operationType;
+        if (type == null) operationType = type = EventType.getEventType(OperationEvent.class);
+        return type.isEnabled();
+    }
+
+    private static boolean recordingInputLatency() {
+        if (!FlightRecorder.isInitialized()) return false;
+        EventType type = inputLatencyType;
+        if (type == null) inputLatencyType = type = EventType.getEventType(InputLatencyEvent.class);
+        return type.isEnabled();
+    }
+
+    @Override
+    public Map<String, Double> getMillis() {
+        Map<String, Double> m = new LinkedHashMap<>();
+        for (Op op : OPS) {
+            LatencyHistogram h = get(op);
+            String key = op.name().toLowerCase();
+            m.put(key + ".p50", h.getPercentileNanos(0.5) / 1e6);
+            m.put(key + ".p99", h.getPercentileNanos(0.99) / 1e6);
+            m.put(key + ".max", h.getMaxNanos() / 1e6);
+            m.put(key + ".count", (double) h.getCount());
+        }
+        return m;
+    }
+
+    @Override
+    public String[] getReport() {
+        List<String> lines = new ArrayList<>();
+        for (Op op : OPS) {
+            LatencyHistogram h = get(op);
+            if (h.getCount() > 0) lines.add(String.format("%-15s %s", op.label, h));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : histograms) h.reset();
+    }
+
+    // Registers this object as com.paintapp:type=Metrics on the platform MBean server
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.paintapp:type=Metrics"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Prints the report to System.out every 'seconds' (0 = stop)
+    public synchronized void logEvery(int seconds) {
+        if (logger != null) logger.shutdownNow();
+        logger = null;
+        if (seconds <= 0) return;
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "paint-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.scheduleAtFixedRate(() -> {
+            for (String line : getReport()) System.out.println("[metrics] " + line);
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    // OVERLAY
+    // The report in a translucent box at the top left of the canvas
+    public void drawOverlay(Graphics2D g) {
+        String[] lines = getReport();
+        if (lines.length == 0) lines = new String[] {enabled ? "no operations yet" : "metrics off"};
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        FontMetrics fm = g.getFontMetrics();
+        int w = 0;
+        for (String line : lines) w = Math.max(w, fm.stringWidth(line));
+        overlayBounds.setBounds(OVERLAY_MARGIN, OVERLAY_MARGIN, w + 12, lines.length * fm.getHeight() + 8);
+        g.setColor(new Color(0, 0, 0, 170));
+        g.fill(overlayBounds);
+        g.setColor(Color.WHITE);
+        int y = OVERLAY_MARGIN + 4 + fm.getAscent();
+        for (String line : lines) {
+            g.drawString(line, OVERLAY_MARGIN + 6, y);
+            y += fm.getHeight();
+        }
+    }
+
+    // Area the overlay covered when last drawn
+    public Rectangle getOverlayBounds() { return new Rectangle(overlayBounds); }
+
+    public static final class Span implements AutoCloseable {
+        static final Span NONE = new Span(null, null, null);
+
+        private final PaintMetrics metrics;
+        final Op op;
+        final OperationEvent event;
+        final long start;
+
+        private Span(PaintMetrics metrics, Op op, OperationEvent event) {
+            this.metrics = metrics;
+            this.op = op;
+            this.event = event;
+            this.start = metrics == null ? 0 : System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (metrics != null) metrics.end(this);
+        }
+    }
+
+    @Name("com.paintapp.Operation")
+    @Label("Paint Operation")
+    @Category("Paint")
+    @Description("An input event, edit, history commit, frame or save of the canvas")
+    @StackTrace(false)
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+    }
+
+    @Name("com.paintapp.InputLatency")
+    @Label("Input To Pixel")
+    @Category("Paint")
+    @Description("From a mouse event to the end of the first paint showing its result")
+    @StackTrace(false)
+    static class InputLatencyEvent extends Event {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+}
@@ -0,0 +1,17 @@
+package com.paintapp;
+
+import java.util.Map;
+
+// JMX view of PaintMetrics (registered as com.paintapp:type=Metrics)
+public interface PaintMetricsMXBean {
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+
+    // "<operation>.p50" / ".p99" / ".max" in milliseconds, and ".count"
+    Map<String, Double> getMillis();
+
+    // One line per operation that has been recorded
+    String[] getReport();
+
+    void reset();
+}
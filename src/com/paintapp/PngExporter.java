@@ -0,0 +1,332 @@
+package com.paintapp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// PNG encoder for document snapshots. The image is cut into bands of rows;
+// each band is filtered and deflated on its own (in parallel for large
+// images) and the bands are written in order as one zlib stream: every band
+// but the last ends with a sync flush, so the raw deflate outputs simply
+// concatenate, and the band checksums are combined into the stream's adler32.
+//
+// Files are written to a temporary name next to the target and renamed into
+// place when complete, so a failed or interrupted save never leaves a
+// half-written PNG behind.
+public class PngExporter {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int BAND_BYTES = 2 << 20;
+
+    private static final ExecutorService EXPORTS = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "paint-export");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int level;
+
+    public PngExporter(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be -1..9: " + compressionLevel);
+        }
+        this.level = compressionLevel;
+    }
+
+    public int getCompressionLevel() { return level; }
+
+    // Encodes on a background thread; 'progress' (0..1, may be null) is called
+    // from that thread as bands are written
+    public CompletableFuture<Path> writeAsync(TiledImage.Snapshot snapshot, TileStore store, Path file, DoubleConsumer progress) {
+        return writeAsync(single(snapshot), store, file, progress);
+    }
+
+    // The visible layers are flattened on the export thread too
+    public CompletableFuture<Path> writeAsync(List<Layer.Snapshot> layers, TileStore store, Path file, DoubleConsumer progress) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        EXPORTS.execute(() -> {
+            try {
+                write(layers, store, file, progress);
+                result.complete(file);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public void write(TiledImage.Snapshot snapshot, TileStore store, Path file, DoubleConsumer progress) throws IOException {
+        write(single(snapshot), store, file, progress);
+    }
+
+    public void write(List<Layer.Snapshot> layers, TileStore store, Path file, DoubleConsumer progress) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        if (store != null) store.beginRead();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            encode(LayerStack.flatten(layers, store), out, progress);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        } finally {
+            if (store != null) store.endRead();
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static List<Layer.Snapshot> single(TiledImage.Snapshot snapshot) {
+        return List.of(new Layer.Snapshot("", true, 1f, BlendMode.NORMAL, snapshot));
+    }
+
+    // ---------------------------------------------------------------
+    // Encoding
+    // ---------------------------------------------------------------
+
+    private static final class Band {
+        final byte[] data;
+        final int length;
+        final long adler;
+        final long rawLength;
+
+        Band(byte[] data, int length, long adler, long rawLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    public void encode(TiledImage doc, OutputStream os, DoubleConsumer progress) throws IOException {
+        int w = doc.getWidth(), h = doc.getHeight();
+        DataOutputStream out = new DataOutputStream(os);
+        out.write(SIGNATURE);
+        ChunkWriter chunk = new ChunkWriter();
+        chunk.data.writeInt(w);
+        chunk.data.writeInt(h);
+        chunk.data.write(new byte[]{8, 6, 0, 0, 0}); // 8-bit RGBA, no interlace
+        chunk.writeTo(out, "IHDR");
+
+        int rowsPerBand = Math.max(1, BAND_BYTES / (w * 4 + 1));
+        int bands = (h + rowsPerBand - 1) / rowsPerBand;
+        boolean parallel = bands > 1 && ForkJoinPool.getCommonPoolParallelism() > 1;
+        int window = parallel ? ForkJoinPool.getCommonPoolParallelism() * 2 : 1;
+
+        // zlib header, then the bands' deflate output as IDAT chunks
+        writeIdat(out, new byte[]{0x78, (byte) (level >= 1 && level <= 5 ? 0x5E : 0x9C)}, 2);
+        ArrayDeque<Future<Band>> pending = new ArrayDeque<>();
+        int next = 0;
+        long adler = 1;
+        for (int b = 0; b < bands; b++) {
+            while (next < bands && pending.size() < window) {
+                int y0 = next * rowsPerBand, y1 = Math.min(h, y0 + rowsPerBand);
+                boolean last = next == bands - 1;
+                if (parallel) {
+                    pending.add(ForkJoinPool.commonPool().submit(() -> band(doc, y0, y1, last)));
+                } else {
+                    pending.add(CompletableFuture.completedFuture(band(doc, y0, y1, last)));
+                }
+                next++;
+            }
+            Band band;
+            try {
+                band = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Export failed", e.getCause());
+            }
+            writeIdat(out, band.data, band.length);
+            adler = b == 0 ? band.adler : adler32Combine(adler, band.adler, band.rawLength);
+            if (progress != null) progress.accept((b + 1) / (double) bands);
+        }
+        writeIdat(out, new byte[]{(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler}, 4);
+        chunk.writeTo(out, "IEND");
+        out.flush();
+    }
+
+    // Filters and deflates rows [y0, y1)
+    private Band band(TiledImage doc, int y0, int y1, boolean last) {
+        int w = doc.getWidth();
+        int stride = w * 4;
+        int[] argb = new int[w];
+        byte[] prev = new byte[stride], cur = new byte[stride];
+        byte[] raw = new byte[(stride + 1) * (y1 - y0)];
+        if (y0 > 0) {
+            doc.readRow(y0 - 1, argb);
+            toRgba(argb, prev);
+        }
+        int pos = 0;
+        for (int y = y0; y < y1; y++) {
+            doc.readRow(y, argb);
+            toRgba(argb, cur);
+            if (Arrays.equals(cur, prev)) {
+                // a repeated row (blank areas): the Up filter leaves all zeros
+                raw[pos++] = 2;
+            } else {
+                raw[pos++] = (byte) filter(cur, prev, raw, pos);
+            }
+            pos += stride;
+            byte[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw, 0, pos);
+        Deflater deflater = new Deflater(level, true);
+        deflater.setInput(raw, 0, pos);
+        byte[] outBuf = new byte[Math.max(1024, pos / 2)];
+        int len = 0;
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (len == outBuf.length) outBuf = Arrays.copyOf(outBuf, len * 2);
+                len += deflater.deflate(outBuf, len, outBuf.length - len);
+            }
+        } else {
+            while (true) {
+                if (len == outBuf.length) outBuf = Arrays.copyOf(outBuf, len * 2);
+                int n = deflater.deflate(outBuf, len, outBuf.length - len, Deflater.SYNC_FLUSH);
+                len += n;
+                if (len < outBuf.length) break;
+            }
+        }
+        deflater.end();
+        return new Band(outBuf, len, adler.getValue(), pos);
+    }
+
+    private static void toRgba(int[] argb, byte[] rgba) {
+        for (int i = 0, j = 0; i < argb.length; i++, j += 4) {
+            int p = argb[i];
+            rgba[j] = (byte) (p >>> 16);
+            rgba[j + 1] = (byte) (p >>> 8);
+            rgba[j + 2] = (byte) p;
+            rgba[j + 3] = (byte) (p >>> 24);
+        }
+    }
+
+    // Picks the PNG filter with the smallest sum of absolute values (the usual
+    // heuristic) and writes the filtered row to out[pos..]; returns its type.
+    // The first pixel has no left neighbour (a = c = 0).
+    private static int filter(byte[] cur, byte[] prev, byte[] out, int pos) {
+        int n = cur.length;
+        long s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+        for (int i = 0; i < 4; i++) {
+            int x = cur[i] & 0xFF, b = prev[i] & 0xFF;
+            s0 += Math.abs((int) (byte) x);
+            s1 += Math.abs((int) (byte) x);
+            s2 += Math.abs((int) (byte) (x - b));
+            s3 += Math.abs((int) (byte) (x - (b >>> 1)));
+            s4 += Math.abs((int) (byte) (x - b));
+        }
+        for (int i = 4; i < n; i++) {
+            int x = cur[i] & 0xFF, a = cur[i - 4] & 0xFF, b = prev[i] & 0xFF, c = prev[i - 4] & 0xFF;
+            s0 += Math.abs((int) (byte) x);
+            s1 += Math.abs((int) (byte) (x - a));
+            s2 += Math.abs((int) (byte) (x - b));
+            s3 += Math.abs((int) (byte) (x - ((a + b) >>> 1)));
+            s4 += Math.abs((int) (byte) (x - paeth(a, b, c)));
+        }
+        int type = 0;
+        long best = s0;
+        if (s1 < best) { best = s1; type = 1; }
+        if (s2 < best) { best = s2; type = 2; }
+        if (s3 < best) { best = s3; type = 3; }
+        if (s4 < best) { type = 4; }
+        switch (type) {
+            case 0 -> System.arraycopy(cur, 0, out, pos, n);
+            case 1 -> {
+                System.arraycopy(cur, 0, out, pos, 4);
+                for (int i = 4; i < n; i++) out[pos + i] = (byte) (cur[i] - cur[i - 4]);
+            }
+            case 2 -> {
+                for (int i = 0; i < n; i++) out[pos + i] = (byte) (cur[i] - prev[i]);
+            }
+            case 3 -> {
+                for (int i = 0; i < 4; i++) out[pos + i] = (byte) (cur[i] - ((prev[i] & 0xFF) >>> 1));
+                for (int i = 4; i < n; i++) out[pos + i] = (byte) (cur[i] - (((cur[i - 4] & 0xFF) + (prev[i] & 0xFF)) >>> 1));
+            }
+            default -> {
+                for (int i = 0; i < 4; i++) out[pos + i] = (byte) (cur[i] - prev[i]);
+                for (int i = 4; i < n; i++) {
+                    out[pos + i] = (byte) (cur[i] - paeth(cur[i - 4] & 0xFF, prev[i] & 0xFF, prev[i - 4] & 0xFF));
+                }
+            }
+        }
+        return type;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    private static void writeIdat(DataOutputStream out, byte[] data, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(new byte[]{'I', 'D', 'A', 'T'});
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.writeBytes("IDAT");
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Small chunks (IHDR, IEND)
+    private static final class ChunkWriter {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+
+        void writeTo(DataOutputStream out, String type) throws IOException {
+            byte[] body = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(type.getBytes(StandardCharsets.US_ASCII));
+            crc.update(body);
+            out.writeInt(body.length);
+            out.writeBytes(type);
+            out.write(body);
+            out.writeInt((int) crc.getValue());
+            bytes.reset();
+        }
+    }
+
+    // adler32 of two concatenated pieces from their own checksums (as zlib's
+    // adler32_combine)
+    static long adler32Combine(long adler1, long adler2, long len2) {
+        final long base = 65521;
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= (base << 1)) sum2 -= (base << 1);
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+}
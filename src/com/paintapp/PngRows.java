@@ -0,0 +1,284 @@
+package com.paintapp;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Decodes a non-interlaced PNG front to back, a few rows at a time, for
+// ImageImport. ImageIO's reader starts again from the top for every region
+// read, which makes streaming a tall image quadratic; this keeps one inflater
+// going down the file instead. Every colour type and bit depth is covered
+// (16-bit samples keep their high byte); gamma and colour profile chunks are
+// ignored, as ImageIO does by default.
+final class PngRows implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int IHDR = 0x49484452, PLTE = 0x504C5445, TRNS = 0x74524E53, IDAT = 0x49444154;
+    private static final int GRAY = 0, RGB = 2, PALETTE = 3, GRAY_ALPHA = 4, RGBA = 6;
+
+    final int width, height;
+    private final int depth, colorType, bpp;
+    private final DataInputStream file;
+    private DataInputStream rows;
+    private byte[] cur, prev;
+    // grey levels or palette entries as ARGB, for depths up to 8
+    private final int[] lut = new int[256];
+    // the transparent grey or 8-bit RGB sample of a tRNS chunk (-1 = none)
+    private int transparent = -1;
+    // the same for 16-bit RGB, all three samples
+    private long transparentWide = -1;
+
+    private PngRows(DataInputStream file, int width, int height, int depth, int colorType) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.colorType = colorType;
+        int channels = colorType == RGB ? 3 : colorType == GRAY_ALPHA ? 2 : colorType == RGBA ? 4 : 1;
+        bpp = Math.max(1, channels * depth / 8);
+        cur = new byte[(int) (((long) width * channels * depth + 7) / 8)];
+        prev = new byte[cur.length];
+    }
+
+    // The rows of a PNG file, or null if it is not a PNG or is interlaced
+    static PngRows open(Path path) throws IOException {
+        return open(new FileInputStream(path.toFile()));
+    }
+
+    // The same for a stream (closed with the PngRows, or at once if null)
+    static PngRows open(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        try {
+            byte[] sig = new byte[8];
+            in.readFully(sig);
+            if (!Arrays.equals(sig, SIGNATURE) || in.readInt() != 13 || in.readInt() != IHDR) {
+                in.close();
+                return null;
+            }
+            int w = in.readInt(), h = in.readInt(), depth = in.readUnsignedByte(), type = in.readUnsignedByte();
+            in.readUnsignedShort(); // compression and filter method: always 0
+            int interlace = in.readUnsignedByte();
+            in.readInt(); // CRC
+            if (interlace != 0) {
+                in.close();
+                return null;
+            }
+            if (w <= 0 || h <= 0 || (long) w * 8 > Integer.MAX_VALUE) throw new IOException("Bad PNG size " + w + "x" + h);
+            PngRows png = new PngRows(in, w, h, depth, type);
+            png.readHeaders();
+            return png;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Reads the chunks up to the first IDAT and starts inflating it
+    private void readHeaders() throws IOException {
+        int[] palette = new int[256];
+        byte[] alpha = null;
+        while (true) {
+            int length = file.readInt(), type = file.readInt();
+            if (type == IDAT) {
+                rows = new DataInputStream(new InflaterInputStream(new ImageData(length), new Inflater(), 1 << 16));
+                break;
+            }
+            if (type == PLTE) {
+                for (int i = 0; i < length / 3; i++) {
+                    palette[i] = 0xFF000000 | file.readUnsignedByte() << 16 | file.readUnsignedByte() << 8 | file.readUnsignedByte();
+                }
+                file.skipNBytes(length % 3);
+            } else if (type == TRNS && colorType == PALETTE) {
+                alpha = new byte[length];
+                file.readFully(alpha);
+            } else if (type == TRNS && colorType == GRAY) {
+                transparent = file.readUnsignedShort();
+            } else if (type == TRNS && colorType == RGB) {
+                int r = file.readUnsignedShort(), g = file.readUnsignedShort(), b = file.readUnsignedShort();
+                transparent = depth == 8 ? r << 16 | g << 8 | b : -1;
+                if (depth == 16) transparentWide = (long) r << 32 | (long) g << 16 | b;
+            } else {
+                file.skipNBytes(length);
+            }
+            file.readInt(); // CRC
+        }
+        if (colorType == PALETTE) {
+            for (int i = 0; i < 256; i++) {
+                int a = alpha != null && i < alpha.length ? alpha[i] & 0xFF : 255;
+                lut[i] = a << 24 | palette[i] & 0xFFFFFF;
+            }
+        } else if (colorType == GRAY && depth <= 8) {
+            int max = (1 << depth) - 1;
+            for (int v = 0; v <= max; v++) {
+                int g = v * 255 / max;
+                lut[v] = (v == transparent ? 0 : 0xFF000000) | g << 16 | g << 8 | g;
+            }
+        } else if (colorType != RGB && colorType != GRAY_ALPHA && colorType != RGBA && colorType != GRAY) {
+            throw new IOException("Bad PNG colour type " + colorType);
+        }
+    }
+
+    // Decodes the next 'n' rows into argb[offset ...], 'stride' ints apart
+    void read(int[] argb, int offset, int stride, int n) throws IOException {
+        for (int y = 0; y < n; y++, offset += stride) {
+            byte[] swap = prev;
+            prev = cur;
+            cur = swap;
+            int filter = rows.read();
+            if (filter < 0) throw new EOFException("PNG image data ends early");
+            rows.readFully(cur);
+            unfilter(filter);
+            convert(argb, offset);
+        }
+    }
+
+    private void unfilter(int filter) throws IOException {
+        byte[] c = cur, p = prev;
+        int n = c.length, b = bpp;
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int i = b; i < n; i++) c[i] += c[i - b];
+                break;
+            case 2:
+                for (int i = 0; i < n; i++) c[i] += p[i];
+                break;
+            case 3:
+                for (int i = 0; i < b; i++) c[i] += (p[i] & 0xFF) >>> 1;
+                for (int i = b; i < n; i++) c[i] += ((c[i - b] & 0xFF) + (p[i] & 0xFF)) >>> 1;
+                break;
+            case 4:
+                for (int i = 0; i < b; i++) c[i] += p[i];
+                for (int i = b; i < n; i++) c[i] += paeth(c[i - b] & 0xFF, p[i] & 0xFF, p[i - b] & 0xFF);
+                break;
+            default:
+                throw new IOException("Bad PNG filter " + filter);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int pa = Math.abs(b - c), pb = Math.abs(a - c), pc = Math.abs(a + b - 2 * c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    private void convert(int[] argb, int o) {
+        byte[] c = cur;
+        int w = width;
+        if (depth == 8) {
+            switch (colorType) {
+                case RGBA:
+                    for (int x = 0, i = 0; x < w; x++, i += 4) {
+                        argb[o + x] = (c[i + 3] & 0xFF) << 24 | (c[i] & 0xFF) << 16 | (c[i + 1] & 0xFF) << 8 | c[i + 2] & 0xFF;
+                    }
+                    return;
+                case RGB:
+                    for (int x = 0, i = 0; x < w; x++, i += 3) {
+                        int p = (c[i] & 0xFF) << 16 | (c[i + 1] & 0xFF) << 8 | c[i + 2] & 0xFF;
+                        argb[o + x] = p == transparent ? p : 0xFF000000 | p;
+                    }
+                    return;
+                case GRAY_ALPHA:
+                    for (int x = 0, i = 0; x < w; x++, i += 2) {
+                        int g = c[i] & 0xFF;
+                        argb[o + x] = (c[i + 1] & 0xFF) << 24 | g << 16 | g << 8 | g;
+                    }
+                    return;
+                default: // grey or palette
+                    for (int x = 0; x < w; x++) argb[o + x] = lut[c[x] & 0xFF];
+                    return;
+            }
+        }
+        if (depth == 16) {
+            switch (colorType) {
+                case RGBA:
+                    for (int x = 0, i = 0; x < w; x++, i += 8) {
+                        argb[o + x] = (c[i + 6] & 0xFF) << 24 | (c[i] & 0xFF) << 16 | (c[i + 2] & 0xFF) << 8 | c[i + 4] & 0xFF;
+                    }
+                    return;
+                case RGB:
+                    for (int x = 0, i = 0; x < w; x++, i += 6) {
+                        long s = (long) sample16(c, i) << 32 | (long) sample16(c, i + 2) << 16 | sample16(c, i + 4);
+                        int p = (c[i] & 0xFF) << 16 | (c[i + 2] & 0xFF) << 8 | c[i + 4] & 0xFF;
+                        argb[o + x] = s == transparentWide ? p : 0xFF000000 | p;
+                    }
+                    return;
+                case GRAY_ALPHA:
+                    for (int x = 0, i = 0; x < w; x++, i += 4) {
+                        int g = c[i] & 0xFF;
+                        argb[o + x] = (c[i + 2] & 0xFF) << 24 | g << 16 | g << 8 | g;
+                    }
+                    return;
+                default: // grey
+                    for (int x = 0, i = 0; x < w; x++, i += 2) {
+                        int g = c[i] & 0xFF;
+                        argb[o + x] = (sample16(c, i) == transparent ? 0 : 0xFF000000) | g << 16 | g << 8 | g;
+                    }
+                    return;
+            }
+        }
+        // 1, 2 or 4 bits of grey or palette index per pixel
+        int d = depth, mask = (1 << d) - 1, perByte = 8 / d;
+        for (int x = 0; x < w; x++) {
+            int v = c[x / perByte] >> (8 - d - (x % perByte) * d) & mask;
+            argb[o + x] = lut[v];
+        }
+    }
+
+    private static int sample16(byte[] c, int i) {
+        return (c[i] & 0xFF) << 8 | c[i + 1] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // The contents of consecutive IDAT chunks as one stream
+    private final class ImageData extends InputStream {
+        private int left;
+
+        ImageData(int length) {
+            left = length;
+        }
+
+        // false at the end of the image data
+        private boolean next() throws IOException {
+            while (left == 0) {
+                file.readInt(); // CRC
+                int length = file.readInt();
+                if (file.readInt() != IDAT) {
+                    left = -1;
+                    return false;
+                }
+                left = length;
+            }
+            return left > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) return -1;
+            left--;
+            return file.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!next()) return -1;
+            int n = file.read(b, off, Math.min(len, left));
+            if (n < 0) throw new EOFException("PNG file ends early");
+            left -= n;
+            return n;
+        }
+    }
+}
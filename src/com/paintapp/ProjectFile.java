@@ -0,0 +1,598 @@
+package com.paintapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Native project file (.ppaint): the layers' tiles, the undo/redo history,
+// the command log and some metadata, with the index written last.
+//
+//   header    int magic "PPNT", int version
+//   tiles     each distinct tile once: raw (little-endian ARGB ints) or
+//             deflated, whichever is smaller; solid tiles only live in the index
+//   log       the command log, one block per group (see CommandLog.write)
+//   index     tile table (codec, offset, length or colour), layers (name,
+//             visibility, opacity, blend mode, size, background, grid of tile
+//             ids), undo and redo entries (layer, keys and tile ids), log
+//             position, metadata
+//   footer    long index offset, int index length, int index crc32, int "PPIX"
+//
+// Tiles shared between layers, history entries and the grid are written once,
+// so a project costs about what its history costs in memory. Opening maps the
+// file and reads only the index: every tile starts out empty and is decoded
+// from the mapping the first time it is drawn, and a TileStore drops decoded
+// tiles again (without writing them anywhere) once its cache is full. Opening
+// time and memory therefore depend on the grid size and the visible area, not
+// on how much of the document is painted.
+public class ProjectFile {
+
+    public static final String EXTENSION = ".ppaint";
+
+    private static final int MAGIC = 0x50504E54; // "PPNT"
+    private static final int INDEX_MAGIC = 0x50504958; // "PPIX"
+    // version 1 had no blend modes and a single layer's history
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8, FOOTER_BYTES = 20;
+    static final byte SOLID = 0, RAW = 1, DEFLATE = 2;
+
+    // the file is mapped in pieces of this size; tiles never cross a boundary
+    private static final long MAP_CHUNK = 1L << 30;
+    // tiles per encoding task when saving
+    private static final int BATCH_TILES = 256;
+
+    private static final ExecutorService SAVES = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "paint-project");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocate(Constants.TILE_SIZE * Constants.TILE_SIZE * 4).order(ByteOrder.LITTLE_ENDIAN));
+
+    // Everything a save writes, captured on the drawing thread. The tiles are
+    // frozen and the log is serialized up front, so writing can happen in the
+    // background while editing goes on.
+    public static final class Contents {
+        final List<Layer.Snapshot> layers;
+        final List<TileHistory.Entry> undo, redo;
+        final int[] undoLayers, redoLayers;
+        final byte[] log;
+        final Map<String, String> metadata;
+
+        public Contents(LayerStack layers, TileHistory history, CommandLog log, Map<String, String> metadata) {
+            this.layers = layers.snapshot();
+            this.undo = history != null ? history.undoEntries() : Collections.emptyList();
+            this.redo = history != null ? history.redoEntries() : Collections.emptyList();
+            this.undoLayers = layersOf(layers, undo);
+            this.redoLayers = layersOf(layers, redo);
+            this.log = log != null ? serialize(log) : new byte[0];
+            this.metadata = new LinkedHashMap<>(metadata);
+        }
+
+        private static int[] layersOf(LayerStack layers, List<TileHistory.Entry> entries) {
+            int[] index = new int[entries.size()];
+            for (int i = 0; i < index.length; i++) {
+                index[i] = layers.indexOf(entries.get(i).doc);
+                if (index[i] < 0) throw new IllegalArgumentException("History refers to a layer that is not in the stack");
+            }
+            return index;
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Opened file
+    // ---------------------------------------------------------------
+
+    private final Path path;
+    private final ByteBuffer[] chunks;
+    private final byte[] codecs;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final Tile[] tiles;
+    private final List<Layer.Snapshot> layers = new ArrayList<>();
+    // saved entries, not yet tied to an image, and the layer each belongs to
+    private final List<TileHistory.Entry> undo = new ArrayList<>(), redo = new ArrayList<>();
+    private final List<Integer> undoLayers = new ArrayList<>(), redoLayers = new ArrayList<>();
+    private final Map<String, String> metadata = new LinkedHashMap<>();
+    private final long logOffset;
+    private final int logLength;
+
+    // Maps 'file' and reads its index; tile pixels are not touched. Decoded
+    // tiles are cached by 'store' (or kept on the heap when it is null).
+    public static ProjectFile open(Path file, TileStore store) throws IOException {
+        return new ProjectFile(file, store);
+    }
+
+    private ProjectFile(Path file, TileStore store) throws IOException {
+        this.path = file;
+        ByteBuffer index;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES + FOOTER_BYTES) throw new IOException("Not a project file: " + file);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            while (footer.hasRemaining()) {
+                if (ch.read(footer, size - FOOTER_BYTES + footer.position()) < 0) throw new IOException("Cannot read " + file);
+            }
+            footer.flip();
+            long indexOffset = footer.getLong();
+            int indexLength = footer.getInt();
+            int indexCrc = footer.getInt();
+            if (footer.getInt() != INDEX_MAGIC || indexOffset < HEADER_BYTES
+                    || indexOffset + indexLength > size - FOOTER_BYTES) {
+                throw new IOException("Not a project file or truncated: " + file);
+            }
+            index = ch.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexLength);
+            CRC32 crc = new CRC32();
+            crc.update(index.duplicate());
+            if ((int) crc.getValue() != indexCrc) throw new IOException("Corrupt project index: " + file);
+
+            chunks = new ByteBuffer[(int) ((indexOffset + MAP_CHUNK - 1) / MAP_CHUNK)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * MAP_CHUNK;
+                chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_CHUNK, indexOffset - start));
+            }
+        }
+        if (chunks[0].getInt(0) != MAGIC) throw new IOException("Not a project file: " + file);
+        int version = chunks[0].getInt(4);
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported project version " + version);
+
+        int count = index.getInt();
+        codecs = new byte[count];
+        offsets = new long[count];
+        lengths = new int[count];
+        tiles = new Tile[count];
+        Map<Integer, Tile> solids = new LinkedHashMap<>();
+        for (int id = 0; id < count; id++) {
+            byte codec = index.get();
+            codecs[id] = codec;
+            if (codec == SOLID) {
+                tiles[id] = solids.computeIfAbsent(index.getInt(), rgb -> Tile.solid(TiledImage.TILE, rgb));
+            } else {
+                offsets[id] = index.getLong();
+                lengths[id] = index.getInt();
+                tiles[id] = Tile.lazy(TiledImage.TILE, store, this, id);
+            }
+        }
+
+        int layerCount = index.getInt();
+        if (layerCount == 0) throw new IOException("Project has no layers: " + file);
+        for (int l = 0; l < layerCount; l++) {
+            String name = readString(index);
+            boolean visible = index.get() != 0;
+            float opacity = index.getFloat();
+            BlendMode mode = version >= 2 ? BlendMode.values()[index.get()] : BlendMode.NORMAL;
+            int w = index.getInt(), h = index.getInt(), bg = index.getInt(), cols = index.getInt(), rows = index.getInt();
+            int[] ids = new int[cols * rows];
+            index.asIntBuffer().get(ids);
+            index.position(index.position() + ids.length * 4);
+            TiledImage doc = new TiledImage(cols * TiledImage.TILE, rows * TiledImage.TILE, bg, store);
+            for (int row = 0, i = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++, i++) {
+                    Tile t = tiles[ids[i]];
+                    // the new document is already all background
+                    if (!(t.solid && t.color == bg)) doc.restoreTile(TiledImage.key(col, row), t);
+                }
+            }
+            doc.resize(w, h);
+            layers.add(new Layer.Snapshot(name, visible, opacity, mode, doc.snapshot()));
+        }
+
+        readEntries(index, version, undo, undoLayers);
+        readEntries(index, version, redo, redoLayers);
+        logOffset = index.getLong();
+        logLength = index.getInt();
+        int metaCount = index.getInt();
+        for (int i = 0; i < metaCount; i++) metadata.put(readString(index), readString(index));
+    }
+
+    private void readEntries(ByteBuffer index, int version, List<TileHistory.Entry> into, List<Integer> layerOf) {
+        int n = index.getInt();
+        for (int e = 0; e < n; e++) {
+            layerOf.add(version >= 2 ? index.getInt() : 0);
+            int size = index.getInt();
+            int[] keys = new int[size];
+            Tile[] before = new Tile[size], after = new Tile[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = index.getInt();
+                before[i] = tiles[index.getInt()];
+                after[i] = tiles[index.getInt()];
+            }
+            into.add(new TileHistory.Entry(null, keys, before, after));
+        }
+    }
+
+    public Path getPath() { return path; }
+    public List<Layer.Snapshot> getLayers() { return Collections.unmodifiableList(layers); }
+    public Map<String, String> getMetadata() { return Collections.unmodifiableMap(metadata); }
+    public int getTileCount() { return tiles.length; }
+
+    // Puts the saved undo/redo entries into 'history'; 'layers' must be the
+    // stack opened from getLayers()
+    public void restoreHistory(LayerStack layers, TileHistory history) {
+        history.restore(attach(layers, undo, undoLayers), attach(layers, redo, redoLayers));
+    }
+
+    private static List<TileHistory.Entry> attach(LayerStack layers, List<TileHistory.Entry> entries, List<Integer> layerOf) {
+        List<TileHistory.Entry> list = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            TileHistory.Entry e = entries.get(i);
+            list.add(new TileHistory.Entry(layers.get(layerOf.get(i)).getImage(), e.keys, e.before, e.after));
+        }
+        return list;
+    }
+
+    // Replaces the contents of 'log' with the saved command log
+    public void restoreLog(CommandLog log) throws IOException {
+        log.reset();
+        if (logLength == 0) return;
+        byte[] bytes = new byte[logLength];
+        encoded(logOffset, logLength).get(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int limit = in.readInt(), count = in.readInt();
+        for (int g = 0; g < limit; g++) log.read(in);
+        for (int g = count; g < limit; g++) log.undo();
+    }
+
+    // Decodes tile 'id' into dst; called when a lazy tile is first read
+    void decode(int id, int[] dst) {
+        ByteBuffer src = encoded(offsets[id], lengths[id]);
+        if (codecs[id] == RAW) {
+            src.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(dst);
+            return;
+        }
+        Inflater inflater = INFLATER.get();
+        ByteBuffer out = SCRATCH.get();
+        inflater.reset();
+        inflater.setInput(src);
+        out.clear();
+        try {
+            while (out.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt tile " + id + " in " + path, e);
+        }
+        if (out.hasRemaining()) throw new IllegalStateException("Truncated tile " + id + " in " + path);
+        out.flip();
+        out.asIntBuffer().get(dst);
+    }
+
+    private ByteBuffer encoded(long offset, int length) {
+        return chunks[(int) (offset / MAP_CHUNK)].slice((int) (offset % MAP_CHUNK), length);
+    }
+
+    // ---------------------------------------------------------------
+    // Writing
+    // ---------------------------------------------------------------
+
+    // Writes on a background thread; 'progress' (0..1, may be null) is called
+    // from that thread as tiles are written
+    public static CompletableFuture<Path> writeAsync(Contents contents, TileStore store, Path file, DoubleConsumer progress) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        SAVES.execute(() -> {
+            try {
+                write(contents, store, file, progress);
+                result.complete(file);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public static void write(Contents contents, TileStore store, Path file, DoubleConsumer progress) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        if (store != null) store.beginRead();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            new Writer(contents, ch, progress).write();
+            ch.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        } finally {
+            if (store != null) store.endRead();
+        }
+        // an open project keeps its old file mapped; replacing the name leaves that intact
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class Encoded {
+        final byte codec;
+        final ByteBuffer data;
+
+        Encoded(byte codec, ByteBuffer data) {
+            this.codec = codec;
+            this.data = data;
+        }
+    }
+
+    private static final class Writer {
+        final Contents contents;
+        final FileChannel channel;
+        final DoubleConsumer progress;
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        long position;
+
+        // distinct tiles in the order they are written
+        final IdentityHashMap<Tile, Integer> ids = new IdentityHashMap<>();
+        final List<Tile> order = new ArrayList<>();
+
+        Writer(Contents contents, FileChannel channel, DoubleConsumer progress) {
+            this.contents = contents;
+            this.channel = channel;
+            this.progress = progress;
+        }
+
+        void write() throws IOException {
+            buffer.putInt(MAGIC).putInt(VERSION);
+            position = HEADER_BYTES;
+
+            for (Layer.Snapshot layer : contents.layers) {
+                for (Tile t : layer.tiles.grid) idOf(t);
+            }
+            for (TileHistory.Entry e : contents.undo) idsOf(e);
+            for (TileHistory.Entry e : contents.redo) idsOf(e);
+
+            // tile data, encoded in batches (in parallel when there are cores to spare)
+            int n = order.size();
+            long[] offsets = new long[n];
+            int[] lengths = new int[n];
+            byte[] codecs = new byte[n];
+            int batches = (n + BATCH_TILES - 1) / BATCH_TILES;
+            boolean parallel = batches > 1 && ForkJoinPool.getCommonPoolParallelism() > 1;
+            int window = parallel ? ForkJoinPool.getCommonPoolParallelism() * 2 : 1;
+            ArrayDeque<Future<Encoded[]>> pending = new ArrayDeque<>();
+            int next = 0;
+            for (int b = 0; b < batches; b++) {
+                while (next < batches && pending.size() < window) {
+                    int from = next * BATCH_TILES, to = Math.min(n, from + BATCH_TILES);
+                    if (parallel) {
+                        pending.add(ForkJoinPool.commonPool().submit(() -> encode(order, from, to)));
+                    } else {
+                        pending.add(CompletableFuture.completedFuture(encode(order, from, to)));
+                    }
+                    next++;
+                }
+                Encoded[] batch;
+                try {
+                    batch = pending.poll().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Save interrupted", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Save failed", e.getCause());
+                }
+                for (int i = 0; i < batch.length; i++) {
+                    int id = b * BATCH_TILES + i;
+                    Encoded enc = batch[i];
+                    codecs[id] = enc.codec;
+                    if (enc.codec == SOLID) continue;
+                    lengths[id] = enc.data.remaining();
+                    offsets[id] = put(enc.data);
+                }
+                if (progress != null) progress.accept((b + 1) / (double) batches);
+            }
+            long logOffset = contents.log.length > 0 ? put(ByteBuffer.wrap(contents.log)) : 0;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + n * 13);
+            DataOutputStream index = new DataOutputStream(bytes);
+            index.writeInt(n);
+            for (int id = 0; id < n; id++) {
+                index.writeByte(codecs[id]);
+                if (codecs[id] == SOLID) {
+                    index.writeInt(order.get(id).color);
+                } else {
+                    index.writeLong(offsets[id]);
+                    index.writeInt(lengths[id]);
+                }
+            }
+            index.writeInt(contents.layers.size());
+            for (Layer.Snapshot layer : contents.layers) {
+                TiledImage.Snapshot s = layer.tiles;
+                writeString(index, layer.name);
+                index.writeBoolean(layer.visible);
+                index.writeFloat(layer.opacity);
+                index.writeByte(layer.blendMode.ordinal());
+                index.writeInt(s.width);
+                index.writeInt(s.height);
+                index.writeInt(s.backgroundRgb);
+                index.writeInt(s.cols);
+                index.writeInt(s.rows);
+                for (Tile t : s.grid) index.writeInt(ids.get(t));
+            }
+            writeEntries(index, contents.undo, contents.undoLayers);
+            writeEntries(index, contents.redo, contents.redoLayers);
+            index.writeLong(logOffset);
+            index.writeInt(contents.log.length);
+            index.writeInt(contents.metadata.size());
+            for (Map.Entry<String, String> m : contents.metadata.entrySet()) {
+                writeString(index, m.getKey());
+                writeString(index, m.getValue());
+            }
+            index.flush();
+
+            byte[] indexBytes = bytes.toByteArray();
+            long indexOffset = position;
+            flush();
+            writeFully(ByteBuffer.wrap(indexBytes), indexOffset);
+            CRC32 crc = new CRC32();
+            crc.update(indexBytes);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES).putLong(indexOffset).putInt(indexBytes.length)
+                    .putInt((int) crc.getValue()).putInt(INDEX_MAGIC);
+            footer.flip();
+            writeFully(footer, indexOffset + indexBytes.length);
+        }
+
+        private int idOf(Tile t) {
+            Integer id = ids.get(t);
+            if (id == null) {
+                id = order.size();
+                ids.put(t, id);
+                order.add(t);
+            }
+            return id;
+        }
+
+        private void idsOf(TileHistory.Entry e) {
+            for (Tile t : e.before) idOf(t);
+            for (Tile t : e.after) idOf(t);
+        }
+
+        private void writeEntries(DataOutputStream out, List<TileHistory.Entry> entries, int[] layers) throws IOException {
+            out.writeInt(entries.size());
+            for (int n = 0; n < entries.size(); n++) {
+                TileHistory.Entry e = entries.get(n);
+                out.writeInt(layers[n]);
+                out.writeInt(e.keys.length);
+                for (int i = 0; i < e.keys.length; i++) {
+                    out.writeInt(e.keys[i]);
+                    out.writeInt(ids.get(e.before[i]));
+                    out.writeInt(ids.get(e.after[i]));
+                }
+            }
+        }
+
+        // Appends 'data' to the file, moved past a mapping boundary if it would
+        // straddle one; returns its offset
+        private long put(ByteBuffer data) throws IOException {
+            int len = data.remaining();
+            if (len <= MAP_CHUNK && position / MAP_CHUNK != (position + len - 1) / MAP_CHUNK) {
+                long pad = MAP_CHUNK - position % MAP_CHUNK;
+                flush();
+                position += pad;
+            }
+            long at = position;
+            if (len > buffer.remaining()) {
+                flush();
+                if (len > buffer.capacity()) {
+                    writeFully(data, position);
+                    position += len;
+                    return at;
+                }
+            }
+            buffer.put(data);
+            position += len;
+            return at;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer, position - buffer.remaining());
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer data, long at) throws IOException {
+            while (data.hasRemaining()) at += channel.write(data, at);
+        }
+    }
+
+    // Encodes tiles [from, to). Tiles still encoded in an open project file
+    // are copied from it as they are, without being decoded.
+    private static Encoded[] encode(List<Tile> tiles, int from, int to) {
+        Encoded[] out = new Encoded[to - from];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteBuffer raw = ByteBuffer.allocate(Constants.TILE_SIZE * Constants.TILE_SIZE * 4).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] buffer = new byte[raw.capacity()], packed;
+        try {
+            for (int i = from; i < to; i++) {
+                Tile t = tiles.get(i);
+                if (t.solid) {
+                    out[i - from] = new Encoded(SOLID, null);
+                } else if (t.source != null) {
+                    ProjectFile f = t.source;
+                    out[i - from] = new Encoded(f.codecs[t.sourceId], f.encoded(f.offsets[t.sourceId], f.lengths[t.sourceId]));
+                } else if ((packed = t.packedPixels()) != null) {
+                    // packed by the undo history in the same encoding
+                    out[i - from] = new Encoded(DEFLATE, ByteBuffer.wrap(packed));
+                } else {
+                    raw.clear();
+                    raw.asIntBuffer().put(t.pixels());
+                    deflater.reset();
+                    deflater.setInput(raw.array());
+                    deflater.finish();
+                    int len = 0;
+                    while (!deflater.finished() && len < buffer.length) {
+                        len += deflater.deflate(buffer, len, buffer.length - len);
+                    }
+                    // keep it raw unless deflate saves at least an eighth
+                    if (deflater.finished() && len < buffer.length - buffer.length / 8) {
+                        out[i - from] = new Encoded(DEFLATE, ByteBuffer.wrap(Arrays.copyOf(buffer, len)));
+                    } else {
+                        out[i - from] = new Encoded(RAW, ByteBuffer.wrap(raw.array().clone()));
+                    }
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return out;
+    }
+
+    // The log's groups, undone ones included: [limit][count][group]...
+    private static byte[] serialize(CommandLog log) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int limit = log.getGroupLimit();
+            out.writeInt(limit);
+            out.writeInt(log.getGroupCount());
+            for (int g = 0, start = 0; g < limit; g++) {
+                int end = log.groupEnd(g);
+                log.write(out, start, end);
+                start = end;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,102 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+
+// Compact mask of a pixel region, stored as one bitset per tile of the image
+// it was taken from. Tiles outside the region hold nothing and tiles fully
+// inside it share a marker, so a mask of a huge flat area stays small.
+public class RegionMask {
+
+    public interface SpanConsumer {
+        void span(int y, int x0, int x1);
+    }
+
+    static final long[] FULL = new long[0];
+
+    private final int tileSize;
+    private final int cols;
+    private final int imageWidth;
+    private final long[][] tiles;
+    private final Rectangle bounds;
+    private final int pixelCount;
+
+    RegionMask(int tileSize, int cols, int imageWidth, long[][] tiles, Rectangle bounds, int pixelCount) {
+        this.tileSize = tileSize;
+        this.cols = cols;
+        this.imageWidth = imageWidth;
+        this.tiles = tiles;
+        this.bounds = bounds;
+        this.pixelCount = pixelCount;
+    }
+
+    static RegionMask empty() {
+        return new RegionMask(64, 0, 0, new long[0][], new Rectangle(), 0);
+    }
+
+    public boolean contains(int x, int y) {
+        if (!bounds.contains(x, y)) return false;
+        long[] bits = tiles[(y / tileSize) * cols + x / tileSize];
+        if (bits == null) return false;
+        if (bits == FULL) return true;
+        int lx = x % tileSize, ly = y % tileSize;
+        return (bits[ly * (tileSize >>> 6) + (lx >>> 6)] & (1L << lx)) != 0;
+    }
+
+    public Rectangle getBounds() { return new Rectangle(bounds); }
+    public int getPixelCount() { return pixelCount; }
+    public boolean isEmpty() { return pixelCount == 0; }
+    int getTileSize() { return tileSize; }
+    int getColumns() { return cols; }
+    long[] tileBits(int col, int row) { return tiles[row * cols + col]; }
+
+    // Calls the consumer for every horizontal run of set pixels (x1 inclusive)
+    public void forEachSpan(SpanConsumer consumer) {
+        forEachSpan(bounds.y, bounds.y + bounds.height, consumer);
+    }
+
+    public void forEachSpan(int fromY, int toY, SpanConsumer consumer) {
+        fromY = Math.max(fromY, bounds.y);
+        toY = Math.min(toY, bounds.y + bounds.height);
+        int c0 = bounds.x / tileSize, c1 = (bounds.x + bounds.width - 1) / tileSize;
+        int words = tileSize >>> 6;
+        for (int y = fromY; y < toY; y++) {
+            int row = y / tileSize, ly = y % tileSize;
+            int start = -1;
+            for (int col = c0; col <= c1; col++) {
+                long[] bits = tiles[row * cols + col];
+                int x0 = col * tileSize;
+                int tw = Math.min(tileSize, imageWidth - x0);
+                if (bits == null) {
+                    if (start >= 0) {
+                        consumer.span(y, start, x0 - 1);
+                        start = -1;
+                    }
+                    continue;
+                }
+                if (bits == FULL) {
+                    if (start < 0) start = x0;
+                    continue;
+                }
+                for (int w = 0; w < words; w++) {
+                    long word = bits[ly * words + w];
+                    if (start < 0 && word == 0) continue;
+                    if (start >= 0 && word == -1L) continue;
+                    for (int b = 0; b < 64; b++) {
+                        int lx = (w << 6) + b;
+                        if (lx >= tw) break;
+                        boolean set = (word & (1L << b)) != 0;
+                        if (set && start < 0) {
+                            start = x0 + lx;
+                        } else if (!set && start >= 0) {
+                            consumer.span(y, start, x0 + lx - 1);
+                            start = -1;
+                        }
+                    }
+                }
+            }
+            if (start >= 0) {
+                consumer.span(y, start, Math.min(imageWidth, (c1 + 1) * tileSize) - 1);
+            }
+        }
+    }
+}
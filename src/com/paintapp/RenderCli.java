@@ -0,0 +1,87 @@
+package com.paintapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+// Command-line batch renderer: reads a drawing script (see RenderScript) and
+// writes one PNG per document, rendering documents in parallel.
+//
+//   java -cp out com.paintapp.RenderCli [options] <script | -> [output dir]
+//     --threads N   documents rendered at once (default: number of cores)
+//     --scale S     render at S times the document size (default 1)
+//     --level L     PNG deflate level 0-9 (default: zlib's default)
+//
+// Never opens a window; headless mode is switched on if not already set.
+public class RenderCli {
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", System.getProperty("java.awt.headless", "true"));
+        int threads = Runtime.getRuntime().availableProcessors();
+        double scale = 1.0;
+        int level = Deflater.DEFAULT_COMPRESSION;
+        List<String> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--scale" -> scale = Double.parseDouble(args[++i]);
+                    case "--level" -> level = Integer.parseInt(args[++i]);
+                    default -> files.add(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            files.clear();
+        }
+        // -1 is zlib's default level; NaN fails the scale test too
+        boolean badLevel = level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION;
+        boolean badScale = !(scale > 0) || Double.isInfinite(scale);
+        if (files.isEmpty() || files.size() > 2 || threads < 1 || badLevel || badScale) {
+            System.err.println("usage: RenderCli [--threads N] [--scale S] [--level 0-9] <script | -> [output dir]");
+            System.exit(2);
+        }
+        Path outDir = Path.of(files.size() > 1 ? files.get(1) : ".");
+        Files.createDirectories(outDir);
+
+        long start = System.nanoTime();
+        int documents = 0;
+        AtomicInteger failed = new AtomicInteger();
+        // a few documents ahead of the renderers at most, however long the script
+        Semaphore inFlight = new Semaphore(threads * 2);
+        try (BufferedReader in = files.get(0).equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(files.get(0)));
+             BatchRenderer renderer = new BatchRenderer(threads, level, scale)) {
+            RenderScript script = new RenderScript(in, outDir);
+            for (BatchRenderer.Job job; (job = script.next()) != null; ) {
+                inFlight.acquire();
+                BatchRenderer.Job j = job;
+                renderer.submit(job).whenComplete((p, e) -> {
+                    inFlight.release();
+                    if (e != null) {
+                        failed.incrementAndGet();
+                        System.err.println(j.output + ": " + e);
+                    }
+                });
+                documents++;
+            }
+        } catch (IOException e) {
+            System.err.println(files.get(0) + ": " + e.getMessage());
+            System.exit(1);
+        }
+        double s = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d documents in %.2f s (%.1f documents/s, %d threads)%n", documents, s, documents / s, threads);
+        if (failed.get() > 0) {
+            System.err.println(failed.get() + " documents failed");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.paintapp;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Reads drawing scripts for BatchRenderer: plain text, one operation per
+// line, any number of documents per file. Blank lines and lines starting
+// with '#' are ignored; colours are #RRGGBB or #AARRGGBB.
+//
+//   document <out.png> <width> <height> [background]   starts a document
+//   pencil <color> <size> <x> <y> [<x> <y> ...]          freehand stroke
+//   eraser <size> <x> <y> [<x> <y> ...]                  paints the background
+//   brush|airbrush|chalk <color> <size> <x> <y> [<x> <y> ...]   dab brush stroke
+//   rectangle|square|oval|circle|triangle <color> <size> <x0> <y0> <x1> <y1>
+//   fill <color> <x> <y> [tolerance] [aa]
+//   text <color> <x> <y> <font> <plain|bold|italic|bolditalic> <size> <text...>
+//   clear [color]
+//   move|copy <x> <y> <width> <height> <dx> <dy>         moves (or copies) a rectangle
+//
+// Output names are resolved against the directory given to the reader.
+// Documents are returned one at a time, so a script can be far larger than
+// memory.
+public class RenderScript {
+
+    private final BufferedReader in;
+    private final Path outputDir;
+    private int lineNumber;
+    private String[] pending;
+
+    public RenderScript(BufferedReader in, Path outputDir) {
+        this.in = in;
+        this.outputDir = outputDir;
+    }
+
+    // The next document in the script, or null at the end
+    public BatchRenderer.Job next() throws IOException {
+        String[] f = pending != null ? pending : nextLine();
+        pending = null;
+        if (f == null) return null;
+        if (!f[0].equals("document") || f.length < 4 || f.length > 5) {
+            throw error("expected: document <out.png> <width> <height> [background]");
+        }
+        Path output = outputDir.resolve(f[1]);
+        int w = integer(f[2]), h = integer(f[3]);
+        int bg = f.length > 4 ? color(f[4]) : Constants.DEFAULT_BG.getRGB();
+        CommandLog log = new CommandLog();
+        while ((f = nextLine()) != null && !f[0].equals("document")) {
+            operation(log, f, bg);
+            log.commit();
+        }
+        pending = f;
+        try {
+            return new BatchRenderer.Job(output, w, h, bg, log);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    // All remaining documents
+    public List<BatchRenderer.Job> readAll() throws IOException {
+        List<BatchRenderer.Job> jobs = new ArrayList<>();
+        for (BatchRenderer.Job j; (j = next()) != null; ) jobs.add(j);
+        return jobs;
+    }
+
+    private void operation(CommandLog log, String[] f, int bg) throws IOException {
+        if (f[0].equals("clear")) {
+            log.clear(f.length > 1 ? color(f[1]) : bg);
+            return;
+        }
+        if (f[0].equals("move") || f[0].equals("copy")) {
+            if (f.length != 7) throw error("expected: " + f[0] + " <x> <y> <width> <height> <dx> <dy>");
+            log.move(new Rectangle(integer(f[1]), integer(f[2]), integer(f[3]), integer(f[4])), integer(f[5]), integer(f[6]),
+                    f[0].equals("copy"));
+            return;
+        }
+        Tool tool;
+        try {
+            tool = Tool.valueOf(f[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw error("unknown operation '" + f[0] + "'");
+        }
+        switch (tool) {
+            case PENCIL, ERASER -> {
+                int p = tool == Tool.PENCIL ? 2 : 1;
+                if (f.length < p + 3 || (f.length - p - 1) % 2 != 0) throw error("expected: " + f[0] + (p == 2 ? " <color>" : "") + " <size> <x> <y> ...");
+                log.beginStroke(tool == Tool.PENCIL ? color(f[1]) : bg, integer(f[p]), integer(f[p + 1]), integer(f[p + 2]));
+                for (int i = p + 3; i < f.length; i += 2) log.strokePoint(integer(f[i]), integer(f[i + 1]));
+            }
+            case BRUSH, AIRBRUSH, CHALK -> {
+                if (f.length < 5 || (f.length - 3) % 2 != 0) throw error("expected: " + f[0] + " <color> <size> <x> <y> ...");
+                log.beginBrush(Brush.forTool(tool), color(f[1]), integer(f[2]), integer(f[3]), integer(f[4]));
+                for (int i = 5; i < f.length; i += 2) log.strokePoint(integer(f[i]), integer(f[i + 1]));
+            }
+            case FILL -> {
+                if (f.length < 4 || f.length > 6) throw error("expected: fill <color> <x> <y> [tolerance] [aa]");
+                log.fill(integer(f[2]), integer(f[3]), color(f[1]), f.length > 4 ? integer(f[4]) : 0,
+                        f.length > 5 && f[5].equals("aa"));
+            }
+            case SELECT -> throw error("unknown operation '" + f[0] + "' (use move or copy)");
+            case TEXT -> {
+                if (f.length < 8) throw error("expected: text <color> <x> <y> <font> <style> <size> <text...>");
+                String text = String.join(" ", Arrays.copyOfRange(f, 7, f.length));
+                log.text(integer(f[2]), integer(f[3]), color(f[1]), f[4], style(f[5]), integer(f[6]), text);
+            }
+            default -> {
+                if (f.length != 7) throw error("expected: " + f[0] + " <color> <size> <x0> <y0> <x1> <y1>");
+                log.shape(tool, color(f[1]), integer(f[2]), integer(f[3]), integer(f[4]), integer(f[5]), integer(f[6]));
+            }
+        }
+    }
+
+    private String[] nextLine() throws IOException {
+        for (String line; (line = in.readLine()) != null; ) {
+            lineNumber++;
+            line = line.strip();
+            if (!line.isEmpty() && line.charAt(0) != '#') return line.split("\\s+");
+        }
+        return null;
+    }
+
+    private int integer(String s) throws IOException {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw error("not a number: " + s);
+        }
+    }
+
+    private int color(String s) throws IOException {
+        if (s.startsWith("#") && (s.length() == 7 || s.length() == 9)) {
+            try {
+                long v = Long.parseLong(s.substring(1), 16);
+                return s.length() == 7 ? 0xFF000000 | (int) v : (int) v;
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        throw error("not a colour: " + s);
+    }
+
+    private int style(String s) throws IOException {
+        return switch (s) {
+            case "plain" -> Font.PLAIN;
+            case "bold" -> Font.BOLD;
+            case "italic" -> Font.ITALIC;
+            case "bolditalic" -> Font.BOLD | Font.ITALIC;
+            default -> throw error("unknown font style: " + s);
+        };
+    }
+
+    private IOException error(String message) {
+        return new IOException("line " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,175 @@
+package com.paintapp;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+// A rectangle of a document's pixels held as references to its tiles. The
+// tiles of a committed document are frozen, so selecting, copying and moving
+// copy no pixels: the selection floats over the canvas (paint()) until it is
+// dropped, and dropping replaces the pixels under it in only the tiles at its
+// new position, reusing the lifted tiles themselves where a move is by whole
+// tiles.
+public final class Selection {
+
+    private static final int TILE = TiledImage.TILE;
+
+    // where the pixels were taken from, and the tiles covering that area
+    private final Rectangle source;
+    private final Tile[] tiles;
+    private final int col0, row0, cols;
+    // the pixels were cut from the document (a move) rather than copied
+    private final boolean cut;
+    // whether the source still held these pixels when the selection was made
+    // floating, so a command log can replay the move from the source area
+    private final boolean replayable;
+    private int dx, dy;
+
+    private Selection(Rectangle source, Tile[] tiles, int col0, int row0, int cols, boolean cut, boolean replayable) {
+        this.source = source;
+        this.tiles = tiles;
+        this.col0 = col0;
+        this.row0 = row0;
+        this.cols = cols;
+        this.cut = cut;
+        this.replayable = replayable;
+    }
+
+    // The pixels of 'area' (clipped to the document), or null if none. Tiles
+    // edited since the last commit are copied; the rest are shared.
+    public static Selection copy(TiledImage doc, Rectangle area) {
+        Rectangle r = area.intersection(new Rectangle(0, 0, doc.getWidth(), doc.getHeight()));
+        if (r.isEmpty()) return null;
+        int col0 = r.x / TILE, row0 = r.y / TILE;
+        int cols = (r.x + r.width - 1) / TILE - col0 + 1, rows = (r.y + r.height - 1) / TILE - row0 + 1;
+        Tile[] tiles = new Tile[cols * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                Tile t = doc.tileAt(col0 + col, row0 + row);
+                if (!t.frozen) {
+                    t = Tile.copyOf(t);
+                    t.frozen = true;
+                }
+                tiles[row * cols + col] = t;
+            }
+        }
+        return new Selection(r, tiles, col0, row0, cols, false, true);
+    }
+
+    // Lifts 'area' out of the document, leaving its background behind
+    public static Selection cut(TiledImage doc, Rectangle area) {
+        Selection s = copy(doc, area);
+        if (s == null) return null;
+        clear(doc, s.source);
+        return new Selection(s.source, s.tiles, s.col0, s.row0, s.cols, true, true);
+    }
+
+    // A floating copy of these pixels at the same place, over 'doc' (to be
+    // pasted there); it can be replayed as a copy of the source area only if
+    // that still holds the same tiles
+    public Selection floatOver(TiledImage doc) {
+        boolean same = doc.getWidth() >= source.x + source.width && doc.getHeight() >= source.y + source.height;
+        for (int i = 0; same && i < tiles.length; i++) {
+            same = doc.tileAt(col0 + i % cols, row0 + i / cols) == tiles[i];
+        }
+        Selection s = new Selection(source, tiles, col0, row0, cols, false, same);
+        s.dx = dx;
+        s.dy = dy;
+        return s;
+    }
+
+    public Rectangle getSource() { return new Rectangle(source); }
+    public Rectangle getBounds() { return new Rectangle(source.x + dx, source.y + dy, source.width, source.height); }
+    public int getOffsetX() { return dx; }
+    public int getOffsetY() { return dy; }
+    public boolean isCut() { return cut; }
+    public boolean isReplayable() { return replayable; }
+
+    public void moveBy(int x, int y) {
+        dx += x;
+        dy += y;
+    }
+
+    // Fills 'r' with the document's background, a tile at a time
+    private static void clear(TiledImage doc, Rectangle r) {
+        int bg = doc.getBackground();
+        for (int row = r.y / TILE; row <= (r.y + r.height - 1) / TILE; row++) {
+            for (int col = r.x / TILE; col <= (r.x + r.width - 1) / TILE; col++) {
+                Rectangle part = r.intersection(new Rectangle(col * TILE, row * TILE, TILE, TILE));
+                if (part.width == TILE && part.height == TILE) {
+                    doc.setTile(col, row, doc.solidTile(bg));
+                    continue;
+                }
+                int[] px = doc.writableTile(col, row).pixels();
+                for (int y = part.y; y < part.y + part.height; y++) {
+                    int i = (y - row * TILE) * TILE + part.x - col * TILE;
+                    Arrays.fill(px, i, i + part.width, bg);
+                }
+            }
+        }
+    }
+
+    // Writes the pixels into the document at their current position; returns
+    // the area changed, or null if it is off the document
+    public Rectangle drop(TiledImage doc) {
+        Rectangle to = getBounds().intersection(new Rectangle(0, 0, doc.getWidth(), doc.getHeight()));
+        if (to.isEmpty()) return null;
+        boolean aligned = Math.floorMod(dx, TILE) == 0 && Math.floorMod(dy, TILE) == 0;
+        for (int row = to.y / TILE; row <= (to.y + to.height - 1) / TILE; row++) {
+            for (int col = to.x / TILE; col <= (to.x + to.width - 1) / TILE; col++) {
+                Rectangle part = to.intersection(new Rectangle(col * TILE, row * TILE, TILE, TILE));
+                if (aligned && part.width == TILE && part.height == TILE) {
+                    // a whole tile moved by whole tiles: put the lifted one back
+                    doc.setTile(col, row, tiles[(row - dy / TILE - row0) * cols + col - dx / TILE - col0]);
+                    continue;
+                }
+                int[] px = doc.writableTile(col, row).pixels();
+                for (int y = part.y; y < part.y + part.height; y++) {
+                    copyRow(y - dy, part.x - dx, part.width, px, (y - row * TILE) * TILE + part.x - col * TILE);
+                }
+            }
+        }
+        return to;
+    }
+
+    // Copies n source pixels of row sy from column sx into dst[d]
+    private void copyRow(int sy, int sx, int n, int[] dst, int d) {
+        int row = sy / TILE - row0, ty = sy % TILE;
+        while (n > 0) {
+            int col = sx / TILE - col0, tx = sx % TILE, len = Math.min(n, TILE - tx);
+            System.arraycopy(tiles[row * cols + col].pixels(), ty * TILE + tx, dst, d, len);
+            sx += len;
+            d += len;
+            n -= len;
+        }
+    }
+
+    // Draws the pixels at their current position, in document coordinates;
+    // only the tiles within the clip are drawn
+    public void paint(Graphics2D g) {
+        Rectangle clip = g.getClipBounds(), at = getBounds();
+        Rectangle visible = clip != null ? at.intersection(clip) : at;
+        if (visible.isEmpty()) return;
+        int x0 = visible.x - dx, y0 = visible.y - dy, x1 = x0 + visible.width, y1 = y0 + visible.height;
+        for (int row = y0 / TILE; row <= (y1 - 1) / TILE; row++) {
+            for (int col = x0 / TILE; col <= (x1 - 1) / TILE; col++) {
+                // the part of this tile inside the source area
+                int sx0 = Math.max(x0, col * TILE), sy0 = Math.max(y0, row * TILE);
+                int sx1 = Math.min(x1, (col + 1) * TILE), sy1 = Math.min(y1, (row + 1) * TILE);
+                g.drawImage(tiles[(row - row0) * cols + col - col0].getImage(),
+                        sx0 + dx, sy0 + dy, sx1 + dx, sy1 + dy,
+                        sx0 - col * TILE, sy0 - row * TILE, sx1 - col * TILE, sy1 - row * TILE, null);
+            }
+        }
+    }
+
+    // Replays a logged move: the pixels of 'source', cut unless 'copy',
+    // dropped (dx, dy) away. Returns the area changed.
+    public static Rectangle move(TiledImage doc, Rectangle source, int dx, int dy, boolean copy) {
+        Selection s = copy ? copy(doc, source) : cut(doc, source);
+        if (s == null) return null;
+        s.moveBy(dx, dy);
+        Rectangle to = s.drop(doc);
+        return copy ? to : to == null ? s.source : to.union(s.source);
+    }
+}
@@ -0,0 +1,121 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+// One freehand stroke, from mouse press to release. Keeps one BasicStroke and
+// one Graphics2D per document tile it has touched for the whole stroke, and
+// collects incoming points into a Path2D; flush() rasterizes only the part of
+// the path added since the last flush, so a burst of drag events becomes one
+// round-joined path instead of separately capped segments. Adding points does
+// not allocate.
+public class StrokeSession implements FreehandStroke {
+
+    private final TiledImage doc;
+    private final BasicStroke stroke;
+    private final Color color;
+    private final int pad;
+    private final Path2D.Float tail = new Path2D.Float(Path2D.WIND_NON_ZERO, 256);
+    private final Rectangle dirty = new Rectangle();
+    private int lastX, lastY;
+    private int minX, minY, maxX, maxY;
+    private boolean pending;
+
+    // graphics contexts of the tiles touched so far, looked up by tile key
+    private int[] tileKeys = new int[16];
+    private Tile[] tiles = new Tile[16];
+    private Graphics2D[] contexts = new Graphics2D[16];
+    private int tileCount;
+
+    public StrokeSession(TiledImage doc, int strokeSize, Color color, int x, int y) {
+        this.doc = doc;
+        this.stroke = new BasicStroke(strokeSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        this.color = color;
+        this.pad = strokeSize + 1;
+        tail.moveTo(x, y);
+        lastX = minX = maxX = x;
+        lastY = minY = maxY = y;
+        addPoint(x, y);
+    }
+
+    @Override
+    public void addPoint(int x, int y) {
+        tail.lineTo(x, y);
+        lastX = x;
+        lastY = y;
+        if (x < minX) minX = x;
+        if (x > maxX) maxX = x;
+        if (y < minY) minY = y;
+        if (y > maxY) maxY = y;
+        pending = true;
+    }
+
+    public boolean hasPending() { return pending; }
+
+    // Draws the points added since the last flush. Returns the area touched
+    // (a rectangle reused between calls), or null if nothing was pending.
+    @Override
+    public Rectangle flush() {
+        if (!pending) return null;
+        dirty.setBounds(minX - pad, minY - pad, maxX - minX + 2 * pad + 1, maxY - minY + 2 * pad + 1);
+        int x0 = Math.max(0, dirty.x), y0 = Math.max(0, dirty.y);
+        int x1 = Math.min(doc.getWidth(), dirty.x + dirty.width) - 1;
+        int y1 = Math.min(doc.getHeight(), dirty.y + dirty.height) - 1;
+        for (int row = y0 / TiledImage.TILE; row <= y1 / TiledImage.TILE && x0 <= x1; row++) {
+            for (int col = x0 / TiledImage.TILE; col <= x1 / TiledImage.TILE; col++) {
+                contextFor(col, row).draw(tail);
+            }
+        }
+
+        tail.reset();
+        tail.moveTo(lastX, lastY);
+        minX = maxX = lastX;
+        minY = maxY = lastY;
+        pending = false;
+        return dirty;
+    }
+
+    // Flushes what is left and releases the graphics contexts
+    @Override
+    public Rectangle end() {
+        Rectangle r = flush();
+        for (int i = 0; i < tileCount; i++) contexts[i].dispose();
+        tileCount = 0;
+        return r;
+    }
+
+    private Graphics2D contextFor(int col, int row) {
+        int key = TiledImage.key(col, row);
+        Tile current = doc.tileAt(col, row);
+        for (int i = 0; i < tileCount; i++) {
+            if (tileKeys[i] == key) {
+                if (tiles[i] == current && !current.frozen) return contexts[i];
+                // the tile was swapped (e.g. frozen by a commit): start a new context
+                contexts[i].dispose();
+                tiles[i] = doc.writableTile(col, row);
+                contexts[i] = newContext(tiles[i], col, row);
+                return contexts[i];
+            }
+        }
+        if (tileCount == tileKeys.length) {
+            tileKeys = Arrays.copyOf(tileKeys, tileCount * 2);
+            tiles = Arrays.copyOf(tiles, tileCount * 2);
+            contexts = Arrays.copyOf(contexts, tileCount * 2);
+        }
+        Tile t = doc.writableTile(col, row);
+        tileKeys[tileCount] = key;
+        tiles[tileCount] = t;
+        contexts[tileCount] = newContext(t, col, row);
+        return contexts[tileCount++];
+    }
+
+    private Graphics2D newContext(Tile t, int col, int row) {
+        Graphics2D g = t.createGraphics(col * TiledImage.TILE, row * TiledImage.TILE);
+        g.setStroke(stroke);
+        g.setColor(color);
+        // a transparent colour erases (layers above the background)
+        if (color.getAlpha() == 0) g.setComposite(AlphaComposite.Src);
+        return g;
+    }
+}
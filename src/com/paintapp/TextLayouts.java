@@ -0,0 +1,50 @@
+package com.paintapp;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Fonts and text layouts for the TEXT tool and its replay, in small LRUs: a
+// click or a replayed command with the same font and text reuses the Font
+// and the pixel bounds of its GlyphVector instead of creating and shaping
+// them again. The text itself is still drawn with drawString.
+final class TextLayouts {
+
+    // as tiles draw: no antialiasing or fractional metrics
+    static final FontRenderContext FRC = new FontRenderContext(null, false, false);
+
+    private static final int MAX_FONTS = 64, MAX_LAYOUTS = 512;
+
+    private static final Map<String, Font> FONTS = lru(MAX_FONTS);
+    private static final Map<Map.Entry<Font, String>, Rectangle> BOUNDS = lru(MAX_LAYOUTS);
+
+    private TextLayouts() {}
+
+    private static <K, V> Map<K, V> lru(int max) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > max;
+            }
+        };
+    }
+
+    static Font font(String name, int style, int size) {
+        synchronized (FONTS) {
+            return FONTS.computeIfAbsent(name + '\0' + style + '\0' + size, k -> new Font(name, style, size));
+        }
+    }
+
+    // Pixels covered by 'text' drawn at (x, y)
+    static Rectangle bounds(Font font, String text, int x, int y) {
+        Rectangle r;
+        synchronized (BOUNDS) {
+            r = BOUNDS.computeIfAbsent(new AbstractMap.SimpleImmutableEntry<>(font, text),
+                    k -> font.createGlyphVector(FRC, text).getPixelBounds(FRC, 0, 0));
+        }
+        return new Rectangle(r.x + x, r.y + y, r.width, r.height);
+    }
+}
@@ -0,0 +1,199 @@
+package com.paintapp;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+// One square block of document pixels. Tiles become frozen (immutable) once
+// they are committed to history; TiledImage copies a frozen tile before the
+// next write to it. Solid tiles hold a single colour and are shared between
+// every slot of that colour, so blank areas cost no pixel memory.
+//
+// A tile created with a TileStore may be paged out once frozen: its pixels are
+// then dropped from the heap and read back from the store on the next access.
+// Tiles opened from a project file start out with no pixels at all and are
+// decoded from the file the first time they are read.
+//
+// Heap tiles that only the undo history still needs may be packed (deflated)
+// and their pixels dropped, and later spilled to the history's scratch file;
+// they are decoded again on the next read.
+public final class Tile {
+
+    private final int size;
+    private volatile BufferedImage image;
+    private volatile int[] pixels;
+    final boolean solid;
+    final int color;
+    boolean frozen;
+
+    // set by TileStore: where the pixels live while paged out (-1 = nowhere yet)
+    final TileStore store;
+    int slot = -1;
+
+    // where the pixels of a tile opened from a project file are encoded
+    final ProjectFile source;
+    final int sourceId;
+
+    // set by the history tiers: the packed pixels, on the heap or spilled
+    private byte[] packed;
+    private HistorySpill spill;
+    private long spillAt;
+    private int spillLength;
+
+    private Tile(int size, boolean solid, int color, TileStore store) {
+        this.size = size;
+        this.solid = solid;
+        this.color = color;
+        this.store = store;
+        this.source = null;
+        this.sourceId = -1;
+        allocate();
+        if (solid) {
+            Arrays.fill(pixels, color);
+            frozen = true;
+        }
+    }
+
+    static Tile solid(int size, int rgb) {
+        return new Tile(size, true, rgb, null);
+    }
+
+    // A new writable tile (contents undefined until written)
+    static Tile create(int size, TileStore store) {
+        Tile t = new Tile(size, false, 0, store);
+        if (store != null) store.admit(t);
+        return t;
+    }
+
+    // A frozen tile whose pixels stay in 'source' until first read
+    static Tile lazy(int size, TileStore store, ProjectFile source, int sourceId) {
+        return new Tile(size, store, source, sourceId);
+    }
+
+    private Tile(int size, TileStore store, ProjectFile source, int sourceId) {
+        this.size = size;
+        this.solid = false;
+        this.color = 0;
+        this.store = store;
+        this.source = source;
+        this.sourceId = sourceId;
+        this.frozen = true;
+    }
+
+    static Tile copyOf(Tile src) {
+        return copyOf(src, src.store);
+    }
+
+    static Tile copyOf(Tile src, TileStore store) {
+        Tile t = new Tile(src.size, false, 0, store);
+        System.arraycopy(src.pixels(), 0, t.pixels, 0, t.pixels.length);
+        if (store != null) store.admit(t);
+        return t;
+    }
+
+    public int getSize() { return size; }
+    public boolean isSolid() { return solid; }
+    public BufferedImage getImage() { return image(); }
+
+    // Pixel array and image of the tile, paged in from the store if needed.
+    // Callers keep the returned reference for the duration of one access.
+    int[] pixels() {
+        int[] p = pixels;
+        if (p == null) return store != null ? store.pageIn(this) : load();
+        if (store != null) store.touch(this);
+        return p;
+    }
+
+    BufferedImage image() {
+        BufferedImage img = image;
+        if (img != null) {
+            if (store != null) store.touch(this);
+            return img;
+        }
+        while ((img = image) == null) {
+            if (store != null) store.pageIn(this);
+            else load();
+        }
+        return img;
+    }
+
+    // Decodes a file-backed or packed tile without a store; it then stays on
+    // the heap until the history drops it again
+    private synchronized int[] load() {
+        int[] p = pixels;
+        if (p != null) return p;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        p = ImageUtils.pixels(img);
+        if (source != null) source.decode(sourceId, p);
+        else TileCodec.inflate(packed != null ? packed : spill.read(spillAt, spillLength), p);
+        image = img;
+        pixels = p;
+        return p;
+    }
+
+    // HISTORY TIERS
+    // Packs a frozen heap tile (once); returns the heap bytes that took
+    synchronized int pack() {
+        if (solid || !frozen || store != null || source != null || packed != null || spill != null) return 0;
+        packed = TileCodec.deflate(pixels());
+        return packed.length;
+    }
+
+    // Moves the packed pixels to 'to'; returns the heap bytes freed
+    synchronized int spillTo(HistorySpill to) throws IOException {
+        if (packed == null) return 0;
+        spillAt = to.write(packed);
+        spillLength = packed.length;
+        spill = to;
+        packed = null;
+        return spillLength;
+    }
+
+    // Drops the pixels of a tile that can be decoded again
+    synchronized void dropPixels() {
+        if (store == null && (packed != null || spill != null || source != null)) {
+            image = null;
+            pixels = null;
+        }
+    }
+
+    // The packed pixels (TileCodec), or null if the tile is not packed
+    synchronized byte[] packedPixels() {
+        return packed != null ? packed : spill != null ? spill.read(spillAt, spillLength) : null;
+    }
+
+    // Store side of paging; only called by TileStore while it holds its lock
+    int[] allocate() {
+        BufferedImage img = store != null ? store.reuseImage() : null;
+        if (img == null) img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        int[] p = ImageUtils.pixels(img);
+        pixels = p;
+        image = img;
+        return p;
+    }
+
+    int[] residentPixels() { return pixels; }
+
+    BufferedImage drop() {
+        BufferedImage img = image;
+        image = null;
+        pixels = null;
+        return img;
+    }
+
+    // Pixel memory owned by this tile (shared solid tiles count as free)
+    long byteSize() {
+        return solid ? 0 : (long) size * size * 4;
+    }
+
+    boolean samePixels(Tile other) {
+        return Arrays.equals(pixels(), other.pixels());
+    }
+
+    Graphics2D createGraphics(int originX, int originY) {
+        Graphics2D g = image().createGraphics();
+        g.translate(-originX, -originY);
+        return g;
+    }
+}
@@ -0,0 +1,60 @@
+package com.paintapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Deflate of tile pixels (little-endian ints, zlib stream, fastest level):
+// the same encoding as DEFLATE tiles in project files, so packed history
+// tiles can be saved as they are
+final class TileCodec {
+
+    private static final int TILE_BYTES = Constants.TILE_SIZE * Constants.TILE_SIZE * 4;
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<ByteBuffer> RAW = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocate(TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+    private static final ThreadLocal<byte[]> OUT = ThreadLocal.withInitial(() -> new byte[TILE_BYTES + TILE_BYTES / 8]);
+
+    private TileCodec() { }
+
+    static byte[] deflate(int[] pixels) {
+        ByteBuffer raw = RAW.get();
+        raw.clear();
+        raw.asIntBuffer().put(pixels);
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, pixels.length * 4);
+        deflater.finish();
+        byte[] out = OUT.get();
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == out.length) OUT.set(out = Arrays.copyOf(out, out.length * 2));
+            len += deflater.deflate(out, len, out.length - len);
+        }
+        return Arrays.copyOf(out, len);
+    }
+
+    static void inflate(byte[] packed, int[] dst) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(packed);
+        ByteBuffer raw = RAW.get();
+        raw.clear();
+        try {
+            int len = 0, want = dst.length * 4;
+            while (len < want && !inflater.finished()) {
+                int n = inflater.inflate(raw.array(), len, want - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                len += n;
+            }
+            if (len < want) throw new IllegalStateException("Truncated tile data");
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt tile data", e);
+        }
+        raw.asIntBuffer().get(dst);
+    }
+}
@@ -0,0 +1,372 @@
+package com.paintapp;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Undo/redo history that stores only the tiles an operation changed.
+// The document's copy-on-write tiles make this cheap: a commit takes the
+// tiles replaced since the last commit, and each entry keeps references to
+// the old and new (frozen, immutable) tiles. Old tiles are shared with the
+// previous entry rather than copied, so an entry owns only its new tiles.
+// Each entry remembers the image it changed, so one history serves all layers.
+//
+// Entries live in three tiers instead of being dropped when memory runs out:
+//   hot   - raw pixels on the heap, up to the memory budget; the entries
+//           most recently committed, undone or redone
+//   warm  - pixels packed (deflated) on a background thread and the raw
+//           pixels dropped, up to the packed budget
+//   cold  - packed pixels spilled to a scratch file, up to the spill budget;
+//           only beyond that are the oldest entries dropped
+// Undoing a packed or spilled entry just puts its tiles back; they are
+// decoded when first painted. Byte counts are approximate where entries
+// share tiles.
+public class TileHistory {
+
+    private static final long ENTRY_OVERHEAD = 64;
+
+    static final class Entry {
+        final TiledImage doc;
+        final int[] keys;
+        final Tile[] before;
+        final Tile[] after;
+        final long bytes;
+
+        // tier state, guarded by the entry itself
+        volatile boolean warm;
+        boolean pending, packed, spilling, spilled, dropped;
+        int packedBytes;
+        long spilledBytes;
+
+        Entry(TiledImage doc, TiledImage.Changes c) {
+            this(doc, c.keys, c.before, c.after);
+        }
+
+        Entry(TiledImage doc, int[] keys, Tile[] before, Tile[] after) {
+            this.doc = doc;
+            this.keys = keys;
+            this.before = before;
+            this.after = after;
+            long b = ENTRY_OVERHEAD;
+            for (Tile t : after) b += t.byteSize();
+            this.bytes = b;
+        }
+    }
+
+    private final long memoryBudget, packedBudget, spillBudget;
+    private final Path spillDir;
+    private final ArrayDeque<Entry> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<Entry> redoStack = new ArrayDeque<>();
+    private long bytesUsed;
+    private TiledImage lastTarget;
+
+    // least recently used first
+    private final LinkedHashSet<Entry> hot = new LinkedHashSet<>();
+    private final LinkedHashSet<Entry> warm = new LinkedHashSet<>();
+    private final AtomicLong packedBytes = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    // raw bytes of warm entries still waiting for the packer
+    private final AtomicLong pendingBytes = new AtomicLong();
+    // entries packed in the background whose raw pixels can now be dropped
+    private final Queue<Entry> packedQueue = new ConcurrentLinkedQueue<>();
+    private ExecutorService packer;
+    private HistorySpill spill;
+
+    public TileHistory(long memoryBudget) {
+        this(memoryBudget, Constants.UNDO_PACKED_BUDGET, Constants.UNDO_SPILL_BUDGET,
+                Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    // Budgets of raw, packed and spilled bytes; the scratch file goes in spillDir
+    public TileHistory(long memoryBudget, long packedBudget, long spillBudget, Path spillDir) {
+        this.memoryBudget = memoryBudget;
+        this.packedBudget = packedBudget;
+        this.spillBudget = spillBudget;
+        this.spillDir = spillDir;
+    }
+
+    // Drops all entries; the document's current state becomes the base state
+    public void reset(TiledImage doc) {
+        for (Entry e : undoStack) release(e);
+        for (Entry e : redoStack) release(e);
+        undoStack.clear();
+        redoStack.clear();
+        doc.takeChanges();
+    }
+
+    // Records the tiles changed since the last commit. Returns the area they
+    // cover, or null if nothing changed.
+    public Rectangle commit(TiledImage doc) {
+        TiledImage.Changes changes = doc.takeChanges();
+        if (changes.size() == 0) return null;
+
+        releaseRedo();
+        Entry e = new Entry(doc, changes);
+        undoStack.push(e);
+        touch(e);
+        balance();
+        return area(e.keys);
+    }
+
+    // Undo/redo return the area they restored, or null if there was nothing
+    // to do; getLastTarget() then tells which image it was in
+    public Rectangle undo() {
+        if (undoStack.isEmpty()) return null;
+        Entry e = undoStack.pop();
+        redoStack.push(e);
+        lastTarget = e.doc;
+        touch(e);
+        balance();
+        return apply(e.doc, e.keys, e.before);
+    }
+
+    public Rectangle redo() {
+        if (redoStack.isEmpty()) return null;
+        Entry e = redoStack.pop();
+        undoStack.push(e);
+        lastTarget = e.doc;
+        touch(e);
+        balance();
+        return apply(e.doc, e.keys, e.after);
+    }
+
+    public TiledImage getLastTarget() { return lastTarget; }
+
+    // Drops the entries of an image that is gone (a deleted layer)
+    public void forget(TiledImage doc) {
+        for (ArrayDeque<Entry> stack : List.of(undoStack, redoStack)) {
+            stack.removeIf(e -> {
+                if (e.doc != doc) return false;
+                release(e);
+                return true;
+            });
+        }
+    }
+
+    public int getUndoDepth() { return undoStack.size(); }
+    public int getRedoDepth() { return redoStack.size(); }
+    // raw pixel bytes of the hot entries
+    public long getBytesUsed() { return bytesUsed; }
+    public long getMemoryBudget() { return memoryBudget; }
+    public long getPackedBytes() { return packedBytes.get(); }
+    public long getSpilledBytes() { return spilledBytes.get(); }
+    public int getHotCount() { return hot.size(); }
+    public int getWarmCount() { return warm.size(); }
+
+    // The entries, most recent first (used to save and reopen projects)
+    List<Entry> undoEntries() { return new ArrayList<>(undoStack); }
+    List<Entry> redoEntries() { return new ArrayList<>(redoStack); }
+
+    // Replaces the history with saved entries
+    void restore(List<Entry> undo, List<Entry> redo) {
+        for (Entry e : undoStack) release(e);
+        for (Entry e : redoStack) release(e);
+        undoStack.clear();
+        redoStack.clear();
+        undoStack.addAll(undo);
+        redoStack.addAll(redo);
+        // oldest first, so the most recent entries end up hot
+        for (Iterator<Entry> it = undoStack.descendingIterator(); it.hasNext(); ) touch(it.next());
+        for (Iterator<Entry> it = redoStack.descendingIterator(); it.hasNext(); ) touch(it.next());
+        balance();
+    }
+
+    private void releaseRedo() {
+        for (Entry e : redoStack) release(e);
+        redoStack.clear();
+    }
+
+    // TIERS
+    // Makes 'e' the most recently used hot entry
+    private void touch(Entry e) {
+        if (hot.remove(e)) {
+            hot.add(e);
+            return;
+        }
+        warm.remove(e);
+        e.warm = false;
+        synchronized (e) {
+            unpend(e);
+        }
+        hot.add(e);
+        bytesUsed += e.bytes;
+    }
+
+    // Takes an entry out of the tiers and its bytes out of the counts
+    private void release(Entry e) {
+        if (hot.remove(e)) bytesUsed -= e.bytes;
+        warm.remove(e);
+        synchronized (e) {
+            e.dropped = true;
+            unpend(e);
+            if (e.packed && !e.spilled) packedBytes.addAndGet(-e.packedBytes);
+            spilledBytes.addAndGet(-e.spilledBytes);
+        }
+    }
+
+    private void balance() {
+        // hot -> warm: pack in the background
+        while (bytesUsed > memoryBudget && hot.size() > 1) {
+            Iterator<Entry> it = hot.iterator();
+            Entry e = it.next();
+            it.remove();
+            bytesUsed -= e.bytes;
+            e.warm = true;
+            warm.add(e);
+            synchronized (e) {
+                if (!e.packed) {
+                    e.pending = true;
+                    pendingBytes.addAndGet(e.bytes);
+                }
+            }
+            packer().execute(() -> pack(e));
+        }
+        // when the packer falls behind, help it rather than let raw pixels pile up
+        long lag = memoryBudget / 4;
+        for (Iterator<Entry> it = warm.iterator(); pendingBytes.get() > lag && it.hasNext(); ) {
+            Entry e = it.next();
+            boolean pending;
+            synchronized (e) {
+                pending = e.pending;
+            }
+            if (pending) pack(e);
+        }
+        // drop the raw pixels of what has been packed, unless it is on screen
+        for (Entry e; (e = packedQueue.poll()) != null; ) {
+            if (!e.warm) continue;
+            for (int i = 0; i < e.keys.length; i++) {
+                if (!isCurrent(e.doc, e.keys[i], e.after[i])) e.after[i].dropPixels();
+            }
+        }
+        // warm -> cold: spill the least recently used packed entries
+        long heap = packedBytes.get();
+        for (Iterator<Entry> it = warm.iterator(); heap > packedBudget && it.hasNext(); ) {
+            Entry e = it.next();
+            synchronized (e) {
+                if (!e.packed) break;
+                if (e.spilling) continue;
+                e.spilling = true;
+            }
+            if (heap > packedBudget + lag) spill(e);
+            else packer().execute(() -> spill(e));
+            heap -= e.packedBytes;
+        }
+        // beyond the spill budget the oldest entries go
+        while (spilledBytes.get() > spillBudget && undoStack.size() > 1) {
+            release(undoStack.removeLast());
+        }
+    }
+
+    // Background: packs the tiles the entry owns
+    private void pack(Entry e) {
+        synchronized (e) {
+            if (e.dropped || !e.warm) return;
+            if (!e.packed) {
+                int n = 0;
+                long offHeap = 0;
+                for (Tile t : e.after) {
+                    n += t.pack();
+                    // tiles paged through a TileStore are off the heap already
+                    if (t.store != null) offHeap += t.byteSize();
+                }
+                unpend(e);
+                e.packed = true;
+                e.packedBytes = n;
+                e.spilledBytes = offHeap;
+                packedBytes.addAndGet(n);
+                spilledBytes.addAndGet(offHeap);
+            }
+        }
+        packedQueue.add(e);
+    }
+
+    // Background: moves the entry's packed tiles to the scratch file
+    private void spill(Entry e) {
+        synchronized (e) {
+            if (e.dropped || e.spilled) return;
+            try {
+                HistorySpill to = spillFile();
+                long n = 0;
+                for (Tile t : e.after) n += t.spillTo(to);
+                e.spilled = true;
+                packedBytes.addAndGet(-e.packedBytes);
+                spilledBytes.addAndGet(n);
+                e.spilledBytes += n;
+            } catch (IOException ex) {
+                // the packed tiles stay on the heap
+                e.spilling = false;
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    // Waits for the background packing, then for the spilling that follows
+    // from it (benchmarks)
+    void awaitPacking() {
+        try {
+            packer().submit(() -> { }).get();
+            balance();
+            packer().submit(() -> { }).get();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Caller holds the entry's lock
+    private void unpend(Entry e) {
+        if (e.pending) {
+            e.pending = false;
+            pendingBytes.addAndGet(-e.bytes);
+        }
+    }
+
+    private synchronized HistorySpill spillFile() throws IOException {
+        if (spill == null) spill = new HistorySpill(spillDir);
+        return spill;
+    }
+
+    private synchronized ExecutorService packer() {
+        if (packer == null) {
+            packer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "paint-history");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+        return packer;
+    }
+
+    private static boolean isCurrent(TiledImage doc, int key, Tile t) {
+        int col = TiledImage.keyCol(key), row = TiledImage.keyRow(key);
+        return col < doc.getColumns() && row < doc.getRows() && doc.tileAt(col, row) == t;
+    }
+
+    private static Rectangle apply(TiledImage doc, int[] keys, Tile[] tiles) {
+        for (int i = 0; i < keys.length; i++) {
+            doc.restoreTile(keys[i], tiles[i]);
+        }
+        return area(keys);
+    }
+
+    private static Rectangle area(int[] keys) {
+        Rectangle area = null;
+        for (int k : keys) {
+            Rectangle r = new Rectangle(TiledImage.keyCol(k) * TiledImage.TILE, TiledImage.keyRow(k) * TiledImage.TILE,
+                    TiledImage.TILE, TiledImage.TILE);
+            area = area == null ? r : area.union(r);
+        }
+        return area;
+    }
+}
@@ -0,0 +1,200 @@
+package com.paintapp;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Pages tile pixels out to a memory-mapped scratch file so a document can be
+// much larger than the heap. Tiles stay on-heap while they are hot; an LRU
+// over the resident tiles keeps their pixel memory under a fixed budget by
+// paging out the least recently used ones.
+//
+// Only frozen tiles are paged out. They never change again, so dropping their
+// arrays is safe at any time (a reader keeps its own reference) and a tile is
+// written to the file at most once. Tiles being edited stay resident until the
+// next history commit freezes them.
+//
+// The images of paged-out tiles are reused for later page-ins instead of
+// becoming garbage, which keeps paging from driving the GC. They are only
+// handed out again after the next history commit, so code that reads tile
+// pixels must not hold on to them across edit operations - unless it reads
+// between beginRead() and endRead(), which hold back reuse (background
+// writers such as the session journal).
+//
+// Tiles opened from a project file are never written here: paging one out
+// just drops its pixels, and paging it in decodes it from the file again.
+public class TileStore implements Closeable {
+
+    private static final int CHUNK_BYTES = 64 << 20;
+    private static final int MAX_SPARE_IMAGES = 256;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final long cacheBudget;
+    private final int tileBytes;
+    private final int slotsPerChunk;
+    private final Path file;
+    private final FileChannel channel;
+    private final List<IntBuffer> chunks = new ArrayList<>();
+    private final LinkedHashMap<Tile, Boolean> resident = new LinkedHashMap<>(256, 0.75f, true);
+    private long residentBytes;
+    private final ArrayList<BufferedImage> retired = new ArrayList<>();
+    private final ArrayList<BufferedImage> spare = new ArrayList<>();
+
+    // slots of tiles that were garbage collected, reused before the file grows
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int slotCount;
+    private long pageIns, pageOuts;
+    private int readers;
+
+    public TileStore(Path dir, long cacheBudget) throws IOException {
+        this.cacheBudget = cacheBudget;
+        this.tileBytes = Constants.TILE_SIZE * Constants.TILE_SIZE * 4;
+        this.slotsPerChunk = CHUNK_BYTES / tileBytes;
+        this.file = Files.createTempFile(dir, "paint", ".tiles");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        file.toFile().deleteOnExit();
+    }
+
+    // Store in the default temp directory, or null (on-heap tiles) when the
+    // scratch file cannot be created
+    public static TileStore openScratch(long cacheBudget) {
+        try {
+            return new TileStore(Path.of(System.getProperty("java.io.tmpdir")), cacheBudget);
+        } catch (IOException e) {
+            System.err.println("Tile scratch file unavailable, keeping tiles on the heap: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public long getCacheBudget() { return cacheBudget; }
+    public synchronized long getResidentBytes() { return residentBytes; }
+    public synchronized int getResidentTiles() { return resident.size(); }
+    public synchronized int getStoredTiles() { return slotCount - freeCount; }
+    public synchronized long getFileBytes() { return (long) chunks.size() * CHUNK_BYTES; }
+    public synchronized long getPageIns() { return pageIns; }
+    public synchronized long getPageOuts() { return pageOuts; }
+
+    // A new tile with its own pixels
+    synchronized void admit(Tile t) {
+        resident.put(t, Boolean.TRUE);
+        residentBytes += t.byteSize();
+        evict();
+    }
+
+    // A tile that was replaced before it was ever frozen; nobody refers to it
+    synchronized void discard(Tile t) {
+        if (resident.remove(t) != null) residentBytes -= t.byteSize();
+    }
+
+    synchronized void touch(Tile t) {
+        resident.get(t);
+    }
+
+    synchronized int[] pageIn(Tile t) {
+        int[] p = t.residentPixels();
+        if (p != null) {
+            resident.get(t);
+            return p;
+        }
+        p = t.allocate();
+        if (t.slot >= 0) slice(t.slot).get(p);
+        else t.source.decode(t.sourceId, p);
+        pageIns++;
+        resident.put(t, Boolean.TRUE);
+        residentBytes += t.byteSize();
+        evict();
+        return p;
+    }
+
+    // Pages out frozen tiles, oldest first, until the budget is met again.
+    // Called on every admission and after each history commit.
+    synchronized void evict() {
+        if (residentBytes <= cacheBudget) return;
+        Iterator<Tile> it = resident.keySet().iterator();
+        while (residentBytes > cacheBudget && it.hasNext()) {
+            Tile t = it.next();
+            if (!t.frozen) continue;
+            if (t.slot < 0 && t.source == null) {
+                t.slot = allocateSlot();
+                slice(t.slot).put(t.residentPixels());
+                pageOuts++;
+                int slot = t.slot;
+                CLEANER.register(t, () -> releaseSlot(slot));
+            }
+            BufferedImage img = t.drop();
+            if (retired.size() + spare.size() < MAX_SPARE_IMAGES) retired.add(img);
+            it.remove();
+            residentBytes -= t.byteSize();
+        }
+    }
+
+    // Makes the images dropped since the last call reusable; called at history
+    // commits, when no operation is reading tile pixels
+    synchronized void recycle() {
+        if (readers > 0) return;
+        spare.addAll(retired);
+        retired.clear();
+    }
+
+    public synchronized void beginRead() {
+        readers++;
+    }
+
+    public synchronized void endRead() {
+        readers--;
+    }
+
+    synchronized BufferedImage reuseImage() {
+        return spare.isEmpty() ? null : spare.remove(spare.size() - 1);
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) return freeSlots[--freeCount];
+        int slot = slotCount++;
+        if (slot / slotsPerChunk >= chunks.size()) {
+            try {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * CHUNK_BYTES, CHUNK_BYTES);
+                chunks.add(buf.order(ByteOrder.nativeOrder()).asIntBuffer());
+            } catch (IOException e) {
+                throw new IllegalStateException("Tile scratch file is full", e);
+            }
+        }
+        return slot;
+    }
+
+    private synchronized void releaseSlot(int slot) {
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    private IntBuffer slice(int slot) {
+        int ints = tileBytes / 4;
+        IntBuffer chunk = chunks.get(slot / slotsPerChunk).duplicate();
+        chunk.position((slot % slotsPerChunk) * ints).limit((slot % slotsPerChunk + 1) * ints);
+        return chunk;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        resident.clear();
+        retired.clear();
+        spare.clear();
+        chunks.clear();
+        channel.close();
+    }
+}
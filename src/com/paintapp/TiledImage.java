@@ -0,0 +1,383 @@
+package com.paintapp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+// Sparse document image made of TILE_SIZE x TILE_SIZE tiles. Untouched areas
+// share one solid background tile, so memory grows with the painted area and
+// not with the document size. Writes go through copy-on-write: the first write
+// to a frozen tile replaces it with a private copy, and the replaced tile is
+// remembered until takeChanges() hands the changes to the history.
+//
+// Implements RenderedImage (one raster per tile) so ImageIO can stream it.
+// With a TileStore, committed tiles are paged out to a scratch file once the
+// on-heap tile cache is full.
+public class TiledImage implements RenderedImage {
+
+    public static final int TILE = Constants.TILE_SIZE;
+    private static final int MAX_SOLID_TILES = 64;
+
+    // Tiles are addressed by key = (row << 16) | col, which stays valid when the grid grows
+    public static int key(int col, int row) { return (row << 16) | col; }
+    public static int keyCol(int key) { return key & 0xFFFF; }
+    public static int keyRow(int key) { return key >>> 16; }
+
+    private int width, height;
+    private int cols, rows;
+    private Tile[] grid;
+    private final int backgroundRgb;
+    private final TileStore store;
+    private final Map<Integer, Tile> solidTiles = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+            return size() > MAX_SOLID_TILES;
+        }
+    };
+
+    // changes since the last takeChanges(): slot -> tile it replaced
+    private boolean[] touched;
+    private int[] touchedKeys = new int[64];
+    private Tile[] touchedOriginals = new Tile[64];
+    private int touchedCount;
+
+    public TiledImage(int width, int height, int backgroundRgb) {
+        this(width, height, backgroundRgb, null);
+    }
+
+    public TiledImage(int width, int height, int backgroundRgb, TileStore store) {
+        this.backgroundRgb = backgroundRgb;
+        this.store = store;
+        this.grid = new Tile[0];
+        this.touched = new boolean[0];
+        resize(width, height);
+    }
+
+    // A document that starts out as a snapshot; its tiles are shared until written
+    public TiledImage(Snapshot snapshot, TileStore store) {
+        this.backgroundRgb = snapshot.backgroundRgb;
+        this.store = store;
+        this.width = snapshot.width;
+        this.height = snapshot.height;
+        this.cols = snapshot.cols;
+        this.rows = snapshot.rows;
+        this.grid = snapshot.grid.clone();
+        this.touched = new boolean[grid.length];
+    }
+
+    @Override public int getWidth() { return width; }
+    @Override public int getHeight() { return height; }
+    public int getColumns() { return cols; }
+    public int getRows() { return rows; }
+    public int getBackground() { return backgroundRgb; }
+    public TileStore getStore() { return store; }
+
+    // Changes the logical size. Growing adds background tiles; shrinking keeps
+    // the tiles so their content comes back if the document grows again.
+    public void resize(int w, int h) {
+        int newCols = Math.max(cols, (w + TILE - 1) / TILE);
+        int newRows = Math.max(rows, (h + TILE - 1) / TILE);
+        if (newCols > 0xFFFF || newRows > 0xFFFF) throw new IllegalArgumentException("Document too large: " + w + "x" + h);
+        if (newCols != cols || newRows != rows) {
+            Tile bg = solidTile(backgroundRgb);
+            Tile[] g = new Tile[newCols * newRows];
+            boolean[] t = new boolean[g.length];
+            Arrays.fill(g, bg);
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(grid, r * cols, g, r * newCols, cols);
+                System.arraycopy(touched, r * cols, t, r * newCols, cols);
+            }
+            grid = g;
+            touched = t;
+            cols = newCols;
+            rows = newRows;
+        }
+        width = w;
+        height = h;
+    }
+
+    // ---------------------------------------------------------------
+    // Tile access
+    // ---------------------------------------------------------------
+
+    public Tile tileAt(int col, int row) {
+        return grid[row * cols + col];
+    }
+
+    public Tile tileAt(int key) {
+        return tileAt(keyCol(key), keyRow(key));
+    }
+
+    // The tile at (col, row), copied first if it is frozen or shared
+    public Tile writableTile(int col, int row) {
+        int slot = row * cols + col;
+        Tile t = grid[slot];
+        if (!t.frozen) return t;
+        Tile copy = Tile.copyOf(t, store);
+        replace(slot, copy);
+        return copy;
+    }
+
+    // Puts a tile into a slot as part of an edit (recorded for history)
+    public void setTile(int col, int row, Tile tile) {
+        replace(row * cols + col, tile);
+    }
+
+    // Puts a tile back without recording it (used by undo/redo and loading)
+    void restoreTile(int key, Tile tile) {
+        grid[keyRow(key) * cols + keyCol(key)] = tile;
+    }
+
+    public Tile solidTile(int rgb) {
+        Tile t = solidTiles.get(rgb);
+        if (t == null) {
+            t = Tile.solid(TILE, rgb);
+            solidTiles.put(rgb, t);
+        }
+        return t;
+    }
+
+    private void replace(int slot, Tile tile) {
+        Tile old = grid[slot];
+        if (!old.frozen && old != tile && store != null) store.discard(old);
+        if (!touched[slot]) {
+            touched[slot] = true;
+            if (touchedCount == touchedKeys.length) {
+                touchedKeys = Arrays.copyOf(touchedKeys, touchedCount * 2);
+                touchedOriginals = Arrays.copyOf(touchedOriginals, touchedCount * 2);
+            }
+            touchedKeys[touchedCount] = key(slot % cols, slot / cols);
+            touchedOriginals[touchedCount] = grid[slot];
+            touchedCount++;
+        }
+        grid[slot] = tile;
+    }
+
+    // Tiles changed since the last call, as parallel arrays of keys, old tiles
+    // and new tiles. Copies that ended up identical to their original are
+    // dropped and the original is put back; all new tiles become frozen.
+    public static final class Changes {
+        public final int[] keys;
+        public final Tile[] before;
+        public final Tile[] after;
+
+        Changes(int[] keys, Tile[] before, Tile[] after) {
+            this.keys = keys;
+            this.before = before;
+            this.after = after;
+        }
+
+        public int size() { return keys.length; }
+    }
+
+    public Changes takeChanges() {
+        int n = 0;
+        int[] keys = new int[touchedCount];
+        Tile[] before = new Tile[touchedCount];
+        Tile[] after = new Tile[touchedCount];
+        for (int i = 0; i < touchedCount; i++) {
+            int k = touchedKeys[i];
+            int slot = keyRow(k) * cols + keyCol(k);
+            Tile orig = touchedOriginals[i];
+            Tile cur = grid[slot];
+            touched[slot] = false;
+            touchedOriginals[i] = null;
+            if (cur == orig || cur.samePixels(orig)) {
+                if (cur != orig && store != null) store.discard(cur);
+                grid[slot] = orig;
+                continue;
+            }
+            cur.frozen = true;
+            keys[n] = k;
+            before[n] = orig;
+            after[n] = cur;
+            n++;
+        }
+        touchedCount = 0;
+        if (store != null) {
+            store.evict();
+            store.recycle();
+        }
+        return new Changes(Arrays.copyOf(keys, n), Arrays.copyOf(before, n), Arrays.copyOf(after, n));
+    }
+
+    // Immutable view of the whole document at one point in time. Only the grid
+    // is copied: every tile in it is frozen, so it shares pixels with the
+    // document and with history.
+    public static final class Snapshot {
+        final int width, height, cols, rows, backgroundRgb;
+        final Tile[] grid;
+
+        Snapshot(TiledImage doc) {
+            this.width = doc.width;
+            this.height = doc.height;
+            this.cols = doc.cols;
+            this.rows = doc.rows;
+            this.backgroundRgb = doc.backgroundRgb;
+            this.grid = doc.grid.clone();
+        }
+
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+    }
+
+    // Only valid between edits, when every tile is frozen
+    public Snapshot snapshot() {
+        if (touchedCount > 0) throw new IllegalStateException("Document has uncommitted changes");
+        return new Snapshot(this);
+    }
+
+    // ---------------------------------------------------------------
+    // Drawing
+    // ---------------------------------------------------------------
+
+    // Runs a Java2D drawing operation on every tile intersecting 'bounds'.
+    // Returns the part of the document covered, or null if none.
+    public Rectangle draw(Rectangle bounds, Consumer<Graphics2D> op) {
+        Rectangle r = bounds.intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty()) return null;
+        int c0 = r.x / TILE, c1 = (r.x + r.width - 1) / TILE;
+        int r0 = r.y / TILE, r1 = (r.y + r.height - 1) / TILE;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                Graphics2D g = writableTile(col, row).createGraphics(col * TILE, row * TILE);
+                try {
+                    op.accept(g);
+                } finally {
+                    g.dispose();
+                }
+            }
+        }
+        return r;
+    }
+
+    // Sets every tile to a solid colour without allocating pixels
+    public void fill(int rgb) {
+        Tile solid = solidTile(rgb);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                setTile(col, row, solid);
+            }
+        }
+    }
+
+    public int getRGB(int x, int y) {
+        return tileAt(x / TILE, y / TILE).pixels()[(y % TILE) * TILE + x % TILE];
+    }
+
+    public void setRGB(int x, int y, int rgb) {
+        writableTile(x / TILE, y / TILE).pixels()[(y % TILE) * TILE + x % TILE] = rgb;
+    }
+
+    // Copies row y of the document into dst (width pixels)
+    void readRow(int y, int[] dst) {
+        int tr = y / TILE, ty = y % TILE;
+        for (int x = 0; x < width; x += TILE) {
+            System.arraycopy(tileAt(x / TILE, tr).pixels(), ty * TILE, dst, x, Math.min(TILE, width - x));
+        }
+    }
+
+    // Draws the tiles covering 'area' (document coordinates) with their origin at (dx, dy)
+    public void paintTo(Graphics g, Rectangle area, int dx, int dy) {
+        Rectangle r = area.intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty()) return;
+        Shape oldClip = g.getClip();
+        g.clipRect(r.x + dx, r.y + dy, r.width, r.height);
+        int c0 = r.x / TILE, c1 = (r.x + r.width - 1) / TILE;
+        int r0 = r.y / TILE, r1 = (r.y + r.height - 1) / TILE;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                g.drawImage(tileAt(col, row).image(), col * TILE + dx, row * TILE + dy, null);
+            }
+        }
+        g.setClip(oldClip);
+    }
+
+    // Copies a region into a new BufferedImage
+    public BufferedImage toBufferedImage(Rectangle area) {
+        BufferedImage out = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = out.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        paintTo(g, area, -area.x, -area.y);
+        g.dispose();
+        return out;
+    }
+
+    // Number of tiles with their own pixels, and the bytes they hold (on the
+    // heap or in the store)
+    public int getAllocatedTileCount() {
+        int n = 0;
+        for (Tile t : grid) if (!t.solid) n++;
+        return n;
+    }
+
+    public long getAllocatedBytes() {
+        return (long) getAllocatedTileCount() * TILE * TILE * 4;
+    }
+
+    // ---------------------------------------------------------------
+    // RenderedImage
+    // ---------------------------------------------------------------
+
+    private static final ColorModel COLOR_MODEL = ColorModel.getRGBdefault();
+    private static final SampleModel SAMPLE_MODEL = COLOR_MODEL.createCompatibleSampleModel(TILE, TILE);
+
+    @Override public Vector<RenderedImage> getSources() { return null; }
+    @Override public Object getProperty(String name) { return Image.UndefinedProperty; }
+    @Override public String[] getPropertyNames() { return null; }
+    @Override public ColorModel getColorModel() { return COLOR_MODEL; }
+    @Override public SampleModel getSampleModel() { return SAMPLE_MODEL; }
+    @Override public int getMinX() { return 0; }
+    @Override public int getMinY() { return 0; }
+    @Override public int getNumXTiles() { return (width + TILE - 1) / TILE; }
+    @Override public int getNumYTiles() { return (height + TILE - 1) / TILE; }
+    @Override public int getMinTileX() { return 0; }
+    @Override public int getMinTileY() { return 0; }
+    @Override public int getTileWidth() { return TILE; }
+    @Override public int getTileHeight() { return TILE; }
+    @Override public int getTileGridXOffset() { return 0; }
+    @Override public int getTileGridYOffset() { return 0; }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return tileAt(tileX, tileY).image().getRaster().createTranslatedChild(tileX * TILE, tileY * TILE);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster raster = COLOR_MODEL.createCompatibleWritableRaster(rect.width, rect.height)
+                .createWritableTranslatedChild(rect.x, rect.y);
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = COLOR_MODEL.createCompatibleWritableRaster(width, height);
+        }
+        Rectangle r = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty()) return raster;
+        int[] row = new int[TILE];
+        for (int y = r.y; y < r.y + r.height; y++) {
+            int tr = y / TILE, ty = y % TILE;
+            int x = r.x;
+            while (x < r.x + r.width) {
+                int tc = x / TILE, tx = x % TILE;
+                int n = Math.min(TILE - tx, r.x + r.width - x);
+                System.arraycopy(tileAt(tc, tr).pixels(), ty * TILE + tx, row, 0, n);
+                raster.setDataElements(x, y, n, 1, row);
+                x += n;
+            }
+        }
+        return raster;
+    }
+}
@@ -1,5 +1,7 @@
 package com.paintapp;
 
+// Ordinals are stored in command logs; add new tools at the end
 public enum Tool {
-    PENCIL, RECTANGLE, SQUARE, OVAL, CIRCLE, TRIANGLE, ERASER, FILL, TEXT
+    PENCIL, RECTANGLE, SQUARE, OVAL, CIRCLE, TRIANGLE, ERASER, FILL, TEXT,
+    BRUSH, AIRBRUSH, CHALK, SELECT
 }
\ No newline at end of file
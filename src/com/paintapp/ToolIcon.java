@@ -3,8 +3,6 @@ package com.paintapp;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
-import java.io.IOException;
 
 public class ToolIcon extends Canvas {
     private BufferedImage iconImage;
@@ -19,15 +17,10 @@ public class ToolIcon extends Canvas {
         this.canvas = canvas;
         setPreferredSize(ICON_SIZE);
 
-        // --- Load the icon image ---
-        String imageName = "/icons/" + tool.name().toLowerCase() + ".png";
-        try {
-            iconImage = ImageIO.read(getClass().getResourceAsStream(imageName));
-            if (iconImage == null) {
-                System.err.println("Icon not found: " + imageName);
-            }
-        } catch (IOException | NullPointerException e) {
-            System.err.println("Error loading icon: " + imageName);
+        // --- Load the icon image (all tools share one decoded atlas) ---
+        iconImage = IconAtlas.icon(tool.name().toLowerCase());
+        if (iconImage == null) {
+            System.err.println("Icon not found: " + tool.name().toLowerCase());
         }
 
         // --- Mouse listener for click + hover ---
@@ -3,13 +3,18 @@ package com.paintapp;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
 
 public class ToolbarPanel extends Panel implements PaintCanvas.ToolChangeListener {
     private final PaintCanvas canvas;
     private Panel textPanel; 
     private TextField textField;
+    private Choice fontChoice;
     private static final Color TOOLBAR_BG = new Color(229, 228, 226); 
 
     public ToolbarPanel(PaintCanvas canvas) {
@@ -28,6 +33,7 @@ public class ToolbarPanel extends Panel implements PaintCanvas.ToolChangeListene
 
         // Action buttons
         leftControlsPanel.add(createSelectableButton("New", e -> canvas.newFile()));
+        leftControlsPanel.add(createSelectableButton("Open", e -> handleOpen()));
         leftControlsPanel.add(createSelectableButton("Save", e -> handleSave()));
         leftControlsPanel.add(createSelectableButton("Undo", e -> canvas.undo()));
         leftControlsPanel.add(createSelectableButton("Redo", e -> canvas.redo()));
@@ -36,16 +42,24 @@ public class ToolbarPanel extends Panel implements PaintCanvas.ToolChangeListene
         // Stroke size dropdown
         leftControlsPanel.add(createLabeledChoicePanel("Stroke:", Arrays.asList(1, 2, 3, 5, 8, 12, 20 , 26 , 30 , 40), "3", size -> canvas.setStrokeSize(Integer.parseInt(size))));
 
-        // Font family dropdown
-        String[] fontNames = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
-        List<String> fontList = Arrays.asList(Arrays.copyOf(fontNames, Math.min(fontNames.length, 10)));
-        leftControlsPanel.add(createLabeledChoicePanel("Font:", fontList, canvas.getFontName(), canvas::setFontName));
+        // Font family dropdown: just the current font until loadFonts()
+        fontChoice = createChoice(List.of(canvas.getFontName()), canvas.getFontName(), canvas::setFontName);
+        leftControlsPanel.add(createLabeledPanel("Font:", fontChoice));
 
         // Font size dropdown
         List<String> fSizeList = new java.util.ArrayList<>();
         for (int i = 8; i <= 48; i += 2) fSizeList.add(String.valueOf(i));
         leftControlsPanel.add(createLabeledChoicePanel("Size:", fSizeList, "24", size -> canvas.setFontSize(Integer.parseInt(size))));
 
+        // Fill tolerance dropdown and anti-aliased edge toggle
+        leftControlsPanel.add(createLabeledChoicePanel("Tol:", Arrays.asList(0, 8, 16, 32, 64, 128), "0", tol -> canvas.setFillTolerance(Integer.parseInt(tol))));
+        Checkbox fillAA = new Checkbox("AA", false);
+        fillAA.addItemListener(e -> canvas.setFillAntialias(fillAA.getState()));
+        leftControlsPanel.add(fillAA);
+
+        // Filters for the active layer
+        leftControlsPanel.add(createFilterChoice());
+
         // Text input
         textPanel = new Panel(new FlowLayout(FlowLayout.LEFT, 1, 0));
         textPanel.add(new Label("Text:"));
@@ -114,40 +128,129 @@ public class ToolbarPanel extends Panel implements PaintCanvas.ToolChangeListene
     // Labeled Choice Panel (compact)
     // ----------------------
     private Panel createLabeledChoicePanel(String labelText, List<?> items, String defaultItem, java.util.function.Consumer<String> action) {
+        return createLabeledPanel(labelText, createChoice(items, defaultItem, action));
+    }
+
+    private Panel createLabeledPanel(String labelText, Component c) {
         Panel p = new Panel(new FlowLayout(FlowLayout.LEFT, 1, 0)); // horizontal gap reduced
         Label lbl = new Label(labelText);
         lbl.setFont(new Font("Segoe UI", Font.PLAIN, 13));
         p.add(lbl);
+        p.add(c);
+        return p;
+    }
 
+    private Choice createChoice(List<?> items, String defaultItem, java.util.function.Consumer<String> action) {
         Choice choice = new Choice();
         choice.setFont(new Font("Segoe UI", Font.PLAIN, 13));
         for (Object item : items) choice.add(String.valueOf(item));
         try { choice.select(defaultItem); } catch (Exception ignored) {}
         choice.addItemListener(e -> action.accept(choice.getSelectedItem()));
-        p.add(choice);
+        return choice;
+    }
 
+    // ----------------------
+    // Font menu: listing the installed fonts takes a while, so Main calls
+    // this off the event thread once the window is up
+    // ----------------------
+    public void loadFonts() {
+        String[] fontNames = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+        List<String> fontList = Arrays.asList(Arrays.copyOf(fontNames, Math.min(fontNames.length, 10)));
+        EventQueue.invokeLater(() -> {
+            String current = canvas.getFontName();
+            fontChoice.removeAll();
+            for (String name : fontList) fontChoice.add(name);
+            // keep the font in use listed, even if it is not among the first
+            if (!fontList.contains(current)) fontChoice.insert(current, 0);
+            fontChoice.select(current);
+        });
+    }
+
+    // ----------------------
+    // Filter menu (runs the picked filter, then shows the prompt again)
+    // ----------------------
+    private Panel createFilterChoice() {
+        Map<String, ImageFilter> filters = new LinkedHashMap<>();
+        filters.put("Blur", ImageFilter.blur(6));
+        filters.put("Blur more", ImageFilter.blur(60));
+        filters.put("Sharpen", ImageFilter.sharpen(3, 80));
+        filters.put("Grayscale", ImageFilter.grayscale());
+        filters.put("Brighter", ImageFilter.brightnessContrast(24, 0));
+        filters.put("Darker", ImageFilter.brightnessContrast(-24, 0));
+        filters.put("More contrast", ImageFilter.brightnessContrast(0, 25));
+        filters.put("Less contrast", ImageFilter.brightnessContrast(0, -25));
+        filters.put("S-curve", ImageFilter.curves(0, 0, 0, 64, 48, 192, 208, 255, 255));
+
+        Panel p = new Panel(new FlowLayout(FlowLayout.LEFT, 1, 0));
+        Label lbl = new Label("Filter:");
+        lbl.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        p.add(lbl);
+        Choice choice = new Choice();
+        choice.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        choice.add("-");
+        for (String name : filters.keySet()) choice.add(name);
+        choice.addItemListener(e -> {
+            ImageFilter f = filters.get(choice.getSelectedItem());
+            choice.select(0);
+            if (f != null) canvas.applyFilter(f, null);
+        });
+        p.add(choice);
         return p;
     }
 
     // ----------------------
     // Save handler
     // ----------------------
+    // Saves a PNG, or a project when the name ends in .ppaint
     private void handleSave() {
-        Frame mainFrame = null;
-        Component current = getParent();
-        while (current != null) {
-            if (current instanceof Frame) { mainFrame = (Frame) current; break; }
-            current = current.getParent();
-        }
+        Frame mainFrame = findFrame();
         if (mainFrame == null) return;
 
-        FileDialog fd = new FileDialog(mainFrame, "Save image", FileDialog.SAVE);
+        FileDialog fd = new FileDialog(mainFrame, "Save image or project (" + ProjectFile.EXTENSION + ")", FileDialog.SAVE);
         fd.setFile("image.png");
         fd.setVisible(true);
         String dir = fd.getDirectory(), file = fd.getFile();
         if (dir != null && file != null) {
-            try { canvas.saveToFile(new File(dir, file)); } catch (Exception ex) { ex.printStackTrace(); }
+            // encode in the background and show progress in the title bar
+            Frame frame = mainFrame;
+            String title = frame.getTitle();
+            File target = new File(dir, file);
+            DoubleConsumer progress = p -> EventQueue.invokeLater(
+                    () -> frame.setTitle(title + " - saving " + Math.round(p * 100) + "%"));
+            boolean project = file.toLowerCase().endsWith(ProjectFile.EXTENSION);
+            (project ? canvas.saveProjectAsync(target, progress) : canvas.saveToFileAsync(target, progress))
+                .whenComplete((path, ex) -> EventQueue.invokeLater(() -> {
+                    frame.setTitle(title);
+                    if (ex != null) ex.printStackTrace();
+                }));
+        }
+    }
+
+    private void handleOpen() {
+        Frame mainFrame = findFrame();
+        if (mainFrame == null) return;
+
+        FileDialog fd = new FileDialog(mainFrame, "Open project or image", FileDialog.LOAD);
+        fd.setFilenameFilter((d, name) -> name.toLowerCase().endsWith(ProjectFile.EXTENSION) || ImageImport.canOpen(name));
+        fd.setVisible(true);
+        String dir = fd.getDirectory(), file = fd.getFile();
+        if (dir != null && file != null) {
+            try {
+                if (ImageImport.canOpen(file)) canvas.openImage(new File(dir, file));
+                else canvas.openProject(new File(dir, file));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private Frame findFrame() {
+        Component current = getParent();
+        while (current != null) {
+            if (current instanceof Frame) return (Frame) current;
+            current = current.getParent();
         }
+        return null;
     }
 
     // ----------------------